@@ -29,6 +29,7 @@ import org.jacorb.config.ConfigurationException;
 import org.jacorb.orb.etf.ListenEndpoint;
 import org.jacorb.orb.etf.ListenEndpoint.Protocol;
 import org.jacorb.orb.etf.ListenerBase;
+import org.jacorb.orb.giop.EventDrivenTransport;
 import org.jacorb.orb.giop.GIOPConnection;
 import org.jacorb.orb.giop.GIOPConnectionManager;
 import org.jacorb.orb.giop.MessageReceptorPool;
@@ -431,6 +432,13 @@ public class BasicAdapter
         {
             return false;
         }
+        else if ( conn instanceof EventDrivenTransport )
+        {
+            // the transport frames messages on its own, no need
+            // to dedicate a receptor thread to this connection
+            ((EventDrivenTransport) conn).startReceiving( giopConnection );
+            return true;
+        }
         else
         {
             receptor_pool.connectionCreated( giopConnection );
@@ -24,6 +24,9 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -38,7 +41,6 @@ import org.jacorb.orb.giop.GIOPConnection;
 import org.jacorb.orb.giop.Messages;
 import org.jacorb.orb.typecode.DelegatingTypeCodeReader;
 import org.jacorb.orb.typecode.TypeCodeCache;
-import org.jacorb.util.ObjectUtil;
 import org.jacorb.util.Stack;
 import org.jacorb.util.ValueHandler;
 import org.omg.CORBA.BAD_PARAM;
@@ -170,6 +172,11 @@ public class CDRInputStream
      */
     private static final int MAX_BLOCK_SIZE = 0x7fffff00;
 
+    /**
+     * decodes strings if codesets are disabled, each byte is one char
+     */
+    private static final Charset ISO8859_1 = Charset.forName("ISO-8859-1");
+
     /**
      * fixes RMI/IIOP related interoperability issues with the
      * sun the orb that occured
@@ -183,8 +190,22 @@ public class CDRInputStream
 
     private final TypeCodeCache typeCodeCache;
 
+    /** the ORB's cache of decoded strings, null if there is none */
+    private final StringCache stringCache;
+
+    private final ValueMetadataCache valueMetadataCache;
+
     private int typeCodeNestingLevel = -1;
 
+    /**
+     * Whether RMI values may be read by the RMIValueMarshaller of their
+     * class rather than by the ValueHandler.
+     */
+    private boolean rmiValueFastPath = true;
+
+    /** the number of ValueHandler.readValue calls in progress */
+    private int valueHandlerNestingLevel;
+
 
     private CDRInputStream(org.omg.CORBA.ORB orb)
     {
@@ -214,6 +235,8 @@ public class CDRInputStream
         }
 
         typeCodeCache = ((ORBSingleton)this.orb).getTypeCodeCache();
+        stringCache = ((ORBSingleton)this.orb).getStringCache();
+        valueMetadataCache = ((ORBSingleton)this.orb).getValueMetadataCache();
     }
 
 
@@ -267,6 +290,7 @@ public class CDRInputStream
         laxBooleanEncoding = configuration.getAttributeAsBoolean("jacorb.interop.lax_boolean_encoding", false);
         sunInteropFix = configuration.getAttributeAsBoolean("jacorb.interop.sun", false);
         nullStringEncoding = configuration.getAttributeAsBoolean("jacorb.interop.null_string_encoding", false);
+        rmiValueFastPath = configuration.getAttributeAsBoolean("jacorb.rmi_value_fast_path", true);
 
         mutator = (IORMutator) configuration.getAttributeAsObject("jacorb.iormutator");
         isMutatorEnabled = (mutator != null);
@@ -785,6 +809,28 @@ public class CDRInputStream
         return Double.longBitsToDouble (read_longlong());
     }
 
+    /**
+     * Returns a view in the stream's byte order of the next length elements
+     * of elementSize bytes each, for the bulk read of a primitive array, and
+     * moves the position past them. The JDK copies whole arrays out of such
+     * views, recent JDKs with intrinsics.
+     */
+    private ByteBuffer arrayView(final int length, final int elementSize)
+    {
+        if (length < 0 || length > (buffer.length - pos) / elementSize)
+        {
+            throw new MARSHAL("invalid array length: " + length);
+        }
+
+        final int size = length * elementSize;
+        final ByteBuffer view = ByteBuffer.wrap (buffer, pos, size);
+        view.order (littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        pos += size;
+        index += size;
+        return view;
+    }
+
     public final void read_double_array
        (final double[] value, final int offset, final int length)
     {
@@ -802,10 +848,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        for (int j = offset; j < offset + length; j++)
-        {
-            value[j] = Double.longBitsToDouble (_read_longlong());
-        }
+        arrayView (length, 8).asDoubleBuffer().get (value, offset, length);
     }
 
     /**
@@ -924,10 +967,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        for (int j = offset; j < offset + length; j++)
-        {
-            value[j] = Float.intBitsToFloat (_read_long());
-        }
+        arrayView (length, 4).asFloatBuffer().get (value, offset, length);
     }
 
     public final int read_long()
@@ -967,13 +1007,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        for (int j = offset; j < offset+length; j++)
-        {
-            value[j] = _read4int (littleEndian,buffer,pos);
-            pos += 4;
-        }
-
-        index += 4 * length;
+        arrayView (length, 4).asIntBuffer().get (value, offset, length);
     }
 
 
@@ -1008,24 +1042,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        if (littleEndian)
-        {
-            for(int j=offset; j < offset+length; j++)
-            {
-                value[j] = ( _read_long() & 0xFFFFFFFFL) +
-                    ((long) _read_long() << 32);
-            }
-        }
-        else
-        {
-            for(int j=offset; j < offset+length; j++)
-            {
-                value[j] = ((long) _read_long() << 32) +
-                    (_read_long() & 0xFFFFFFFFL);
-            }
-        }
-
-        // Do not need to modify pos and index as use read_long above
+        arrayView (length, 8).asLongBuffer().get (value, offset, length);
     }
 
     public final org.omg.CORBA.Object read_Object()
@@ -1164,13 +1181,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        for (int j = offset; j < offset + length; j++)
-        {
-            value[j] = _read2int (littleEndian, buffer, pos);
-            pos += 2;
-        }
-
-        index += length * 2;
+        arrayView (length, 2).asShortBuffer().get (value, offset, length);
     }
 
 
@@ -1244,37 +1255,41 @@ public class CDRInputStream
             throw new MARSHAL(message);
         }
 
-        if (codesetEnabled)
+        if (stringCache != null && size <= stringCache.getMaxLength())
         {
+            final CodeSet cs = codesetEnabled ? codeSet : null;
+            final int hash = StringCache.hash( buffer, start, size );
 
-            try
+            result = stringCache.get( buffer, start, size, hash, cs );
+            if (result == null)
             {
-                result = new String (buffer, start, size, codeSet.getName() );
-            }
-            catch (java.io.UnsupportedEncodingException ex)
-            {
-                if (logger.isErrorEnabled())
-                {
-                    logger.error("Charset " + codeSet.getName() + " is unsupported");
-                    result = "";
-                }
+                result = decodeString( start, size );
+                stringCache.put( buffer, start, size, hash, cs, result );
             }
         }
         else
         {
-            char[] buf = new char[size];
-
-            for (int i=0; i<size; i++)
-            {
-                buf[i] = (char)(0xff & buffer[start + i]);
-            }
-            result = new String(buf);
+            result = decodeString( start, size );
         }
 
         return result;
     }
 
 
+    private String decodeString(final int start, final int size)
+    {
+        if (codesetEnabled)
+        {
+            return codeSet.read_string( buffer, start, size );
+        }
+        else
+        {
+            // one byte per string char, which is its low byte
+            return new String( buffer, start, size, ISO8859_1 );
+        }
+    }
+
+
     public final org.omg.CORBA.TypeCode read_TypeCode()
     {
         if (recursiveTCMap == null)
@@ -1363,13 +1378,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        for (int j = offset; j < offset+length; j++)
-        {
-            value[j] = _read4int (littleEndian,buffer,pos);
-            pos += 4;
-        }
-
-        index += 4 * length;
+        arrayView (length, 4).asIntBuffer().get (value, offset, length);
     }
 
     public final long read_ulonglong()
@@ -1408,24 +1417,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        if (littleEndian)
-        {
-            for (int j = offset; j < offset+length; j++)
-            {
-                value[j] = ( _read_long() & 0xFFFFFFFFL) +
-                    ((long) _read_long() << 32);
-            }
-        }
-        else
-        {
-            for (int j = offset; j < offset+length; j++)
-            {
-                value[j] = ((long) _read_long() << 32) +
-                    (_read_long() & 0xFFFFFFFFL);
-            }
-        }
-
-        // Do not need to modify pos and index as use read_long above
+        arrayView (length, 8).asLongBuffer().get (value, offset, length);
     }
 
     public final short read_ushort()
@@ -1463,13 +1455,7 @@ public class CDRInputStream
             pos += remainder;
         }
 
-        for (int j = offset; j < offset + length; j++)
-        {
-            value[j] = _read2int (littleEndian, buffer, pos);
-            pos += 2;
-        }
-
-        index += length * 2;
+        arrayView (length, 2).asShortBuffer().get (value, offset, length);
     }
 
     public final char read_wchar()
@@ -1590,8 +1576,21 @@ public class CDRInputStream
         index += 4;
         pos += 4;
         if (size == 0) return "";
+        if (size < 0)
+        {
+            throw new MARSHAL("invalid wstring size: " + size);
+        }
 
-        return codeSetW.read_wstring( this, size, this.giop_minor, this.littleEndian );
+        final int length = codeSetW.get_wstring_length( size, giop_minor );
+        if (length < 0 || length > buffer.length - pos)
+        {
+            throw new MARSHAL("invalid wstring size: " + size);
+        }
+
+        final String result = codeSetW.read_wstring( buffer, pos, size, this.giop_minor, this.littleEndian );
+        index += length;
+        pos += length;
+        return result;
     }
 
 
@@ -2230,7 +2229,7 @@ public class CDRInputStream
 
         if (tag == 0x7fffff00)
         {
-            return read_untyped_value (new String[]{ValueHandler.getRMIRepositoryID(clz)},
+            return read_untyped_value (new String[]{valueMetadataCache.getRMIRepositoryID(clz)},
                                                     start_offset, codebase);
         }
         else if (tag == 0x7fffff02)
@@ -2396,38 +2395,7 @@ public class CDRInputStream
                         java.lang.reflect.Method readMethod = null;
                         if (clazz != org.omg.CORBA.Any.class)
                         {
-                            String helperClassName = clazz.getName() + "Helper";
-
-                            try
-                            {
-                                final ClassLoader classLoader = clazz.getClassLoader();
-                                final Class helperClass;
-                                if (classLoader == null)
-                                {
-                                    helperClass = ObjectUtil.classForName(helperClassName);
-                                }
-                                else
-                                {
-                                    helperClass =
-                                        classLoader.loadClass(helperClassName);
-                                }
-
-                                Class[] paramTypes = {
-                                    org.omg.CORBA.portable.InputStream.class
-                                };
-                                readMethod =
-                                    helperClass.getMethod("read", paramTypes);
-                            }
-                            catch (ClassNotFoundException e)
-                            {
-                                throw new MARSHAL("Error loading class " + helperClassName
-                                                  + ": " + e);
-                            }
-                            catch (NoSuchMethodException e)
-                            {
-                                throw new MARSHAL("No read method in helper class "
-                                                  + helperClassName + ": " + e);
-                            }
+                            readMethod = valueMetadataCache.getHelperReadMethod(clazz);
                         }
 
                         if (readMethod == null)
@@ -2456,9 +2424,7 @@ public class CDRInputStream
                     }
                     else
                     {
-                        result = ValueHandler.readValue(this, index, clazz,
-                                                        repository_ids[i],
-                                                        null);
+                        result = read_rmi_value(index, clazz, repository_ids[i]);
                     }
                 }
                 catch (ClassNotFoundException e)
@@ -2482,6 +2448,39 @@ public class CDRInputStream
         return result;
     }
 
+    /**
+     * Reads the state of an RMI value, using the ORB's marshaller for
+     * its class if there is one. Values nested in a value that is read by
+     * the ValueHandler are read by it as well, as only the ValueHandler
+     * can resolve indirections to the values it is reading.
+     */
+    private java.io.Serializable read_rmi_value(final int index,
+                                                final Class clazz,
+                                                final String repository_id)
+    {
+        if (rmiValueFastPath && valueHandlerNestingLevel == 0)
+        {
+            final RMIValueMarshaller marshaller =
+                valueMetadataCache.getEntry(clazz).getRMIValueMarshaller();
+
+            if (marshaller != null && marshaller.canRead(repository_id))
+            {
+                currentValueIndex = index;
+                return marshaller.read(this);
+            }
+        }
+
+        valueHandlerNestingLevel++;
+        try
+        {
+            return ValueHandler.readValue(this, index, clazz, repository_id, null);
+        }
+        finally
+        {
+            valueHandlerNestingLevel--;
+        }
+    }
+
     /** Load the value's class, using the context class loader
      *  of the current thread if possible.  Here's Francisco
      *  Reverbel's <reverbel@ime.usp.br> explanation of why
@@ -25,10 +25,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -38,7 +40,6 @@ import org.jacorb.orb.giop.CodeSet;
 import org.jacorb.orb.giop.GIOPConnection;
 import org.jacorb.orb.typecode.DelegatingTypeCodeWriter;
 import org.jacorb.orb.typecode.TypeCodeCompactor;
-import org.jacorb.util.ObjectUtil;
 import org.jacorb.util.ValueHandler;
 import org.omg.CORBA.BAD_PARAM;
 import org.omg.CORBA.DATA_CONVERSION;
@@ -150,12 +151,24 @@ public class CDROutputStream
     /** True if write_value_internal called writeReplace */
     private boolean writeReplaceCalled = false;
 
-    /** deferredArrayQueue is initialized on demand in write_octet_array */
-    /* deferredArrayQueue is initialized on demand in write_octet_array */
+    /** deferredArrayQueue is initialized on demand in deferWrite */
     private List<DeferredWriteFrame> deferredArrayQueue;
 
     private int deferredArrayQueueSize;
 
+    /**
+     * Once the buffer holds more than <code>fragmentSize</code> bytes
+     * they are passed on by {@link #flushFragment(int)}, 0 if the
+     * stream is marshalled as a whole.
+     */
+    private int fragmentSize;
+
+    /**
+     * Greater than 0 while positions within the buffer are held that
+     * do not survive a fragment being flushed.
+     */
+    private int fragmentHold;
+
     protected final org.jacorb.orb.ORBSingleton orb;
 
     protected int giop_minor = 2;
@@ -179,6 +192,7 @@ public class CDROutputStream
     /** configurable properties */
     private boolean useBOM = false;
     private boolean chunkCustomRmiValuetypes = false;
+    private boolean rmiValueFastPath = true;
     private boolean useIndirection = true;
     private boolean nullStringEncoding;
     // by default stream version is 1 for GIOP v1.2 messages
@@ -186,6 +200,8 @@ public class CDROutputStream
 
     private final TypeCodeCompactor typeCodeCompactor;
 
+    private final ValueMetadataCache valueMetadataCache;
+
     private final static DelegatingTypeCodeWriter typeCodeWriter = new DelegatingTypeCodeWriter();
 
     private static class DeferredWriteFrame
@@ -227,6 +243,7 @@ public class CDROutputStream
         this.orb = (ORBSingleton) orb;
         bufMgr = this.orb.getBufferManager();
         typeCodeCompactor = this.orb.getTypeCodeCompactor();
+        valueMetadataCache = this.orb.getValueMetadataCache();
 
         try
         {
@@ -292,6 +309,8 @@ public class CDROutputStream
 
         chunkCustomRmiValuetypes = configuration.getAttributeAsBoolean("jacorb.interop.chunk_custom_rmi_valuetypes", false);
 
+        rmiValueFastPath = configuration.getAttributeAsBoolean("jacorb.rmi_value_fast_path", true);
+
         useIndirection = !( configuration.getAttributeAsBoolean("jacorb.interop.indirection_encoding_disable", false));
 
         nullStringEncoding =
@@ -525,6 +544,11 @@ public class CDROutputStream
 
     private final void check(final int i)
     {
+        if (fragmentSize > 0 && pos + i > fragmentSize && isFragmentable())
+        {
+            fragment();
+        }
+
         final int requiredSize = pos + i + 2;
         if (buffer == null || requiredSize > buffer.length)
         {
@@ -542,6 +566,95 @@ public class CDROutputStream
         }
     }
 
+    /**
+     * Enables streaming of this stream: whenever the buffer would grow
+     * beyond <code>size</code> bytes the data written so far is handed
+     * to {@link #flushFragment(int)} and the buffer is reused for the
+     * remainder. Large arrays are copied in pieces and no longer
+     * deferred.
+     */
+    protected final void setFragmentSize(final int size)
+    {
+        fragmentSize = size;
+        deferredArrayQueueSize = 0;
+    }
+
+    /**
+     * Passes the first <code>end</code> bytes of the buffer on. Called
+     * at an 8 byte aligned position outside of encapsulations, chunks
+     * and strings.
+     *
+     * @return the number of bytes the subclass has written to the
+     * start of the buffer to precede the remaining data, or -1 if
+     * nothing has been passed on.
+     */
+    protected int flushFragment(final int end)
+    {
+        return -1;
+    }
+
+    private boolean isFragmentable()
+    {
+        return encaps_start == -1
+            && chunk_size_tag_pos == -1
+            && fragmentHold == 0
+            && deferred_writes == 0;
+    }
+
+    /**
+     * Flushes the data up to the last 8 byte boundary and moves the
+     * rest behind the header provided by the subclass. Alignment is
+     * preserved as both the flushed data and the header are multiples
+     * of 8 bytes long.
+     */
+    private void fragment()
+    {
+        final int end = pos & ~7;
+        final int header = flushFragment(end);
+
+        if (header < 0)
+        {
+            return;
+        }
+
+        System.arraycopy(buffer, end, buffer, header, pos - end);
+
+        final int shift = end - header;
+        pos -= shift;
+
+        // indirections are relative, so recorded positions move along
+        rebase(valueMap, shift);
+        rebase(repIdMap, shift);
+        rebase(codebaseMap, shift);
+    }
+
+    private static void rebase(final Map map, final int shift)
+    {
+        if (map == null)
+        {
+            return;
+        }
+
+        for (Iterator i = map.entrySet().iterator(); i.hasNext(); )
+        {
+            final Map.Entry entry = (Map.Entry) i.next();
+            entry.setValue(Integer.valueOf(((Integer) entry.getValue()).intValue() - shift));
+        }
+    }
+
+    /**
+     * Returns how many elements of an array an array writer may copy
+     * in one go, which is all of them unless the stream is fragmented.
+     */
+    private int fragmentPiece(final int length, final int elementSize)
+    {
+        if (fragmentSize == 0)
+        {
+            return length;
+        }
+        return Math.max(1, (fragmentSize >> 1) / elementSize);
+    }
+
     private final static void _write4int
        (final byte[] buf, final int _pos, final int value)
     {
@@ -784,6 +897,16 @@ public class CDROutputStream
     public final void write_boolean_array
        (final boolean[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 1 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_boolean_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         if (value != null )
         {
             //no alignment necessary
@@ -832,6 +955,16 @@ public class CDROutputStream
     public final void write_char_array
        (final char[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 1 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_char_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         if( value == null )
         {
             throw new MARSHAL("Cannot marshall null array.");
@@ -914,10 +1047,9 @@ public class CDROutputStream
 
             if (codesetEnabled)
             {
-                for (int i = 0; i < valueLength; i++)
-                {
-                    codeSet.write_char( this, value.charAt(i), false, false, giop_minor );
-                }
+                final int start = pos;
+                pos = codeSet.write_string( buffer, pos, value );
+                index += pos - start;
             }
             else
             {
@@ -955,6 +1087,16 @@ public class CDROutputStream
     public final void write_wchar_array
        (final char[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 3 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_wchar_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         if( value == null )
         {
             throw new MARSHAL("Null References");
@@ -979,6 +1121,19 @@ public class CDROutputStream
         //terminating NUL
         check( 4 + s.length() * 3 + 3, 4);
 
+        ++fragmentHold;
+        try
+        {
+            write_wstring_internal( s );
+        }
+        finally
+        {
+            --fragmentHold;
+        }
+    }
+
+    private void write_wstring_internal(final String s)
+    {
         int startPos = pos;         // store position for length indicator
         pos += 4;
         index += 4;                 // reserve for length indicator
@@ -994,10 +1149,9 @@ public class CDROutputStream
         }
 
         // write characters in current wide encoding, add null terminator
-        for( int i = 0; i < s.length(); i++ )
-        {
-            codeSetW.write_char( this, s.charAt(i), false, false, this.giop_minor );
-        }
+        final int start = pos;
+        pos = codeSetW.write_wstring( buffer, pos, s, this.giop_minor );
+        index += pos - start;
 
         int str_size;
         if (this.giop_minor >= 2)
@@ -1025,6 +1179,16 @@ public class CDROutputStream
     public final void write_double_array
        (final double[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 8 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_double_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         //if nothing has to be written, return, and especially DON'T
         //ALIGN
         if( length == 0 )
@@ -1032,29 +1196,41 @@ public class CDROutputStream
             return;
         }
 
+        if( value != null && isDeferrable( length*8 ) )
+        {
+            /* align to 8 byte boundary */
+            check(0, 8);
+
+            final ByteBuffer encoded = ByteBuffer.allocate( length*8 );
+            encoded.asDoubleBuffer().put( value, offset, length );
+            deferWrite( encoded.array(), 0, length*8 );
+            return;
+        }
+
         /* align to 8 byte boundary */
 
         check(7 + length*8, 8);
 
         if( value != null )
         {
-            for( int i = offset; i < offset+length; i++ )
-            {
-                long d = Double.doubleToLongBits(value[i]);
-                buffer[pos]   = (byte)((d >>> 56) & 0xFF);
-                buffer[pos+1] = (byte)((d >>> 48) & 0xFF);
-                buffer[pos+2] = (byte)((d >>> 40) & 0xFF);
-                buffer[pos+3] = (byte)((d >>> 32) & 0xFF);
-                buffer[pos+4] = (byte)((d >>> 24) & 0xFF);
-                buffer[pos+5] = (byte)((d >>> 16) & 0xFF);
-                buffer[pos+6] = (byte)((d >>>  8) & 0xFF);
-                buffer[pos+7] = (byte) (d & 0xFF);
-                pos += 8;
-            }
-            index += 8*length;
+            arrayView( length*8 ).asDoubleBuffer().put( value, offset, length );
         }
     }
 
+    /**
+     * Returns a big endian view of the next size bytes of the buffer,
+     * which must have been reserved, for the bulk write of a primitive
+     * array and moves the position past them. The JDK copies whole
+     * arrays into such views, recent JDKs with intrinsics.
+     */
+    private ByteBuffer arrayView(final int size)
+    {
+        final ByteBuffer view = ByteBuffer.wrap( buffer, pos, size );
+        pos += size;
+        index += size;
+        return view;
+    }
+
     public void write_fixed(BigDecimal value, short digits, short scale)
     {
         String v = value.unscaledValue().toString();
@@ -1122,6 +1298,16 @@ public class CDROutputStream
     public final void write_float_array
        (final float[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 4 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_float_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         //if nothing has to be written, return, and especially DON'T
         //ALIGN
         if( length == 0 )
@@ -1135,12 +1321,7 @@ public class CDROutputStream
 
         if( value != null )
         {
-            for( int i = offset; i < offset+length; i++ )
-            {
-                _write4int(buffer,pos, Float.floatToIntBits( value[i] ));
-                pos += 4;
-            }
-            index += 4*length;
+            arrayView( length*4 ).asFloatBuffer().put( value, offset, length );
         }
     }
 
@@ -1156,6 +1337,16 @@ public class CDROutputStream
     public final void write_long_array
        (final int[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 4 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_long_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         //if nothing has to be written, return, and especially DON'T
         //ALIGN
         if( length == 0 )
@@ -1163,6 +1354,17 @@ public class CDROutputStream
             return;
         }
 
+        if( value != null && isDeferrable( length*4 ) )
+        {
+            /* align to 4 byte boundary */
+            check(0, 4);
+
+            final ByteBuffer encoded = ByteBuffer.allocate( length*4 );
+            encoded.asIntBuffer().put( value, offset, length );
+            deferWrite( encoded.array(), 0, length*4 );
+            return;
+        }
+
         /* align to 4 byte boundary */
 
         check(3 + length*4,4);
@@ -1176,12 +1378,7 @@ public class CDROutputStream
 
         if( value != null )
         {
-            for( int i = offset; i < offset+length; i++ )
-            {
-                _write4int(buffer,pos,value[i]);
-                pos += 4;
-            }
-            index += 4*length;
+            arrayView( length*4 ).asIntBuffer().put( value, offset, length );
         }
     }
 
@@ -1205,6 +1402,16 @@ public class CDROutputStream
     public final void write_longlong_array
        (final long[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 8 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_longlong_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         //if nothing has to be written, return, and especially DON'T
         //ALIGN
         if( length == 0 )
@@ -1216,19 +1423,7 @@ public class CDROutputStream
 
         if( value != null )
         {
-            for( int i = offset; i < offset+length; i++ )
-            {
-                buffer[pos]   = (byte)((value[i] >>> 56) & 0xFF);
-                buffer[pos+1] = (byte)((value[i] >>> 48) & 0xFF);
-                buffer[pos+2] = (byte)((value[i] >>> 40) & 0xFF);
-                buffer[pos+3] = (byte)((value[i] >>> 32) & 0xFF);
-                buffer[pos+4] = (byte)((value[i] >>> 24) & 0xFF);
-                buffer[pos+5] = (byte)((value[i] >>> 16) & 0xFF);
-                buffer[pos+6] = (byte)((value[i] >>>  8) & 0xFF);
-                buffer[pos+7] = (byte) (value[i] & 0xFF);
-                pos += 8;
-            }
-            index += 8*length;
+            arrayView( length*8 ).asLongBuffer().put( value, offset, length );
         }
     }
 
@@ -1283,35 +1478,21 @@ public class CDROutputStream
                                          final int offset,
                                          final int length)
     {
-        if( value != null )
+        final int piece = fragmentPiece( length, 1 );
+        if( piece < length )
         {
-            if( ( deferredArrayQueueSize > 0 && length > deferredArrayQueueSize ) || deferred_writes > 0 )
+            for( int i = 0; i < length; i += piece )
             {
-                if (deferredArrayQueue == null)
-                {
-                    deferredArrayQueue = new ArrayList<DeferredWriteFrame>();
-                }
-                if (deferredArrayQueue.size() > 0)
-                {
-                    // in case of rewrite, we remove deferred write frames
-                    boolean remove = false;
-                    for ( int list_idx = 0 ; list_idx < deferredArrayQueue.size() ; list_idx++ )
-                    {
-                       DeferredWriteFrame next_frame = deferredArrayQueue.get(list_idx);
-                       if ( remove || index < next_frame.write_pos + next_frame.length )
-                       {
-                           remove = true;
-                           deferred_writes -= next_frame.length;
-                           index -= next_frame.length;
-                           deferredArrayQueue.remove(list_idx);
-                       }
-                    }
-                }
-
-                deferredArrayQueue.add( new DeferredWriteFrame( index, offset, length, value ));
-                index += length;
-                deferred_writes += length;
+                write_octet_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
 
+        if( value != null )
+        {
+            if( isDeferrable( length ) || ( deferred_writes > 0 && index == size() ) )
+            {
+                deferWrite( value, offset, length );
             }
             else
             {
@@ -1323,6 +1504,49 @@ public class CDROutputStream
         }
     }
 
+    /**
+     * Large arrays are not copied into the buffer but kept as
+     * deferred write frames that are passed to the connection as
+     * separate segments. This is only possible outside of
+     * encapsulations, where the alignment index is the stream
+     * position.
+     */
+    private boolean isDeferrable( final int length )
+    {
+        return deferredArrayQueueSize > 0 && length > deferredArrayQueueSize && index == size();
+    }
+
+    /**
+     * Appends a deferred write frame at the current position.
+     */
+    private void deferWrite( final byte[] value, final int offset, final int length )
+    {
+        if (deferredArrayQueue == null)
+        {
+            deferredArrayQueue = new ArrayList<DeferredWriteFrame>();
+        }
+        if (deferredArrayQueue.size() > 0)
+        {
+            // in case of rewrite, we remove deferred write frames
+            boolean remove = false;
+            for ( int list_idx = 0 ; list_idx < deferredArrayQueue.size() ; list_idx++ )
+            {
+               DeferredWriteFrame next_frame = deferredArrayQueue.get(list_idx);
+               if ( remove || index < next_frame.write_pos + next_frame.length )
+               {
+                   remove = true;
+                   deferred_writes -= next_frame.length;
+                   index -= next_frame.length;
+                   deferredArrayQueue.remove(list_idx);
+               }
+            }
+        }
+
+        deferredArrayQueue.add( new DeferredWriteFrame( index, offset, length, value ));
+        index += length;
+        deferred_writes += length;
+    }
+
     public final void write_Principal(final org.omg.CORBA.Principal value)
     {
         throw new NO_IMPLEMENT ("Principal deprecated");
@@ -1340,6 +1564,16 @@ public class CDROutputStream
     public final void write_short_array
        (final short[] value, final int offset, final int length)
     {
+        final int piece = fragmentPiece( length, 2 );
+        if( piece < length )
+        {
+            for( int i = 0; i < length; i += piece )
+            {
+                write_short_array( value, offset + i, Math.min( piece, length - i ));
+            }
+            return;
+        }
+
         //if nothing has to be written, return, and especially DON'T
         //ALIGN
         if( length == 0 )
@@ -1360,12 +1594,7 @@ public class CDROutputStream
 
         if( value != null )
         {
-            for( int i = offset; i < offset+length; i++ )
-            {
-                buffer[pos++] = (byte)((value[i] >>  8) & 0xFF );
-                buffer[pos++] = (byte)( value[i]        & 0xFF );
-            }
-            index += 2*length;
+            arrayView( length*2 ).asShortBuffer().put( value, offset, length );
         }
     }
 
@@ -1388,12 +1617,14 @@ public class CDROutputStream
             recursiveTCMap = new HashMap();
         }
 
+        ++fragmentHold;
         try
         {
             write_TypeCode(typeCode, recursiveTCMap, repeatedTCMap);
         }
         finally
         {
+            --fragmentHold;
             repeatedTCMap.clear();
             recursiveTCMap.clear();
         }
@@ -1899,8 +2130,9 @@ public class CDROutputStream
     {
         if (!write_special_value (value))
         {
-            write_value_internal (value,
-                                  ValueHandler.getRMIRepositoryID (value.getClass()));
+            final ValueMetadataCache.Entry metadata =
+                valueMetadataCache.getEntry (value.getClass());
+            write_value_internal (value, metadata.getRMIRepositoryID (), metadata);
         }
     }
 
@@ -1962,15 +2194,16 @@ public class CDROutputStream
         if (!write_special_value (value))
         {
             final Class _clazz = value.getClass();
-            final String repId = ValueHandler.getRMIRepositoryID(_clazz);
+            final ValueMetadataCache.Entry metadata = valueMetadataCache.getEntry(_clazz);
+            final String repId = metadata.getRMIRepositoryID();
             if (_clazz == clazz && !repId.startsWith("RMI:"))
             {
                 // the repository id is required for "RMI:" valuetypes
-                write_value_internal (value, null);
+                write_value_internal (value, null, metadata);
             }
             else if (clazz.isInstance (value))
             {
-                write_value_internal (value, repId);
+                write_value_internal (value, repId, metadata);
             }
             else
             {
@@ -1984,7 +2217,7 @@ public class CDROutputStream
     {
         if (!write_special_value (value))
         {
-            write_value_internal (value, repository_id);
+            write_value_internal (value, repository_id, null);
         }
     }
 
@@ -2002,12 +2235,10 @@ public class CDROutputStream
             return true;
         }
 
-        Integer index = getValueMap().get (value);
-        if (index != null)
+        if (getValueMap().containsKey (value))
         {
             // value has already been written -- make an indirection
-            write_long (0xffffffff);
-            write_long (index.intValue() - size());
+            write_indirection (getValueMap(), value);
             return true;
         }
         return false;
@@ -2038,11 +2269,22 @@ public class CDROutputStream
         else
         {
             // a previously written repository id -- make an indirection
-            write_long (0xffffffff);
-            write_long (_index.intValue() - size());
+            write_indirection (getRepIdMap(), repository_id);
         }
     }
 
+    /**
+     * Writes an indirection to the position recorded for
+     * <code>key</code>. Writing the tag may start a new fragment, which
+     * moves the recorded positions, so the position is looked up only
+     * afterwards.
+     */
+    private void write_indirection(final Map<?, Integer> map, final Object key)
+    {
+        write_long (0xffffffff);
+        write_long (map.get (key).intValue() - size());
+    }
+
     /**
      * Writes `codebase' to this stream, perhaps via indirection.
      */
@@ -2076,8 +2318,7 @@ public class CDROutputStream
         else
         {
             // a previously written codebase -- make an indirection
-            write_long (0xffffffff);
-            write_long (_index.intValue() - size());
+            write_indirection (getCodebaseMap(), codebase);
         }
     }
 
@@ -2161,12 +2402,14 @@ public class CDROutputStream
      * stream.  If `repository_id' is non-null, then it is used as
      * the type information for `value' (possibly via indirection).
      * If `repository_id' is null, `value' is written without
-     * type information.
+     * type information. `metadata' is the cache entry of the value's
+     * class if the caller has already fetched it, or null.
      * Note: This method does not check for the special cases covered
      * by write_special_value().
      */
     private void write_value_internal(final java.io.Serializable value,
-                                       final String repository_id)
+                                       final String repository_id,
+                                       final ValueMetadataCache.Entry metadata)
     {
         write_previous_chunk_size();
         check(7,4);
@@ -2185,12 +2428,12 @@ public class CDROutputStream
         else if (value.getClass() == Class.class)
         {
             String[] repository_ids = new String[] {
-                    ValueHandler.getRMIRepositoryID(javax.rmi.CORBA.ClassDesc.class)
+                    valueMetadataCache.getRMIRepositoryID(javax.rmi.CORBA.ClassDesc.class)
             };
             write_value_header(repository_ids);
             start_chunk();
-            write_value(ValueHandler.getCodebase((Class)value));
-            write_value(ValueHandler.getRMIRepositoryID((Class)value));
+            write_value(valueMetadataCache.getCodebase((Class)value));
+            write_value(valueMetadataCache.getRMIRepositoryID((Class)value));
             end_chunk();
         }
         else if (value instanceof org.omg.CORBA.portable.StreamableValue)
@@ -2216,35 +2459,15 @@ public class CDROutputStream
             String[] repository_ids =
                 (repository_id == null) ? null : new String[]{ repository_id };
             Class clazz = value.getClass();
-            String codebase = ValueHandler.getCodebase(clazz);
+            ValueMetadataCache.Entry entry =
+                (metadata == null) ? valueMetadataCache.getEntry(clazz) : metadata;
+            String codebase = entry.getCodebase();
             if (value instanceof org.omg.CORBA.portable.IDLEntity)
             {
                 java.lang.reflect.Method writeMethod = null;
                 if (clazz != org.omg.CORBA.Any.class)
                 {
-                    String helperClassName = clazz.getName() + "Helper";
-
-                    try
-                    {
-                        Class helperClass =
-                            (clazz.getClassLoader() != null)
-                                ? clazz.getClassLoader().loadClass(helperClassName)
-                                : ObjectUtil.classForName(helperClassName);
-
-                        Class[] paramTypes =
-                            { org.omg.CORBA.portable.OutputStream.class, clazz };
-                        writeMethod = helperClass.getMethod("write", paramTypes);
-                    }
-                    catch (ClassNotFoundException e)
-                    {
-                        throw new MARSHAL("Error loading class " + helperClassName
-                                          + ": " + e);
-                    }
-                    catch (NoSuchMethodException e)
-                    {
-                        throw new MARSHAL("No write method in helper class "
-                                          + helperClassName + ": " + e);
-                    }
+                    writeMethod = entry.getHelperWriteMethod();
                 }
                 write_value_header( repository_ids, codebase );
                 start_chunk();
@@ -2277,7 +2500,7 @@ public class CDROutputStream
                 {
                     writeValueNestingLevel++;
                     if (chunkCustomRmiValuetypes
-                        && ValueHandler.isCustomMarshaled(clazz))
+                        && entry.isCustomMarshaled())
                     {
                         chunkingFlag = 0x00000008;
                     }
@@ -2293,12 +2516,12 @@ public class CDROutputStream
                     if (newValue != value)
                     {
                         // recompute codebase and/or repositoryID as might have changed
-                        String new_rep_id =
-                            ValueHandler.getRMIRepositoryID(newValue.getClass());
+                        clazz = newValue.getClass();
+                        entry = valueMetadataCache.getEntry(clazz);
+                        String new_rep_id = entry.getRMIRepositoryID();
                         repository_ids =
                             (new_rep_id == null) ? null : new String []{new_rep_id};
-                        clazz = newValue.getClass();
-                        codebase = ValueHandler.getCodebase(clazz);
+                        codebase = entry.getCodebase();
                     }
 
                     write_value_header( repository_ids, codebase );
@@ -2307,12 +2530,10 @@ public class CDROutputStream
                     if (newValue != value)
                     {
                         // look at the new value
-                        Integer index = getValueMap().get(newValue);
-                        if (index != null)
+                        if (getValueMap().containsKey(newValue))
                         {
                             // previously marshaled value -- make an indirection
-                            write_long (0xffffffff);
-                            write_long (index.intValue() - size());
+                            write_indirection (getValueMap(), newValue);
                         }
                         else if (newValue instanceof org.omg.CORBA.Object)
                         {
@@ -2320,14 +2541,14 @@ public class CDROutputStream
                         }
                         else
                         {
-                            ValueHandler.writeValue(this, newValue);
+                            write_rmi_value(newValue, entry);
                         }
                     }
                     else
                     {
                         // Skip writeReplace call
                         // (writeReplace was already called for this value)
-                        ValueHandler.writeValue(this, value);
+                        write_rmi_value(value, entry);
                     }
                     end_chunk();
                 }
@@ -2342,6 +2563,27 @@ public class CDROutputStream
         }
     }
 
+    /**
+     * Writes the state of an RMI value, using the ORB's marshaller for
+     * its class if there is one. `metadata' is the cache entry of the
+     * value's class.
+     */
+    private void write_rmi_value(final java.io.Serializable value,
+                                 final ValueMetadataCache.Entry metadata)
+    {
+        final RMIValueMarshaller marshaller =
+            rmiValueFastPath ? metadata.getRMIValueMarshaller() : null;
+
+        if (marshaller == null)
+        {
+            ValueHandler.writeValue(this, value);
+        }
+        else
+        {
+            marshaller.write(this, value);
+        }
+    }
+
     /**
      * start a new chunk, end any previously started chunk (no nesting!)
      */
@@ -50,10 +50,11 @@ import org.jacorb.orb.portableInterceptor.NullClientInterceptorHandler;
 import org.jacorb.orb.portableInterceptor.ServerInterceptorIterator;
 import org.jacorb.orb.portableInterceptor.ServerRequestInfoImpl;
 import org.jacorb.orb.util.CorbaLoc;
+import org.jacorb.poa.util.ByteArrayKey;
 import org.jacorb.poa.util.POAUtil;
 import org.jacorb.util.ObjectUtil;
-import org.jacorb.util.SelectorManager;
 import org.jacorb.util.Time;
+import org.jacorb.util.TimingWheel;
 import org.omg.CORBA.BAD_INV_ORDER;
 import org.omg.CORBA.BAD_PARAM;
 import org.omg.CORBA.COMM_FAILURE;
@@ -155,6 +156,13 @@ public final class Delegate
         this reference is to a local object */
     private boolean resolved_locality = false;
 
+    /**
+     * the state of the last colocated call that can be reused by
+     * servant_preinvoke for the next call to the same servant, null if
+     * calls have to take the full path. Cleared on rebind.
+     */
+    private volatile ColocatedTarget colocatedTarget;
+
     private final ConcurrentHashMap<org.omg.ETF.Profile, ReplyGroup> groups;
 
     private final java.lang.Object bind_sync = new java.lang.Object();
@@ -171,7 +179,7 @@ public final class Delegate
 
     private String invokedOperation = null;
 
-    private final SelectorManager selectorManager;
+    private final TimingWheel timingWheel;
 
     /**
      * <code>localInterceptors</code> stores the ClientInterceptorHandler that is
@@ -198,6 +206,12 @@ public final class Delegate
     */
     private int defaultGiopMinor;
 
+    /**
+     * Requests are sent in GIOP 1.2 fragments of about this size while
+     * being marshalled, 0 to marshal requests as a whole.
+     */
+    private int fragmentSize;
+
     /**
      * specify if this Delegate should drop its connection to the remote ORB after
      * a non-recoverable SystemException occured. non-recoverable SystemException
@@ -226,6 +240,12 @@ public final class Delegate
      */
     private boolean disableClientOrbPolicies;
 
+    /**
+     * Whether colocated calls may skip the interceptor and POA checks
+     * while no request interceptors are installed, see servant_preinvoke.
+     */
+    private boolean colocatedFastPath = true;
+
     /** delay in millisecs before retrying */
     private Random randomDelay = null;
 
@@ -366,7 +386,7 @@ public final class Delegate
 
         conn_mg = orb.getClientConnectionManager();
 
-        selectorManager = orb.getSelectorManager ();
+        timingWheel = orb.getTimingWheel ();
 
         logger = config.getLogger("org.jacorb.orb.delegate");
         useJacORBIMR =
@@ -405,6 +425,7 @@ public final class Delegate
             ("jacorb.connection.client.disconnect_after_systemexception", true);
 
         disableClientOrbPolicies = config.getAttributeAsBoolean("jacorb.disableClientOrbPolicies", false);
+        colocatedFastPath = config.getAttributeAsBoolean("jacorb.colocated_fast_path", true);
         try
         {
            defaultGiopMinor = configuration.getAttributeAsInteger ("jacorb.giop_minor_version", 2);
@@ -415,6 +436,16 @@ public final class Delegate
             throw new INTERNAL ("Configuration exception retrieving giop minor version" + ex);
         }
 
+        try
+        {
+            fragmentSize = configuration.getAttributeAsInteger ("jacorb.giop.fragment_size", 0);
+        }
+        catch (ConfigurationException ex)
+        {
+            logger.error ("Configuration exception retrieving fragment size", ex);
+            throw new INTERNAL ("Configuration exception retrieving fragment size" + ex);
+        }
+
         try
         {
             defaultSyncScope = SyncScope.getSyncScope (configuration.getAttribute("jacorb.default_sync_scope","TRANSPORT"));
@@ -776,6 +807,7 @@ public final class Delegate
 
             //to tell bind() that it has to take action
             bound = false;
+            colocatedTarget = null;
 
             bind();
         }
@@ -1377,11 +1409,12 @@ public final class Delegate
                   // Somehow the connection got closed under us
                   throw new COMM_FAILURE("Connection closed");
                }
-               else if (ros.getConnection() == connections[currentConnection.ordinal ()])
+               else if (conn_mg.isPooledWith (ros.getConnection(),
+                                              connections[currentConnection.ordinal ()]))
                {
                   // RequestOutputStream has been created for
-                  // exactly this connection
-                  connectionToUse = connections[currentConnection.ordinal ()];
+                  // this connection or another one to the same endpoint
+                  connectionToUse = ros.getConnection();
                }
                else
                {
@@ -1404,7 +1437,7 @@ public final class Delegate
                 receiver = new ReplyReceiver(this, group,
                                              ros.operation(),
                                              ros.getReplyEndTime(),
-                                            interceptors, replyHandler, selectorManager);
+                                            interceptors, replyHandler, timingWheel);
 
                 try
                 {
@@ -1606,7 +1639,7 @@ public final class Delegate
                                                        ros.operation(),
                                                        ros.getReplyEndTime(),
                                                        interceptors,
-                                                       null, selectorManager);
+                                                       null, timingWheel);
                 try
                 {
                    rcv.configure(configuration);
@@ -2519,10 +2552,18 @@ public final class Delegate
                 currentConnection = TransportType.IIOP;
             }
 
+            ClientConnection connection = connections[currentConnection.ordinal ()];
+
+            if (currentConnection == TransportType.IIOP)
+            {
+                // spread requests over the connections to this endpoint
+                connection = conn_mg.selectConnection (connection);
+            }
+
             RequestOutputStream out =
                 new RequestOutputStream( orb,
-                                         connections[currentConnection.ordinal ()],
-                                         connections[currentConnection.ordinal ()].getId(),
+                                         connection,
+                                         connection.getId(),
                                          operation,
                                          responseExpected,
                                          getSyncScope(),
@@ -2535,18 +2576,29 @@ public final class Delegate
             // CodeSets are only negotiated once per connection,
             // not for each individual request
             // (CORBA 3.0, 13.10.2.6, second paragraph).
-            if (!connections[currentConnection.ordinal ()].isTCSNegotiated())
+            if (!connection.isTCSNegotiated())
             {
-                connections[currentConnection.ordinal ()].setCodeSet(ior);
+                connection.setCodeSet(ior);
             }
 
             //Setting the codesets not until here results in the
             //header being written using the default codesets. On the
             //other hand, the server side must have already read the
             //header to discover the codeset service context.
-            out.setCodeSets( connections[currentConnection.ordinal ()].getTCS(), connections[currentConnection.ordinal ()].getTCSW() );
+            out.setCodeSets( connection.getTCS(), connection.getTCSW() );
+
+            out.updateMutatorConnection (connection.getGIOPConnection());
 
-            out.updateMutatorConnection (connections[currentConnection.ordinal ()].getGIOPConnection());
+            // Request interceptors add service contexts after
+            // marshalling, and SYNC_NONE requests are copied before
+            // being sent, so both need the request as a whole.
+            if (fragmentSize > 0 &&
+                currentConnection == TransportType.IIOP &&
+                !orb.hasRequestInterceptors() &&
+                (responseExpected || getSyncScope() != SYNC_NONE.value))
+            {
+                out.enableFragmentation (fragmentSize);
+            }
 
             return out;
         }
@@ -2697,6 +2749,23 @@ public final class Delegate
             return null;
         }
 
+        // Fast path: the previous call found the servant in the active
+        // object map and no interceptors are installed, so if the object
+        // is still active with the same servant the checks and
+        // allocations below can be skipped.
+        final ColocatedTarget target = colocatedTarget;
+
+        if (target != null &&
+            target.poa == poa &&
+            !orb.hasRequestInterceptors() &&
+            expectedType.isInstance(target.servantObject.servant) &&
+            poa._getColocatedServant(target.oid) == target.servantObject.servant)
+        {
+            poa.addLocalRequest();
+            orb.getPOACurrent()._addContext(Thread.currentThread(), target.context);
+            return target.servantObject;
+        }
+
         Map<INVOCATION_KEY, UtcT> currentContext = new HashMap<INVOCATION_KEY, UtcT>();
         currentContext.put (INVOCATION_KEY.SERVANT_PREINVOKE, null);
 
@@ -2899,19 +2968,31 @@ public final class Delegate
             }
 
 
-            orb.getPOACurrent()._addContext
-            (
-                Thread.currentThread(),
+            final byte[] objectId = getObjectId();
+            final org.jacorb.poa.LocalInvocationContext context =
                 new org.jacorb.poa.LocalInvocationContext
                 (
                     orb,
                     poa,
-                    getObjectId(),
+                    objectId,
                     ( org.omg.PortableServer.Servant ) servantObject.servant
-                )
-            );
+                );
+
+            orb.getPOACurrent()._addContext(Thread.currentThread(), context);
             addedContext = true;
 
+            if (colocatedFastPath && !orb.hasRequestInterceptors())
+            {
+                final ByteArrayKey oid = new ByteArrayKey(objectId);
+
+                // the servant object is not modified by later calls
+                // while there are no interceptors
+                if (poa._getColocatedServant(oid) == servantObject.servant)
+                {
+                    colocatedTarget = new ColocatedTarget(poa, oid, servantObject, context);
+                }
+            }
+
             ( (org.jacorb.orb.ServantObjectImpl )servantObject).setClientInterceptorHandler (interceptors);
 
             if (orb.hasServerRequestInterceptors())
@@ -3134,4 +3215,26 @@ public final class Delegate
         return true;
    }
 
+    /**
+     * The request-independent state of a colocated call to a servant
+     * that is dispatched from the active object map of its POA.
+     */
+    private static final class ColocatedTarget
+    {
+        final org.jacorb.poa.POA poa;
+        final ByteArrayKey oid;
+        final ServantObject servantObject;
+        final org.jacorb.poa.LocalInvocationContext context;
+
+        ColocatedTarget(org.jacorb.poa.POA poa,
+                        ByteArrayKey oid,
+                        ServantObject servantObject,
+                        org.jacorb.poa.LocalInvocationContext context)
+        {
+            this.poa = poa;
+            this.oid = oid;
+            this.servantObject = servantObject;
+            this.context = context;
+        }
+    }
 }
@@ -60,6 +60,7 @@ import org.jacorb.poa.util.POAUtil;
 import org.jacorb.util.ObjectUtil;
 import org.jacorb.util.SelectorManager;
 import org.jacorb.util.TimerQueue;
+import org.jacorb.util.TimingWheel;
 import org.jacorb.util.Version;
 import org.omg.CORBA.BAD_INV_ORDER;
 import org.omg.CORBA.BAD_PARAM;
@@ -170,13 +171,22 @@ public final class ORB
      * The timer queue is a single thread along with a time-sorted list of
      * event handlers. When the timer fires, either a notification is sent
      * to an object to wake other threads, or a _simple_ action is performed.
-     * Since the timer queue instance requires a thread, it is only created
-     * when first asked for. the queue is internally synchronized.
+     * The queue is internally synchronized.
      *
-     * The timer queue is a wrapper around the selector manager
+     * The timer queue is a wrapper around the timing wheel
      */
     private TimerQueue timer_queue = null;
 
+    /**
+     * The timing wheel is shared by all timed waits of this ORB, i.e.
+     * reply timeouts and the timer queue. Its thread is only started
+     * once the first timeout is scheduled.
+     */
+    private TimingWheel timingWheel = null;
+
+    /** resolution of the timing wheel in milliseconds */
+    private int timerResolution;
+
     /**
        The selectorManager is a wrappper around the NIO Selector
      */
@@ -331,18 +341,9 @@ public final class ORB
 
         failOnORBInitializerError = configuration.getAttributeAsBoolean("jacorb.orb_initializer.fail_on_error", false);
 
-        boolean useTimerQueue = configuration.getAttributeAsBoolean("jacorb.use_timer_queue", false);
-
-        // There are features that if enabled require the use of the timer queue
-        // and thus need to ensure the timer queue is available.
-        if (!useTimerQueue)
-        {
-            useTimerQueue =
-                configuration.getAttributeAsInteger("jacorb.connection.request.write_timeout", 0) > 0 ||
-                configuration.getAttributeAsInteger("jacorb.connection.reply.write_timeout", 0) > 0;
-        }
+        timerResolution = configuration.getAttributeAsInteger("jacorb.timer_queue.resolution", 10);
 
-        useSelectorManager = useTimerQueue ||
+        useSelectorManager =
             configuration.getAttributeAsBoolean("jacorb.connection.nonblocking", false);
 
         boolean cacheTypeCodes = configuration.getAttributeAsBoolean("jacorb.cacheTypecodes", false);
@@ -375,6 +376,22 @@ public final class ORB
             typeCodeCompactor = NullTypeCodeCompactor.getInstance();
         }
 
+        int stringCacheSize = configuration.getAttributeAsInteger("jacorb.string_cache_size", 0);
+
+        if (stringCacheSize > 0)
+        {
+            int stringCacheMaxLength = configuration.getAttributeAsInteger("jacorb.string_cache_max_length", 32);
+            stringCache = new StringCache(stringCacheSize, stringCacheMaxLength);
+            if ( logger.isDebugEnabled() )
+            {
+                logger.debug("enabled StringCache: size " + stringCacheSize + ", max length " + stringCacheMaxLength);
+            }
+        }
+        else
+        {
+            stringCache = null;
+        }
+
         printVersion(configuration);
 
         configureObjectKeyMap(configuration);
@@ -2028,8 +2045,11 @@ public final class ORB
     {
         try
         {
-            // Starting up Selector manager first.
-            //  It's timer service may be required for other managers
+            // The timer service may be required for other managers
+            timingWheel = new TimingWheel ("ORB Timer", timerResolution, 512,
+                                           configuration.getLogger ("org.jacorb.util.timer"));
+            timer_queue = new TimerQueue (timingWheel);
+
             if (useSelectorManager)
             {
                 try
@@ -2037,7 +2057,6 @@ public final class ORB
                     selectorManager = new SelectorManager ();
                     selectorManager.configure (configuration);
                     selectorManager.start ();
-                    timer_queue = new TimerQueue(selectorManager);
                 }
                 catch (Exception e)
                 {
@@ -2332,6 +2351,11 @@ public final class ORB
             selectorManager.halt ();
         }
 
+        if (timingWheel != null)
+        {
+            timingWheel.halt ();
+        }
+
         if (logger.isInfoEnabled())
         {
             logger.info("ORB shutdown complete");
@@ -2698,6 +2722,11 @@ public final class ORB
         return timer_queue;
     }
 
+    public TimingWheel getTimingWheel ()
+    {
+        return timingWheel;
+    }
+
     public SelectorManager getSelectorManager ()
     {
         return selectorManager;
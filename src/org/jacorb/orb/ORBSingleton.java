@@ -57,6 +57,10 @@ public class ORBSingleton
 
     protected TypeCodeCompactor typeCodeCompactor;
 
+    protected StringCache stringCache;
+
+    private final ValueMetadataCache valueMetadataCache = new ValueMetadataCache();
+
     /**
      * the configuration object for this ORB instance
      */
@@ -916,4 +920,20 @@ public class ORBSingleton
         }
         return typeCodeCompactor;
     }
+
+    /**
+     * @return the cache of decoded strings, or null if the ORB does not cache them
+     */
+    public StringCache getStringCache()
+    {
+        return stringCache;
+    }
+
+    /**
+     * @return the cache of the reflective lookups needed to marshal valuetypes
+     */
+    public ValueMetadataCache getValueMetadataCache()
+    {
+        return valueMetadataCache;
+    }
 }
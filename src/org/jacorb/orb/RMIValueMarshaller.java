@@ -0,0 +1,686 @@
+package org.jacorb.orb;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.jacorb.util.ValueHandler;
+import org.omg.CORBA.MARSHAL;
+import org.omg.CORBA.portable.IDLEntity;
+
+/**
+ * Marshals the state of RMI valuetypes of one class without going
+ * through the JDK's ValueHandler. It writes the same fields in the same
+ * order as the ValueHandler does for classes that are not custom
+ * marshaled: the fields of each serializable class in the hierarchy,
+ * starting with the topmost, primitive fields first and each group
+ * sorted by name (Java to IDL Language Mapping, 1.3.5.6).
+ * <p>
+ * The field accessors are set up once per class by create, which
+ * returns null for classes the ValueHandler has to deal with, i.e.
+ * classes that define writeObject, readObject, writeReplace,
+ * readResolve or serialPersistentFields, Externalizable classes, enums,
+ * arrays and classes with fields of a remote or abstract interface
+ * type. A class that can be written but has no accessible constructor
+ * for deserialization is only written.
+ */
+final class RMIValueMarshaller
+{
+    /**
+     * Sun's ReflectionFactory creates the constructor that deserialization
+     * needs, one that runs the no-arg constructor of the first
+     * non-serializable superclass only. It is looked up reflectively as it
+     * is not part of the Java API, instances are not read by this class if
+     * it is missing.
+     */
+    private static final Object reflectionFactory;
+    private static final Method newConstructorForSerialization;
+
+    static
+    {
+        Object factory = null;
+        Method method = null;
+        try
+        {
+            Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+            factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+            method = factoryClass.getMethod("newConstructorForSerialization",
+                                            new Class[] { Class.class, Constructor.class });
+        }
+        catch (Exception e)
+        {
+            factory = null;
+            method = null;
+        }
+        catch (LinkageError e)
+        {
+            factory = null;
+            method = null;
+        }
+        reflectionFactory = factory;
+        newConstructorForSerialization = method;
+    }
+
+    /**
+     * sorts primitive fields before the others, then by name
+     */
+    private static final Comparator<Field> FIELD_ORDER = new Comparator<Field>()
+    {
+        public int compare(Field f1, Field f2)
+        {
+            boolean p1 = f1.getType().isPrimitive();
+            boolean p2 = f2.getType().isPrimitive();
+            if (p1 != p2)
+            {
+                return p1 ? -1 : 1;
+            }
+            return f1.getName().compareTo(f2.getName());
+        }
+    };
+
+    private final String repositoryId;
+    private final FieldMarshaller[] fields;
+    private final Constructor<?> constructor;
+
+    private RMIValueMarshaller(String repositoryId,
+                               FieldMarshaller[] fields,
+                               Constructor<?> constructor)
+    {
+        this.repositoryId = repositoryId;
+        this.fields = fields;
+        this.constructor = constructor;
+    }
+
+    /**
+     * @return the marshaller for values of clazz, or null if they
+     * have to be marshaled by the ValueHandler
+     */
+    static RMIValueMarshaller create(Class<?> clazz, String repositoryId)
+    {
+        if (!Serializable.class.isAssignableFrom(clazz)
+            || Externalizable.class.isAssignableFrom(clazz)
+            || clazz.isArray()
+            || Enum.class.isAssignableFrom(clazz)
+            || Proxy.isProxyClass(clazz)
+            || IDLEntity.class.isAssignableFrom(clazz)
+            || clazz == String.class
+            || clazz == Class.class)
+        {
+            return null;
+        }
+
+        try
+        {
+            List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            Class<?> nonSerializable = clazz;
+            while (nonSerializable != null
+                   && Serializable.class.isAssignableFrom(nonSerializable))
+            {
+                if (hasSerializationMethods(nonSerializable))
+                {
+                    return null;
+                }
+                hierarchy.add(0, nonSerializable);
+                nonSerializable = nonSerializable.getSuperclass();
+            }
+
+            // writeReplace and readResolve may be inherited from a
+            // non-serializable superclass
+            for (Class<?> c = nonSerializable; c != null; c = c.getSuperclass())
+            {
+                if (hasMethod(c, "writeReplace") || hasMethod(c, "readResolve"))
+                {
+                    return null;
+                }
+            }
+
+            List<FieldMarshaller> result = new ArrayList<FieldMarshaller>();
+            for (Class<?> c : hierarchy)
+            {
+                Field[] declared = c.getDeclaredFields();
+                List<Field> serialFields = new ArrayList<Field>();
+                for (Field field : declared)
+                {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+                    {
+                        continue;
+                    }
+                    serialFields.add(field);
+                }
+
+                Field[] sorted = serialFields.toArray(new Field[serialFields.size()]);
+                Arrays.sort(sorted, FIELD_ORDER);
+
+                for (Field field : sorted)
+                {
+                    FieldMarshaller marshaller = createFieldMarshaller(field);
+                    if (marshaller == null)
+                    {
+                        return null;
+                    }
+                    result.add(marshaller);
+                }
+            }
+
+            return new RMIValueMarshaller(repositoryId,
+                                          result.toArray(new FieldMarshaller[result.size()]),
+                                          getSerializationConstructor(clazz, nonSerializable));
+        }
+        catch (RuntimeException e)
+        {
+            // a SecurityException, or fields that cannot be made
+            // accessible as their module is not open
+            return null;
+        }
+    }
+
+    /**
+     * @return true if values with this repository id can be read by
+     * this marshaller. Values of a different version of the class are
+     * left to the ValueHandler.
+     */
+    boolean canRead(String repositoryId)
+    {
+        return constructor != null && this.repositoryId.equals(repositoryId);
+    }
+
+    void write(CDROutputStream out, Serializable value)
+    {
+        try
+        {
+            for (int i = 0; i < fields.length; i++)
+            {
+                fields[i].write(out, value);
+            }
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new MARSHAL("Internal error: " + e);
+        }
+    }
+
+    /**
+     * reads a value. Like a value factory, it registers the value with
+     * the stream before its fields are read, so that they may refer to it.
+     */
+    Serializable read(CDRInputStream in)
+    {
+        final Serializable value;
+        try
+        {
+            value = (Serializable) constructor.newInstance((Object[]) null);
+        }
+        catch (InstantiationException e)
+        {
+            throw new MARSHAL("Cannot instantiate " + constructor.getDeclaringClass().getName()
+                              + ": " + e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new MARSHAL("Internal error: " + e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new MARSHAL("Cannot instantiate " + constructor.getDeclaringClass().getName()
+                              + ": " + e.getTargetException());
+        }
+
+        in.register_value(value);
+
+        try
+        {
+            for (int i = 0; i < fields.length; i++)
+            {
+                fields[i].read(in, value);
+            }
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new MARSHAL("Internal error: " + e);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new MARSHAL("Cannot assign field of " + value.getClass().getName()
+                              + ": " + e);
+        }
+        return value;
+    }
+
+    private static boolean hasSerializationMethods(Class<?> clazz)
+    {
+        try
+        {
+            clazz.getDeclaredField("serialPersistentFields");
+            return true;
+        }
+        catch (NoSuchFieldException e)
+        {
+            // expected
+        }
+
+        return hasMethod(clazz, "writeObject", ObjectOutputStream.class)
+            || hasMethod(clazz, "readObject", ObjectInputStream.class)
+            || hasMethod(clazz, "readObjectNoData")
+            || hasMethod(clazz, "writeReplace")
+            || hasMethod(clazz, "readResolve");
+    }
+
+    private static boolean hasMethod(Class<?> clazz, String name, Class<?>... paramTypes)
+    {
+        try
+        {
+            clazz.getDeclaredMethod(name, paramTypes);
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return the constructor that creates instances for
+     * deserialization, null if there is none
+     */
+    private static Constructor<?> getSerializationConstructor(Class<?> clazz,
+                                                              Class<?> nonSerializable)
+    {
+        if (newConstructorForSerialization == null
+            || nonSerializable == null
+            || Modifier.isAbstract(clazz.getModifiers()))
+        {
+            return null;
+        }
+
+        try
+        {
+            Constructor<?> superConstructor = nonSerializable.getDeclaredConstructor();
+            int modifiers = superConstructor.getModifiers();
+            if (Modifier.isPrivate(modifiers)
+                || (!Modifier.isPublic(modifiers)
+                    && !Modifier.isProtected(modifiers)
+                    && !isSamePackage(clazz, nonSerializable)))
+            {
+                return null;
+            }
+
+            Constructor<?> result = (Constructor<?>) newConstructorForSerialization.invoke(
+                reflectionFactory, new Object[] { clazz, superConstructor });
+            if (result != null)
+            {
+                result.setAccessible(true);
+            }
+            return result;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+        catch (IllegalAccessException e)
+        {
+            return null;
+        }
+        catch (InvocationTargetException e)
+        {
+            return null;
+        }
+    }
+
+    private static boolean isSamePackage(Class<?> c1, Class<?> c2)
+    {
+        if (c1.getClassLoader() != c2.getClassLoader())
+        {
+            return false;
+        }
+        String n1 = c1.getName();
+        String n2 = c2.getName();
+        int i1 = n1.lastIndexOf('.');
+        int i2 = n2.lastIndexOf('.');
+        return i1 == i2 && n1.regionMatches(0, n2, 0, i1 + 1);
+    }
+
+    /**
+     * @return the marshaller for the field, or null if its type has to
+     * be marshaled by the ValueHandler
+     */
+    private static FieldMarshaller createFieldMarshaller(Field field)
+    {
+        final Class<?> type = field.getType();
+        final FieldMarshaller result;
+
+        if (type == Boolean.TYPE)
+        {
+            result = new BooleanField(field);
+        }
+        else if (type == Byte.TYPE)
+        {
+            result = new ByteField(field);
+        }
+        else if (type == Character.TYPE)
+        {
+            result = new CharField(field);
+        }
+        else if (type == Short.TYPE)
+        {
+            result = new ShortField(field);
+        }
+        else if (type == Integer.TYPE)
+        {
+            result = new IntField(field);
+        }
+        else if (type == Long.TYPE)
+        {
+            result = new LongField(field);
+        }
+        else if (type == Float.TYPE)
+        {
+            result = new FloatField(field);
+        }
+        else if (type == Double.TYPE)
+        {
+            result = new DoubleField(field);
+        }
+        else if (type == Object.class
+                 || type == Serializable.class
+                 || type == Externalizable.class)
+        {
+            result = new AnyField(field);
+        }
+        else if (!type.isInterface() || isValueInterface(type))
+        {
+            result = new ValueField(field);
+        }
+        else
+        {
+            return null;
+        }
+
+        field.setAccessible(true);
+        return result;
+    }
+
+    /**
+     * @return true if a field of this interface type is marshaled as a
+     * value by the ValueHandler, false if it is an object reference or
+     * an abstract interface
+     */
+    private static boolean isValueInterface(Class<?> type)
+    {
+        if (Remote.class.isAssignableFrom(type)
+            || org.omg.CORBA.Object.class.isAssignableFrom(type)
+            || IDLEntity.class.isAssignableFrom(type))
+        {
+            return false;
+        }
+
+        // an interface all of whose methods throw RemoteException or
+        // one of its superclasses is an abstract interface
+        Method[] methods = type.getMethods();
+        for (int i = 0; i < methods.length; i++)
+        {
+            boolean remote = false;
+            Class<?>[] exceptions = methods[i].getExceptionTypes();
+            for (int j = 0; j < exceptions.length; j++)
+            {
+                if (exceptions[j] == RemoteException.class
+                    || exceptions[j] == IOException.class
+                    || exceptions[j] == Exception.class
+                    || exceptions[j] == Throwable.class)
+                {
+                    remote = true;
+                    break;
+                }
+            }
+            if (!remote)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private abstract static class FieldMarshaller
+    {
+        protected final Field field;
+
+        FieldMarshaller(Field field)
+        {
+            this.field = field;
+        }
+
+        abstract void write(CDROutputStream out, Object value)
+            throws IllegalAccessException;
+
+        abstract void read(CDRInputStream in, Object value)
+            throws IllegalAccessException;
+    }
+
+    private static final class BooleanField extends FieldMarshaller
+    {
+        BooleanField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_boolean(field.getBoolean(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setBoolean(value, in.read_boolean());
+        }
+    }
+
+    private static final class ByteField extends FieldMarshaller
+    {
+        ByteField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_octet(field.getByte(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setByte(value, in.read_octet());
+        }
+    }
+
+    private static final class CharField extends FieldMarshaller
+    {
+        CharField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_wchar(field.getChar(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setChar(value, in.read_wchar());
+        }
+    }
+
+    private static final class ShortField extends FieldMarshaller
+    {
+        ShortField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_short(field.getShort(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setShort(value, in.read_short());
+        }
+    }
+
+    private static final class IntField extends FieldMarshaller
+    {
+        IntField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_long(field.getInt(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setInt(value, in.read_long());
+        }
+    }
+
+    private static final class LongField extends FieldMarshaller
+    {
+        LongField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_longlong(field.getLong(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setLong(value, in.read_longlong());
+        }
+    }
+
+    private static final class FloatField extends FieldMarshaller
+    {
+        FloatField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_float(field.getFloat(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setFloat(value, in.read_float());
+        }
+    }
+
+    private static final class DoubleField extends FieldMarshaller
+    {
+        DoubleField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            out.write_double(field.getDouble(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.setDouble(value, in.read_double());
+        }
+    }
+
+    /**
+     * a field of type Object, Serializable or Externalizable, which is
+     * marshaled as an any
+     */
+    private static final class AnyField extends FieldMarshaller
+    {
+        AnyField(Field field)
+        {
+            super(field);
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            javax.rmi.CORBA.Util.writeAny(out, field.get(value));
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.set(value, javax.rmi.CORBA.Util.readAny(in));
+        }
+    }
+
+    /**
+     * a field of any other type, which is marshaled as a value
+     */
+    private static final class ValueField extends FieldMarshaller
+    {
+        private final Class<?> type;
+
+        ValueField(Field field)
+        {
+            super(field);
+            type = field.getType();
+        }
+
+        void write(CDROutputStream out, Object value) throws IllegalAccessException
+        {
+            final Object fieldValue = field.get(value);
+            if (fieldValue != null && !(fieldValue instanceof Serializable))
+            {
+                throw new MARSHAL(fieldValue.getClass().getName() + " is not serializable");
+            }
+            out.write_value((Serializable) fieldValue, type);
+        }
+
+        void read(CDRInputStream in, Object value) throws IllegalAccessException
+        {
+            field.set(value, in.read_value(type));
+        }
+    }
+}
@@ -28,10 +28,8 @@ import org.jacorb.orb.giop.MessageInputStream;
 import org.jacorb.orb.giop.ReplyInputStream;
 import org.jacorb.orb.giop.ReplyPlaceholder;
 import org.jacorb.orb.portableInterceptor.ClientInterceptorHandler;
-import org.jacorb.util.SelectorManager;
-import org.jacorb.util.SelectorRequest;
-import org.jacorb.util.SelectorRequestCallback;
 import org.jacorb.util.Time;
+import org.jacorb.util.TimingWheel;
 import org.omg.CORBA.CompletionStatus;
 import org.omg.CORBA.MARSHAL;
 import org.omg.CORBA.SystemException;
@@ -69,10 +67,8 @@ public final class ReplyReceiver
     private final org.omg.Messaging.ReplyHandler replyHandler;
 
     private final String operation;
-    private final Timer timer;
-    private final SelectorTimer selectorTimer;
-    private final SelectorRequest timeoutRequest;
-    private final SelectorManager selectorManager;
+    private final TimingWheel timingWheel;
+    private final TimingWheel.Timeout timeout;
     private UtcT replyEndTime = null;
 
     private Logger logger;
@@ -87,7 +83,7 @@ public final class ReplyReceiver
                           org.omg.TimeBase.UtcT          replyEndTime,
                           ClientInterceptorHandler       interceptors,
                           org.omg.Messaging.ReplyHandler replyHandler,
-                          SelectorManager                selectorManager)
+                          TimingWheel                    timingWheel)
     {
 	this.group = group;
 
@@ -96,33 +92,17 @@ public final class ReplyReceiver
         this.interceptors     = interceptors;
         this.replyHandler     = replyHandler;
         this.replyEndTime     = replyEndTime;
-        this.selectorManager  = selectorManager;
+        this.timingWheel      = timingWheel;
 
         if (replyEndTime != null)
         {
-            if (selectorManager == null)
-            {
-                selectorTimer = null;
-                timeoutRequest = null;
-                timer = new Timer(replyEndTime);
-                timer.setName("ReplyReceiver Timer" );
-                timer.start();
-            }
-            else
-            {
-                timer = null;
-                selectorTimer = new SelectorTimer ();
-                long duration = org.jacorb.util.Time.millisTo (replyEndTime);
-                timeoutRequest = new SelectorRequest (selectorTimer,
-                                                      System.nanoTime() + duration*1000000);
-                selectorManager.add (timeoutRequest);
-            }
+            long duration = Time.millisTo (replyEndTime);
+            timeout = timingWheel.schedule (new TimeoutAction (),
+                                            System.nanoTime () + duration * 1000000);
         }
         else
         {
-            timer = null;
-            selectorTimer = null;
-            timeoutRequest = null;
+            timeout = null;
         }
     }
 
@@ -142,18 +122,11 @@ public final class ReplyReceiver
             return; // discard reply
         }
 
-        if (replyEndTime != null)
+        if (timeout != null && !timeout.cancel ())
         {
-            if (selectorTimer != null)
-            {
-                selectorManager.remove(timeoutRequest);
-                selectorTimer.wakeup ();
-
-            }
-            else
-            {
-                timer.wakeup();
-            }
+            // the timeout has expired or the ORB has been shut down,
+            // and the TimeoutAction completes this receiver
+            return; // discard reply
         }
 
 	if (group != null)
@@ -168,7 +141,8 @@ public final class ReplyReceiver
 		// by Jimmy Wilson, 2005-01.  It is only a temporary
 		// work-around though, until I can simplify this entire
 		// logic much more thoroughly, AS.
-		synchronized (lock)
+		lock.lock();
+		try
 		{
 		    if (timeoutException)
 		    {
@@ -187,14 +161,19 @@ public final class ReplyReceiver
 		    {
 			// synchronous delivery
 			ready = true;
-			lock.notifyAll();
+			replyDone.signalAll();
 		    }
 		}
+		finally
+		{
+		    lock.unlock();
+		}
 	    }
 	}
 	else
 	{
-	    synchronized (lock)
+	    lock.lock();
+	    try
 	    {
 		if (timeoutException)
 	        {
@@ -212,9 +191,13 @@ public final class ReplyReceiver
 		{
 		    // synchronous delivery
 		    ready = true;
-		    lock.notifyAll();
+		    replyDone.signalAll();
 		}
 	    }
+	    finally
+	    {
+		lock.unlock();
+	    }
 	}
     }
 
@@ -372,8 +355,11 @@ public final class ReplyReceiver
     /**
      * This method blocks until a reply becomes available.
      * If the reply contains any exceptions, they are rethrown.
+     * Only the invoking thread waits for its reply, so this is not
+     * synchronized, and a waiting virtual thread does not pin its
+     * carrier thread.
      */
-    public synchronized ReplyInputStream getReply()
+    public ReplyInputStream getReply()
     throws RemarshalException, ApplicationException
     {
         try
@@ -594,134 +580,72 @@ public final class ReplyReceiver
 
     /**
      * This class implements timeouts while we are waiting for
-     * replies.  When it is instantiated, it takes a CORBA UtcT
-     * constructor parameter that specifies the timeout expiration
-     * time.  The timer starts running as soon as the Thread is
-     * started.  When the timeout goes off, this Timer makes sure
-     * that the enclosing ReplyReceiver is deactivated, and that
-     * everybody associated with it is notified appropriately.
-     * The timeout can be cancelled by calling wakeup() on a Timer.
+     * replies. It is scheduled on the ORB's timing wheel for the
+     * reply end time when the ReplyReceiver is created. When the
+     * timeout goes off, it makes sure that the enclosing ReplyReceiver
+     * is deactivated, and that everybody associated with it is
+     * notified appropriately. Once a reply has been received the
+     * timeout is cancelled.
      */
-    private class Timer extends Thread
+    private class TimeoutAction implements TimingWheel.HaltedTask
     {
-        private final UtcT endTime;
-        private boolean awakened = false;
-
-        public Timer (UtcT endTime)
-        {
-            super("ReplyReceiverTimer");
-            this.endTime = endTime;
-        }
-
+        /**
+         * Runs in the timing wheel thread, which must not block, so the
+         * ReplyHandler is called back on one of the wheel's callback
+         * threads.
+         */
         public void run()
         {
-            synchronized (lock)
+            lock.lock();
+            try
             {
-                timeoutException = false;
-                if (!awakened)
+                if (ready)
                 {
-                    long time = org.jacorb.util.Time.millisTo (endTime);
-                    if (time > 0)
-                    {
-                        try
-                        {
-                            lock.wait (time);
-                        }
-                        catch (InterruptedException ex)
-                        {
-                            logger.info("Interrupted while waiting for timeout");
-                        }
-                    }
-                    if (!awakened)
-                    {
-                        timeoutException = true;
-
-                        if (replyHandler != null)
-                        {
-                            ExceptionHolderImpl exHolder =
-                                new ExceptionHolderImpl((ORB)delegate.orb(null), new org.omg.CORBA.TIMEOUT());
-                            performExceptionCallback(exHolder);
-                        }
-                        ready = true;
-                        lock.notifyAll();
-                    }
+                    // already failed, e.g. the connection was closed
+                    return;
                 }
+                timeoutException = true;
+                ready = true;
+                replyDone.signalAll();
             }
-        }
-
-        public void wakeup()
-        {
-            synchronized (lock)
-            {
-                awakened         = true;
-                timeoutException = false;
-                lock.notifyAll();
-            }
-        }
-    }
-
-    /**
-     * And alternative timer helper. This one integrates with the
-     * SelectorManager framework, extending the SelectorRequestCallback.
-     * The timer is computed as a wait limit for the selector when the
-     * timeout event is registered.
-     * When the timeout goes off, this Timer makes sure
-     * that the enclosing ReplyReceiver is deactivated, and that
-     * everybody associated with it is notified appropriately.
-     * The timeout can be cancelled by calling wakeup() on a Timer.
-     */
-    class SelectorTimer extends SelectorRequestCallback
-    {
-
-        private boolean awakened = false;
-
-        public boolean call (SelectorRequest request)
-        {
-
-            if (logger.isDebugEnabled())
+            finally
             {
-                logger.debug ("Request callback. Request type: " + request.type.toString()
-                              + ", request status: " + request.status.toString());
+                lock.unlock();
             }
 
-            synchronized (lock)
+            if (replyHandler != null)
             {
-                if (request.status == SelectorRequest.Status.EXPIRED)
+                timingWheel.execute (new Runnable()
                 {
-                    if (!awakened)
+                    public void run()
                     {
-                        timeoutException = true;
-
-                        if (replyHandler != null)
-                        {
-                            ExceptionHolderImpl exHolder =
-                                new ExceptionHolderImpl((ORB)delegate.orb(null), new org.omg.CORBA.TIMEOUT());
-                            performExceptionCallback(exHolder);
-                        }
+                        ExceptionHolderImpl exHolder =
+                            new ExceptionHolderImpl((ORB)delegate.orb(null), new org.omg.CORBA.TIMEOUT());
+                        performExceptionCallback(exHolder);
                     }
-                }
-                else
-                {
-                    // something bad happened (SHUTDOWN, FAILED throw a COM_FAILURE)
-                    communicationException = true;
-                }
-
-                ready = true;
-                lock.notifyAll();
+                });
             }
-
-            return false;
         }
 
-        private void wakeup ()
+        /**
+         * The ORB has been shut down before the reply arrived.
+         */
+        public void halted()
         {
-            synchronized (lock)
+            lock.lock();
+            try
             {
-                awakened         = true;
-                timeoutException = false;
-                lock.notifyAll();
+                if (!ready)
+                {
+                    communicationException = true;
+                    ready = true;
+                    replyDone.signalAll();
+                }
+            }
+            finally
+            {
+                lock.unlock();
             }
         }
     }
-
 }
@@ -0,0 +1,173 @@
+package org.jacorb.orb;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import org.jacorb.orb.giop.CodeSet;
+
+/**
+ * A bounded cache of decoded CDR strings, keyed by their encoded bytes
+ * and the code set they were decoded with. If an ORB is configured with
+ * jacorb.string_cache_size, its input streams look up short strings
+ * here before decoding them, so that values which recur in many
+ * messages, e.g. operation names or enum-like codes, are returned as
+ * the same String instance instead of being allocated per read.
+ * <p>
+ * The cache is two-way set associative and needs no locks: entries are
+ * immutable and are replaced as a whole, a lookup that races with a
+ * replacement simply misses.
+ * <p>
+ * A string is only cached when it misses for the second time. The first
+ * miss just records its hash, so that strings which are read once don't
+ * allocate a copy of their bytes and an entry, and don't evict strings
+ * that recur.
+ */
+public final class StringCache
+{
+    private final Entry[] entries;
+
+    /**
+     * the hash of the last string that missed in each set
+     */
+    private final int[] misses;
+
+    private final int mask;
+
+    private final int maxLength;
+
+    /**
+     * @param size the number of cached strings, rounded up to a power of two
+     * @param maxLength the maximum length in bytes of a cached string
+     */
+    public StringCache(int size, int maxLength)
+    {
+        int capacity = 2;
+        while (capacity < size)
+        {
+            capacity <<= 1;
+        }
+        entries = new Entry[capacity];
+        misses = new int[capacity >> 1];
+        mask = capacity - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the maximum length in bytes of a cached string
+     */
+    public int getMaxLength()
+    {
+        return maxLength;
+    }
+
+    /**
+     * computes the hash of an encoded string, which is passed to get and put.
+     */
+    public static int hash(byte[] buffer, int start, int size)
+    {
+        int hash = size;
+        for (int i = start, end = start + size; i < end; i++)
+        {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @param codeSet the code set the string was decoded with, or null if
+     * code set translation is off
+     * @return the cached string for the encoded bytes or null
+     */
+    public String get(byte[] buffer, int start, int size, int hash, CodeSet codeSet)
+    {
+        final int slot = hash & mask;
+
+        Entry entry = entries[slot];
+        if (entry != null && entry.matches(buffer, start, size, hash, codeSet))
+        {
+            return entry.value;
+        }
+
+        entry = entries[slot ^ 1];
+        if (entry != null && entry.matches(buffer, start, size, hash, codeSet))
+        {
+            return entry.value;
+        }
+        return null;
+    }
+
+    /**
+     * caches a decoded string that missed, if it has missed before. The
+     * string that was cached most recently in the same set is kept, the
+     * other one is evicted.
+     */
+    public void put(byte[] buffer, int start, int size, int hash, CodeSet codeSet, String value)
+    {
+        final int slot = hash & mask;
+        final int set = slot >> 1;
+        if (misses[set] != hash)
+        {
+            misses[set] = hash;
+            return;
+        }
+
+        final byte[] bytes = new byte[size];
+        System.arraycopy(buffer, start, bytes, 0, size);
+
+        final Entry previous = entries[slot];
+        if (previous != null)
+        {
+            entries[slot ^ 1] = previous;
+        }
+        entries[slot] = new Entry(bytes, hash, codeSet, value);
+    }
+
+    private static final class Entry
+    {
+        final byte[] bytes;
+        final int hash;
+        final CodeSet codeSet;
+        final String value;
+
+        Entry(byte[] bytes, int hash, CodeSet codeSet, String value)
+        {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.codeSet = codeSet;
+            this.value = value;
+        }
+
+        boolean matches(byte[] buffer, int start, int size, int hash, CodeSet codeSet)
+        {
+            if (this.hash != hash || this.codeSet != codeSet || bytes.length != size)
+            {
+                return false;
+            }
+            for (int i = 0; i < size; i++)
+            {
+                if (bytes[i] != buffer[start + i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,773 @@
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.jacorb.orb;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.jacorb.config.Configurable;
+import org.jacorb.config.Configuration;
+import org.jacorb.config.ConfigurationException;
+import org.jacorb.orb.buffermanager.BufferManagerExpansionPolicy;
+import org.jacorb.orb.buffermanager.DefaultExpansionPolicy;
+import org.omg.CORBA.INTERNAL;
+import org.omg.CORBA.NO_MEMORY;
+import org.slf4j.Logger;
+
+/**
+ * A BufferManager that takes no locks on its fast path. It hands out
+ * buffers of the same sizes as the BufferManager but keeps them in two
+ * tiers:
+ *
+ * Every thread has a pair of small magazines per buffer size from which
+ * buffers are taken and to which they are returned without any
+ * synchronization. Only when both magazines of a thread are empty
+ * (or full) a whole magazine is exchanged with a lock-free depot that
+ * is shared by all threads, so a single queue operation moves several
+ * buffers at once.
+ *
+ * The depot holds at most jacorb.bufferManagerThreshold buffers per
+ * size. Buffers larger than jacorb.buffermanager.magazine.maxsize, or
+ * all buffers if jacorb.buffermanager.magazine.size is 0, are not
+ * cached: they are allocated on demand and dropped when returned.
+ * The magazines of a thread that has terminated are handed over to
+ * the depot once the thread has been garbage collected, so that
+ * short-lived threads refill it, too.
+ *
+ * With jacorb.bufferManagerMaxFlush > 0 a reaper thread periodically
+ * drops the 'extra-large' buffer cache, like the BufferManager does, and
+ * also trims magazines that have not been used from the depot since its
+ * last run.
+ *
+ * Hit, miss and oversize counters are published through JMX
+ * (see ThreadLocalBufferManagerMBean) unless jacorb.buffermanager.jmx
+ * is off.
+ */
+public class ThreadLocalBufferManager
+    extends AbstractBufferManager
+    implements ThreadLocalBufferManagerMBean
+{
+    /**
+     * Smallest size of arrays that will be cached for reuse. This equates to
+     * 1023 (calculated by (1 << ( 9 + 1 ) ) - 1 = 1023 )
+     */
+    private static final int MIN_CACHE = 9;
+
+    /**
+     * The shared depot, one per buffer size.
+     */
+    private final Depot[] depots;
+
+    /**
+     * Number of buffers in a thread's magazine, per buffer size. Sizes
+     * with a capacity of 0 are not cached.
+     */
+    private final int[] magazineCapacity;
+
+    private final ThreadLocal<ThreadCache> caches = new ThreadLocal<ThreadCache>()
+    {
+        protected ThreadCache initialValue()
+        {
+            // takes over the magazines of terminated threads, which is
+            // a queue poll, not a scan, if there are none
+            retireThreadCaches();
+
+            ThreadCache cache = new ThreadCache (depots.length, terminated);
+            threadCaches.add (cache);
+            return cache;
+        }
+    };
+
+    /**
+     * The 'extra-large' buffer cache.
+     */
+    private final AtomicReference<byte[]> bufferMax = new AtomicReference<byte[]>();
+
+    /**
+     * log2 of the maximal buffer size managed.
+     */
+    private final int maxManagedBufferSize;
+
+    /**
+     * <code>time</code> denotes whether the maxCache will be active:
+     * -1: Not active
+     * 0 : Active, never flushed
+     * >0: Active with reaper flush thread.
+     */
+    private final int time;
+
+    private BufferManagerExpansionPolicy expansionPolicy;
+
+    private final Logger logger;
+
+    private Reaper reaper;
+
+    private ObjectName objectName;
+
+    /**
+     * the caches of all threads that have not been retired yet
+     */
+    private final Set<ThreadCache> threadCaches =
+        Collections.newSetFromMap (new ConcurrentHashMap<ThreadCache, Boolean>());
+
+    /**
+     * receives the caches whose thread has been garbage collected
+     */
+    private final ReferenceQueue<Thread> terminated = new ReferenceQueue<Thread>();
+
+    /**
+     * hits of threads that have terminated
+     */
+    private final AtomicLong retiredHits = new AtomicLong();
+
+    private final AtomicLong depotHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong oversize = new AtomicLong();
+
+    public ThreadLocalBufferManager(Configuration configuration)
+    {
+        logger = configuration.getLogger("org.jacorb.orb.buffermanager");
+
+        final int threshold;
+        final int magazineSize;
+        final int maxMagazineBufferSize;
+        final boolean jmx;
+
+        try
+        {
+            time = configuration.getAttributeAsInteger("jacorb.bufferManagerMaxFlush", 0);
+            maxManagedBufferSize = Math.max (MIN_CACHE, configuration.getAttributeAsInteger("jacorb.maxManagedBufSize", 22));
+            threshold = configuration.getAttributeAsInteger("jacorb.bufferManagerThreshold", 20);
+            magazineSize = configuration.getAttributeAsInteger("jacorb.buffermanager.magazine.size", 4);
+            maxMagazineBufferSize = configuration.getAttributeAsInteger("jacorb.buffermanager.magazine.maxsize", 15);
+            jmx = configuration.getAttributeAsBoolean("jacorb.buffermanager.jmx", true);
+        }
+        catch (ConfigurationException ex)
+        {
+            logger.error ("Error configuring the ThreadLocalBufferManager", ex);
+            throw new INTERNAL ("Unable to configure the ThreadLocalBufferManager");
+        }
+
+        try
+        {
+            expansionPolicy = (BufferManagerExpansionPolicy)
+                configuration.getAttributeAsObject ("jacorb.buffermanager.expansionpolicy",
+                                                    DefaultExpansionPolicy.class.getName ());
+            if (expansionPolicy instanceof Configurable)
+            {
+                ((Configurable)expansionPolicy).configure (configuration);
+            }
+        }
+        catch (ConfigurationException e)
+        {
+            expansionPolicy = null;
+        }
+
+        depots = new Depot[maxManagedBufferSize - MIN_CACHE + 1];
+        magazineCapacity = new int[depots.length];
+
+        for (int i = 0; i < depots.length; i++)
+        {
+            if (magazineSize > 0 && i + MIN_CACHE <= maxMagazineBufferSize)
+            {
+                magazineCapacity[i] = magazineSize;
+                depots[i] = new Depot (Math.max (1, threshold / magazineSize));
+            }
+            else
+            {
+                // not cached, the depot stays empty
+                depots[i] = new Depot (0);
+            }
+        }
+
+        if (time > 0)
+        {
+            reaper = new Reaper (time);
+            reaper.setName ("ThreadLocalBufferManager Reaper");
+            reaper.setDaemon (true);
+            reaper.start();
+        }
+
+        if (jmx)
+        {
+            registerMBean();
+        }
+    }
+
+    private void registerMBean()
+    {
+        try
+        {
+            ObjectName name = new ObjectName
+                ("org.jacorb:type=BufferManager,id=" + Integer.toHexString (System.identityHashCode (this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean (this, name);
+            objectName = name;
+        }
+        catch (JMException e)
+        {
+            logger.warn ("Unable to register ThreadLocalBufferManager with JMX", e);
+        }
+        catch (SecurityException e)
+        {
+            logger.warn ("Unable to register ThreadLocalBufferManager with JMX", e);
+        }
+    }
+
+    /**
+     * Calculate log2 of given value.
+     */
+    private static int calcLog (int value)
+    {
+        // Shortcut for uncached_data_length
+        if (value <= 1023)
+        {
+            return MIN_CACHE;
+        }
+        return 31 - Integer.numberOfLeadingZeros (value);
+    }
+
+    public byte[] getExpandedBuffer (int size)
+    {
+        if (size < 0)
+        {
+           throw new INTERNAL ("Unable to cache and create buffer of negative size. Possible overflow issue.");
+        }
+
+        // Use the expansion policy if available
+        if (expansionPolicy != null)
+        {
+            size = expansionPolicy.getExpandedSize (size);
+        }
+
+        return getBuffer (size);
+    }
+
+    public byte[] getBuffer (int size)
+    {
+        if (size < 0)
+        {
+           throw new INTERNAL ("Unable to cache and create buffer of negative size. Possible overflow issue.");
+        }
+
+        final int log = calcLog (size);
+
+        if (log > maxManagedBufferSize)
+        {
+            return getOversizeBuffer (size);
+        }
+
+        final int index = log - MIN_CACHE;
+
+        if (magazineCapacity[index] > 0)
+        {
+            final ThreadCache cache = caches.get();
+
+            final Magazine loaded = cache.loaded[index];
+            if (loaded != null && loaded.size > 0)
+            {
+                cache.hit();
+                return loaded.pop();
+            }
+
+            final Magazine previous = cache.previous[index];
+            if (previous != null && previous.size > 0)
+            {
+                cache.previous[index] = loaded;
+                cache.loaded[index] = previous;
+                cache.hit();
+                return previous.pop();
+            }
+
+            final Magazine full = depots[index].poll();
+            if (full != null)
+            {
+                depotHits.incrementAndGet();
+
+                // the empty previous magazine is dropped
+                cache.previous[index] = loaded;
+                cache.loaded[index] = full;
+                return full.pop();
+            }
+        }
+
+        misses.incrementAndGet();
+
+        try
+        {
+            return new byte[(1 << log + 1) - 1];
+        }
+        catch (OutOfMemoryError e)
+        {
+            throw new NO_MEMORY (e.toString());
+        }
+    }
+
+    private byte[] getOversizeBuffer (int size)
+    {
+        oversize.incrementAndGet();
+
+        try
+        {
+            if (time >= 0)
+            {
+                final byte[] result = bufferMax.getAndSet (null);
+                if (result != null && result.length >= size)
+                {
+                    return result;
+                }
+            }
+            return new byte[size];
+        }
+        catch (OutOfMemoryError e)
+        {
+            throw new NO_MEMORY (e.toString());
+        }
+    }
+
+    public void returnBuffer (byte[] current, boolean cdrStr)
+    {
+        if (current == null)
+        {
+            return;
+        }
+
+        final int log = calcLog (current.length);
+
+        if (log > maxManagedBufferSize)
+        {
+            // Only cache if CDROutputStream is called, cache is enabled &
+            // the new value is > than the cached value.
+            if (cdrStr && time >= 0)
+            {
+                byte[] max = bufferMax.get();
+                while ((max == null || max.length < current.length)
+                       && !bufferMax.compareAndSet (max, current))
+                {
+                    max = bufferMax.get();
+                }
+            }
+            return;
+        }
+
+        if (current.length != (1 << log + 1) - 1)
+        {
+            // not one of ours
+            if (logger.isDebugEnabled())
+            {
+                logger.debug ("ThreadLocalBufferManager.returnBuffer, dropping buffer of length " + current.length);
+            }
+            return;
+        }
+
+        final int index = log - MIN_CACHE;
+        final int capacity = magazineCapacity[index];
+
+        if (capacity == 0)
+        {
+            // not cached
+            return;
+        }
+
+        final ThreadCache cache = caches.get();
+        Magazine loaded = cache.loaded[index];
+
+        if (loaded == null)
+        {
+            loaded = new Magazine (capacity);
+            cache.loaded[index] = loaded;
+        }
+        else if (loaded.size == capacity)
+        {
+            Magazine previous = cache.previous[index];
+
+            if (previous == null)
+            {
+                previous = new Magazine (capacity);
+            }
+            else if (previous.size == capacity)
+            {
+                // both magazines are full, hand one over to the depot
+                if (depots[index].offer (previous))
+                {
+                    previous = new Magazine (capacity);
+                }
+                else
+                {
+                    previous.clear();
+                }
+            }
+
+            cache.previous[index] = loaded;
+            cache.loaded[index] = previous;
+            loaded = previous;
+        }
+
+        loaded.push (current);
+    }
+
+    public void release()
+    {
+        // the caches stay referenced by the threads' ThreadLocal maps,
+        // so at least the magazines are dropped from them
+        for (Iterator<ThreadCache> i = threadCaches.iterator(); i.hasNext(); )
+        {
+            i.next().dropMagazines();
+        }
+        threadCaches.clear();
+        while (terminated.poll() != null)
+        {
+            // dropped
+        }
+
+        trim();
+
+        bufferMax.set (null);
+
+        if (reaper != null)
+        {
+            reaper.dispose();
+            reaper = null;
+        }
+
+        if (objectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean (objectName);
+            }
+            catch (JMException e)
+            {
+                logger.debug ("Unable to unregister ThreadLocalBufferManager", e);
+            }
+            objectName = null;
+        }
+    }
+
+    public long getThreadCacheHits()
+    {
+        retireThreadCaches();
+
+        long result = retiredHits.get();
+
+        for (Iterator<ThreadCache> i = threadCaches.iterator(); i.hasNext(); )
+        {
+            result += i.next().hits.get();
+        }
+        return result;
+    }
+
+    /**
+     * Folds the hits of the threads that have been garbage collected
+     * into retiredHits and hands their magazines over to the depot.
+     */
+    private void retireThreadCaches()
+    {
+        ThreadCache cache;
+
+        while ((cache = (ThreadCache) terminated.poll()) != null)
+        {
+            if (!threadCaches.remove (cache))
+            {
+                // released meanwhile
+                continue;
+            }
+
+            retiredHits.addAndGet (cache.hits.get());
+
+            for (int i = 0; i < depots.length; i++)
+            {
+                offer (i, cache.loaded[i]);
+                offer (i, cache.previous[i]);
+            }
+            cache.dropMagazines();
+        }
+    }
+
+    private void offer (int index, Magazine magazine)
+    {
+        if (magazine != null && magazine.size > 0)
+        {
+            depots[index].offer (magazine);
+        }
+    }
+
+    public long getDepotHits()
+    {
+        return depotHits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getOversizeAllocations()
+    {
+        return oversize.get();
+    }
+
+    public int getDepotSize()
+    {
+        int result = 0;
+
+        for (int i = 0; i < depots.length; i++)
+        {
+            result += depots[i].size();
+        }
+        return result;
+    }
+
+    public void trim()
+    {
+        for (int i = 0; i < depots.length; i++)
+        {
+            depots[i].clear();
+        }
+    }
+
+    /**
+     * A fixed size stack of buffers of one size, only ever accessed by
+     * one thread at a time.
+     */
+    private static final class Magazine
+    {
+        private final byte[][] rounds;
+        private int size;
+
+        Magazine (int capacity)
+        {
+            rounds = new byte[capacity][];
+        }
+
+        void push (byte[] buffer)
+        {
+            rounds[size++] = buffer;
+        }
+
+        byte[] pop()
+        {
+            final byte[] result = rounds[--size];
+            rounds[size] = null;
+            return result;
+        }
+
+        void clear()
+        {
+            while (size > 0)
+            {
+                rounds[--size] = null;
+            }
+        }
+    }
+
+    /**
+     * The lock-free store of magazines of one buffer size. They are
+     * full except for those taken over from terminated threads. The
+     * size is tracked separately as ConcurrentLinkedQueue.size() is not
+     * constant time. <code>low</code> is the smallest size since the
+     * last trim, i.e. the number of magazines that have not been
+     * needed in the meantime.
+     */
+    private static final class Depot
+    {
+        private final ConcurrentLinkedQueue<Magazine> magazines = new ConcurrentLinkedQueue<Magazine>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger buffers = new AtomicInteger();
+        private final int limit;
+        private volatile int low;
+
+        Depot (int limit)
+        {
+            this.limit = limit;
+        }
+
+        Magazine poll()
+        {
+            final Magazine result = magazines.poll();
+
+            if (result != null)
+            {
+                buffers.addAndGet (-result.size);
+                final int current = size.decrementAndGet();
+                if (current < low)
+                {
+                    low = current;
+                }
+            }
+            return result;
+        }
+
+        boolean offer (Magazine magazine)
+        {
+            if (size.incrementAndGet() <= limit)
+            {
+                buffers.addAndGet (magazine.size);
+                magazines.offer (magazine);
+                return true;
+            }
+            size.decrementAndGet();
+            return false;
+        }
+
+        /**
+         * Drops the magazines that have not been used since the last call.
+         */
+        void trimUnused()
+        {
+            Magazine magazine;
+
+            for (int unused = low; unused > 0 && (magazine = magazines.poll()) != null; unused--)
+            {
+                buffers.addAndGet (-magazine.size);
+                size.decrementAndGet();
+            }
+            low = size.get();
+        }
+
+        void clear()
+        {
+            Magazine magazine;
+
+            while ((magazine = magazines.poll()) != null)
+            {
+                buffers.addAndGet (-magazine.size);
+                size.decrementAndGet();
+            }
+            low = 0;
+        }
+
+        int size()
+        {
+            return buffers.get();
+        }
+    }
+
+    /**
+     * The magazines and hits of one thread. It is enqueued once the
+     * thread has been garbage collected. Only the owning thread
+     * updates the hits, so lazySet is sufficient.
+     */
+    private static final class ThreadCache extends WeakReference<Thread>
+    {
+        final Magazine[] loaded;
+        final Magazine[] previous;
+        final AtomicLong hits = new AtomicLong();
+
+        ThreadCache (int buckets, ReferenceQueue<Thread> queue)
+        {
+            super (Thread.currentThread(), queue);
+            loaded = new Magazine[buckets];
+            previous = new Magazine[buckets];
+        }
+
+        void hit()
+        {
+            hits.lazySet (hits.get() + 1);
+        }
+
+        /**
+         * drops the references to the magazines. The owning thread
+         * keeps using a magazine it has already taken.
+         */
+        void dropMagazines()
+        {
+            for (int i = 0; i < loaded.length; i++)
+            {
+                loaded[i] = null;
+                previous[i] = null;
+            }
+        }
+    }
+
+    private final class Reaper extends Thread
+    {
+        private boolean done = false;
+        private final int sleepInterval;
+
+        public Reaper (int sleepInterval)
+        {
+            super("ThreadLocalBufferManagerReaper");
+            // Convert from seconds to milliseconds
+            this.sleepInterval = (sleepInterval * 1000);
+        }
+
+        public void run()
+        {
+            long time;
+
+            while (true)
+            {
+                // Sleep (note time check on wake to catch premature awakening bug)
+                time = sleepInterval + System.currentTimeMillis();
+                synchronized(this)
+                {
+                    while(!done && System.currentTimeMillis() <= time)
+                    {
+                        try
+                        {
+                            wait(sleepInterval);
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            // ignored
+                        }
+                    }
+
+                    if (done)
+                    {
+                        break;
+                    }
+                }
+
+                bufferMax.set (null);
+
+                retireThreadCaches();
+
+                for (int i = 0; i < depots.length; i++)
+                {
+                    depots[i].trimUnused();
+                }
+            }
+        }
+
+        public synchronized void dispose()
+        {
+            done = true;
+
+            interrupt();
+
+            // Only one thread waiting so safe to use notify rather than notifyAll.
+            notify();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.jacorb.orb;
+
+import org.jacorb.config.Configuration;
+
+/**
+ * BufferManagerFactory that creates a ThreadLocalBufferManager for the
+ * singleton ORB, which is shared by all further ORBs like with the
+ * DefaultBufferManagerFactory. If only an ORB and not the singleton
+ * is configured to use this factory the ORB gets its own
+ * ThreadLocalBufferManager.
+ *
+ * @see ThreadLocalBufferManager
+ */
+public class ThreadLocalBufferManagerFactory implements BufferManagerFactory
+{
+    public IBufferManager newBufferManager(IBufferManager parent,
+            Configuration config)
+    {
+        if (parent instanceof ThreadLocalBufferManager)
+        {
+            return parent;
+        }
+        return new ThreadLocalBufferManager(config);
+    }
+
+    public IBufferManager newSingletonBufferManager(Configuration config)
+    {
+        return new ThreadLocalBufferManager(config);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.jacorb.orb;
+
+/**
+ * Management interface of the ThreadLocalBufferManager. All counters
+ * are cumulative since the buffer manager has been created.
+ */
+public interface ThreadLocalBufferManagerMBean
+{
+    /**
+     * @return the number of buffers served from a thread's own magazine
+     */
+    long getThreadCacheHits();
+
+    /**
+     * @return the number of buffers served from the shared depot
+     */
+    long getDepotHits();
+
+    /**
+     * @return the number of buffers of a managed size that had to be allocated
+     */
+    long getMisses();
+
+    /**
+     * @return the number of requests for buffers larger than the managed size
+     */
+    long getOversizeAllocations();
+
+    /**
+     * @return the number of buffers currently held in the shared depot
+     */
+    int getDepotSize();
+
+    /**
+     * Drops all buffers from the shared depot.
+     */
+    void trim();
+}
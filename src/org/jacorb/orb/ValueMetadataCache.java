@@ -0,0 +1,302 @@
+package org.jacorb.orb;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jacorb.util.ObjectUtil;
+import org.jacorb.util.ValueHandler;
+import org.omg.CORBA.MARSHAL;
+
+/**
+ * Caches what the CDR streams look up by reflection to marshal
+ * valuetypes of a class: its RMI repository id and codebase, whether it
+ * is custom marshaled, the read and write methods of the helper of an
+ * IDLEntity and the RMIValueMarshaller of other classes. Each ORB has
+ * one, so that marshaling many values of the same class does these
+ * lookups only once. The streams fetch the Entry of a class once per
+ * value and take everything they need from it.
+ * <p>
+ * The cache is keyed weakly by the class, so classes loaded by different
+ * class loaders have separate entries and don't stay loaded because of
+ * it. As the helper methods refer to the class loader as well, entries
+ * are held softly. Like the JDK's ObjectStreamClass cache, the map is a
+ * ConcurrentHashMap of weak class keys whose cleared keys are removed
+ * through a ReferenceQueue, so that lookups from many threads don't
+ * contend for a lock.
+ */
+public final class ValueMetadataCache
+{
+    private final ConcurrentMap<WeakClassKey, SoftReference<Entry>> entries =
+        new ConcurrentHashMap<WeakClassKey, SoftReference<Entry>>();
+
+    private final ReferenceQueue<Class<?>> staleKeys = new ReferenceQueue<Class<?>>();
+
+    /**
+     * @see ValueHandler#getRMIRepositoryID(Class)
+     */
+    public String getRMIRepositoryID(Class<?> clazz)
+    {
+        return getEntry(clazz).getRMIRepositoryID();
+    }
+
+    /**
+     * @see ValueHandler#getCodebase(Class)
+     */
+    public String getCodebase(Class<?> clazz)
+    {
+        return getEntry(clazz).getCodebase();
+    }
+
+    /**
+     * @see ValueHandler#isCustomMarshaled(Class)
+     */
+    public boolean isCustomMarshaled(Class<?> clazz)
+    {
+        return getEntry(clazz).isCustomMarshaled();
+    }
+
+    /**
+     * @return the static read method of the helper of an IDLEntity class
+     * @exception MARSHAL if there is no helper or it has no read method
+     */
+    public Method getHelperReadMethod(Class<?> clazz)
+    {
+        return getEntry(clazz).getHelperReadMethod();
+    }
+
+    /**
+     * @return the static write method of the helper of an IDLEntity class
+     * @exception MARSHAL if there is no helper or it has no write method
+     */
+    public Method getHelperWriteMethod(Class<?> clazz)
+    {
+        return getEntry(clazz).getHelperWriteMethod();
+    }
+
+    /**
+     * @return the metadata of the class, which is created if it isn't
+     * cached yet
+     */
+    public Entry getEntry(Class<?> clazz)
+    {
+        removeStaleEntries();
+
+        final SoftReference<Entry> reference = entries.get(new WeakClassKey(clazz, null));
+        Entry entry = (reference == null) ? null : reference.get();
+        if (entry == null)
+        {
+            // two threads may create an entry for the same class, the
+            // last one stays in the cache
+            entry = new Entry(clazz);
+            entries.put(new WeakClassKey(clazz, staleKeys), new SoftReference<Entry>(entry));
+        }
+        return entry;
+    }
+
+    private void removeStaleEntries()
+    {
+        Reference<? extends Class<?>> key;
+        while ((key = staleKeys.poll()) != null)
+        {
+            entries.remove(key);
+        }
+    }
+
+    private static Method getHelperMethod(Class<?> clazz, String name, Class<?>[] paramTypes)
+    {
+        final String helperClassName = clazz.getName() + "Helper";
+
+        try
+        {
+            final ClassLoader classLoader = clazz.getClassLoader();
+            final Class<?> helperClass =
+                (classLoader != null)
+                    ? classLoader.loadClass(helperClassName)
+                    : ObjectUtil.classForName(helperClassName);
+
+            return helperClass.getMethod(name, paramTypes);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new MARSHAL("Error loading class " + helperClassName
+                              + ": " + e);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new MARSHAL("No " + name + " method in helper class "
+                              + helperClassName + ": " + e);
+        }
+    }
+
+    /**
+     * The metadata of one class. Its fields are filled in lazily, they
+     * are volatile so that a value computed by one thread is seen
+     * completely by others. Two threads may compute the same value, which
+     * is harmless.
+     */
+    public static final class Entry
+    {
+        private final Class<?> clazz;
+        private volatile String repositoryId;
+        private volatile boolean codebaseKnown;
+        private volatile String codebase;
+        private volatile Boolean customMarshaled;
+        private volatile Method readMethod;
+        private volatile Method writeMethod;
+        private volatile boolean marshallerKnown;
+        private volatile RMIValueMarshaller marshaller;
+
+        Entry(Class<?> clazz)
+        {
+            this.clazz = clazz;
+        }
+
+        /**
+         * @see ValueHandler#getRMIRepositoryID(Class)
+         */
+        public String getRMIRepositoryID()
+        {
+            String result = repositoryId;
+            if (result == null)
+            {
+                result = ValueHandler.getRMIRepositoryID(clazz);
+                repositoryId = result;
+            }
+            return result;
+        }
+
+        /**
+         * @see ValueHandler#getCodebase(Class)
+         */
+        public String getCodebase()
+        {
+            if (!codebaseKnown)
+            {
+                codebase = ValueHandler.getCodebase(clazz);
+                codebaseKnown = true;
+            }
+            return codebase;
+        }
+
+        /**
+         * @see ValueHandler#isCustomMarshaled(Class)
+         */
+        public boolean isCustomMarshaled()
+        {
+            Boolean result = customMarshaled;
+            if (result == null)
+            {
+                result = Boolean.valueOf(ValueHandler.isCustomMarshaled(clazz));
+                customMarshaled = result;
+            }
+            return result.booleanValue();
+        }
+
+        /**
+         * @return the static read method of the helper of an IDLEntity class
+         * @exception MARSHAL if there is no helper or it has no read method
+         */
+        public Method getHelperReadMethod()
+        {
+            Method result = readMethod;
+            if (result == null)
+            {
+                result = getHelperMethod(clazz, "read", new Class[] {
+                    org.omg.CORBA.portable.InputStream.class
+                });
+                readMethod = result;
+            }
+            return result;
+        }
+
+        /**
+         * @return the static write method of the helper of an IDLEntity class
+         * @exception MARSHAL if there is no helper or it has no write method
+         */
+        public Method getHelperWriteMethod()
+        {
+            Method result = writeMethod;
+            if (result == null)
+            {
+                result = getHelperMethod(clazz, "write", new Class[] {
+                    org.omg.CORBA.portable.OutputStream.class, clazz
+                });
+                writeMethod = result;
+            }
+            return result;
+        }
+
+        /**
+         * @return the marshaller for RMI values of the class, or null if
+         * they have to be marshaled by the ValueHandler
+         */
+        RMIValueMarshaller getRMIValueMarshaller()
+        {
+            if (!marshallerKnown)
+            {
+                marshaller = RMIValueMarshaller.create(clazz, getRMIRepositoryID());
+                marshallerKnown = true;
+            }
+            return marshaller;
+        }
+    }
+
+    /**
+     * A weak reference to a class that is equal to the other references
+     * to the same class. Its hash code is kept, so that it can still be
+     * removed from the map after the class has been collected.
+     */
+    private static final class WeakClassKey extends WeakReference<Class<?>>
+    {
+        private final int hash;
+
+        WeakClassKey(Class<?> clazz, ReferenceQueue<Class<?>> queue)
+        {
+            super(clazz, queue);
+            hash = System.identityHashCode(clazz);
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object other)
+        {
+            if (other == this)
+            {
+                return true;
+            }
+            if (!(other instanceof WeakClassKey))
+            {
+                return false;
+            }
+            final Object referent = get();
+            return referent != null && referent == ((WeakClassKey)other).get();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.List;
 import org.jacorb.config.Configuration;
 import org.jacorb.orb.CDRInputStream;
 import org.jacorb.orb.CDROutputStream;
+import org.jacorb.orb.giop.AdmissionController;
 import org.jacorb.orb.giop.GIOPConnection;
 import org.jacorb.orb.giop.Messages;
 import org.jacorb.orb.giop.ReplyOutputStream;
@@ -79,7 +80,6 @@ public class ServerRequest
     private final boolean cachePoaNames;
 
     private int replyStatus = ReplyStatusType_1_2._NO_EXCEPTION;
-    private byte[] oid;
     private byte[] object_key;
 
     /**
@@ -102,10 +102,21 @@ public class ServerRequest
 
     private final Logger logger;
 
-    //MIOP
+    /**
+     * the oid, usually wrapping the end of object_key. The oid is
+     * only copied into an array of its own if objectId is called.
+     */
     private ByteArrayKey byteArrayKey;
+
+    //MIOP
     private TagGroupTaggedComponent tagGroup = null;
 
+    // set while the request counts against the admission limit
+    private AdmissionController admissionController;
+    private long admissionTime;
+    // set if the reply is sent before the request has been processed
+    private boolean admissionUntilProcessed;
+
 
     public ServerRequest( org.jacorb.orb.ORB orb,
                           RequestInputStream inStream,
@@ -146,7 +157,7 @@ public class ServerRequest
         else
         {
             object_key = orb.mapObjectKey(org.jacorb.orb.ParsedIOR.extractObjectKey(inStream.req_hdr.target, orb));
-            oid = org.jacorb.poa.util.POAUtil.extractOID( object_key );
+            byteArrayKey = POAUtil.extractOIDKey( object_key );
         }
     }
 
@@ -155,7 +166,7 @@ public class ServerRequest
     public void setObjectKey(byte[] objectKey)
     {
         object_key = objectKey;
-        oid = org.jacorb.poa.util.POAUtil.extractOID( object_key );
+        byteArrayKey = POAUtil.extractOIDKey( object_key );
     }
 
     public TagGroupTaggedComponent getTagGroup()
@@ -365,9 +376,48 @@ public class ServerRequest
     }
 
 
+    /**
+     * Makes the request count against the admission controller's limit
+     * until it has been replied to.
+     */
+    public void setAdmission(AdmissionController controller, long admitted)
+    {
+        admissionController = controller;
+        admissionTime = admitted;
+    }
+
+    /**
+     * Keeps the request counting against the admission controller's
+     * limit after its reply, until releaseAdmission is called. Used
+     * for SYNC_WITH_SERVER requests, which are replied to before they
+     * are processed.
+     */
+    public void holdAdmission()
+    {
+        admissionUntilProcessed = true;
+    }
+
+    /**
+     * Ends the admission of the request, if it has not ended yet.
+     */
+    public void releaseAdmission()
+    {
+        if (admissionController != null)
+        {
+            final AdmissionController controller = admissionController;
+            admissionController = null;
+            controller.release(admissionTime);
+        }
+    }
+
     // BasicAdapter / ServerRequestListener / IMR
     public void reply()
     {
+        if (!admissionUntilProcessed)
+        {
+            releaseAdmission();
+        }
+
         if( responseExpected() )
         {
             if( logger.isDebugEnabled() )
@@ -664,14 +714,14 @@ public class ServerRequest
 
     public byte[] objectId()
     {
-        return oid;
+        return byteArrayKey == null ? null : byteArrayKey.getBytes();
     }
 
     public synchronized ByteArrayKey objectIdAsByteArrayKey()
     {
         if (byteArrayKey == null)
         {
-            byteArrayKey = new ByteArrayKey(oid);
+            byteArrayKey = new ByteArrayKey((byte[]) null);
         }
 
         return byteArrayKey;
@@ -0,0 +1,178 @@
+package org.jacorb.orb.giop;
+
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import org.jacorb.config.Configurable;
+import org.jacorb.config.Configuration;
+import org.jacorb.config.ConfigurationException;
+import org.slf4j.Logger;
+
+/**
+ * Limits the number of requests a server processes concurrently. The
+ * limit adapts to the latency of the requests, measured from their
+ * admission to their reply, in the way of a gradient concurrency
+ * limit: a short-term average of the latency is compared to a
+ * long-term one. While the short-term latency stays within
+ * <code>tolerance</code> times the long-term latency the limit grows
+ * (by about its square root), once requests start to queue up it
+ * shrinks in proportion. Requests beyond the limit are to be rejected
+ * with TRANSIENT before they are unmarshalled, so a server under
+ * overload sheds work early instead of letting the latency of all
+ * requests grow.
+ *
+ * @see ServerRequestListener
+ */
+public class AdmissionController
+    implements Configurable
+{
+    // number of samples the short-term latency is averaged over
+    private static final int SHORT_WINDOW = 10;
+
+    private Logger logger;
+
+    private double minLimit;
+    private double maxLimit;
+    private double tolerance;
+    private double smoothing;
+    private int longWindow;
+
+    private double limit;
+    private int inflight;
+
+    private double shortLatency;
+    private double longLatency;
+    private long samples;
+
+    public void configure(Configuration configuration)
+        throws ConfigurationException
+    {
+        logger = configuration.getLogger("org.jacorb.giop.server.admission");
+
+        minLimit = configuration.getAttributeAsInteger("jacorb.connection.server.admission.min_limit", 4);
+        maxLimit = configuration.getAttributeAsInteger("jacorb.connection.server.admission.max_limit", 1000);
+        limit = configuration.getAttributeAsInteger("jacorb.connection.server.admission.initial_limit", 50);
+        longWindow = configuration.getAttributeAsInteger("jacorb.connection.server.admission.long_window", 600);
+        tolerance = configuration.getAttributeAsFloat("jacorb.connection.server.admission.tolerance", 1.5);
+        smoothing = configuration.getAttributeAsFloat("jacorb.connection.server.admission.smoothing", 0.2);
+
+        if (minLimit < 1 || maxLimit < minLimit)
+        {
+            throw new ConfigurationException("jacorb.connection.server.admission.min_limit must be at least 1 and not exceed max_limit");
+        }
+        if (longWindow <= SHORT_WINDOW)
+        {
+            throw new ConfigurationException("jacorb.connection.server.admission.long_window must be greater than " + SHORT_WINDOW);
+        }
+        if (tolerance < 1.0 || smoothing <= 0.0 || smoothing > 1.0)
+        {
+            throw new ConfigurationException("jacorb.connection.server.admission.tolerance must be at least 1, smoothing in (0,1]");
+        }
+
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    /**
+     * Admits a request if the limit has not been reached.
+     *
+     * @return the admission time to be passed to {@link #release(long)},
+     * or 0 if the request has been rejected
+     */
+    public synchronized long acquire()
+    {
+        if (inflight >= (int) limit)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("rejecting request, " + inflight + " requests in progress (limit: " + (int) limit + ")");
+            }
+            return 0;
+        }
+
+        inflight++;
+
+        long now = System.nanoTime();
+        return now == 0 ? 1 : now;
+    }
+
+    /**
+     * Notifies the completion of a request admitted at the given time
+     * and adapts the limit to its latency.
+     */
+    public synchronized void release(long admitted)
+    {
+        final double latency = System.nanoTime() - admitted;
+        final int active = inflight--;
+
+        if (samples++ == 0)
+        {
+            shortLatency = latency;
+            longLatency = latency;
+            return;
+        }
+
+        shortLatency += (latency - shortLatency) / SHORT_WINDOW;
+        longLatency += (latency - longLatency) / longWindow;
+
+        // the long-term latency follows a recovery more quickly, otherwise
+        // the limit would stay high long after a spike
+        if (longLatency > 2 * shortLatency)
+        {
+            longLatency *= 0.95;
+        }
+
+        // the server is not using its limit, there is no point in
+        // growing it further
+        if (active < limit / 2)
+        {
+            return;
+        }
+
+        final double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / shortLatency));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+        if (logger.isDebugEnabled() && (int) newLimit != (int) limit)
+        {
+            logger.debug("concurrency limit " + (int) newLimit + " (latency short: " +
+                         (long) (shortLatency / 1000) + "us, long: " + (long) (longLatency / 1000) + "us)");
+        }
+
+        limit = newLimit;
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of admitted requests that have not completed
+     */
+    public synchronized int getInflight()
+    {
+        return inflight;
+    }
+}
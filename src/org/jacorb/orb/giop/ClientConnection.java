@@ -23,6 +23,7 @@ package org.jacorb.orb.giop;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jacorb.config.Configuration;
 import org.jacorb.orb.ParsedIOR;
 import org.omg.CONV_FRAME.CodeSetComponentInfo;
@@ -47,8 +48,12 @@ public class ClientConnection
 
     /**
      * <code>client_count</code> denotes how many clients use this connection.
+     * Once the last client has released the connection the count is set to
+     * -1 and the connection can not be acquired again.
      */
-    private int client_count = 0;
+    private final AtomicInteger client_count = new AtomicInteger();
+
+    private volatile long averageReplyTime = 0;
 
     /**
      * <code>id_count</code> is used to generate request ids.
@@ -217,28 +222,38 @@ public class ClientConnection
 
     /**
      * Increments the number of clients.
+     *
+     * @return false if the connection has already been released by its
+     * last client and must not be used any more.
      */
-    public synchronized void incClients()
+    public boolean incClients()
     {
-        client_count++;
+        while (true)
+        {
+            int count = client_count.get();
+
+            if (count < 0)
+            {
+                return false;
+            }
+            if (client_count.compareAndSet(count, count + 1))
+            {
+                return true;
+            }
+        }
     }
 
     /**
      * This method decrements the number of clients.
      *
      * @return a <code>boolean</code> value, true if client_count is zero.
+     * In that case the connection is retired, i.e. a concurrent
+     * incClients() will fail.
      */
-    public synchronized boolean decClients()
+    public boolean decClients()
     {
-        boolean result = false;
-
-        client_count--;
-
-        if (client_count == 0 )
-        {
-            result = true;
-        }
-        return result;
+        return client_count.decrementAndGet() == 0 &&
+               client_count.compareAndSet(0, -1);
     }
 
     /**
@@ -246,7 +261,7 @@ public class ClientConnection
      */
     public int numClients()
     {
-        return client_count;
+        return Math.max(0, client_count.get());
     }
 
     public boolean isClientInitiated()
@@ -279,6 +294,8 @@ public class ClientConnection
     {
         Integer key = Integer.valueOf(request_id);
 
+        placeholder.sendTime = System.nanoTime();
+
         synchronized( replies )
         {
             replies.put( key, placeholder );
@@ -336,6 +353,37 @@ public class ClientConnection
         return connection.do_close;
     }
 
+    /**
+     * @return the number of requests sent over this connection
+     * that are still awaiting their reply.
+     */
+    public int getPendingReplyCount()
+    {
+        synchronized( replies )
+        {
+            return replies.size();
+        }
+    }
+
+    /**
+     * @return the moving average of the time in nanoseconds between
+     * sending a request over this connection and receiving its reply,
+     * or 0 if no reply has been received yet.
+     */
+    public long getAverageReplyTime()
+    {
+        return averageReplyTime;
+    }
+
+    private void replyTimed( ReplyPlaceholder placeholder )
+    {
+        final long time = System.nanoTime() - placeholder.sendTime;
+        final long average = averageReplyTime;
+
+        // concurrent updates may lose a sample, which is fine for an estimate
+        averageReplyTime = (average == 0) ? Math.max( time, 1 ) : average + (time - average) / 8;
+    }
+
     /**
      * Operations from ReplyListener
      */
@@ -357,6 +405,8 @@ public class ClientConnection
 
         if( placeholder != null )
         {
+            replyTimed( placeholder );
+
             ReplyInputStream ris = new ReplyInputStream (orb, reply);
             ris.setCodeSet (this.getTCS(),this.getTCSW());
             //this will unblock the waiting thread
@@ -20,16 +20,22 @@ package org.jacorb.orb.giop;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import org.jacorb.config.Configurable;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
 import org.jacorb.orb.ORB;
 import org.jacorb.orb.iiop.IIOPProfile;
 import org.omg.CORBA.BAD_PARAM;
+import org.omg.CORBA.INTERNAL;
 import org.omg.ETF.Factories;
 import org.omg.ETF.Profile;
 import org.slf4j.Logger;
@@ -37,6 +43,15 @@ import org.slf4j.Logger;
 /**
  * This class manages connections.
  *
+ * Connections are registered per profile as futures in a concurrent
+ * map. Lookups of existing connections take no lock, and a connection
+ * to a new target is created by the first caller for that profile
+ * only, without holding up callers for other profiles.
+ *
+ * If jacorb.connection.client.pool.max is larger than one, requests
+ * to an endpoint are spread over a pool of connections, see
+ * {@link #selectConnection(ClientConnection)}.
+ *
  * @author Gerald Brose, FU Berlin
  */
 
@@ -46,7 +61,15 @@ public class ClientConnectionManager
     private final org.jacorb.orb.ORB orb;
 
     /** connection mgmt. */
-    private final Map<Profile, ClientConnection> connections = new HashMap<Profile, ClientConnection>();
+    private final ConcurrentMap<Profile, Future<ClientConnection>> connections =
+        new ConcurrentHashMap<Profile, Future<ClientConnection>>();
+
+    /** additional connections per endpoint, keyed by the registered connection */
+    private final ConcurrentMap<ClientConnection, ClientConnectionPool> pools =
+        new ConcurrentHashMap<ClientConnection, ClientConnectionPool>();
+
+    private int poolMin;
+    private int poolMax;
 
     private RequestListener request_listener;
 
@@ -81,6 +104,17 @@ public class ClientConnectionManager
         logger = configuration.getLogger("org.jacorb.orb.giop");
 
         request_listener = new NoBiDirClientRequestListener(orb, logger);
+
+        poolMax = Math.max
+        (
+            1,
+            configuration.getAttributeAsInteger("jacorb.connection.client.pool.max", 1)
+        );
+        poolMin = Math.min
+        (
+            poolMax,
+            Math.max(1, configuration.getAttributeAsInteger("jacorb.connection.client.pool.min", 1))
+        );
     }
 
 
@@ -89,70 +123,326 @@ public class ClientConnectionManager
         request_listener = listener;
     }
 
-    public synchronized ClientConnection getConnection(org.omg.ETF.Profile profile)
+    public ClientConnection getConnection(final org.omg.ETF.Profile profile)
     {
-        /* look for an existing connection */
+        while (true)
+        {
+            /* look for an existing connection */
 
-        ClientConnection clientConnection =
-            connections.get( profile );
+            ClientConnection clientConnection = acquire( profile );
 
-        if (clientConnection == null && profile instanceof IIOPProfile)
-        {
-            IIOPProfile iiopProfile = (IIOPProfile) profile;
+            if (clientConnection == null && profile instanceof IIOPProfile)
+            {
+                IIOPProfile iiopProfile = (IIOPProfile) profile;
+
+                if (iiopProfile.getSSL() != null)
+                {
+                    final IIOPProfile sslProfile = iiopProfile.toNonSSL();
 
-            if (iiopProfile.getSSL() != null)
+                    clientConnection = acquire( sslProfile );
+                }
+            }
+
+            if (clientConnection != null)
             {
-                final IIOPProfile sslProfile = iiopProfile.toNonSSL();
+                if( logger.isInfoEnabled())
+                {
+                    logger.info("ClientConnectionManager: found "
+                                + clientConnection.getGIOPConnection().toString());
+                }
+                return clientConnection;
+            }
+
+            FutureTask<ClientConnection> future = new FutureTask<ClientConnection>
+            (
+                new Callable<ClientConnection>()
+                {
+                    public ClientConnection call()
+                    {
+                        return createConnection( profile );
+                    }
+                }
+            );
+
+            if (connections.putIfAbsent( profile, future ) == null)
+            {
+                future.run();
+
+                clientConnection = getResult( profile, future );
 
-                clientConnection = connections.get(sslProfile);
+                if (clientConnection.incClients())
+                {
+                    return clientConnection;
+                }
+
+                // released and closed by another client before we could
+                // register, make sure its entry doesn't linger
+                connections.remove( profile, future );
             }
+
+            // another thread registered a connection for this profile in
+            // the meantime, or it has been released already. Try again.
+        }
+    }
+
+    /**
+     * Looks up the connection registered for the given profile and
+     * registers the caller as a client of it.
+     *
+     * @return the connection or null if there is none or it has just
+     * been released by its last client.
+     */
+    private ClientConnection acquire(Profile profile)
+    {
+        Future<ClientConnection> future = connections.get( profile );
+
+        if (future == null)
+        {
+            return null;
+        }
+
+        ClientConnection clientConnection = getResult( profile, future );
+
+        if (clientConnection.incClients())
+        {
+            return clientConnection;
+        }
+
+        // retired connection that has not been removed yet
+        connections.remove( profile, future );
+        return null;
+    }
+
+    /**
+     * Waits for a connection to be created. Failed futures are removed
+     * so that the next caller will retry.
+     */
+    private ClientConnection getResult(Profile profile, Future<ClientConnection> future)
+    {
+        boolean interrupted = false;
+
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    connections.remove( profile, future );
+
+                    if (e.getCause() instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    if (e.getCause() instanceof Error)
+                    {
+                        throw (Error) e.getCause();
+                    }
+                    throw new INTERNAL( "Unable to create connection: " + e.getCause() );
+                }
+            }
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the connection of a future, or null if it has not been
+     * created (yet).
+     */
+    private static ClientConnection completed(Future<ClientConnection> future)
+    {
+        if (!future.isDone())
+        {
+            return null;
+        }
+
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            return null;
+        }
+    }
+
+    private ClientConnection createConnection(Profile profile)
+    {
+        int tag = profile.tag();
+        Factories factories = transport_manager.getFactories (tag);
+        if (factories == null)
+        {
+            throw new BAD_PARAM("No transport plugin for profile tag " + tag);
+        }
+        GIOPConnection connection =
+            giop_connection_manager.createClientGIOPConnection(
+                profile,
+                factories.create_connection (null),
+                request_listener,
+                null );
+
+        ClientConnection clientConnection = new ClientConnection( connection, orb, this,
+                                                                  profile, true );
+
+        if( logger.isInfoEnabled())
+        {
+            logger.info("ClientConnectionManager: created new "
+                        + clientConnection.getGIOPConnection().toString() );
+        }
+
+        receptor_pool.connectionCreated( connection );
+
+        return clientConnection;
+    }
+
+    /**
+     * Selects the connection a request to the endpoint of the given
+     * connection should be sent over. This is an idle pool member or
+     * the one whose outstanding replies are expected first, judged by
+     * their number and the member's average reply time. If all members
+     * are busy and the pool has not reached
+     * jacorb.connection.client.pool.max connections yet, another one is
+     * opened in the background, the request doesn't wait for it.
+     *
+     * @param connection a connection obtained from getConnection()
+     * @return the given connection if pooling is disabled or does
+     * not apply to it, otherwise a member of its pool.
+     */
+    public ClientConnection selectConnection( ClientConnection connection )
+    {
+        if (poolMax <= 1 || !connection.isClientInitiated())
+        {
+            return connection;
         }
 
-        if (clientConnection == null)
+        ClientConnectionPool pool = pools.get( connection );
+
+        if (pool == null)
         {
-            int tag = profile.tag();
-            Factories factories = transport_manager.getFactories (tag);
-            if (factories == null)
+            pool = new ClientConnectionPool( connection, poolMax );
+
+            ClientConnectionPool existing = pools.putIfAbsent( connection, pool );
+
+            if (existing != null)
             {
-                throw new BAD_PARAM("No transport plugin for profile tag " + tag);
+                pool = existing;
             }
-            GIOPConnection connection =
-                giop_connection_manager.createClientGIOPConnection(
-                    profile,
-                    factories.create_connection (null),
-                    request_listener,
-                    null );
+        }
 
-            clientConnection = new ClientConnection( connection, orb, this,
-                                      profile, true );
+        ClientConnection selected = pool.select();
 
-            if( logger.isInfoEnabled())
+        if (pool.startGrowing( poolMin ))
+        {
+            growInBackground( pool );
+        }
+
+        return selected;
+    }
+
+    /**
+     * @return true if <code>member</code> is <code>connection</code>
+     * itself or belongs to the pool of connections to its endpoint.
+     */
+    public boolean isPooledWith( ClientConnection member, ClientConnection connection )
+    {
+        if (member == connection)
+        {
+            return true;
+        }
+        if (member == null || connection == null)
+        {
+            return false;
+        }
+
+        ClientConnectionPool pool = pools.get( connection );
+
+        return pool != null && pool.contains( member );
+    }
+
+    /**
+     * Opens members of a pool on a thread of its own until the pool
+     * doesn't need more, so that the requests which found all members
+     * busy don't wait for the new connections.
+     */
+    private void growInBackground( final ClientConnectionPool pool )
+    {
+        final Thread thread = new Thread( "ClientConnectionPool-"
+                                          + pool.getPrimary().getRegisteredProfile() )
+        {
+            public void run()
             {
-                logger.info("ClientConnectionManager: created new "
-                            + clientConnection.getGIOPConnection().toString() );
+                try
+                {
+                    while (pool.needsMember( poolMin ) && growPool( pool ) != null)
+                    {
+                        // continue
+                    }
+                }
+                finally
+                {
+                    pool.growDone();
+                }
             }
+        };
+        thread.setDaemon( true );
+        thread.start();
+    }
 
-            receptor_pool.connectionCreated( connection );
-            connections.put( profile, clientConnection );
+    /**
+     * Opens another connection to the endpoint of a pool.
+     *
+     * @return the new member, or null if it could not be connected or
+     * the pool is full or closed.
+     */
+    private ClientConnection growPool( ClientConnectionPool pool )
+    {
+        ClientConnection member = createConnection( pool.getPrimary().getRegisteredProfile() );
+
+        try
+        {
+            member.getGIOPConnection().openTransport();
         }
-        else
+        catch (RuntimeException e)
         {
-            if( logger.isInfoEnabled())
+            if (logger.isDebugEnabled())
             {
-                logger.info("ClientConnectionManager: found "
-                            + clientConnection.getGIOPConnection().toString());
+                logger.debug( "ClientConnectionManager: could not open pool member "
+                              + member.getGIOPConnection().toString(), e );
             }
+            member.close();
+            return null;
         }
 
-        clientConnection.incClients();
-
-        return clientConnection;
+        if (pool.add( member ))
+        {
+            return member;
+        }
+        member.close();
+        return null;
     }
 
     /**
      * Only used by Delegate for client-initiated connections.
      */
-    public synchronized void releaseConnection( ClientConnection connection )
+    public void releaseConnection( ClientConnection connection )
     {
         if ( connection.decClients() )
         {
@@ -162,7 +452,13 @@ public class ClientConnectionManager
                               + connection.getGIOPConnection().toString());
             }
             connection.close();
-            connections.remove(connection.getRegisteredProfile());
+            removeConnection( connection );
+
+            ClientConnectionPool pool = pools.remove( connection );
+            if (pool != null)
+            {
+                pool.close();
+            }
         }
         else
         {
@@ -180,34 +476,56 @@ public class ClientConnectionManager
      * Only used by ClientConnection to unregister server-side of
      * BiDir connection.
      */
-    public synchronized void removeConnection(ClientConnection connection)
+    public void removeConnection(ClientConnection connection)
     {
-        connections.remove( connection.getRegisteredProfile() );
+        final Profile profile = connection.getRegisteredProfile();
+        final Future<ClientConnection> future = connections.get( profile );
+
+        if (future != null && completed( future ) == connection)
+        {
+            connections.remove( profile, future );
+        }
     }
 
-    public synchronized void addConnection( GIOPConnection connection,
-                                            org.omg.ETF.Profile profile )
+    public void addConnection( final GIOPConnection connection,
+                               final org.omg.ETF.Profile profile )
     {
         if( !connections.containsKey( profile ))
         {
-            ClientConnection clientConnection = new ClientConnection
+            // the ClientConnection is only created by the caller whose
+            // future gets registered, as its constructor installs it as
+            // the listener of the GIOPConnection.
+            FutureTask<ClientConnection> future = new FutureTask<ClientConnection>
             (
-                connection,
-                orb,
-                this,
-                profile,
-                false
+                new Callable<ClientConnection>()
+                {
+                    public ClientConnection call()
+                    {
+                        ClientConnection clientConnection = new ClientConnection
+                        (
+                            connection,
+                            orb,
+                            ClientConnectionManager.this,
+                            profile,
+                            false
+                        );
+
+                        //this is a bit of a hack: the bidirectional client
+                        //connections have to persist until their underlying GIOP
+                        //connection is closed. Therefore, we set the initial
+                        //client count to 1, so the connection will be kept even
+                        //if there are currently no associated Delegates.
+
+                        clientConnection.incClients();
+                        return clientConnection;
+                    }
+                }
             );
 
-            //this is a bit of a hack: the bidirectional client
-            //connections have to persist until their underlying GIOP
-            //connection is closed. Therefore, we set the initial
-            //client count to 1, so the connection will be kept even
-            //if there are currently no associated Delegates.
-
-            clientConnection.incClients();
-
-            connections.put( profile, clientConnection );
+            if (connections.putIfAbsent( profile, future ) == null)
+            {
+                future.run();
+            }
         }
     }
 
@@ -215,7 +533,25 @@ public class ClientConnectionManager
     {
         /* release all open connections */
 
-        for( Iterator<ClientConnection> i = new HashSet<ClientConnection>(connections.values()).iterator(); i.hasNext(); )
+        List<Future<ClientConnection>> futures =
+            new ArrayList<Future<ClientConnection>>( connections.values() );
+        connections.clear();
+
+        List<ClientConnectionPool> poolList =
+            new ArrayList<ClientConnectionPool>( pools.values() );
+        pools.clear();
+
+        for( Iterator<Future<ClientConnection>> i = futures.iterator(); i.hasNext(); )
+        {
+            ClientConnection clientConnection = completed( i.next() );
+
+            if (clientConnection != null)
+            {
+                clientConnection.close();
+            }
+        }
+
+        for( Iterator<ClientConnectionPool> i = poolList.iterator(); i.hasNext(); )
         {
             i.next().close();
         }
@@ -225,7 +561,6 @@ public class ClientConnectionManager
             logger.debug("ClientConnectionManager shut down (all connections released)");
         }
 
-        connections.clear();
         receptor_pool.shutdown();
     }
 }
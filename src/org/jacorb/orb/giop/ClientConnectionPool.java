@@ -0,0 +1,217 @@
+package org.jacorb.orb.giop;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The set of client connections to a single endpoint. The first
+ * member is the connection registered with the ClientConnectionManager
+ * for the endpoint's profile, further members are opened in the
+ * background when all existing members have replies outstanding, up
+ * to the configured maximum.
+ *
+ * Selection reads a copy-on-write array and takes no lock, only
+ * adding and removing members is synchronized.
+ */
+class ClientConnectionPool
+{
+    private final ClientConnection primary;
+    private final int max;
+
+    private volatile ClientConnection[] members;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /** true if the last selection found every member busy */
+    private volatile boolean saturated = false;
+    private final AtomicBoolean growing = new AtomicBoolean();
+
+    ClientConnectionPool (ClientConnection primary, int max)
+    {
+        this.primary = primary;
+        this.max = max;
+        this.members = new ClientConnection[] { primary };
+    }
+
+    /**
+     * @return an idle member if there is one, otherwise the member whose
+     * outstanding replies are expected to arrive first, i.e. with the
+     * lowest product of outstanding replies and average reply time.
+     * Members without a reply time yet are ranked by their outstanding
+     * replies alone, so that new members are tried early.
+     */
+    ClientConnection select()
+    {
+        final ClientConnection[] current = members;
+        final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % current.length;
+
+        ClientConnection result = primary;
+        long lowest = Long.MAX_VALUE;
+
+        for (int i = 0; i < current.length; i++)
+        {
+            ClientConnection member = current[(start + i) % current.length];
+
+            if (member != primary && member.isClosed())
+            {
+                remove (member);
+                continue;
+            }
+
+            int pending = member.getPendingReplyCount();
+            if (pending == 0)
+            {
+                lowest = 0;
+                result = member;
+                break;
+            }
+
+            long expected = pending * Math.max (member.getAverageReplyTime(), 1);
+            if (expected < lowest)
+            {
+                lowest = expected;
+                result = member;
+            }
+        }
+
+        final boolean busy = lowest > 0;
+        if (saturated != busy)
+        {
+            saturated = busy;
+        }
+        return result;
+    }
+
+    /**
+     * Claims the right to open members for this pool if it has fewer
+     * than min members, or if every member was busy at the last
+     * selection and the pool may still grow. growDone() must be called
+     * once the caller has stopped opening members.
+     */
+    boolean startGrowing (int min)
+    {
+        return needsMember (min) && growing.compareAndSet (false, true);
+    }
+
+    /**
+     * @return true if another member should be opened
+     */
+    boolean needsMember (int min)
+    {
+        final int size = members.length;
+        return !closed && size < max && (size < min || saturated);
+    }
+
+    void growDone()
+    {
+        growing.set (false);
+    }
+
+    ClientConnection getPrimary()
+    {
+        return primary;
+    }
+
+    /**
+     * Adds a member unless the pool is full or has been closed.
+     *
+     * @return true if the connection has been added
+     */
+    synchronized boolean add (ClientConnection connection)
+    {
+        if (closed || members.length >= max)
+        {
+            return false;
+        }
+
+        ClientConnection[] copy = new ClientConnection[members.length + 1];
+        System.arraycopy (members, 0, copy, 0, members.length);
+        copy[members.length] = connection;
+        members = copy;
+
+        // the next selection tells whether the new member is enough
+        saturated = false;
+
+        return true;
+    }
+
+    synchronized void remove (ClientConnection connection)
+    {
+        final ClientConnection[] current = members;
+
+        for (int i = 0; i < current.length; i++)
+        {
+            if (current[i] == connection)
+            {
+                ClientConnection[] copy = new ClientConnection[current.length - 1];
+                System.arraycopy (current, 0, copy, 0, i);
+                System.arraycopy (current, i + 1, copy, i, current.length - i - 1);
+                members = copy;
+                return;
+            }
+        }
+    }
+
+    int size()
+    {
+        return members.length;
+    }
+
+    boolean contains (ClientConnection connection)
+    {
+        final ClientConnection[] current = members;
+
+        for (int i = 0; i < current.length; i++)
+        {
+            if (current[i] == connection)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes all members except the primary connection, which is
+     * managed by the ClientConnectionManager itself.
+     */
+    void close()
+    {
+        final ClientConnection[] current;
+
+        synchronized (this)
+        {
+            closed = true;
+            current = members;
+            members = new ClientConnection[] { primary };
+        }
+
+        for (int i = 0; i < current.length; i++)
+        {
+            if (current[i] != primary)
+            {
+                current[i].close();
+            }
+        }
+    }
+}
@@ -58,6 +58,20 @@ public class ClientGIOPConnection
             configuration.getAttributeAsInteger("jacorb.connection.request.write_timeout", 0);
 
         init_write_monitor (max_request_write_time);
+
+        long coalesceDelay =
+            configuration.getAttributeAsLong("jacorb.connection.client.coalesce_delay", 0);
+
+        if (coalesceDelay > 0)
+        {
+            int coalesceLimit =
+                configuration.getAttributeAsInteger("jacorb.connection.client.coalesce_limit", 8192);
+            WriteCoalescingPolicy policy = (WriteCoalescingPolicy)
+                configuration.getAttributeAsObject("jacorb.connection.client.coalesce_policy",
+                                                   OnewayCoalescingPolicy.class.getName());
+
+            enableCoalescing (policy, coalesceDelay, coalesceLimit);
+        }
     }
 
     /**
@@ -152,13 +166,22 @@ public class ClientGIOPConnection
             //The strategy is getting write_lock before sync
             //connect_sync when you need both of them.
             getWriteLock(0);
-            synchronized (connect_sync)
+
+            // don't lose messages held back for coalescing
+            flushCoalesced();
+
+            connect_sync.lock();
+            try
             {
                 transport.close();
                 // We expect that the same transport can be reconnected
                 // after a close, something that the ETF draft isn't
                 // particularly clear about.
             }
+            finally
+            {
+                connect_sync.unlock();
+            }
         }
         finally
         {
@@ -23,6 +23,7 @@ package org.jacorb.orb.giop;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
@@ -42,6 +43,8 @@ import org.slf4j.LoggerFactory;
  */
 public class CodeSet
 {
+    private static final Charset ISO8859_1_CHARSET = Charset.forName( "ISO-8859-1" );
+
     /**
      * <code>ISO8859_1</code> represents standard ASCII.
      * It is ISO 8859-1:1987; Latin Alphabet No. 1
@@ -575,6 +578,120 @@ public class CodeSet
     }
 
 
+    /**
+     * Encodes the characters of a string into the buffer, without length
+     * indicator or terminating NUL. The caller must have reserved room for
+     * three bytes per character.
+     * @param buffer the buffer to which the string is written
+     * @param pos    the position at which the first byte is written
+     * @param value  the string to write
+     * @return the position after the last byte written
+     */
+    public int write_string( byte[] buffer, int pos, String value )
+    {
+        throw new CODESET_INCOMPATIBLE("Bad codeset: " + getName() );
+    }
+
+
+    /**
+     * Decodes a string from a range of the buffer, which holds neither
+     * length indicator nor terminating NUL.
+     * @param buffer the buffer containing the data
+     * @param start  the position of the first byte of the string
+     * @param size   the number of bytes to decode
+     * @return the decoded string
+     */
+    public String read_string( byte[] buffer, int start, int size )
+    {
+        throw new CODESET_INCOMPATIBLE("Bad codeset: " + getName() );
+    }
+
+
+    /**
+     * Encodes the characters of a wide string into the buffer, without
+     * length indicator, byte-order-marker or terminating NUL. The caller
+     * must have reserved room for three bytes per character.
+     * @param buffer     the buffer to which the string is written
+     * @param pos        the position at which the first byte is written
+     * @param value      the string to write
+     * @param giop_minor the low-order byte of the giop version (1.x is assumed)
+     * @return the position after the last byte written
+     */
+    public int write_wstring( byte[] buffer, int pos, String value, int giop_minor )
+    {
+        throw new CODESET_INCOMPATIBLE("Bad codeset: " + getName() );
+    }
+
+
+    /**
+     * Decodes a wide string from a range of the buffer. The length
+     * indicator is presumed already to have been read.
+     * @param buffer          the buffer containing the data
+     * @param start           the position following the length indicator
+     * @param lengthIndicator the length indicator already read
+     * @param giop_minor      the low-order byte of the giop version (1.x is assumed)
+     * @param littleEndian    true if the characters are to be read low end first
+     * @return a string possibly containing wide characters.
+     */
+    public String read_wstring( byte[] buffer, int start, int lengthIndicator, int giop_minor, boolean littleEndian )
+    {
+        throw new MARSHAL( "Bad wide char codeSet: " + getName() );
+    }
+
+
+    /**
+     * Returns the number of bytes taken by a wide string with the specified
+     * length indicator.
+     * @param lengthIndicator the length indicator of the string
+     * @param giop_minor      the low-order byte of the giop version (1.x is assumed)
+     */
+    public int get_wstring_length( int lengthIndicator, int giop_minor )
+    {
+        return giop_minor >= 2 ? lengthIndicator : 2 * lengthIndicator;
+    }
+
+
+    /**
+     * Returns the length of the byte-order-marker at the specified buffer
+     * position, i.e. 2 if there is one and 0 otherwise.
+     */
+    protected static int bomLength( byte[] buffer, int pos, int end )
+    {
+        if (pos + 1 < end &&
+            ((buffer[pos] == (byte) 0xFE && buffer[pos + 1] == (byte) 0xFF) ||
+             (buffer[pos] == (byte) 0xFF && buffer[pos + 1] == (byte) 0xFE)))
+        {
+            return 2;
+        }
+        return 0;
+    }
+
+
+    /**
+     * Returns the position of the first byte in the range which is not
+     * 7 bit ASCII, or end if there is none.
+     */
+    protected static int scanAscii( byte[] buffer, int start, int end )
+    {
+        int i = start;
+        while (i < end && buffer[i] >= 0)
+        {
+            i++;
+        }
+        return i;
+    }
+
+
+    /**
+     * Returns the string whose chars are the bytes of the range, i.e.
+     * decodes it as ISO 8859-1, which the JDK does without a lookup table.
+     */
+    protected static String latin1String( byte[] buffer, int start, int size )
+    {
+        return new String( buffer, start, size, ISO8859_1_CHARSET );
+    }
+
+
     /**
      * Reads a wide string from the buffer according to GIOP 1.2. The length indicator is presumed already to have been read.
      * @param buffer          the buffer from which to read the string
@@ -629,6 +746,25 @@ public class CodeSet
         {
             buffer.write_byte( (byte) c );
         }
+
+
+        public int write_string( byte[] buffer, int pos, String value )
+        {
+            // the low byte of every char, as write_char does
+            final int length = value.length();
+            for (int i = 0; i < length; i++)
+            {
+                buffer[pos++] = (byte) value.charAt( i );
+            }
+            return pos;
+        }
+
+
+        public String read_string( byte[] buffer, int start, int size )
+        {
+            // every byte is the low byte of its char
+            return latin1String( buffer, start, size );
+        }
     }
 
 
@@ -640,53 +776,93 @@ public class CodeSet
         }
 
         public void write_char( OutputBuffer buffer, char c, boolean write_bom, boolean write_length_indicator, int giop_minor )
+        {
+            buffer.write_byte( encode( c ) );
+        }
+
+
+        public int write_string( byte[] buffer, int pos, String value )
+        {
+            final int length = value.length();
+            for (int i = 0; i < length; i++)
+            {
+                final char c = value.charAt( i );
+                buffer[pos++] = c < '\u0100' ? (byte) c : encode( c );
+            }
+            return pos;
+        }
+
+
+        public String read_string( byte[] buffer, int start, int size )
+        {
+            final int end = start + size;
+            int i = scanAscii( buffer, start, end );
+            if (i == end)
+            {
+                return latin1String( buffer, start, size );
+            }
+
+            char[] chars = new char[size];
+            for (int j = start; j < i; j++)
+            {
+                chars[j - start] = (char) buffer[j];
+            }
+            for (; i < end; i++)
+            {
+                chars[i - start] = decode( buffer[i] );
+            }
+            return new String( chars );
+        }
+
+
+        private static byte encode( char c )
         {
             switch (c)
             {
                 case '\u20AC':
-                {
-                    buffer.write_byte((byte) 0xA4);
-                    break;
-                }
+                    return (byte) 0xA4;
                 case '\u0160':
-                {
-                    buffer.write_byte((byte) 0xA6);
-                    break;
-                }
+                    return (byte) 0xA6;
                 case '\u0161':
-                {
-                    buffer.write_byte((byte) 0xA8);
-                    break;
-                }
+                    return (byte) 0xA8;
                 case '\u017D':
-                {
-                    buffer.write_byte((byte) 0xB4);
-                    break;
-                }
+                    return (byte) 0xB4;
                 case '\u017E':
-                {
-                    buffer.write_byte((byte) 0xB8);
-                    break;
-                }
+                    return (byte) 0xB8;
                 case '\u0152':
-                {
-                    buffer.write_byte((byte) 0xBC);
-                    break;
-                }
+                    return (byte) 0xBC;
                 case '\u0153':
-                {
-                    buffer.write_byte((byte) 0xBD);
-                    break;
-                }
+                    return (byte) 0xBD;
                 case '\u0178':
-                {
-                    buffer.write_byte((byte) 0xBE);
-                    break;
-                }
+                    return (byte) 0xBE;
                 default:
-                {
-                    super.write_char (buffer, c, write_bom, write_length_indicator, giop_minor);
-                }
+                    return (byte) c;
+            }
+        }
+
+
+        private static char decode( byte b )
+        {
+            switch (b & 0xFF)
+            {
+                case 0xA4:
+                    return '\u20AC';
+                case 0xA6:
+                    return '\u0160';
+                case 0xA8:
+                    return '\u0161';
+                case 0xB4:
+                    return '\u017D';
+                case 0xB8:
+                    return '\u017E';
+                case 0xBC:
+                    return '\u0152';
+                case 0xBD:
+                    return '\u0153';
+                case 0xBE:
+                    return '\u0178';
+                default:
+                    return (char) (b & 0xFF);
             }
         }
     }
@@ -694,6 +870,8 @@ public class CodeSet
 
     static private class Utf8CodeSet extends CodeSet {
 
+        private static final Charset UTF8_CHARSET = Charset.forName( "UTF-8" );
+
         private Utf8CodeSet( )
         {
             super( 0x05010001, "UTF8" );
@@ -783,6 +961,151 @@ public class CodeSet
         {
             return currentPos - startPos - 4;
         }
+
+
+        public int write_string( byte[] buffer, int pos, String value )
+        {
+            return encode( buffer, pos, value );
+        }
+
+
+        public String read_string( byte[] buffer, int start, int size )
+        {
+            final int end = start + size;
+            int i = scanAscii( buffer, start, end );
+            if (i == end)
+            {
+                return latin1String( buffer, start, size );
+            }
+
+            char[] chars = new char[size];
+            int n = 0;
+            for (int j = start; j < i; j++)
+            {
+                chars[n++] = (char) buffer[j];
+            }
+
+            // decode the well-formed 1-3 byte sequences here and leave
+            // everything else, e.g. surrogate pairs or malformed input, to
+            // the JDK decoder so that the result is the same as before
+            while (i < end)
+            {
+                final int b1 = buffer[i] & 0xFF;
+                if (b1 < 0x80)
+                {
+                    chars[n++] = (char) b1;
+                    i++;
+                }
+                else if (b1 >= 0xC2 && b1 <= 0xDF && i + 1 < end && isContinuation( buffer[i + 1] ))
+                {
+                    chars[n++] = (char) (((b1 & 0x1F) << 6) | (buffer[i + 1] & 0x3F));
+                    i += 2;
+                }
+                else if ((b1 & 0xF0) == 0xE0 && i + 2 < end &&
+                         isContinuation( buffer[i + 1] ) && isContinuation( buffer[i + 2] ))
+                {
+                    final int c = ((b1 & 0x0F) << 12) | ((buffer[i + 1] & 0x3F) << 6) | (buffer[i + 2] & 0x3F);
+                    if (c < 0x800 || (c >= 0xD800 && c <= 0xDFFF))
+                    {
+                        return new String( buffer, start, size, UTF8_CHARSET );
+                    }
+                    chars[n++] = (char) c;
+                    i += 3;
+                }
+                else
+                {
+                    return new String( buffer, start, size, UTF8_CHARSET );
+                }
+            }
+            return new String( chars, 0, n );
+        }
+
+
+        public int write_wstring( byte[] buffer, int pos, String value, int giop_minor )
+        {
+            return encode( buffer, pos, value );
+        }
+
+
+        public String read_wstring( byte[] buffer, int start, int lengthIndicator, int giop_minor, boolean littleEndian )
+        {
+            if (giop_minor < 2) throw new MARSHAL( "Bad wide char codeSet: " + getName() );
+
+            final int end = start + lengthIndicator;
+            char[] chars = new char[lengthIndicator];
+            int n = 0;
+
+            // same decoding as read_wchar
+            for (int i = start + bomLength( buffer, start, end ); i < end; )
+            {
+                final int b1 = buffer[i] & 0xFF;
+                if ((b1 & 0x80) == 0)
+                {
+                    chars[n++] = (char) b1;
+                    i++;
+                }
+                else if ((b1 & 0xe0) == 0xc0 && i + 1 < end)
+                {
+                    chars[n++] = (char) (((b1 & 0x1F) << 6) | (buffer[i + 1] & 0x3F));
+                    i += 2;
+                }
+                else if (i + 2 < end)
+                {
+                    chars[n++] = (char) (((b1 & 0x0F) << 12) | ((buffer[i + 1] & 0x3F) << 6) | (buffer[i + 2] & 0x3F));
+                    i += 3;
+                }
+                else
+                {
+                    throw new MARSHAL( "Truncated UTF-8 character in wide string" );
+                }
+            }
+            return new String( chars, 0, n );
+        }
+
+
+        /**
+         * Encodes the string the way write_char encodes a single char,
+         * i.e. each char, surrogates included, takes one to three bytes.
+         */
+        private static int encode( byte[] buffer, int pos, String value )
+        {
+            final int length = value.length();
+
+            // ASCII prefix, one byte per char
+            int i = 0;
+            for (char c; i < length && (c = value.charAt( i )) <= 0x007F; i++)
+            {
+                buffer[pos + i] = (byte) c;
+            }
+            pos += i;
+
+            for (; i < length; i++)
+            {
+                final char c = value.charAt( i );
+                if (c <= 0x007F)
+                {
+                    buffer[pos++] = (byte) c;
+                }
+                else if (c > 0x07FF)
+                {
+                    buffer[pos++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                    buffer[pos++] = (byte) (0x80 | ((c >>  6) & 0x3F));
+                    buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+                else
+                {
+                    buffer[pos++] = (byte) (0xC0 | ((c >>  6) & 0x1F));
+                    buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return pos;
+        }
+
+
+        private static boolean isContinuation( byte b )
+        {
+            return (b & 0xC0) == 0x80;
+        }
     }
 
 
@@ -877,6 +1200,62 @@ public class CodeSet
         {
             return s.length() + 1;   // size in chars (+ NUL char)
         }
+
+
+        public int write_wstring( byte[] buffer, int pos, String value, int giop_minor )
+        {
+            // big endian; before GIOP 1.2 the chars are aligned ushorts,
+            // which they are anyway as they follow the length indicator
+            final int length = value.length();
+            for (int i = 0; i < length; i++)
+            {
+                final char c = value.charAt( i );
+                buffer[pos++] = (byte) (c >> 8);
+                buffer[pos++] = (byte) c;
+            }
+            return pos;
+        }
+
+
+        public String read_wstring( byte[] buffer, int start, int lengthIndicator, int giop_minor, boolean littleEndian )
+        {
+            int i = start;
+            int length;
+            if (giop_minor == 2)
+            {
+                final int bom = bomLength( buffer, start, start + lengthIndicator );
+                littleEndian = bom > 0 && buffer[start] == (byte) 0xFF;
+                i += bom;
+                length = (lengthIndicator - bom) / 2;
+            }
+            else //GIOP 1.1 / 1.0 : length indicates number of 2-byte characters
+            {
+                length = lengthIndicator;
+            }
+
+            char[] chars = new char[length];
+            if (littleEndian)
+            {
+                for (int n = 0; n < length; n++, i += 2)
+                {
+                    chars[n] = (char) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+                }
+            }
+            else
+            {
+                for (int n = 0; n < length; n++, i += 2)
+                {
+                    chars[n] = (char) ((buffer[i] << 8) | (buffer[i + 1] & 0xFF));
+                }
+            }
+
+            //don't return terminating NUL, which only GIOP 1.1 / 1.0 have
+            if (giop_minor != 2 && length > 0 && chars[length - 1] == 0)
+            {
+                length--;
+            }
+            return new String( chars, 0, length );
+        }
     }
 
 
@@ -0,0 +1,40 @@
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1999-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package org.jacorb.orb.giop;
+
+/**
+ * Implemented by server-side transports that frame incoming GIOP
+ * messages themselves, driven by I/O readiness events, instead of
+ * having a MessageReceptor thread block in
+ * {@link GIOPConnection#receiveMessages()} for the lifetime of the
+ * connection. Complete messages are pushed up via
+ * {@link GIOPConnection#receiveMessage(byte[])}, and a closed or failed
+ * transport is reported via {@link GIOPConnection#transportClosed()}.
+ */
+
+public interface EventDrivenTransport
+{
+    /**
+     * Start delivering incoming messages to the given connection.
+     * This method must not block.
+     */
+    void startReceiving( GIOPConnection connection );
+}// EventDrivenTransport
@@ -0,0 +1,231 @@
+package org.jacorb.orb.giop;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.jacorb.config.Configurable;
+import org.jacorb.config.Configuration;
+import org.jacorb.config.ConfigurationException;
+import org.jacorb.orb.IBufferManager;
+import org.omg.CORBA.MARSHAL;
+import org.omg.CORBA.NO_MEMORY;
+
+/**
+ * Reassembles GIOP 1.2 messages that arrive in fragments. The
+ * buffers of the individual fragments are kept as they are received
+ * and are only copied once, into a buffer from the buffer manager
+ * sized for the complete message, when the last fragment arrives.
+ *
+ * The memory held for incomplete messages of one connection may be
+ * limited by jacorb.connection.fragments.max_memory. A NO_MEMORY
+ * exception is thrown when the limit would be exceeded, which
+ * leads to the connection being closed.
+ */
+class FragmentReassembler
+    implements Configurable
+{
+    private final Map<Integer, Assembly> assemblies = new HashMap<Integer, Assembly>();
+
+    private IBufferManager bufferManager;
+
+    /**
+     * Maximum number of bytes held for incomplete messages, 0 for no limit.
+     */
+    private int maxMemory = 0;
+
+    private int memory = 0;
+
+    public void configure (Configuration configuration)
+        throws ConfigurationException
+    {
+        bufferManager = configuration.getORB().getBufferManager();
+        maxMemory = configuration.getAttributeAsInteger ("jacorb.connection.fragments.max_memory", 0);
+    }
+
+    synchronized boolean contains (int requestId)
+    {
+        return assemblies.containsKey (requestId);
+    }
+
+    /**
+     * Begins the reassembly of a message with its first fragment,
+     * which is a message with the more fragments follow bit set.
+     * The buffer is owned by the reassembler from now on.
+     */
+    synchronized void start (int requestId, byte[] message)
+    {
+        reserve (message);
+
+        Assembly assembly = new Assembly();
+        assembly.add (message, Messages.MSG_HEADER_SIZE + Messages.getMsgSize (message));
+        assemblies.put (requestId, assembly);
+    }
+
+    /**
+     * Adds a Fragment message. The buffer is owned by the reassembler
+     * from now on.
+     *
+     * @return the complete message if this was the last fragment,
+     * otherwise null
+     * @exception MARSHAL if the fragment is too short to hold the
+     * request id of its header. The incomplete message is discarded.
+     */
+    synchronized byte[] add (int requestId, byte[] fragment)
+    {
+        final Assembly assembly = assemblies.get (requestId);
+
+        final int msgSize = Messages.getMsgSize (fragment);
+        if (msgSize < Messages.FRAGMENT_HEADER_SIZE - Messages.MSG_HEADER_SIZE)
+        {
+            assemblies.remove (requestId);
+            release (assembly);
+            bufferManager.returnBuffer (fragment);
+
+            throw new MARSHAL ("Invalid Fragment message size: " + msgSize);
+        }
+
+        try
+        {
+            reserve (fragment);
+        }
+        catch (NO_MEMORY e)
+        {
+            assemblies.remove (requestId);
+            release (assembly);
+            throw e;
+        }
+
+        assembly.add (fragment, msgSize + Messages.MSG_HEADER_SIZE - Messages.FRAGMENT_HEADER_SIZE);
+
+        if (Messages.moreFragmentsFollow (fragment))
+        {
+            return null;
+        }
+
+        assemblies.remove (requestId);
+
+        try
+        {
+            return assembly.complete();
+        }
+        finally
+        {
+            release (assembly);
+        }
+    }
+
+    /**
+     * Discards the incomplete message with the given request id, if any.
+     */
+    synchronized void discard (int requestId)
+    {
+        final Assembly assembly = assemblies.remove (requestId);
+
+        if (assembly != null)
+        {
+            release (assembly);
+        }
+    }
+
+    /**
+     * Discards all incomplete messages.
+     */
+    synchronized void clear()
+    {
+        for (Iterator<Assembly> i = assemblies.values().iterator(); i.hasNext(); )
+        {
+            release (i.next());
+        }
+        assemblies.clear();
+    }
+
+    private void reserve (byte[] buffer)
+    {
+        if (maxMemory > 0 && memory + buffer.length > maxMemory)
+        {
+            bufferManager.returnBuffer (buffer);
+
+            throw new NO_MEMORY ("Memory for fragmented messages exceeds the limit of "
+                                 + maxMemory + " bytes");
+        }
+        memory += buffer.length;
+    }
+
+    private void release (Assembly assembly)
+    {
+        for (int i = 0; i < assembly.parts.size(); i++)
+        {
+            byte[] part = assembly.parts.get (i);
+
+            memory -= part.length;
+            bufferManager.returnBuffer (part);
+        }
+        assembly.parts.clear();
+    }
+
+    private final class Assembly
+    {
+        /**
+         * The first part is the initial message including its
+         * headers, all further parts are Fragment messages whose
+         * payload starts after the fragment header.
+         */
+        final List<byte[]> parts = new ArrayList<byte[]>();
+        int size = 0;
+
+        void add (byte[] part, int length)
+        {
+            parts.add (part);
+            size += length;
+        }
+
+        /**
+         * Copies the parts into one buffer, and makes its header
+         * describe the complete message.
+         */
+        byte[] complete()
+        {
+            final byte[] result = bufferManager.getBuffer (size);
+            int position = 0;
+
+            for (int i = 0; i < parts.size(); i++)
+            {
+                final byte[] part = parts.get (i);
+                final int offset = (i == 0 ? 0 : Messages.FRAGMENT_HEADER_SIZE);
+                final int length = Messages.MSG_HEADER_SIZE + Messages.getMsgSize (part) - offset;
+
+                System.arraycopy (part, offset, result, position, length);
+                position += length;
+            }
+
+            // clear the more fragments follow bit
+            result[6] &= ~0x02;
+            Messages.writeMsgSize (result, size - Messages.MSG_HEADER_SIZE);
+
+            return result;
+        }
+    }
+}
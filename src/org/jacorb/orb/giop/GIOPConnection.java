@@ -20,13 +20,13 @@
 
 package org.jacorb.orb.giop;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
@@ -38,7 +38,10 @@ import org.jacorb.util.ObjectUtil;
 import org.jacorb.util.Time;
 import org.jacorb.util.TimerQueue;
 import org.jacorb.util.TimerQueueAction;
+import org.jacorb.util.TimingWheel;
+import org.omg.CORBA.COMM_FAILURE;
 import org.omg.CORBA.CompletionStatus;
+import org.omg.CORBA.MARSHAL;
 import org.omg.CORBA.NO_IMPLEMENT;
 import org.omg.CORBA.NO_MEMORY;
 import org.omg.CORBA.TIMEOUT;
@@ -57,6 +60,7 @@ import org.slf4j.Logger;
  * jacorb.debug.dump_incoming_messages=[on|off],        default=off<br>
  * jacorb.connection.client.connect_timeout=N,          default=0<br>
  * jacorb.connection.statistics_providers={classnames}, default=(empty)<br>
+ * jacorb.connection.gathering_writes=[on|off],         default=on<br>
  *
  * @author Nicolas Noffke
  */
@@ -72,13 +76,63 @@ public abstract class GIOPConnection
 
     private Long write_monitor_timeout = null;
 
+    /**
+     * If the transport is a GatheringTransport, the segments of an
+     * outgoing message are collected here and written in one go.
+     * Guarded by the write lock.
+     */
+    private boolean gatheringWrites = true;
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+    /**
+     * Write coalescing, see enableCoalescing(). Deferrable messages are
+     * copied into <code>coalesced</code> and written together with the
+     * next message that is not deferrable, once their size exceeds
+     * coalesceLimit, or when coalesceDelay has passed. Guarded by the
+     * write lock, except for coalesceFlushDue which is set by the timer.
+     */
+    private WriteCoalescingPolicy coalescingPolicy = null;
+    private long coalesceDelay;
+    private int coalesceLimit;
+    private byte[] coalesced = null;
+    private int coalescedSize = 0;
+    private boolean coalescing = false;
+    private TimingWheel.Timeout coalesceTimeout = null;
+    private volatile boolean coalesceFlushDue = false;
+
+    /**
+     * Runs on the timing wheel. The write may block, so it is handed
+     * to the wheel's callback threads instead of being done in place.
+     */
+    private final Runnable coalesceFlush = new Runnable()
+    {
+        public void run()
+        {
+            orb.getTimingWheel().execute (coalesceWrite);
+        }
+    };
+
+    private final Runnable coalesceWrite = new Runnable()
+    {
+        public void run()
+        {
+            flushCoalesced();
+        }
+    };
+
     private TimerQueue timer_queue = null;
 
     private RequestListener request_listener = null;
     private ReplyListener reply_listener = null;
     protected ConnectionListener connection_listener = null;
 
-    protected Object connect_sync = new Object();
+    /**
+     * Guards connecting and closing the transport. A lock rather than a
+     * monitor, as connect() blocks, and a virtual thread blocked inside a
+     * monitor pins its carrier thread.
+     */
+    protected final ReentrantLock connect_sync = new ReentrantLock();
+    private final Condition connectStateChanged = connect_sync.newCondition();
 
     private ReentrantLock writeLock = new ReentrantLock ();
 
@@ -98,7 +152,7 @@ public abstract class GIOPConnection
     /**
      * Fragmented message support.
      */
-    protected final Map<Integer, ByteArrayOutputStream> fragments = new HashMap<Integer, ByteArrayOutputStream>();
+    protected final FragmentReassembler fragments = new FragmentReassembler();
     private IBufferManager buf_mg;
 
     private boolean dump_incoming = false;
@@ -201,6 +255,10 @@ public abstract class GIOPConnection
             configuration.getAttributeAsBoolean("jacorb.debug.dump_incoming_messages", false);
         connectTimeout =
             configuration.getAttributeAsInteger("jacorb.connection.client.connect_timeout", 90000);
+        gatheringWrites =
+            configuration.getAttributeAsBoolean("jacorb.connection.gathering_writes", true);
+
+        fragments.configure(configuration);
 
         List<String> statsProviderClassNames = configuration.getAttributeList( "jacorb.connection.statistics_providers");
 
@@ -238,6 +296,21 @@ public abstract class GIOPConnection
         write_monitor_timeout = new Long (timeout);
     }
 
+    /**
+     * Lets requests that the policy considers deferrable be held back
+     * and written together with following messages.
+     *
+     * @param delay the maximum time in microseconds a message is held
+     * back. It is rounded up to the tick of the ORB's timing wheel.
+     * @param limit the number of bytes held back that triggers a write
+     */
+    protected final void enableCoalescing (WriteCoalescingPolicy policy, long delay, int limit)
+    {
+        coalescingPolicy = policy;
+        coalesceDelay = TimeUnit.MICROSECONDS.toNanos (delay);
+        coalesceLimit = limit;
+    }
+
     public final void setCodeSets( CodeSet TCS, CodeSet TCSW )
     {
         tcs  = TCS;
@@ -313,15 +386,21 @@ public abstract class GIOPConnection
 
     public final org.omg.ETF.Connection getTransport()
     {
-        synchronized (connect_sync)
+        connect_sync.lock();
+        try
         {
             return transport;
         }
+        finally
+        {
+            connect_sync.unlock();
+        }
     }
 
     private boolean waitUntilConnected()
     {
-        synchronized (connect_sync)
+        connect_sync.lock();
+        try
         {
             while (!transport.is_connected() &&
                    !do_close)
@@ -331,16 +410,14 @@ public abstract class GIOPConnection
                     logger.debug (this.toString() + ": will wait until connected");
                 }
 
-                try
-                {
-                    connect_sync.wait();
-                }
-                catch ( InterruptedException ie )
-                {
-                }
+                connectStateChanged.awaitUninterruptibly();
             }
             return !do_close;
-         }
+        }
+        finally
+        {
+            connect_sync.unlock();
+        }
     }
 
     /**
@@ -469,33 +546,7 @@ public abstract class GIOPConnection
                 return null;
             }
 
-            if ( dump_incoming )
-            {
-                if (logger.isInfoEnabled())
-                {
-                    logger.info
-                    (
-                        this.toString() + " BufferDump:\n" +
-                        ObjectUtil.bufToString
-                        (
-                            inbuf.value, 0, msg_size + Messages.MSG_HEADER_SIZE
-                        )
-                    );
-                }
-            }
-
-           if ( getStatisticsProviderAdapter() != null )
-            {
-                getStatisticsProviderAdapter().messageReceived( msg_size +
-                        Messages.MSG_HEADER_SIZE );
-            }
-
-            if (logger.isDebugEnabled())
-            {
-                logger.debug ("read GIOP message of size {} from {}",
-                              msg_size + Messages.MSG_HEADER_SIZE,
-                              this.toString());
-            }
+            messageRead( inbuf.value, msg_size + Messages.MSG_HEADER_SIZE );
 
             //this is the "good" exit point.
             return inbuf.value;
@@ -520,6 +571,37 @@ public abstract class GIOPConnection
         return null;
     }
 
+    /**
+     * Bookkeeping for a complete GIOP message that has just been read
+     * from the transport: buffer dump, statistics and debug output.
+     */
+    private void messageRead( byte[] message, int size )
+    {
+        if ( dump_incoming )
+        {
+            if (logger.isInfoEnabled())
+            {
+                logger.info
+                (
+                    this.toString() + " BufferDump:\n" +
+                    ObjectUtil.bufToString( message, 0, size )
+                );
+            }
+        }
+
+        if ( getStatisticsProviderAdapter() != null )
+        {
+            getStatisticsProviderAdapter().messageReceived( size );
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug ("read GIOP message of size {} from {}",
+                          size,
+                          this.toString());
+        }
+    }
+
     public final void receiveMessages()
         throws IOException
     {
@@ -536,6 +618,57 @@ public abstract class GIOPConnection
         }
     }
 
+    /**
+     * Entry point for transports that frame GIOP messages themselves
+     * (see {@link EventDrivenTransport}) instead of having a
+     * MessageReceptor thread block in {@link #receiveMessages()}.
+     * The message buffer must have been obtained from the ORB's
+     * buffer manager, and ownership passes to this connection.
+     */
+    public final void receiveMessage( byte[] message )
+    {
+        if ( do_close )
+        {
+            buf_mg.returnBuffer( message );
+            return;
+        }
+
+        messageRead( message, Messages.MSG_HEADER_SIZE + Messages.getMsgSize( message ) );
+
+        try
+        {
+            processMessage( message );
+        }
+        catch (NO_MEMORY e)
+        {
+            logger.error ("Caught NO_MEMORY error", e);
+
+            streamClosed();
+        }
+        catch (OutOfMemoryError e)
+        {
+            logger.error ("Caught OutOfMemory error", e);
+
+            streamClosed();
+        }
+        catch (Exception e)
+        {
+            logger.error("Unexpected error during receiveMessage. Lost a message!", e);
+        }
+    }
+
+    /**
+     * Called by an {@link EventDrivenTransport} when the underlying
+     * transport was closed by the peer or failed while reading.
+     */
+    public final void transportClosed()
+    {
+        if ( ! do_close )
+        {
+            this.streamClosed();
+        }
+    }
+
     private void receiveMessagesLoop() throws IOException
     {
         try
@@ -547,137 +680,186 @@ public abstract class GIOPConnection
                 return;
             }
 
-            synchronized ( pendingUndecidedSync )
+            processMessage( message );
+        }
+        // this should be catch out of memory
+        catch (NO_MEMORY e)
+        {
+            logger.error ("Caught NO_MEMORY error", e);
+
+            streamClosed();
+        }
+        catch (OutOfMemoryError e)
+        {
+            logger.error ("Caught OutOfMemory error", e);
+
+            streamClosed();
+        }
+    }
+
+    private void processMessage( byte[] message ) throws IOException
+    {
+        synchronized ( pendingUndecidedSync )
+        {
+            if ( discard_messages )
+            {
+                buf_mg.returnBuffer( message );
+                return;
+            }
+
+            //check major version
+            if ( Messages.getGIOPMajor( message ) != 1 )
             {
-                if ( discard_messages )
+                if (logger.isErrorEnabled())
                 {
-                    buf_mg.returnBuffer( message );
-                    return;
+                    logger.error("Invalid GIOP major version encountered: "
+                                 + Messages.getGIOPMajor( message )
+                                 + ", in " + this.toString() );
                 }
 
-                //check major version
-                if ( Messages.getGIOPMajor( message ) != 1 )
+                buf_mg.returnBuffer( message );
+                return;
+            }
+
+            int msg_type = Messages.getMsgType( message );
+
+            if ( msg_type == MsgType_1_1._Fragment )
+            {
+                //GIOP 1.0 messages aren't allowed to be fragmented
+                if ( Messages.getGIOPMinor( message ) == 0 )
                 {
-                    if (logger.isErrorEnabled())
+                    if (logger.isWarnEnabled())
                     {
-                        logger.error("Invalid GIOP major version encountered: "
-                                     + Messages.getGIOPMajor( message )
-                                     + ", in " + this.toString() );
+                        logger.warn
+                        ("Received a GIOP 1.0 message of type Fragment"
+                         + " in " + this.toString());
                     }
 
-                    buf_mg.returnBuffer( message );
+                    final MessageOutputStream out =
+                    new MessageOutputStream(orb);
+
+                    try
+                    {
+                        out.writeGIOPMsgHeader(MsgType_1_1._MessageError, 0);
+                        out.insertMsgSize();
+                        sendMessage( out );
+                        buf_mg.returnBuffer( message );
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
                     return;
                 }
 
-                int msg_type = Messages.getMsgType( message );
-
-                if ( msg_type == MsgType_1_1._Fragment )
+                //GIOP 1.1 Fragmented messages currently not supported
+                if ( Messages.getGIOPMinor( message ) == 1 )
                 {
-                    //GIOP 1.0 messages aren't allowed to be fragmented
-                    if ( Messages.getGIOPMinor( message ) == 0 )
+                    if (logger.isWarnEnabled())
                     {
-                        if (logger.isWarnEnabled())
-                        {
-                            logger.warn
-                            ("Received a GIOP 1.0 message of type Fragment"
-                             + " in " + this.toString());
-                        }
-
-                        final MessageOutputStream out =
-                        new MessageOutputStream(orb);
-
-                        try
-                        {
-                            out.writeGIOPMsgHeader(MsgType_1_1._MessageError, 0);
-                            out.insertMsgSize();
-                            sendMessage( out );
-                            buf_mg.returnBuffer( message );
-                        }
-                        finally
-                        {
-                            out.close();
-                        }
-                        return;
+                        logger.warn( "Received a GIOP 1.1 Fragment message"
+                                     + " in " + this.toString());
                     }
 
-                    //GIOP 1.1 Fragmented messages currently not supported
-                    if ( Messages.getGIOPMinor( message ) == 1 )
-                    {
-                        if (logger.isWarnEnabled())
-                        {
-                            logger.warn( "Received a GIOP 1.1 Fragment message"
-                                         + " in " + this.toString());
-                        }
-
-                        //Can't return a message in this case, because
-                        //GIOP 1.1 fragments don't have request
-                        //ids. Therefore, just discard.
-                        buf_mg.returnBuffer( message );
+                    //Can't return a message in this case, because
+                    //GIOP 1.1 fragments don't have request
+                    //ids. Therefore, just discard.
+                    buf_mg.returnBuffer( message );
 
-                        return;
-                    }
+                    return;
+                }
 
-                    //for now, only GIOP 1.2 from here on
-                    int request_id = Messages.getRequestId( message );
+                //for now, only GIOP 1.2 from here on
+                int request_id = Messages.getRequestId( message );
 
-                    //sanity check
-                    if ( ! fragments.containsKey( request_id ))
+                //sanity check
+                if ( ! fragments.contains( request_id ))
+                {
+                    if (logger.isErrorEnabled())
                     {
-                        if (logger.isErrorEnabled())
-                        {
-                            logger.error( "No previous Fragment to this one in "
-                                          + this.toString());
-                        }
+                        logger.error( "No previous Fragment to this one in "
+                                      + this.toString());
+                    }
 
-                        //Drop this one and continue
-                        buf_mg.returnBuffer( message );
+                    //Drop this one and continue
+                    buf_mg.returnBuffer( message );
 
-                        return;
-                    }
+                    return;
+                }
 
-                    ByteArrayOutputStream b_out =
-                    fragments.get( request_id );
+                //hand the fragment over to the reassembler, which
+                //discards the GIOP message header and the request id
+                //ulong of the Fragment header
+                byte[] complete;
+                try
+                {
+                    complete = fragments.add( request_id, message );
+                }
+                catch (MARSHAL e)
+                {
+                    if (logger.isErrorEnabled())
+                    {
+                        logger.error( e.getMessage() + " in " + this.toString()
+                                      + ", dropping the fragmented message" );
+                    }
+                    return;
+                }
 
-                    //add the message contents to stream (discarding the
-                    //GIOP message header and the request id ulong of the
-                    //Fragment header)
-                    b_out.write( message,
-                                 Messages.MSG_HEADER_SIZE + 4 ,
-                                 Messages.getMsgSize(message) - 4 );
+                if ( complete == null )
+                {
+                    //more to follow, so don't hand over to processing
+                    return;
+                }
 
-                    if ( Messages.moreFragmentsFollow( message ))
+                //silently replace the original message buffer and type
+                message = complete;
+                msg_type = Messages.getMsgType( message );
+            }
+            else if ( Messages.moreFragmentsFollow( message ) )
+            {
+                //GIOP 1.0 messages aren't allowed to be fragmented
+                if ( Messages.getGIOPMinor( message ) == 0 )
+                {
+                    if (logger.isWarnEnabled())
                     {
-                        //more to follow, so don't hand over to processing
-                        buf_mg.returnBuffer( message );
-                        return;
+                        logger.warn
+                        ("Received a GIOP 1.0 message "
+                         + "with the \"more fragments follow\""
+                         + "bits set in " + this.toString()
+                        );
                     }
 
+                    MessageOutputStream out =
+                    new MessageOutputStream( orb );
+                    out.writeGIOPMsgHeader( MsgType_1_1._MessageError,
+                                            0 );
+                    out.insertMsgSize();
+                    sendMessage( out );
                     buf_mg.returnBuffer( message );
 
-                    //silently replace the original message buffer and type
-                    message = b_out.toByteArray();
-                    msg_type = Messages.getMsgType( message );
-
-                    fragments.remove( request_id );
+                    return;
                 }
-                else if ( Messages.moreFragmentsFollow( message ) )
+
+                //If GIOP 1.1, only Request and Reply messages may be fragmented
+                if ( Messages.getGIOPMinor( message ) == 1 )
                 {
-                    //GIOP 1.0 messages aren't allowed to be fragmented
-                    if ( Messages.getGIOPMinor( message ) == 0 )
+                    if ( msg_type != MsgType_1_1._Request &&
+                         msg_type != MsgType_1_1._Reply )
                     {
                         if (logger.isWarnEnabled())
                         {
                             logger.warn
-                            ("Received a GIOP 1.0 message "
-                             + "with the \"more fragments follow\""
-                             + "bits set in " + this.toString()
+                            ("Received a GIOP 1.1 message of type " +
+                             msg_type + " with the " + "" +
+                             "\"more fragments follow\" bits set" +
+                             " in " + this.toString()
                             );
                         }
 
                         MessageOutputStream out =
                         new MessageOutputStream( orb );
                         out.writeGIOPMsgHeader( MsgType_1_1._MessageError,
-                                                0 );
+                                                1 );
                         out.insertMsgSize();
                         sendMessage( out );
                         buf_mg.returnBuffer( message );
@@ -685,206 +867,158 @@ public abstract class GIOPConnection
                         return;
                     }
 
-                    //If GIOP 1.1, only Request and Reply messages may be fragmented
-                    if ( Messages.getGIOPMinor( message ) == 1 )
+                    //GIOP 1.1 Fragmented messages currently not supported
+                    if (logger.isWarnEnabled())
                     {
-                        if ( msg_type != MsgType_1_1._Request &&
-                             msg_type != MsgType_1_1._Reply )
-                        {
-                            if (logger.isWarnEnabled())
-                            {
-                                logger.warn
-                                ("Received a GIOP 1.1 message of type " +
-                                 msg_type + " with the " + "" +
-                                 "\"more fragments follow\" bits set" +
-                                 " in " + this.toString()
-                                );
-                            }
-
-                            MessageOutputStream out =
-                            new MessageOutputStream( orb );
-                            out.writeGIOPMsgHeader( MsgType_1_1._MessageError,
-                                                    1 );
-                            out.insertMsgSize();
-                            sendMessage( out );
-                            buf_mg.returnBuffer( message );
-
-                            return;
-                        }
-
-                        //GIOP 1.1 Fragmented messages currently not supported
-                        if (logger.isWarnEnabled())
-                        {
-                            logger.warn( "Received a fragmented GIOP 1.1 message"
-                                         + " in " + this.toString() );
-                        }
-
-                        int giop_minor = Messages.getGIOPMinor( message );
-
-                        final ReplyOutputStream out =
-                        new ReplyOutputStream( orb,
-                                               Messages.getRequestId( message ),
-                                               ReplyStatusType_1_2.SYSTEM_EXCEPTION,
-                                               giop_minor,
-                                               false,
-                                               logger);//no locate reply
-
-                        try
-                        {
-                            SystemExceptionHelper.write( out,
-                                                         new NO_IMPLEMENT( 0, CompletionStatus.COMPLETED_NO ));
+                        logger.warn( "Received a fragmented GIOP 1.1 message"
+                                     + " in " + this.toString() );
+                    }
 
-                            sendMessage( out );
-                            buf_mg.returnBuffer( message );
+                    int giop_minor = Messages.getGIOPMinor( message );
 
-                            return;
-                        }
-                        finally
-                        {
-                            out.close();
-                        }
-                    }
+                    final ReplyOutputStream out =
+                    new ReplyOutputStream( orb,
+                                           Messages.getRequestId( message ),
+                                           ReplyStatusType_1_2.SYSTEM_EXCEPTION,
+                                           giop_minor,
+                                           false,
+                                           logger);//no locate reply
 
-                    //check, that only the correct message types are fragmented
-                    if ( msg_type == MsgType_1_1._CancelRequest ||
-                         msg_type == MsgType_1_1._CloseConnection ||
-                         msg_type == MsgType_1_1._CancelRequest )
+                    try
                     {
-                        if (logger.isWarnEnabled())
-                        {
-                            logger.warn
-                            ("Received a GIOP message of type " + msg_type +
-                             " with the \"more fragments follow\" bits set, " +
-                             "but this message type isn't allowed to be " +
-                             "fragmented, in " + this.toString()
-                            );
-                        }
+                        SystemExceptionHelper.write( out,
+                                                     new NO_IMPLEMENT( 0, CompletionStatus.COMPLETED_NO ));
 
-                        MessageOutputStream out =
-                        new MessageOutputStream( orb );
-                        out.writeGIOPMsgHeader( MsgType_1_1._MessageError,
-                                                1 );
-                        out.insertMsgSize();
                         sendMessage( out );
                         buf_mg.returnBuffer( message );
 
                         return;
                     }
-
-                    //if we're here, it's the first part of a fragmented message
-                    Integer request_id =
-                    new Integer( Messages.getRequestId( message )); // NOPMD
-
-                    //sanity check
-                    if ( fragments.containsKey( request_id ))
+                    finally
                     {
-                        if (logger.isErrorEnabled())
-                        {
-                            logger.error
-                            ("Received a message of type " + msg_type +
-                             " with the more fragments follow bit set," +
-                             " but there is already an fragmented," +
-                             " incomplete message with the same request id (" +
-                             request_id + ", in " + this.toString()
-                            );
-                        }
-
-                        //Drop this one and continue
-                        buf_mg.returnBuffer( message );
-
-                        return;
+                        out.close();
                     }
+                }
 
-                    //create new stream and add to table
-                    ByteArrayOutputStream b_out = new ByteArrayOutputStream();
-                    fragments.put( request_id, b_out );
-
-                    //add the message contents to stream
-                    b_out.write( message,
-                                 0,
-                                 Messages.MSG_HEADER_SIZE +
-                                 Messages.getMsgSize(message) );
+                //check, that only the correct message types are fragmented
+                if ( msg_type == MsgType_1_1._CancelRequest ||
+                     msg_type == MsgType_1_1._CloseConnection ||
+                     msg_type == MsgType_1_1._CancelRequest )
+                {
+                    if (logger.isWarnEnabled())
+                    {
+                        logger.warn
+                        ("Received a GIOP message of type " + msg_type +
+                         " with the \"more fragments follow\" bits set, " +
+                         "but this message type isn't allowed to be " +
+                         "fragmented, in " + this.toString()
+                        );
+                    }
 
+                    MessageOutputStream out =
+                    new MessageOutputStream( orb );
+                    out.writeGIOPMsgHeader( MsgType_1_1._MessageError,
+                                            1 );
+                    out.insertMsgSize();
+                    sendMessage( out );
                     buf_mg.returnBuffer( message );
 
-                    //This message isn't yet complete
                     return;
                 }
 
-                switch ( msg_type )
+                //if we're here, it's the first part of a fragmented message
+                int request_id = Messages.getRequestId( message );
+
+                //sanity check
+                if ( fragments.contains( request_id ))
                 {
-                    case MsgType_1_1._Request:
+                    if (logger.isErrorEnabled())
                     {
-                        getRequestListener().requestReceived( message, this );
-
-                        break;
+                        logger.error
+                        ("Received a message of type " + msg_type +
+                         " with the more fragments follow bit set," +
+                         " but there is already an fragmented," +
+                         " incomplete message with the same request id (" +
+                         request_id + ", in " + this.toString()
+                        );
                     }
-                    case MsgType_1_1._Reply:
-                    {
-                        getReplyListener().replyReceived( message, this );
 
-                        break;
-                    }
-                    case MsgType_1_1._CancelRequest:
-                    {
-                        getRequestListener().cancelRequestReceived( message, this );
+                    //Drop this one and continue
+                    buf_mg.returnBuffer( message );
 
-                        break;
-                    }
-                    case MsgType_1_1._LocateRequest:
-                    {
-                        getRequestListener().locateRequestReceived( message, this );
+                    return;
+                }
 
-                        break;
-                    }
-                    case MsgType_1_1._LocateReply:
-                    {
-                        getReplyListener().locateReplyReceived( message, this );
+                //keep the message until all fragments have arrived
+                fragments.start( request_id, message );
 
-                        break;
-                    }
-                    case MsgType_1_1._CloseConnection:
-                    {
-                        getReplyListener().closeConnectionReceived( message, this );
+                //This message isn't yet complete
+                return;
+            }
 
-                        break;
-                    }
-                    case MsgType_1_1._MessageError:
-                    {
-                        break;
-                    }
-                    case MsgType_1_1._Fragment:
-                    {
-                        //currently not reached
-                        break;
-                    }
-                    default:
-                    {
-                        if (logger.isErrorEnabled())
-                        {
-                            logger.error
-                            ("Received message with unknown message type "
-                             + msg_type + ", in " + this.toString()
-                            );
-                        }
-                        buf_mg.returnBuffer( message );
-                    }
+            switch ( msg_type )
+            {
+                case MsgType_1_1._Request:
+                {
+                    getRequestListener().requestReceived( message, this );
+
+                    break;
                 }
-            }//synchronized( pendingUndecidedSync )
-        }
-        // this should be catch out of memory
-        catch (NO_MEMORY e)
-        {
-            logger.error ("Caught NO_MEMORY error", e);
+                case MsgType_1_1._Reply:
+                {
+                    getReplyListener().replyReceived( message, this );
 
-            streamClosed();
-        }
-        catch (OutOfMemoryError e)
-        {
-            logger.error ("Caught OutOfMemory error", e);
+                    break;
+                }
+                case MsgType_1_1._CancelRequest:
+                {
+                    // the request may not have been sent completely
+                    fragments.discard( Messages.getRequestId( message ) );
 
-            streamClosed();
-        }
+                    getRequestListener().cancelRequestReceived( message, this );
+
+                    break;
+                }
+                case MsgType_1_1._LocateRequest:
+                {
+                    getRequestListener().locateRequestReceived( message, this );
+
+                    break;
+                }
+                case MsgType_1_1._LocateReply:
+                {
+                    getReplyListener().locateReplyReceived( message, this );
+
+                    break;
+                }
+                case MsgType_1_1._CloseConnection:
+                {
+                    getReplyListener().closeConnectionReceived( message, this );
+
+                    break;
+                }
+                case MsgType_1_1._MessageError:
+                {
+                    break;
+                }
+                case MsgType_1_1._Fragment:
+                {
+                    //currently not reached
+                    break;
+                }
+                default:
+                {
+                    if (logger.isErrorEnabled())
+                    {
+                        logger.error
+                        ("Received message with unknown message type "
+                         + msg_type + ", in " + this.toString()
+                        );
+                    }
+                    buf_mg.returnBuffer( message );
+                }
+            }
+        }//synchronized( pendingUndecidedSync )
     }
 
     // timeout is in milliseconds and is an interval
@@ -946,28 +1080,45 @@ public abstract class GIOPConnection
     }
 
     /**
-     * write (a fragment of) the message (passes it on to the wire)
+     * write (a fragment of) the message (passes it on to the wire).
+     * For a gathering transport the fragment is only recorded, and
+     * written by flushWrites().
      */
 
     public final void write( byte[] fragment, int start, int size )
     {
-        ConnectionReset write_monitor = null;
-        if (write_monitor_timeout != null)
-            write_monitor = new ConnectionReset (write_monitor_timeout.longValue());
-        if (timer_queue != null)
-            timer_queue.add(write_monitor);
-        if (sendDeadline != null)
+        if (coalescing)
         {
-            long time = Time.millisTo(sendDeadline);
-            time = (time == 0 ? -1 : time);
-            transport.write( false, false, fragment, start, size, time);
+            if (coalesced == null || coalescedSize + size > coalesced.length)
+            {
+                byte[] copy = new byte[Math.max (coalesceLimit, 2 * (coalescedSize + size))];
+                if (coalescedSize > 0)
+                {
+                    System.arraycopy (coalesced, 0, copy, 0, coalescedSize);
+                }
+                coalesced = copy;
+            }
+            System.arraycopy (fragment, start, coalesced, coalescedSize, size);
+            coalescedSize += size;
+
+            // accounted for once actually written
+            return;
+        }
+        else if (gatheringWrites && transport instanceof GatheringTransport)
+        {
+            segments.add (ByteBuffer.wrap (fragment, start, size));
         }
         else
         {
-            transport.write( false, false, fragment, start, size, 0 );
+            ConnectionReset write_monitor = null;
+            if (write_monitor_timeout != null)
+                write_monitor = new ConnectionReset (write_monitor_timeout.longValue());
+            if (timer_queue != null)
+                timer_queue.add(write_monitor);
+            transport.write( false, false, fragment, start, size, getWriteTimeout() );
+            if (timer_queue != null)
+                timer_queue.remove(write_monitor);
         }
-        if (timer_queue != null)
-            timer_queue.remove(write_monitor);
 
         if (getStatisticsProviderAdapter() != null)
         {
@@ -975,6 +1126,40 @@ public abstract class GIOPConnection
         }
     }
 
+    /**
+     * Writes the segments collected for a gathering transport. Must
+     * be called by message streams before their buffers are released.
+     */
+    final void flushWrites()
+    {
+        if (segments.isEmpty())
+        {
+            return;
+        }
+
+        final ByteBuffer[] buffers = segments.toArray (new ByteBuffer[segments.size()]);
+        segments.clear();
+
+        ConnectionReset write_monitor = null;
+        if (write_monitor_timeout != null)
+            write_monitor = new ConnectionReset (write_monitor_timeout.longValue());
+        if (timer_queue != null)
+            timer_queue.add(write_monitor);
+        ((GatheringTransport) transport).write (buffers, getWriteTimeout());
+        if (timer_queue != null)
+            timer_queue.remove(write_monitor);
+    }
+
+    private long getWriteTimeout()
+    {
+        if (sendDeadline != null)
+        {
+            long time = Time.millisTo(sendDeadline);
+            return (time == 0 ? -1 : time);
+        }
+        return 0;
+    }
+
     /* pro forma implementations of io.OutputStream methods */
 
     public final void write(int value)
@@ -998,11 +1183,28 @@ public abstract class GIOPConnection
                                    boolean expect_reply )
         throws IOException
     {
+        if (out instanceof RequestOutputStream)
+        {
+            // a fragment sent while marshalling may have failed
+            ((RequestOutputStream) out).checkFragmentFailure();
+        }
         if ( expect_reply )
         {
             incPendingMessages();
         }
-        sendMessage( out, (out instanceof RequestOutputStream ? ((RequestOutputStream)out).getReplyEndTime() : null ));
+        if (out instanceof RequestOutputStream)
+        {
+            RequestOutputStream request = (RequestOutputStream) out;
+
+            sendMessage (out, request.getReplyEndTime(),
+                         coalescingPolicy != null &&
+                         !request.isFragmented() &&
+                         coalescingPolicy.isDeferrable (request));
+        }
+        else
+        {
+            sendMessage (out, null, false);
+        }
     }
 
     public final void sendReply( MessageOutputStream out )
@@ -1016,10 +1218,10 @@ public abstract class GIOPConnection
     private final void sendMessage( MessageOutputStream out )
         throws IOException
     {
-        sendMessage (out, null);
+        sendMessage (out, null, false);
     }
 
-    private final void sendMessage( MessageOutputStream out, org.omg.TimeBase.UtcT sendDeadline)
+    private final void sendMessage( MessageOutputStream out, org.omg.TimeBase.UtcT sendDeadline, boolean defer)
         throws IOException
     {
         try
@@ -1042,57 +1244,51 @@ public abstract class GIOPConnection
                 this.sendDeadline = sendDeadline;
                 if (!transport.is_connected())
                 {
-                    tcs_negotiated = false;
-
-                    if (logger.isDebugEnabled())
+                    if (out instanceof ServiceContextTransportingOutputStream &&
+                        ((ServiceContextTransportingOutputStream) out).isFragmented())
                     {
-                        logger.debug
-                        (
-                            this.toString() + ": sendMessage() - opening transport " + transport
-                        );
-                    }
-
-                    synchronized (connect_sync)
-                    {
-                        try
-                        {
-                            long myConnectTimeout = (timeout != 0 && timeout < connectTimeout ? timeout : connectTimeout);
-                            transport.connect (profile, myConnectTimeout);
-                            connect_sync.notifyAll();
-                        }
-                        catch (RuntimeException ex)
-                        {
-                            if (logger.isDebugEnabled())
-                            {
-                                logger.debug
-                                (
-                                    this.toString() +
-                                    ": sendMessage() -- failed to open transport");
-                            }
-                            throw ex;
-                        }
+                        // the leading fragments went to the closed connection
+                        throw new COMM_FAILURE ("Connection closed while sending fragments");
                     }
 
+                    connectTransport (timeout);
                 }
 
-                out.write_to( this );
-                transport.flush();
-
-                if (logger.isDebugEnabled())
+                if (defer && out.size() <= coalesceLimit)
                 {
-                    logger.debug ("wrote GIOP message of size {} to {}",
-                                  out.size(), this.toString());
+                    coalesceMessage (out);
                 }
-
-                if (getStatisticsProviderAdapter() != null)
+                else
                 {
-                    getStatisticsProviderAdapter().flushed();
+                    // messages held back go first
+                    writeCoalesced();
+
+                    out.write_to( this );
+                    flushWrites();
+                    transport.flush();
+
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug ("wrote GIOP message of size {} to {}",
+                                      out.size(), this.toString());
+                    }
+
+                    if (getStatisticsProviderAdapter() != null)
+                    {
+                        getStatisticsProviderAdapter().flushed();
+                    }
                 }
             }
             finally
             {
                 sendDeadline = null;
 
+                if (writeLock.isHeldByCurrentThread())
+                {
+                    // drop segments left over by a failed write
+                    segments.clear();
+                }
+
                 decPendingWrite();
                 // If a COMM_FAILURE occurs this release write lock prevents
                 // dead locks to reader thread which might try to close this
@@ -1100,6 +1296,12 @@ public abstract class GIOPConnection
                 // requested during streamClosed())
                 releaseWriteLock();
             }
+
+            if (coalesceFlushDue)
+            {
+                // the timer expired while we held the lock
+                flushCoalesced();
+            }
      	}
         catch (org.omg.CORBA.COMM_FAILURE e)
         {
@@ -1131,6 +1333,308 @@ public abstract class GIOPConnection
         }
     }
 
+    /**
+     * Writes the leading <code>end</code> bytes of a request that is sent
+     * in fragments while being marshalled. Other messages may be
+     * written in between, GIOP 1.2 fragments carry their request id.
+     */
+    final void sendFragment( RequestOutputStream out, int end )
+        throws IOException
+    {
+        try
+        {
+            try
+            {
+                incPendingWrite ();
+                long timeout = (out.getReplyEndTime() == null ? 0 : Time.millisTo(out.getReplyEndTime()));
+
+                if (!getWriteLock(timeout))
+                {
+                    throw new TIMEOUT("Failed to acquire transport lock in " + timeout + " ms");
+                }
+
+                this.sendDeadline = out.getReplyEndTime();
+                if (!transport.is_connected())
+                {
+                    if (out.isFragmented())
+                    {
+                        throw new COMM_FAILURE ("Connection closed while sending fragments");
+                    }
+
+                    connectTransport (timeout);
+                }
+
+                // messages held back go first
+                writeCoalesced();
+
+                out.write_fragment_to (this, end);
+                transport.flush();
+
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug ("wrote GIOP fragment of size {} to {}",
+                                  Integer.valueOf (end), this.toString());
+                }
+
+                if (getStatisticsProviderAdapter() != null)
+                {
+                    getStatisticsProviderAdapter().flushed();
+                }
+            }
+            finally
+            {
+                sendDeadline = null;
+
+                if (writeLock.isHeldByCurrentThread())
+                {
+                    segments.clear();
+                }
+
+                decPendingWrite();
+                releaseWriteLock();
+            }
+        }
+        catch (org.omg.CORBA.COMM_FAILURE e)
+        {
+            if (logger.isErrorEnabled())
+            {
+                logger.error
+                (
+                    "Failed to write GIOP fragment due to COMM_FAILURE, in " +
+                    this.toString(), e
+                );
+            }
+            if ( !do_close )
+            {
+                this.streamClosed();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Tells the server to discard a request of which some fragments
+     * have been sent. If that fails, the connection is closed, which
+     * makes the server discard it as well.
+     */
+    final void cancelRequest( int request_id )
+    {
+        if (do_close || !transport.is_connected())
+        {
+            return;
+        }
+
+        final MessageOutputStream out = new MessageOutputStream( orb );
+        try
+        {
+            out.writeGIOPMsgHeader( MsgType_1_1._CancelRequest, 2 );
+            out.write_ulong( request_id );
+            out.insertMsgSize();
+
+            sendMessage( out );
+        }
+        catch (Exception e)
+        {
+            if (logger.isWarnEnabled())
+            {
+                logger.warn("Failed to cancel request " + request_id + ", closing " + this.toString(), e);
+            }
+            if (!do_close)
+            {
+                streamClosed();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Opens the transport unless it is open already, so that the first
+     * message sent over the connection doesn't have to.
+     */
+    public final void openTransport()
+    {
+        if (!getWriteLock(connectTimeout))
+        {
+            throw new TIMEOUT("Failed to acquire transport lock in " + connectTimeout + " ms");
+        }
+
+        try
+        {
+            if (!transport.is_connected())
+            {
+                connectTransport (0);
+            }
+        }
+        finally
+        {
+            releaseWriteLock();
+        }
+    }
+
+    /**
+     * Opens the transport. Called with the write lock held.
+     */
+    private void connectTransport (long timeout)
+    {
+        tcs_negotiated = false;
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug
+            (
+                this.toString() + ": sendMessage() - opening transport " + transport
+            );
+        }
+
+        connect_sync.lock();
+        try
+        {
+            long myConnectTimeout = (timeout != 0 && timeout < connectTimeout ? timeout : connectTimeout);
+            transport.connect (profile, myConnectTimeout);
+            connectStateChanged.signalAll();
+        }
+        catch (RuntimeException ex)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug
+                (
+                    this.toString() +
+                    ": sendMessage() -- failed to open transport");
+            }
+            throw ex;
+        }
+        finally
+        {
+            connect_sync.unlock();
+        }
+    }
+
+    /**
+     * Appends a deferrable message to the messages held back and
+     * writes them all once the limit is reached. Called with the
+     * write lock held.
+     */
+    private void coalesceMessage (MessageOutputStream out)
+        throws IOException
+    {
+        coalescing = true;
+        try
+        {
+            out.write_to (this);
+        }
+        finally
+        {
+            coalescing = false;
+        }
+
+        if (coalescedSize >= coalesceLimit)
+        {
+            writeCoalesced();
+            flushWrites();
+            transport.flush();
+
+            if (getStatisticsProviderAdapter() != null)
+            {
+                getStatisticsProviderAdapter().flushed();
+            }
+        }
+        else if (coalesceTimeout == null)
+        {
+            coalesceTimeout = orb.getTimingWheel().schedule (coalesceFlush, System.nanoTime() + coalesceDelay);
+        }
+    }
+
+    /**
+     * Passes the messages held back on to the transport. Called with
+     * the write lock held, the caller has to flush.
+     */
+    private void writeCoalesced()
+    {
+        coalesceFlushDue = false;
+
+        if (coalesceTimeout != null)
+        {
+            coalesceTimeout.cancel();
+            coalesceTimeout = null;
+        }
+
+        if (coalescedSize > 0)
+        {
+            final int size = coalescedSize;
+            coalescedSize = 0;
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug ("writing {} bytes of coalesced messages to {}",
+                              Integer.valueOf (size), this.toString());
+            }
+
+            write (coalesced, 0, size);
+        }
+    }
+
+    /**
+     * Writes the messages held back, unless another thread holds the
+     * write lock. In that case the messages are written by that thread
+     * after it releases the lock.
+     */
+    protected final void flushCoalesced()
+    {
+        if (coalescingPolicy == null)
+        {
+            return;
+        }
+
+        coalesceFlushDue = true;
+
+        if (!writeLock.tryLock())
+        {
+            return;
+        }
+
+        try
+        {
+            if (coalesceFlushDue)
+            {
+                final boolean pending = coalescedSize > 0;
+
+                writeCoalesced();
+
+                if (pending)
+                {
+                    flushWrites();
+                    transport.flush();
+
+                    if (getStatisticsProviderAdapter() != null)
+                    {
+                        getStatisticsProviderAdapter().flushed();
+                    }
+                }
+            }
+        }
+        catch (org.omg.CORBA.SystemException e)
+        {
+            if (logger.isErrorEnabled())
+            {
+                logger.error ("Failed to write coalesced GIOP messages, in " + this.toString(), e);
+            }
+            if (e instanceof org.omg.CORBA.COMM_FAILURE && !do_close)
+            {
+                this.streamClosed();
+            }
+        }
+        finally
+        {
+            // drop segments left over by a failed write
+            segments.clear();
+            writeLock.unlock();
+        }
+    }
+
     public final boolean isSSL()
     {
         if (transport instanceof StreamConnectionBase)
@@ -1147,8 +1651,11 @@ public abstract class GIOPConnection
             logger.debug(this.toString() + ": close()" );
         }
 
-        synchronized (connect_sync)
-         {
+        flushCoalesced();
+
+        connect_sync.lock();
+        try
+        {
             if ( connection_listener != null )
             {
                 connection_listener.connectionClosed();
@@ -1156,8 +1663,14 @@ public abstract class GIOPConnection
 
             transport.close();
             do_close = true;
-            connect_sync.notifyAll();
-         }
+            connectStateChanged.signalAll();
+        }
+        finally
+        {
+            connect_sync.unlock();
+        }
+
+        fragments.clear();
     }
 
 
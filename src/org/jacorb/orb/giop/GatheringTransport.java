@@ -0,0 +1,46 @@
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1999-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package org.jacorb.orb.giop;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by transports that can write several buffers in a
+ * single operation, e.g. via
+ * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}.
+ * The GIOPConnection then collects the segments of an outgoing
+ * message (header, service contexts, body and deferred arrays) and
+ * passes them to the transport in one call instead of writing each
+ * one separately.
+ */
+
+public interface GatheringTransport
+{
+    /**
+     * Write the remaining bytes of all buffers, in order. The buffers
+     * refer to the marshalling buffers of the message and must not be
+     * retained after this method returns.
+     *
+     * @param time_out timeout in milliseconds, 0 for none
+     * @exception org.omg.CORBA.COMM_FAILURE if the write failed
+     */
+    void write( ByteBuffer[] buffers, long time_out );
+}// GatheringTransport
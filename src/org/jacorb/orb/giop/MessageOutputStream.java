@@ -92,6 +92,7 @@ public class MessageOutputStream
         insertMsgSize();
 
         write( conn, 0, size() );
+        conn.flushWrites();
 
         close();
     }
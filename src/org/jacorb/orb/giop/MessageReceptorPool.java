@@ -22,6 +22,7 @@ package org.jacorb.orb.giop;
 
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
+import org.jacorb.util.VirtualThreads;
 import org.jacorb.util.threadpool.Consumer;
 import org.jacorb.util.threadpool.ConsumerFactory;
 import org.jacorb.util.threadpool.ThreadPool;
@@ -59,6 +60,9 @@ public class MessageReceptorPool
 
         final int maxIdleThreads = configuration.getAttributeAsInteger("jacorb.connection." + config + ".max_idle_receptor_threads", MAX_IDLE_DEFAULT);
 
+        final boolean virtualThreads =
+            configuration.getAttributeAsBoolean("jacorb.connection." + config + ".virtual_receptor_threads", false);
+
         Logger logger = configuration.getLogger("org.jacorb.orb.giop");
 
         if (logger.isDebugEnabled())
@@ -67,6 +71,11 @@ public class MessageReceptorPool
             logger.debug("Maximum idle threads: " + maxIdleThreads);
         }
 
+        if (virtualThreads && !VirtualThreads.isSupported() && logger.isWarnEnabled())
+        {
+            logger.warn("Virtual threads are not supported by this JDK, using platform threads for receptors");
+        }
+
         pool =
             new ThreadPool( configuration,
                             threadNamePrefix,
@@ -77,7 +86,8 @@ public class MessageReceptorPool
                                 }
                             },
                             maxConnectionThreads,
-                            maxIdleThreads ); //max idle threads
+                            maxIdleThreads, //max idle threads
+                            virtualThreads );
     }
 
     public void connectionCreated( GIOPConnection conn )
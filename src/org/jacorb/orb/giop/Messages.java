@@ -33,7 +33,13 @@ public class Messages
     /**
      * <code>MSG_HEADER_SIZE</code> is the GIOP message header size constant.
      */
-    static final int MSG_HEADER_SIZE = 12;
+    public static final int MSG_HEADER_SIZE = 12;
+
+    /**
+     * <code>FRAGMENT_HEADER_SIZE</code> is the size of the GIOP 1.2
+     * message header plus the request id of a Fragment message.
+     */
+    public static final int FRAGMENT_HEADER_SIZE = MSG_HEADER_SIZE + 4;
 
     /**
      * The <code>service_context</code> array is to align the data following this
@@ -198,6 +204,27 @@ public class Messages
         return readULong( buf, 8, isLittleEndian( buf ) );
     }
 
+    /**
+     * Overwrites the message size in the GIOP header of buf.
+     */
+    public static final void writeMsgSize( byte[] buf, int size )
+    {
+        if( isLittleEndian( buf ) )
+        {
+            buf[8]  = (byte)(size       );
+            buf[9]  = (byte)(size >>>  8);
+            buf[10] = (byte)(size >>> 16);
+            buf[11] = (byte)(size >>> 24);
+        }
+        else
+        {
+            buf[8]  = (byte)(size >>> 24);
+            buf[9]  = (byte)(size >>> 16);
+            buf[10] = (byte)(size >>>  8);
+            buf[11] = (byte)(size       );
+        }
+    }
+
     public static final int readULong( byte[] buf,
                                        int pos,
                                        boolean little_endian )
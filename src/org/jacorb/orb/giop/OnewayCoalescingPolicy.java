@@ -0,0 +1,43 @@
+package org.jacorb.orb.giop;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+import org.omg.Messaging.SYNC_NONE;
+
+/**
+ * The default WriteCoalescingPolicy: only oneway requests with
+ * SYNC_NONE are deferred. SYNC_WITH_TRANSPORT promises that the
+ * request has been handed to the transport when the call returns,
+ * and twoway calls are never delayed.
+ */
+public class OnewayCoalescingPolicy implements WriteCoalescingPolicy
+{
+    public boolean isDeferrable (RequestOutputStream request)
+    {
+        if (request.response_expected())
+        {
+            return false;
+        }
+
+        return request.syncScope() == SYNC_NONE.value;
+    }
+}
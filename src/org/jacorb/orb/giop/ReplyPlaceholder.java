@@ -20,6 +20,9 @@
 
 package org.jacorb.orb.giop;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
 import org.omg.CORBA.portable.RemarshalException;
@@ -33,7 +36,12 @@ import org.omg.CORBA.portable.RemarshalException;
  */
 public abstract class ReplyPlaceholder
 {
-    protected final Object lock = new Object();
+    /**
+     * Guards the state below. A lock rather than a monitor, so that a
+     * virtual thread waiting for a reply does not pin its carrier.
+     */
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition replyDone = lock.newCondition();
     protected boolean ready = false;
     protected boolean communicationException = false;
     protected boolean remarshalException = false;
@@ -43,6 +51,11 @@ public abstract class ReplyPlaceholder
 
     protected int timeout ;
 
+    /**
+     * System.nanoTime() when the request was sent, set by ClientConnection
+     */
+    long sendTime;
+
     public void configure(Configuration configuration) throws ConfigurationException
     {
        timeout = configuration.getAttributeAsInteger("jacorb.connection.client.pending_reply_timeout", 0);
@@ -50,37 +63,52 @@ public abstract class ReplyPlaceholder
 
     public void replyReceived( MessageInputStream in )
     {
-        synchronized(lock)
+        lock.lock();
+        try
         {
             if( ! timeoutException )
             {
                 this.in = in;
                 ready = true;
-                lock.notifyAll();
+                replyDone.signalAll();
             }
         }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     public void cancel()
     {
-        synchronized(lock)
+        lock.lock();
+        try
         {
             if( in == null )
             {
                 communicationException = true;
                 ready = true;
-                lock.notify();
+                replyDone.signal();
             }
         }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     public void retry()
     {
-        synchronized(lock)
+        lock.lock();
+        try
         {
             remarshalException = true;
             ready = true;
-            lock.notify();
+            replyDone.signal();
+        }
+        finally
+        {
+            lock.unlock();
         }
     }
 
@@ -98,13 +126,21 @@ public abstract class ReplyPlaceholder
         final long _maxWait = _shouldUseTimeout ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
         final long _timeout = _shouldUseTimeout ? timeout : 0;
 
-        synchronized(lock)
+        lock.lock();
+        try
         {
             while(!ready && System.currentTimeMillis() < _maxWait)
             {
                 try
                 {
-                    lock.wait( _timeout );
+                    if (_timeout == 0)
+                    {
+                        replyDone.await();
+                    }
+                    else
+                    {
+                        replyDone.await( _timeout, TimeUnit.MILLISECONDS );
+                    }
                 }
                 catch( InterruptedException e )
                 {
@@ -136,5 +172,9 @@ public abstract class ReplyPlaceholder
 
             return in;
         }
+        finally
+        {
+            lock.unlock();
+        }
     }
 }
@@ -29,7 +29,10 @@ import org.jacorb.orb.miop.MulticastUtil;
 import org.jacorb.util.Time;
 import org.omg.CONV_FRAME.CodeSetContext;
 import org.omg.CONV_FRAME.CodeSetContextHelper;
+import org.omg.CORBA.COMM_FAILURE;
+import org.omg.CORBA.CompletionStatus;
 import org.omg.CORBA.MARSHAL;
+import org.omg.CORBA.SystemException;
 import org.omg.GIOP.PrincipalHelper;
 import org.omg.GIOP.MsgType_1_1;
 import org.omg.GIOP.TargetAddress;
@@ -90,6 +93,11 @@ public class RequestOutputStream
 
     private final byte[] object_key;
 
+    /**
+     * The exception a fragment of this request could not be sent with.
+     */
+    private SystemException fragmentFailure = null;
+
     /**
      * Copy constructor for <code>RequestOutputStream</code> used for SYNC_SCOPE NONE.
      *
@@ -294,11 +302,106 @@ public class RequestOutputStream
         return connection;
     }
 
+    /**
+     * Lets this request be sent in GIOP 1.2 fragments of about
+     * <code>fragmentSize</code> bytes while it is being marshalled,
+     * so that the whole request never has to be held in memory. The
+     * service contexts go out with the first fragment, so this must
+     * only be used if none are added after marshalling, i.e. when
+     * there are no request interceptors. Has no effect for GIOP 1.0
+     * and 1.1 which do not support request fragments.
+     */
+    public void enableFragmentation(int fragmentSize)
+    {
+        if (giop_minor == 2 && fragmentSize > 0 && connection != null)
+        {
+            setFragmentSize (fragmentSize);
+        }
+    }
+
+    protected int flushFragment(int end)
+    {
+        // the header has to go out as a whole with the first fragment,
+        // and there is no point in fragments without data
+        if (end <= (isFragmented() ? Messages.FRAGMENT_HEADER_SIZE : getBodyBegin()))
+        {
+            return -1;
+        }
+
+        if (fragmentFailure != null)
+        {
+            // discard the rest of a request that can't be sent
+            return Messages.FRAGMENT_HEADER_SIZE;
+        }
+
+        final GIOPConnection conn = connection.getGIOPConnection();
+        try
+        {
+            conn.sendFragment (this, end);
+        }
+        catch (IOException e)
+        {
+            fragmentFailed (conn, new COMM_FAILURE (e.toString(), 0, CompletionStatus.COMPLETED_NO));
+        }
+        catch (SystemException e)
+        {
+            fragmentFailed (conn, e);
+        }
+
+        return Messages.FRAGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * A fragment could not be sent. The stub goes on marshalling, and
+     * the failure is raised when the request is sent, so that it takes
+     * the usual path of a failed invocation.
+     */
+    private void fragmentFailed(GIOPConnection conn, SystemException e)
+    {
+        fragmentFailure = e;
+
+        if (isFragmented())
+        {
+            // the server holds the fragments sent so far
+            conn.cancelRequest (requestId());
+        }
+    }
+
+    /**
+     * Throws the exception a fragment of this request could not be sent
+     * with, if any. Called by the connection before sending the request.
+     */
+    void checkFragmentFailure()
+    {
+        if (fragmentFailure != null)
+        {
+            throw fragmentFailure;
+        }
+    }
+
+    void write_fragment_to(GIOPConnection conn, int end) throws IOException
+    {
+        if (!isFragmented())
+        {
+            negotiateCodeSets (conn);
+        }
+        super.write_fragment_to (conn, end);
+    }
+
     /**
      * Overridden to add a codeset service context if this
      * is the first request on the connection.
      */
     public void write_to(GIOPConnection conn) throws IOException
+    {
+        if (!isFragmented())
+        {
+            negotiateCodeSets (conn);
+        }
+        super.write_to(conn);
+    }
+
+    private void negotiateCodeSets(GIOPConnection conn)
     {
         if (!conn.isTCSNegotiated())
         {
@@ -306,7 +409,6 @@ public class RequestOutputStream
             addServiceContext (createCodesetContext ( conn.getTCS(), conn.getTCSW()));
             conn.markTCSNegotiated();
         }
-        super.write_to(conn);
     }
 
     private ServiceContext createCodesetContext( CodeSet tcs, CodeSet tcsw )
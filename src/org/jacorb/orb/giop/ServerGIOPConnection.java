@@ -148,6 +148,7 @@ public class ServerGIOPConnection
             write( CLOSE_CONNECTION_MESSAGE,
                    0,
                    CLOSE_CONNECTION_MESSAGE.length );
+            flushWrites();
 
             transport.flush();
 
@@ -31,10 +31,12 @@ import org.jacorb.orb.SystemExceptionHelper;
 import org.jacorb.orb.dsi.ServerRequest;
 import org.jacorb.poa.GOA;
 import org.jacorb.poa.POA;
+import org.jacorb.poa.util.POAUtil;
 import org.omg.CONV_FRAME.CodeSetContext;
 import org.omg.CORBA.CompletionStatus;
 import org.omg.CORBA.NO_PERMISSION;
 import org.omg.CORBA.OBJECT_NOT_EXIST;
+import org.omg.CORBA.TRANSIENT;
 import org.omg.GIOP.LocateStatusType_1_2;
 import org.omg.GIOP.ReplyStatusType_1_2;
 import org.omg.PortableGroup.TagGroupTaggedComponent;
@@ -54,6 +56,13 @@ public class ServerRequestListener
 
     private boolean require_ssl = false;
 
+    // null unless jacorb.connection.server.admission_control is on
+    private AdmissionController admissionController = null;
+
+    // the impl name and server id as they appear in object keys
+    private byte[] implNameKey;
+    private byte[] serverIdKey;
+
     public ServerRequestListener( ORB orb,
                                   POA rootPOA )
     {
@@ -67,6 +76,9 @@ public class ServerRequestListener
         logger =
             configuration.getLogger("org.jacorb.giop.server.listener");
 
+        implNameKey = POAUtil.maskId(orb.getImplName().getBytes());
+        serverIdKey = POAUtil.maskId(orb.getServerId());
+
         boolean supportSSL = configuration.getAttributeAsBoolean("jacorb.security.support_ssl",false);
 
         if( supportSSL )
@@ -78,6 +90,21 @@ public class ServerRequestListener
             //EstablishTrustInClient, SSL must be used.
             require_ssl = supportSSL && (required & 0x60) != 0;
         }
+
+        if (configuration.getAttributeAsBoolean("jacorb.connection.server.admission_control", false))
+        {
+            admissionController = new AdmissionController();
+            admissionController.configure(configuration);
+        }
+    }
+
+    /**
+     * @return the admission controller, or null if admission control
+     * is off
+     */
+    public AdmissionController getAdmissionController()
+    {
+        return admissionController;
     }
 
     public void requestReceived( byte[] request,
@@ -243,6 +270,22 @@ public class ServerRequestListener
             return;
         }
 
+        if (admissionController != null &&
+            ! inputStream.isLocateRequest() &&
+            server_request.getTagGroup() == null)
+        {
+            // reject excess requests before their body is unmarshalled
+            long admitted = admissionController.acquire();
+            if (admitted == 0)
+            {
+                server_request.setSystemException
+                    (new TRANSIENT("request rejected by admission control", 0, CompletionStatus.COMPLETED_NO));
+                server_request.reply();
+                return;
+            }
+            server_request.setAdmission(admissionController, admitted);
+        }
+
         deliverRequest( server_request );
     }
 
@@ -274,6 +317,27 @@ public class ServerRequestListener
         }
         try
         {
+            final byte[] objectKey = request.objectKey();
+            final int implNameEnd =
+                POAUtil.indexOfSeparator(objectKey, 0, objectKey.length);
+
+            /* the usual case: the key was generated by one of our POAs,
+               which are all known to the routing index */
+            if (implNameEnd >= 0 &&
+                (startsWith(objectKey, implNameEnd, serverIdKey) ||
+                 startsWith(objectKey, implNameEnd, implNameKey)))
+            {
+                tmp_poa = rootPOA._getDescendantPOA
+                    (objectKey, implNameEnd + 1, POAUtil.lastIndexOfSeparator(objectKey));
+
+                if (tmp_poa != null)
+                {
+                    tmp_poa._invoke( request );
+                    return;
+                }
+                tmp_poa = rootPOA;
+            }
+
             // This is similar to code within ORB::findPOA but
             // sufficiently different that it is reproduced here.
            String refImplName = "";
@@ -387,4 +451,23 @@ public class ServerRequestListener
             logger.warn("unexpected exception",e);
         }
     }
+
+    /**
+     * @return true if the first length bytes of data equal prefix
+     */
+    private static boolean startsWith(byte[] data, int length, byte[] prefix)
+    {
+        if (length != prefix.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (data[i] != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 }
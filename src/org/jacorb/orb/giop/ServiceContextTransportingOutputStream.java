@@ -25,8 +25,10 @@ import java.util.ArrayList;
 import java.util.List;
 import org.jacorb.orb.CDROutputStream;
 import org.jacorb.orb.ORBConstants;
+import org.omg.CORBA.BAD_INV_ORDER;
 import org.omg.CORBA.MARSHAL;
 import org.omg.CORBA.ORB;
+import org.omg.GIOP.MsgType_1_1;
 import org.omg.IOP.ServiceContext;
 import org.omg.IOP.ServiceContextHelper;
 
@@ -64,6 +66,12 @@ public class ServiceContextTransportingOutputStream
 
     protected List contexts;
 
+    /**
+     * <code>fragments</code> is the number of fragments of this GIOP 1.2
+     * message that have already been written.
+     */
+    private int fragments = 0;
+
     public ServiceContextTransportingOutputStream(ORB orb)
     {
         super(orb);
@@ -101,11 +109,6 @@ public class ServiceContextTransportingOutputStream
         return header_padding;
     }
 
-    private boolean hasBody()
-    {
-        return size() > getBodyBegin();
-    }
-
 
     public void insertMsgSize()
     {
@@ -135,7 +138,15 @@ public class ServiceContextTransportingOutputStream
     {
         CDROutputStream ctx_out = null;
 
-        if( contexts == null || contexts.size() == 0 )
+        if( fragments > 0 )
+        {
+            //the buffer starts with the header of the last Fragment
+            //message already
+            buffer[6] &= ~0x02;
+            insertMsgSize( size() - Messages.MSG_HEADER_SIZE );
+            write( conn, 0, size() );
+        }
+        else if( contexts == null || contexts.size() == 0 )
         {
             //no additional service contexts present, so buffer can be
             //sent as a whole
@@ -223,85 +234,145 @@ public class ServiceContextTransportingOutputStream
                 case 2 :
                 {
                     //GIOP 1.2
+                    ctx_out = writeContexts_1_2( conn, size() );
+                    break;
+                }
+                default :
+                {
+                    throw new MARSHAL( "Unknown GIOP minor: " + giop_minor );
+                }
+            }
+        }
+        conn.flushWrites();
+        close();
+        if ( ctx_out != null )
+        {
+            ctx_out.close();
+            ctx_out = null;
+        }
+    }
 
-                    //First of all, we need to know the the length of
-                    //the service context array
+    public boolean isFragmented()
+    {
+        return fragments > 0;
+    }
 
-                    //For GIOP 1.2, the header is padded per spec, so
-                    //no additional context is needed
+    /**
+     * Writes the first <code>end</code> bytes of this GIOP 1.2 message as
+     * a fragment and turns the start of the buffer into the header of
+     * the next Fragment message. The service contexts are sent with
+     * the first fragment, so none may be added afterwards.
+     */
+    void write_fragment_to( GIOPConnection conn, int end )
+        throws IOException
+    {
+        CDROutputStream ctx_out = null;
 
-                    ctx_out = createContextStream();
+        //more fragments follow
+        buffer[6] |= 0x02;
 
-                    //the new header end is the old header end minus
-                    //the length ulong of the context array plus the
-                    //length of the context array (wich contains its
-                    //own length ulong)
-                    int new_header_end = getHeaderEnd() - 4 + ctx_out.size();
+        if( fragments == 0 && contexts != null && contexts.size() > 0 )
+        {
+            ctx_out = writeContexts_1_2( conn, end );
+        }
+        else
+        {
+            insertMsgSize( end - Messages.MSG_HEADER_SIZE );
+            write( conn, 0, end );
+        }
+        conn.flushWrites();
 
-                    //difference to next 8 byte border
-                    int difference =  8 - (new_header_end % 8);
-                    difference = (difference == 8)? 0 : difference;
+        if ( ctx_out != null )
+        {
+            ctx_out.close();
+        }
 
-                    if( difference > 0  && hasBody() )
-                    {
-                        //add padding bytes (by just increasing the
-                        //size of the stream and not actually writing
-                        //anything). If no body is present, no padding
-                        //has to be inserted
-                        ctx_out.increaseSize( difference );
-                    }
+        ++fragments;
 
-                    //Then, we have to update the message size in the
-                    //GIOP message header. The new size is the size of
-                    //the "original" message minus the length ulong (4
-                    //bytes) of the original empty ServiceContext
-                    //array minus the "original" header padding plus
-                    //the length of the new service context array
-                    //(containing the new padding)
-                    insertMsgSize( size()
-                                   - Messages.MSG_HEADER_SIZE
-                                   - 4
-                                   - getHeaderPadding()
-                                   + ctx_out.size() );
+        //GIOP 1.2 Request and Reply headers start with the request
+        //id just like the Fragment header, so only the message type
+        //has to be changed
+        buffer[7] = (byte) MsgType_1_1._Fragment;
+    }
 
-                    //The GIOP message and request header (up until
-                    //the ServiceContexts) stay unmanipulated. We also
-                    //have to remove the length ulong of the
-                    //"original" empty service context array, because
-                    //the new one has its own length attribute
-                    write( conn,
-                           0,
-                           getHeaderEnd() - 4 );
+    /**
+     * Writes the first <code>end</code> bytes of this GIOP 1.2 message
+     * with the service contexts inserted into the header. The returned
+     * context stream must be closed once the writes have been flushed.
+     */
+    private CDROutputStream writeContexts_1_2( GIOPConnection conn, int end )
+        throws IOException
+    {
+        //First of all, we need to know the the length of
+        //the service context array
 
-                    //... then add the contexts ...
+        //For GIOP 1.2, the header is padded per spec, so
+        //no additional context is needed
 
-                    ctx_out.write( conn, 0, ctx_out.size());
+        final CDROutputStream ctx_out = createContextStream();
 
-                    //... and finally the rest of the message
-                    //(omitting the empty original context array).
+        //the new header end is the old header end minus
+        //the length ulong of the context array plus the
+        //length of the context array (wich contains its
+        //own length ulong)
+        int new_header_end = getHeaderEnd() - 4 + ctx_out.size();
 
-                    write( conn,
-                           getBodyBegin(),
-                           size() - getBodyBegin() );
+        //difference to next 8 byte border
+        int difference =  8 - (new_header_end % 8);
+        difference = (difference == 8)? 0 : difference;
 
-                    break;
-                }
-                default :
-                {
-                    throw new MARSHAL( "Unknown GIOP minor: " + giop_minor );
-                }
-            }
-        }
-        close();
-        if ( ctx_out != null )
+        if( difference > 0  && end > getBodyBegin() )
         {
-            ctx_out.close();
-            ctx_out = null;
+            //add padding bytes (by just increasing the
+            //size of the stream and not actually writing
+            //anything). If no body is present, no padding
+            //has to be inserted
+            ctx_out.increaseSize( difference );
         }
+
+        //Then, we have to update the message size in the
+        //GIOP message header. The new size is the size of
+        //the "original" message minus the length ulong (4
+        //bytes) of the original empty ServiceContext
+        //array minus the "original" header padding plus
+        //the length of the new service context array
+        //(containing the new padding)
+        insertMsgSize( end
+                       - Messages.MSG_HEADER_SIZE
+                       - 4
+                       - getHeaderPadding()
+                       + ctx_out.size() );
+
+        //The GIOP message and request header (up until
+        //the ServiceContexts) stay unmanipulated. We also
+        //have to remove the length ulong of the
+        //"original" empty service context array, because
+        //the new one has its own length attribute
+        write( conn,
+               0,
+               getHeaderEnd() - 4 );
+
+        //... then add the contexts ...
+
+        ctx_out.write( conn, 0, ctx_out.size());
+
+        //... and finally the rest of the message
+        //(omitting the empty original context array).
+
+        write( conn,
+               getBodyBegin(),
+               end - getBodyBegin() );
+
+        return ctx_out;
     }
 
     public void addServiceContext( ServiceContext ctx )
     {
+        if( fragments > 0 )
+        {
+            throw new BAD_INV_ORDER( "Message header has already been sent" );
+        }
+
         if( contexts == null )
         {
             contexts = new ArrayList();
@@ -0,0 +1,42 @@
+package org.jacorb.orb.giop;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+/**
+ * Decides which outgoing requests a ClientGIOPConnection may hold
+ * back in order to coalesce them with following messages into a
+ * single write. Requests that are not deferrable are written at once,
+ * together with any messages held back before them.
+ *
+ * Implementations are configured by
+ * jacorb.connection.client.coalesce_policy and must be thread safe.
+ *
+ * @see OnewayCoalescingPolicy
+ */
+public interface WriteCoalescingPolicy
+{
+    /**
+     * @return true if the request may be delayed by up to the
+     * configured coalescing delay
+     */
+    boolean isDeferrable (RequestOutputStream request);
+}
@@ -142,7 +142,7 @@ public class IIOPListener
         if (!isSSLRequired() ||
             configuration.getAttributeAsBoolean("jacorb.security.ssl.always_open_unsecured_address", false))
         {
-            acceptor = new Acceptor("ServerSocketListener");
+            acceptor = createAcceptor("ServerSocketListener");
             ((Acceptor)acceptor).init();
         }
 
@@ -322,6 +322,17 @@ public class IIOPListener
         deliverConnection(result);
     }
 
+    /**
+     * Template method to create the Acceptor for unsecured connections.
+     * This can be overridden by subclasses that need a different kind
+     * of server socket.
+     */
+    protected Acceptor createAcceptor (String name)
+        throws ConfigurationException
+    {
+        return new Acceptor(name);
+    }
+
     /**
      * Template method to create a server-side ETF Connection.
      * This can be overridden by subclasses to pass a different
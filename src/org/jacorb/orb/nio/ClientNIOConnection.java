@@ -167,7 +167,7 @@ public class ClientNIOConnection
         {
             if (myChannel != null)
             {
-                myChannel.close();
+                selectorManager.closeChannel (myChannel);
             }
 
             setConnected (false);
@@ -25,6 +25,7 @@ import java.nio.ByteBuffer;
 import java.io.IOException;
 
 import org.jacorb.orb.etf.StreamConnectionBase;
+import org.jacorb.orb.giop.GatheringTransport;
 import org.omg.CORBA.COMM_FAILURE;
 import org.jacorb.util.SelectorRequest;
 import org.jacorb.util.SelectorRequestCallback;
@@ -37,6 +38,7 @@ import org.omg.CORBA.TIMEOUT;
  */
 public abstract class NIOConnection
         extends StreamConnectionBase
+        implements GatheringTransport
 {
     private int timeout;
     protected SocketChannel channel = null;
@@ -57,14 +59,18 @@ public abstract class NIOConnection
 
         maxConsecutiveTimeouts = configuration.getAttributeAsInteger("jacorb.nio.maxConsecutiveTimeouts", 0);
 
-        try
-        {
-            channel = SocketChannel.open ();
-        }
-        catch (Exception ex)
+        // server-side connections are handed an already accepted channel
+        if (channel == null)
         {
-            logger.error ("Unable to initialize channel: " + ex.toString());
-            // can't do much more
+            try
+            {
+                channel = SocketChannel.open ();
+            }
+            catch (Exception ex)
+            {
+                logger.error ("Unable to initialize channel: " + ex.toString());
+                // can't do much more
+            }
         }
     }
 
@@ -172,6 +178,17 @@ public abstract class NIOConnection
                        int offset,
                        int length,
                        long time_out)
+    {
+        write (new ByteBuffer[] { ByteBuffer.wrap (data, offset, length) }, time_out);
+    }
+
+    /**
+     * Writes all buffers with a single gathering write where
+     * possible. The write is first attempted directly on the
+     * non-blocking channel; only if the socket buffer is full is the
+     * remainder handed to the SelectorManager.
+     */
+    public void write (ByteBuffer[] buffers, long time_out)
     {
 
         SocketChannel myChannel;
@@ -185,8 +202,46 @@ public abstract class NIOConnection
             throw handleCommFailure(new IOException("Channel has been closed"));
         }
 
+        long length = 0;
+        for (int i = 0; i < buffers.length; i++)
+        {
+            length += buffers[i].remaining();
+        }
+
+        long written;
+        try
+        {
+            written = myChannel.write (buffers);
+        }
+        catch (IOException ex)
+        {
+            try
+            {
+                myChannel.close();
+            }
+            catch (IOException ex2)
+            {
+                logger.error ("Failed to close channel: " + ex2.toString());
+            }
+            throw handleCommFailure(ex);
+        }
+
+        if (isDebugEnabled)
+        {
+            logger.debug ("wrote {} bytes to {}", written, connection_info);
+        }
+
+        if (written == length)
+        {
+            synchronized (this)
+            {
+                failedWriteAttempts = 0;
+            }
+            return;
+        }
+
         long nanoDeadline = (time_out == 0 ? Long.MAX_VALUE : System.nanoTime() + time_out * 1000000);
-        WriteCallback writeCallback = new WriteCallback (data, offset, length);
+        WriteCallback writeCallback = new WriteCallback (buffers, length - written);
         SelectorRequest request = new SelectorRequest (SelectorRequest.Type.WRITE, myChannel,
                 writeCallback, nanoDeadline);
 
@@ -203,7 +258,8 @@ public abstract class NIOConnection
         }
         request.waitOnCompletion (nanoDeadline);
 
-        if (!writeCallback.writeFinished())
+        // the buffers belong to the caller once this method returns
+        if (!writeCallback.cancel())
         {
 
             int failCount = 0;
@@ -339,28 +395,27 @@ public abstract class NIOConnection
     private class WriteCallback extends SelectorRequestCallback
     {
 
-        final ByteBuffer byteBuffer;
-        final int length;
-        private int writeCount = 0;
+        final ByteBuffer[] buffers;
+        final long length;
+        private long writeCount = 0;
+        private boolean cancelled = false;
 
-        public synchronized boolean writeFinished ()
-        {
-            return writeCount == length;
-        }
-
-        public WriteCallback (byte[] data, int offset, int length)
+        public WriteCallback (ByteBuffer[] buffers, long length)
         {
             super ();
 
+            this.buffers = buffers;
             this.length = length;
+        }
 
-            // allocate a bytebuffer with the input data size
-            byteBuffer = ByteBuffer.allocate (length);
-            byteBuffer.clear ();
-
-            // copy bytes into ByteBuffer
-            byteBuffer.put (data, offset, length);
-            byteBuffer.flip ();
+        /**
+         * Prevents any further writes from the buffers.
+         * @return true if the write had completed
+         */
+        public synchronized boolean cancel ()
+        {
+            cancelled = true;
+            return writeCount == length;
         }
 
         public boolean call (SelectorRequest request)
@@ -372,11 +427,19 @@ public abstract class NIOConnection
             {
                 if (request.status == SelectorRequest.Status.READY)
                 {
+                    long bytesWritten;
+                    boolean hasRemaining;
 
-                    int bytesWritten = myChannel.write (byteBuffer);
                     synchronized (this)
                     {
+                        if (cancelled)
+                        {
+                            return false;
+                        }
+
+                        bytesWritten = myChannel.write (buffers);
                         writeCount += bytesWritten;
+                        hasRemaining = writeCount < length;
                     }
 
                     if (isDebugEnabled)
@@ -384,7 +447,7 @@ public abstract class NIOConnection
                         logger.debug ("wrote {} bytes to {}", bytesWritten, connection_info);
                     }
                     // if buffer isn't empty request to be reactivated
-                    if (byteBuffer.hasRemaining())
+                    if (hasRemaining)
                     {
                         return true;
                     }
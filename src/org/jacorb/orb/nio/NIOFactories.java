@@ -21,7 +21,9 @@
 
 package org.jacorb.orb.nio;
 
+import org.jacorb.orb.iiop.IIOPListener;
 import org.omg.ETF.Connection;
+import org.omg.ETF.Listener;
 
 
 /**
@@ -29,6 +31,10 @@ import org.omg.ETF.Connection;
  *
  * This class is identical to the iiop.IIOPFactories except for the static
  * initialization bit.
+ *
+ * Server-side connections are only handled by NIO if
+ * jacorb.connection.nonblocking.server is set, otherwise the
+ * blocking IIOP listener is used.
  */
 public class NIOFactories
         extends org.jacorb.orb.iiop.IIOPFactories
@@ -40,4 +46,16 @@ public class NIOFactories
     {
        return new ClientNIOConnection();
     }
+
+   /**
+    * Return the correct type of listener
+    */
+    protected Listener create_listener_internal ()
+    {
+       if (configuration.getAttributeAsBoolean("jacorb.connection.nonblocking.server", false))
+       {
+          return new NIOListener();
+       }
+       return new IIOPListener();
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2011-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.jacorb.orb.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import org.jacorb.config.ConfigurationException;
+import org.jacorb.orb.factory.ServerSocketFactory;
+import org.jacorb.orb.iiop.IIOPListener;
+import org.omg.ETF.Connection;
+
+/**
+ * IIOP listener for the non-blocking server mode. Plain connections are
+ * accepted from a channel-backed server socket and handed to the ORB
+ * as {@link ServerNIOConnection}s, so that no thread is bound to a
+ * connection while it is idle. SSL connections are still handled
+ * by the blocking IIOP transport.
+ */
+public class NIOListener
+    extends IIOPListener
+{
+    protected Acceptor createAcceptor (String name)
+        throws ConfigurationException
+    {
+        return new Acceptor(name)
+        {
+            protected ServerSocketFactory getServerSocketFactory()
+            {
+                return new ChannelServerSocketFactory();
+            }
+        };
+    }
+
+    protected Connection createServerConnection (Socket socket,
+                                                 boolean is_ssl)
+        throws IOException
+    {
+        final SocketChannel channel = socket.getChannel();
+
+        if (is_ssl || channel == null)
+        {
+            return super.createServerConnection (socket, is_ssl);
+        }
+
+        channel.configureBlocking (false);
+
+        ServerNIOConnection result = new ServerNIOConnection (channel);
+
+        try
+        {
+            result.configure(configuration);
+        }
+        catch( ConfigurationException ce )
+        {
+            throw new org.omg.CORBA.INTERNAL("ConfigurationException: " + ce.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Creates server sockets through a ServerSocketChannel so that
+     * accepted sockets can be switched to non-blocking mode.
+     */
+    private static class ChannelServerSocketFactory
+        implements ServerSocketFactory
+    {
+        public ServerSocket createServerSocket (int port)
+            throws IOException
+        {
+            return createServerSocket (port, 0, null);
+        }
+
+        public ServerSocket createServerSocket (int port, int backlog)
+            throws IOException
+        {
+            return createServerSocket (port, backlog, null);
+        }
+
+        public ServerSocket createServerSocket (int port,
+                                                int backlog,
+                                                InetAddress ifAddress)
+            throws IOException
+        {
+            ServerSocket result = ServerSocketChannel.open().socket();
+            result.bind (new InetSocketAddress (ifAddress, port),
+                         backlog < 0 ? 0 : backlog);
+            return result;
+        }
+    }
+}
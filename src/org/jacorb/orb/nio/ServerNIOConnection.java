@@ -0,0 +1,292 @@
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2011-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.jacorb.orb.nio;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import org.jacorb.config.Configuration;
+import org.jacorb.config.ConfigurationException;
+import org.jacorb.orb.IBufferManager;
+import org.jacorb.orb.giop.EventDrivenTransport;
+import org.jacorb.orb.giop.GIOPConnection;
+import org.jacorb.orb.giop.Messages;
+import org.jacorb.orb.iiop.IIOPAddress;
+import org.jacorb.orb.iiop.IIOPProfile;
+import org.jacorb.util.ObjectUtil;
+import org.jacorb.util.SelectorRequest;
+import org.jacorb.util.SelectorRequestCallback;
+import org.omg.CORBA.NO_MEMORY;
+
+/**
+ * Server-side NIO connection. Rather than having a MessageReceptor
+ * thread block in read() for the lifetime of the connection, incoming
+ * GIOP messages are framed by the SelectorManager's worker threads as
+ * data becomes available, and only complete messages are passed up
+ * to the GIOP layer.
+ */
+public class ServerNIOConnection
+    extends NIOConnection
+    implements EventDrivenTransport
+{
+    private IBufferManager bufferManager;
+
+    public ServerNIOConnection (SocketChannel channel)
+    {
+        super();
+
+        this.channel = channel;
+    }
+
+    public void configure(Configuration configuration)
+        throws ConfigurationException
+    {
+        super.configure(configuration);
+
+        bufferManager = orb.getBufferManager();
+
+        Socket socket = channel.socket();
+        IIOPAddress address = new IIOPAddress
+        (
+            socket.getInetAddress().getHostAddress(),
+            socket.getPort()
+        );
+        address.configure (configuration);
+
+        profile = new IIOPProfile(address, null, orb.getGIOPMinorVersion());
+        profile.configure(configuration);
+
+        connection_info = address.toString();
+        setConnected (true);
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Opened new server-side NIO transport to " +
+                        connection_info );
+        }
+    }
+
+    public void startReceiving (GIOPConnection connection)
+    {
+        SelectorRequest request =
+            new SelectorRequest (SelectorRequest.Type.READ,
+                                 channel,
+                                 new MessageReader (connection),
+                                 0);
+
+        if (!selectorManager.add (request))
+        {
+            if (logger.isErrorEnabled())
+            {
+                logger.error ("Unable to register " + connection_info +
+                              " with SelectorManager. Request status: " +
+                              request.status);
+            }
+            connection.transportClosed();
+        }
+    }
+
+    public void connect (org.omg.ETF.Profile server_profile, long time_out)
+    {
+        //can't reconnect
+    }
+
+    public synchronized void close()
+    {
+        if (!connected)
+        {
+            return;
+        }
+
+        setConnected (false);
+
+        try
+        {
+            selectorManager.closeChannel (channel);
+        }
+        catch (IOException ex)
+        {
+            throw handleCommFailure(ex);
+        }
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Closed server-side NIO transport to " +
+                        connection_info );
+        }
+    }
+
+    /**
+     * Reassembles GIOP messages from the channel. Called in a
+     * SelectorManager worker thread whenever the channel becomes
+     * readable. Returning true keeps the read interest registered.
+     */
+    private class MessageReader extends SelectorRequestCallback
+    {
+        private final GIOPConnection connection;
+        private final ByteBuffer header =
+            ByteBuffer.allocate (Messages.MSG_HEADER_SIZE);
+        private byte[] message = null;
+        private ByteBuffer body = null;
+
+        public MessageReader (GIOPConnection connection)
+        {
+            super ();
+
+            this.connection = connection;
+        }
+
+        public boolean call (SelectorRequest request)
+        {
+            if (request.status != SelectorRequest.Status.READY)
+            {
+                if (isDebugEnabled)
+                {
+                    logger.debug ("Read request for " + connection_info +
+                                  " finished with status " + request.status);
+                }
+                streamClosed ();
+                return false;
+            }
+
+            try
+            {
+                while (true)
+                {
+                    if (body == null)
+                    {
+                        if (channel.read (header) < 0)
+                        {
+                            streamClosed ();
+                            return false;
+                        }
+                        if (header.hasRemaining ())
+                        {
+                            return true;
+                        }
+
+                        if (!startMessage ())
+                        {
+                            streamClosed ();
+                            return false;
+                        }
+                    }
+
+                    if (body.hasRemaining ())
+                    {
+                        if (channel.read (body) < 0)
+                        {
+                            streamClosed ();
+                            return false;
+                        }
+                        if (body.hasRemaining ())
+                        {
+                            return true;
+                        }
+                    }
+
+                    final byte[] complete = message;
+                    message = null;
+                    body = null;
+                    header.clear ();
+
+                    connection.receiveMessage (complete);
+
+                    if (!is_connected ())
+                    {
+                        return false;
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                if (isDebugEnabled)
+                {
+                    logger.debug("Got IOException in read(). Transport to " + connection_info +
+                                 ": stream closed: " + ex.toString());
+                }
+                streamClosed ();
+            }
+            catch (NO_MEMORY ex)
+            {
+                logger.error ("Caught NO_MEMORY error reading from " + connection_info, ex);
+                streamClosed ();
+            }
+
+            return false;
+        }
+
+        /**
+         * Validates a complete message header and allocates the
+         * buffer for the message body.
+         */
+        private boolean startMessage ()
+        {
+            final byte[] headerBytes = header.array ();
+
+            if (!Messages.matchGIOPMagic (headerBytes))
+            {
+                if (logger.isErrorEnabled())
+                {
+                    logger.error( "Failed to read GIOP message from " + connection_info
+                                  + ", incorrect magic number "
+                                  + ObjectUtil.bufToString(headerBytes, 0, 4)
+                                  + " --> connection closed" );
+                }
+                return false;
+            }
+
+            final int msg_size = Messages.getMsgSize (headerBytes);
+
+            if (msg_size < 0)
+            {
+                if (logger.isErrorEnabled())
+                {
+                    logger.error ("Negative GIOP message size (" + msg_size
+                                  + ") from " + connection_info);
+                }
+                return false;
+            }
+
+            message = bufferManager.getBuffer (msg_size + Messages.MSG_HEADER_SIZE);
+            System.arraycopy (headerBytes, 0, message, 0, Messages.MSG_HEADER_SIZE);
+            body = ByteBuffer.wrap (message, Messages.MSG_HEADER_SIZE, msg_size);
+
+            return true;
+        }
+
+        private void streamClosed ()
+        {
+            if (message != null)
+            {
+                bufferManager.returnBuffer (message);
+                message = null;
+                body = null;
+            }
+
+            if (is_connected ())
+            {
+                connection.transportClosed ();
+            }
+        }
+    }
+}
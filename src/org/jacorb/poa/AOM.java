@@ -20,18 +20,21 @@ package org.jacorb.poa;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import org.jacorb.poa.except.POAInternalError;
 import org.jacorb.poa.util.ByteArrayKey;
 import org.jacorb.poa.util.POAUtil;
 import org.jacorb.poa.util.StringPair;
 import org.omg.CORBA.OBJ_ADAPTER;
+import org.omg.PortableServer.ForwardRequest;
 import org.omg.PortableServer.Servant;
 import org.omg.PortableServer.ServantActivator;
 import org.omg.PortableServer.POAPackage.ObjectAlreadyActive;
@@ -43,29 +46,40 @@ import org.slf4j.Logger;
  * This class maps object id's to servants and vice versa.
  * A oid/servant pair can be added/removed using add(),remove().
  * The data can be retrieved using getServant() or getObjectId().
+ * Lookups do not lock the map, the monitor is only taken to modify
+ * it and to coordinate the incarnation, etherealization and
+ * deactivation of an object id with other such calls for the same id.
  *
  * @author Reimo Tiedemann, FU Berlin
  */
 
 public class AOM
 {
-    private AOMListener         aomListener;
+    private volatile AOMListener aomListener;
 
     private final boolean             unique;
     private final Logger            logger;
 
     // an ObjectID can appear only once, but an servant can have multiple ObjectId's
     // if MULTIPLE_ID is set
-    private final Map           objectMap = new HashMap(); // oid -> servant
+    private final ActiveObjectStore store;
 
-    // only meaningful if UNIQUE_ID is set
-    // only for performance improvements (brose: is that still true?)
-    private final Map           servantMap;             // servant -> oid
-
-    // for synchronisation of servant activator calls
+    // for synchronisation of servant activator calls, per object id
     private final HashSet              etherealisationList = new HashSet();
     private final HashSet              incarnationList = new HashSet();
-    private final HashSet              deactivationList = new HashSet();
+
+    // collects the oids to incarnate with a BatchServantActivator while
+    // other batches are in flight, null if there is none
+    private IncarnationBatch           pendingBatch;
+    private int                        batchesInFlight;
+    private int                        batchSize = 1;
+
+    // threads that run BatchServantActivator.incarnateBatch, the
+    // incarnations they cause themselves are not batched
+    private final HashSet              batchThreads = new HashSet();
+
+    // modified under the monitor, but read by isDeactivating without it
+    private final Set                  deactivationList = Collections.newSetFromMap(new ConcurrentHashMap());
 
     private BlockingQueue removalQueue = new LinkedBlockingQueue();
 
@@ -86,18 +100,27 @@ public class AOM
 
 
     protected AOM (boolean _unique, Logger _logger)
+    {
+        this(_unique, false, _logger);
+    }
+
+    /**
+     * @param _compact if true, keep the active objects in a
+     * CompactActiveObjectStore instead of hash maps.
+     */
+    protected AOM (boolean _unique, boolean _compact, Logger _logger)
     {
         unique = _unique;
         logger = _logger;
         aomRemoval = new AOMRemoval ();
 
-        if (unique)
+        if (_compact)
         {
-            servantMap = new HashMap();
+            store = new CompactActiveObjectStore(unique);
         }
         else
         {
-            servantMap = Collections.EMPTY_MAP;
+            store = new HashActiveObjectStore(unique);
         }
         aomRemoval.setDaemon (true);
         aomRemoval.start ();
@@ -137,10 +160,7 @@ public class AOM
                deactivationList.contains( oidbak )  ||
                // This is to check whether we are attempting to reactivate
                // a servant that is currently being deactivated with another ID.
-               (
-                   servantMap.containsKey( servant ) &&
-                   deactivationList.contains(servantMap.get( servant ))
-               ))
+               isDeactivating(store.getObjectId(servant)))
         {
             try
             {
@@ -151,24 +171,19 @@ public class AOM
             }
         }
 
-        if (objectMap.containsKey(oidbak))
+        if (store.get(oidbak) != null)
         {
             throw new ObjectAlreadyActive();
         }
 
-        if (unique && servantMap.containsKey(servant))
+        if (unique && store.contains(servant))
         {
             throw new ServantAlreadyActive();
         }
 
         /* this is the actual object activation: */
 
-        objectMap.put(oidbak, servant);
-
-        if ( unique )
-        {
-            servantMap.put(servant, oidbak);
-        }
+        store.put(oidbak, servant);
 
         if (logger.isInfoEnabled())
         {
@@ -179,7 +194,7 @@ public class AOM
         // notify an aom listener
         if (aomListener != null)
         {
-            aomListener.objectActivated(oid, servant, objectMap.size());
+            aomListener.objectActivated(oid, servant, store.size());
         }
     }
 
@@ -190,13 +205,13 @@ public class AOM
     }
 
 
-    synchronized boolean isDeactivating(ByteArrayKey oid)
+    boolean isDeactivating(ByteArrayKey oid)
     {
-        return deactivationList.contains (oid);
+        return oid != null && deactivationList.contains (oid);
     }
 
 
-    protected synchronized boolean contains(Servant servant)
+    protected boolean contains(Servant servant)
     {
         return _contains(servant);
     }
@@ -204,43 +219,40 @@ public class AOM
 
     private boolean _contains(Servant servant)
     {
-        if (unique)
-        {
-            return servantMap.containsKey(servant);
-        }
-        else
-        {
-            return objectMap.containsValue(servant);
-        }
+        return store.contains(servant);
     }
 
 
-    protected synchronized StringPair[] deliverContent()
+    protected StringPair[] deliverContent()
     {
-        final StringPair[] result = new StringPair[objectMap.size()];
-        Iterator en = objectMap.keySet().iterator();
+        final List keys = store.keys();
+        final List result = new ArrayList(keys.size());
 
-        for ( int i = 0; i < result.length; i++ )
+        for (Iterator en = keys.iterator(); en.hasNext(); )
         {
             final ByteArrayKey oidbak = (ByteArrayKey) en.next();
-            result[i] = new StringPair
-            (
-                oidbak.toString(),
-                objectMap.get(oidbak).getClass().getName()
-            );
-        }
-        return result;
+            final Servant servant = store.get(oidbak);
 
+            if (servant != null)
+            {
+                result.add(new StringPair
+                (
+                    oidbak.toString(),
+                    servant.getClass().getName()
+                ));
+            }
+        }
+        return (StringPair[]) result.toArray(new StringPair[result.size()]);
     }
 
-    protected synchronized byte[] getObjectId(Servant servant)
+    protected byte[] getObjectId(Servant servant)
     {
         if (!unique)
         {
             throw new POAInternalError("error: not UNIQUE_ID policy (getObjectId)");
         }
 
-        ByteArrayKey oidbak = (ByteArrayKey)servantMap.get(servant);
+        ByteArrayKey oidbak = store.getObjectId(servant);
 
         if (oidbak != null)
         {
@@ -255,18 +267,36 @@ public class AOM
         return getServant( new ByteArrayKey( oid ) );
     }
 
-    protected synchronized Servant getServant(ByteArrayKey oid)
+    protected Servant getServant(ByteArrayKey oid)
     {
-        return (Servant) objectMap.get(oid);
+        return store.get(oid);
     }
 
-    protected synchronized Servant incarnate( ByteArrayKey oidbak,
-                                              ServantActivator servant_activator,
-                                              org.omg.PortableServer.POA poa )
+    /**
+     * sets the maximum number of object ids that are incarnated together
+     * if the servant activator is a BatchServantActivator
+     */
+    void setIncarnationBatchSize(int size)
+    {
+        batchSize = size;
+    }
+
+    protected Servant incarnate( ByteArrayKey oidbak,
+                                 ServantActivator servant_activator,
+                                 org.omg.PortableServer.POA poa )
         throws org.omg.PortableServer.ForwardRequest
     {
         final byte[] oid = oidbak.getBytes();
-        Servant servant = null;
+        Servant servant = store.get(oidbak);
+        IncarnationBatch batch = null;
+        boolean leader = false;
+        int index = 0;
+
+        /* another thread was faster, the incarnation is unnecessary now */
+        if (servant != null)
+        {
+            return servant;
+        }
 
         if (logger.isInfoEnabled())
         {
@@ -274,44 +304,233 @@ public class AOM
                         "incarnate");
         }
 
-        /* all invocations of incarnate on the servant manager are serialized */
-        /* all invocations of etherealize on the servant manager are serialized */
-        /* invocations of incarnate and etherialize are mutually exclusive */
+        /* invocations of incarnate and etherealize on the servant manager
+           for the same oid are serialized and mutually exclusive, those
+           for different oids may run concurrently */
 
-        while (!incarnationList.isEmpty() || !etherealisationList.isEmpty())
+        synchronized (this)
         {
-            try
+            while (incarnationList.contains(oidbak) || etherealisationList.contains(oidbak))
             {
-                wait();
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                }
             }
-            catch (InterruptedException e) {
+
+            /* another thread was faster, the incarnation is unnecessary now */
+            servant = store.get(oidbak);
+            if (servant != null)
+            {
+                return servant;
             }
-        }
 
-        /* another thread was faster, the incarnation is unnecessary now */
-        if (objectMap.containsKey(oidbak))
-        {
-            return (Servant) objectMap.get(oidbak);
+            /* servant incarnation */
+            if (servant_activator == null)
+            {
+                // This might be thrown if they failed to set implname
+                throw new OBJ_ADAPTER("Servant Activator for " + POAUtil.convert(oid) + " was null.");
+            }
+
+            incarnationList.add(oidbak);
+
+            /* an incarnation from within incarnateBatch, e.g. by a
+               colocated call to another object of this POA, must not
+               wait for the pending batch, which waits for the batch of
+               the calling thread in turn */
+            if (batchSize > 1 && servant_activator instanceof BatchServantActivator &&
+                !batchThreads.contains(Thread.currentThread()))
+            {
+                batch = pendingBatch;
+                if (batch == null)
+                {
+                    batch = new IncarnationBatch();
+                    pendingBatch = batch;
+                    leader = true;
+                }
+                index = batch.add(oidbak);
+
+                if (batch.size() == batchSize)
+                {
+                    // a full batch is started right away
+                    pendingBatch = null;
+                    notifyAll();
+                }
+
+                if (leader)
+                {
+                    while (pendingBatch == batch && batchesInFlight > 0)
+                    {
+                        try
+                        {
+                            wait();
+                        }
+                        catch (InterruptedException e) {
+                        }
+                    }
+                    if (pendingBatch == batch)
+                    {
+                        pendingBatch = null;
+                    }
+                    batchesInFlight++;
+                    batchThreads.add(Thread.currentThread());
+                }
+            }
         }
 
-        /* servant incarnation */
-        if (servant_activator == null)
+        if (batch != null)
         {
-            // This might be thrown if they failed to set implname
-            throw new OBJ_ADAPTER("Servant Activator for " + POAUtil.convert(oid) + " was null.");
+            if (leader)
+            {
+                incarnate(batch, (BatchServantActivator)servant_activator, poa);
+            }
+            return batch.getServant(index);
         }
 
-        incarnationList.add(oidbak);
+        boolean incarnated = false;
         try
         {
             servant = servant_activator.incarnate(oid, poa);
+            incarnated = true;
         }
         finally
         {
+            if (!incarnated)
+            {
+                synchronized (this)
+                {
+                    incarnationList.remove(oidbak);
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized (this)
+        {
+            /* activate the object before anybody waiting for this oid
+               can proceed */
             incarnationList.remove(oidbak);
+            try
+            {
+                servant = activateIncarnated(oidbak, servant);
+            }
+            finally
+            {
+                notifyAll();
+            }
+        }
+
+        ((org.jacorb.poa.POA)poa).getORB().set_delegate(servant);
+
+        return servant;
+    }
+
+    /**
+     * incarnates the servants of a batch and activates them. Called by
+     * the thread that started the batch, the other threads of the batch
+     * wait for it in IncarnationBatch.getServant.
+     */
+    private void incarnate(IncarnationBatch batch,
+                           BatchServantActivator servant_activator,
+                           org.omg.PortableServer.POA poa)
+    {
+        final byte[][] oids = batch.getObjectIds();
+        Servant[] servants = null;
+        Throwable failure = null;
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("incarnate batch of " + oids.length + " oids");
+        }
+
+        try
+        {
+            if (oids.length == 1)
+            {
+                servants = new Servant[] { servant_activator.incarnate(oids[0], poa) };
+            }
+            else
+            {
+                servants = servant_activator.incarnateBatch(oids, poa);
+
+                if (servants == null || servants.length != oids.length)
+                {
+                    throw new OBJ_ADAPTER("incarnateBatch returned " +
+                                          (servants == null ? 0 : servants.length) +
+                                          " servants for " + oids.length + " oids");
+                }
+            }
+        }
+        catch (ForwardRequest e)
+        {
+            failure = e;
+        }
+        catch (RuntimeException e)
+        {
+            failure = e;
+        }
+        catch (Error e)
+        {
+            failure = e;
+        }
+
+        final Throwable[] failures = new Throwable[oids.length];
+
+        synchronized (this)
+        {
+            batchesInFlight--;
+            batchThreads.remove(Thread.currentThread());
+
+            for (int i = 0; i < oids.length; i++)
+            {
+                ByteArrayKey oidbak = batch.getKey(i);
+                incarnationList.remove(oidbak);
+
+                if (failure != null)
+                {
+                    failures[i] = failure;
+                    continue;
+                }
+
+                try
+                {
+                    servants[i] = activateIncarnated(oidbak, servants[i]);
+                }
+                catch (RuntimeException e)
+                {
+                    servants[i] = null;
+                    failures[i] = e;
+                }
+            }
             notifyAll();
         }
 
+        if (failure == null)
+        {
+            for (int i = 0; i < servants.length; i++)
+            {
+                if (servants[i] != null)
+                {
+                    ((org.jacorb.poa.POA)poa).getORB().set_delegate(servants[i]);
+                }
+            }
+        }
+
+        batch.done(servants, failures);
+    }
+
+    /**
+     * adds an incarnated servant to the map unless that would violate
+     * the UNIQUE_ID policy
+     *
+     * @return the servant, or null if it has not been added
+     */
+    private Servant activateIncarnated(ByteArrayKey oidbak, Servant servant)
+    {
+        final byte[] oid = oidbak.getBytes();
+
         if (servant == null)
         {
             if (logger.isInfoEnabled())
@@ -322,7 +541,7 @@ public class AOM
         }
         else
         {
-            if (unique && servantMap.containsKey(servant))
+            if (unique && store.contains(servant))
             {
                 if (logger.isInfoEnabled())
                 {
@@ -361,9 +580,6 @@ public class AOM
                 }
             }
         }
-
-        ((org.jacorb.poa.POA)poa).getORB().set_delegate(servant);
-
         return servant;
     }
 
@@ -374,7 +590,7 @@ public class AOM
                  boolean cleanupInProgress)
         throws ObjectNotActive
     {
-        if ( !objectMap.containsKey( oidbak ) ||
+        if ( store.get( oidbak ) == null ||
              deactivationList.contains( oidbak ) )
         {
             throw new ObjectNotActive();
@@ -416,7 +632,7 @@ public class AOM
     {
         final byte[] oid = oidbak.getBytes();
 
-        if (!objectMap.containsKey(oidbak))
+        if (store.get(oidbak) == null)
         {
             // should not happen but ...
             deactivationList.remove(oidbak);
@@ -443,67 +659,64 @@ public class AOM
     }
 
 
-    private synchronized void actualRemove(ByteArrayKey oidbak, ServantActivator servantActivator, POA poa, boolean cleanupInProgress, final byte[] oid)
+    private void actualRemove(ByteArrayKey oidbak, ServantActivator servantActivator, POA poa, boolean cleanupInProgress, final byte[] oid)
     {
-        Servant servant;
+        final Servant servant;
+        final boolean remainingActivations;
 
-        if ((servant = (Servant)objectMap.get(oidbak)) == null)
+        synchronized (this)
         {
-            deactivationList.remove(oidbak);
-            return;
-        }
-
-        /* object deactivation */
-
-        objectMap.remove(oidbak);
+            if ((servant = store.remove(oidbak)) == null)
+            {
+                deactivationList.remove(oidbak);
+                return;
+            }
 
-        if (unique)
-        {
-            servantMap.remove(servant);
-        }
+            /* object deactivation */
 
-        // Wait to remove the oid from the deactivationList here so that the
-        // object map can be cleared out first. This ensures we don't
-        // reactivate an object we're currently deactivating.
-        deactivationList.remove(oidbak);
+            // Wait to remove the oid from the deactivationList here so that the
+            // object map can be cleared out first. This ensures we don't
+            // reactivate an object we're currently deactivating.
+            deactivationList.remove(oidbak);
 
-        if (logger.isInfoEnabled())
-        {
-            logger.info("oid: " + POAUtil.convert(oid) +
-                        "object is deactivated");
-        }
+            if (logger.isInfoEnabled())
+            {
+                logger.info("oid: " + POAUtil.convert(oid) +
+                            "object is deactivated");
+            }
 
-        // notify an aom listener
-        if (aomListener != null)
-        {
-            aomListener.objectDeactivated(oid, servant, objectMap.size());
-        }
+            // notify an aom listener
+            if (aomListener != null)
+            {
+                aomListener.objectDeactivated(oid, servant, store.size());
+            }
 
-        if (servantActivator == null)
-        {
-            // Tell anyone waiting we're done now.
-            notifyAll();
-            return;
-        }
+            if (servantActivator == null)
+            {
+                // Tell anyone waiting we're done now.
+                notifyAll();
+                return;
+            }
 
-        /* servant etherealization */
+            /* servant etherealization */
 
-        /* all invocations of incarnate on the servant manager are
-           serialized,  all  invocations   of  etherealize  on  the
-           servant manager are serialized, invocations of incarnate
-           and etherialize are mutually exclusive */
+            /* invocations of incarnate and etherealize on the servant
+               manager for the same oid are serialized and mutually
+               exclusive */
 
-        while (!incarnationList.isEmpty() || !etherealisationList.isEmpty())
-        {
-            try
-            {
-                wait();
-            }
-            catch (InterruptedException e)
+            while (incarnationList.contains(oidbak) || etherealisationList.contains(oidbak))
             {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                }
             }
+            etherealisationList.add(oidbak);
+            remainingActivations = _contains(servant);
         }
-        etherealisationList.add(oidbak);
 
         try
         {
@@ -513,7 +726,7 @@ public class AOM
                 poa,
                 servant,
                 cleanupInProgress,
-                _contains(servant)
+                remainingActivations
             );
 
             if (logger.isInfoEnabled())
@@ -540,8 +753,11 @@ public class AOM
         }
         finally
         {
-            etherealisationList.remove(oidbak);
-            notifyAll();
+            synchronized (this)
+            {
+                etherealisationList.remove(oidbak);
+                notifyAll();
+            }
         }
     }
 
@@ -549,7 +765,7 @@ public class AOM
                                            POA poa,
                                            boolean cleanup_in_progress )
     {
-        final Iterator i = new HashSet(objectMap.keySet()).iterator();
+        final Iterator i = store.keys().iterator();
         while (i.hasNext())
         {
             final ByteArrayKey oid = (ByteArrayKey) i.next();
@@ -562,9 +778,9 @@ public class AOM
         aomListener = EventMulticaster.remove(aomListener, listener);
     }
 
-    protected synchronized int size()
+    protected int size()
     {
-        return objectMap.size();
+        return store.size();
     }
 
 
@@ -613,6 +829,83 @@ public class AOM
         }
     }
 
+    /**
+     * The object ids that are incarnated by one call of
+     * BatchServantActivator.incarnateBatch and the results for them.
+     * The ids are added under the AOM monitor, the results are awaited
+     * on the batch, so that a completed batch only wakes its own
+     * requests.
+     */
+    private static class IncarnationBatch
+    {
+        private final List keys = new ArrayList();
+        private Servant[] servants;
+        private Throwable[] failures;
+        private boolean done;
+
+        int add(ByteArrayKey oidbak)
+        {
+            keys.add(oidbak);
+            return keys.size() - 1;
+        }
+
+        int size()
+        {
+            return keys.size();
+        }
+
+        ByteArrayKey getKey(int index)
+        {
+            return (ByteArrayKey)keys.get(index);
+        }
+
+        byte[][] getObjectIds()
+        {
+            byte[][] oids = new byte[keys.size()][];
+            for (int i = 0; i < oids.length; i++)
+            {
+                oids[i] = getKey(i).getBytes();
+            }
+            return oids;
+        }
+
+        synchronized void done(Servant[] servants, Throwable[] failures)
+        {
+            this.servants = servants;
+            this.failures = failures;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized Servant getServant(int index) throws ForwardRequest
+        {
+            while (!done)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                }
+            }
+
+            Throwable failure = failures[index];
+            if (failure instanceof ForwardRequest)
+            {
+                throw (ForwardRequest)failure;
+            }
+            if (failure instanceof RuntimeException)
+            {
+                throw (RuntimeException)failure;
+            }
+            if (failure instanceof Error)
+            {
+                throw (Error)failure;
+            }
+            return servants == null ? null : servants[index];
+        }
+    }
+
     class RemovalStruct
     {
         ByteArrayKey oidbak;
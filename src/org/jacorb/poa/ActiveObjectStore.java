@@ -0,0 +1,69 @@
+package org.jacorb.poa;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.List;
+import org.jacorb.poa.util.ByteArrayKey;
+import org.omg.PortableServer.Servant;
+
+/**
+ * Holds the oid/servant pairs of an active object map. Lookups may be
+ * called concurrently with each other and with modifications, the
+ * modifying operations are only called while the AOM is locked.
+ *
+ * @see AOM
+ */
+interface ActiveObjectStore
+{
+    /**
+     * @return the servant activated with the oid, or null.
+     */
+    Servant get(ByteArrayKey oid);
+
+    /**
+     * Adds an oid/servant pair, replacing a servant activated with
+     * the same oid.
+     */
+    void put(ByteArrayKey oid, Servant servant);
+
+    /**
+     * @return the servant that had been activated with the oid, or null.
+     */
+    Servant remove(ByteArrayKey oid);
+
+    /**
+     * @return the oid the servant is activated with, or null. Only
+     * supported for the UNIQUE_ID policy.
+     */
+    ByteArrayKey getObjectId(Servant servant);
+
+    /**
+     * @return true if the servant is activated with at least one oid.
+     */
+    boolean contains(Servant servant);
+
+    int size();
+
+    /**
+     * @return a snapshot of the oids (ByteArrayKey) of all active objects.
+     */
+    List keys();
+}
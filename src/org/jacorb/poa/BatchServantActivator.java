@@ -0,0 +1,62 @@
+package org.jacorb.poa;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import org.omg.PortableServer.ForwardRequest;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.Servant;
+import org.omg.PortableServer.ServantActivator;
+
+/**
+ * A JacORB extension of the ServantActivator that incarnates the
+ * servants for several object ids in one call. If the servant manager
+ * of a RETAIN POA implements this interface, requests for objects that
+ * are not active yet are collected while an earlier batch is being
+ * incarnated and are then passed to incarnateBatch together, so that
+ * e.g. the servants' state can be loaded with a single database query.
+ * The requests wait until the batch holding their object id is done.
+ * <p>
+ * The number of object ids in a batch is limited by the property
+ * jacorb.poa.incarnation_batch_size and by the size of the POA's
+ * request processor pool, as each waiting request holds a request
+ * processor. A batch that holds a single object id is incarnated by
+ * calling incarnate.
+ * <p>
+ * Objects of the same POA that are incarnated by the thread that runs
+ * incarnateBatch, e.g. by a colocated call, are incarnated one by one
+ * by calling incarnate. A call from incarnateBatch that is dispatched
+ * by another thread, such as a call through a remote reference, waits
+ * for the batch in progress and must not be made.
+ */
+public interface BatchServantActivator extends ServantActivator
+{
+    /**
+     * incarnates the servants for the given object ids.
+     *
+     * @return the servants, in the order of oids. A null entry means
+     * that the object could not be incarnated, the request for it
+     * fails as if incarnate had returned null.
+     * @exception ForwardRequest is passed on to the requests for all
+     * object ids of the batch, as are system exceptions.
+     */
+    Servant[] incarnateBatch(byte[][] oids, POA adapter)
+        throws ForwardRequest;
+}
@@ -0,0 +1,449 @@
+package org.jacorb.poa;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jacorb.poa.util.ByteArrayKey;
+import org.omg.PortableServer.Servant;
+
+/**
+ * Keeps the active objects in an open-addressed table of primitive
+ * arrays, <code>jacorb.poa.aom_storage=compact</code>. The object ids
+ * are copied into a single byte array, each preceded by its length,
+ * and all servants are held in a single array. The servant to oid
+ * lookup of UNIQUE_ID POAs is an int array of slot numbers. No objects
+ * are allocated per activated object.
+ * <p>
+ * A slot is filled only once per table, removing an object leaves a
+ * tombstone that is dropped, together with the id bytes, when the
+ * table is rebuilt. Since the id of a slot never changes, lookups need
+ * no lock: the servant is published after the id, and a lookup reads
+ * the servant before comparing the id.
+ */
+class CompactActiveObjectStore
+    implements ActiveObjectStore
+{
+    /** servant of a slot whose object has been removed */
+    private static final Object REMOVED = new Object();
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final boolean unique;
+
+    private volatile Table table;
+
+    private volatile int size;
+
+    /** bytes taken by the ids of the live objects */
+    private int idBytes;
+
+    CompactActiveObjectStore(boolean unique)
+    {
+        this.unique = unique;
+        table = new Table(MIN_CAPACITY, MIN_CAPACITY * 8, unique);
+    }
+
+    public Servant get(ByteArrayKey oid)
+    {
+        return table.lookup(oid);
+    }
+
+    public void put(ByteArrayKey oid, Servant servant)
+    {
+        Table t = table;
+        int slot = t.find(oid);
+
+        if (slot >= 0)
+        {
+            t.servants.set(slot, servant);
+            t.link(slot, servant);
+            t.used++;
+            return;
+        }
+
+        final int length = recordLength(oid.length());
+
+        if ((t.used + 1) * 4 > t.capacity() * 3 ||
+            t.idsEnd + length > t.ids.length)
+        {
+            t = rebuild(size + 1, idBytes + length);
+        }
+        t.insert(oid, servant);
+        idBytes += length;
+        size++;
+    }
+
+    public Servant remove(ByteArrayKey oid)
+    {
+        final Table t = table;
+        final int slot = t.find(oid);
+
+        if (slot < 0)
+        {
+            return null;
+        }
+
+        final Servant servant = (Servant) t.servants.get(slot);
+        t.servants.set(slot, REMOVED);
+        idBytes -= t.slotLength(slot);
+        size--;
+
+        return servant;
+    }
+
+    public ByteArrayKey getObjectId(Servant servant)
+    {
+        if (!unique)
+        {
+            return null;
+        }
+
+        final Table t = table;
+        final int slot = t.findServant(servant);
+
+        // the id of a slot never changes, even if it is removed meanwhile
+        return slot < 0 ? null : new ByteArrayKey(t.id(slot));
+    }
+
+    public boolean contains(Servant servant)
+    {
+        final Table t = table;
+
+        if (unique)
+        {
+            return t.findServant(servant) >= 0;
+        }
+
+        for (int i = 0; i < t.capacity(); i++)
+        {
+            Object s = t.servants.get(i);
+            if (s != null && s != REMOVED && servant.equals(s))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public List keys()
+    {
+        final Table t = table;
+        final List result = new ArrayList(size);
+
+        for (int i = 0; i < t.capacity(); i++)
+        {
+            Object s = t.servants.get(i);
+            if (s != null && s != REMOVED)
+            {
+                result.add(new ByteArrayKey(t.id(i)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * copies the live objects into a new table that is large enough
+     * for at least minSize objects with minIdBytes of ids and
+     * publishes it.
+     */
+    private Table rebuild(int minSize, int minIdBytes)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity < minSize * 2)
+        {
+            capacity <<= 1;
+        }
+
+        final Table old = table;
+        final Table t = new Table(capacity,
+                                  Math.max(MIN_CAPACITY * 8, minIdBytes + minIdBytes / 2),
+                                  unique);
+
+        for (int i = 0; i < old.capacity(); i++)
+        {
+            Object s = old.servants.get(i);
+            if (s != null && s != REMOVED)
+            {
+                t.copy(old, i, (Servant) s);
+            }
+        }
+
+        table = t;
+        return t;
+    }
+
+    /**
+     * @return the number of bytes an id of the given length takes in
+     * the ids array: a variable length prefix of 7 bits per byte, then
+     * the id.
+     */
+    private static int recordLength(int idLength)
+    {
+        int prefix = 1;
+        for (int l = idLength >>> 7; l != 0; l >>>= 7)
+        {
+            prefix++;
+        }
+        return prefix + idLength;
+    }
+
+    private static final class Table
+    {
+        private final int mask;
+        private final int[] hashes;
+        private final int[] offsets; // into ids
+
+        /** the ids, each preceded by its length */
+        final byte[] ids;
+
+        /** end of the used part of ids */
+        int idsEnd;
+
+        /** Servant, REMOVED, or null if the slot has not been used. */
+        final AtomicReferenceArray servants;
+
+        /** slot + 1 by servant hash, only for UNIQUE_ID */
+        private final AtomicIntegerArray reverse;
+
+        /** number of slots that are not null plus the servant lookup
+            entries added by replacing a servant */
+        int used;
+
+        Table(int capacity, int idCapacity, boolean unique)
+        {
+            mask = capacity - 1;
+            hashes = new int[capacity];
+            offsets = new int[capacity];
+            ids = new byte[idCapacity];
+            servants = new AtomicReferenceArray(capacity);
+            reverse = unique ? new AtomicIntegerArray(capacity) : null;
+        }
+
+        int capacity()
+        {
+            return mask + 1;
+        }
+
+        /**
+         * @return the slot of the live object with the id, or -1.
+         */
+        int find(ByteArrayKey oid)
+        {
+            final int hash = oid.hashCode();
+
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask)
+            {
+                final Object s = servants.get(i);
+
+                if (s == null)
+                {
+                    return -1;
+                }
+
+                if (s != REMOVED && hashes[i] == hash && matches(i, oid))
+                {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * @return the servant of the live object with the id, or
+         * null. Each slot is read once, so a concurrent remove either
+         * hides the object or not, but never yields REMOVED.
+         */
+        Servant lookup(ByteArrayKey oid)
+        {
+            final int hash = oid.hashCode();
+
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask)
+            {
+                final Object s = servants.get(i);
+
+                if (s == null)
+                {
+                    return null;
+                }
+
+                if (s != REMOVED && hashes[i] == hash && matches(i, oid))
+                {
+                    return (Servant) s;
+                }
+            }
+        }
+
+        /**
+         * @return the slot of the live object with the servant, or -1.
+         * Like lookup, the servant of a slot is read only once.
+         */
+        int findServant(Servant servant)
+        {
+            for (int i = spread(servant.hashCode()) & mask; ; i = (i + 1) & mask)
+            {
+                final int slot = reverse.get(i) - 1;
+
+                if (slot < 0)
+                {
+                    return -1;
+                }
+
+                final Object s = servants.get(slot);
+
+                if (s != REMOVED && servant.equals(s))
+                {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * @return the length of the id in the slot
+         */
+        private int idLength(int slot)
+        {
+            int pos = offsets[slot];
+            int length = 0;
+            int shift = 0;
+            byte b;
+
+            do
+            {
+                b = ids[pos++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+
+            return length;
+        }
+
+        private boolean matches(int slot, ByteArrayKey oid)
+        {
+            final int length = idLength(slot);
+
+            return oid.equals(ids, offsets[slot] + recordLength(length) - length, length);
+        }
+
+        byte[] id(int slot)
+        {
+            final int length = idLength(slot);
+            final byte[] id = new byte[length];
+
+            System.arraycopy(ids, offsets[slot] + recordLength(length) - length, id, 0, length);
+            return id;
+        }
+
+        /**
+         * @return the number of bytes the id of the slot takes in ids
+         */
+        int slotLength(int slot)
+        {
+            return recordLength(idLength(slot));
+        }
+
+        void insert(ByteArrayKey oid, Servant servant)
+        {
+            final int hash = oid.hashCode();
+            final int slot = freeSlot(hash);
+            int pos = idsEnd;
+
+            offsets[slot] = pos;
+            for (int l = oid.length(); ; l >>>= 7)
+            {
+                if (l < 0x80)
+                {
+                    ids[pos++] = (byte) l;
+                    break;
+                }
+                ids[pos++] = (byte) (l | 0x80);
+            }
+            oid.copyTo(ids, pos);
+            idsEnd = pos + oid.length();
+
+            hashes[slot] = hash;
+            publish(slot, servant);
+        }
+
+        void copy(Table from, int fromSlot, Servant servant)
+        {
+            final int hash = from.hashes[fromSlot];
+            final int slot = freeSlot(hash);
+            final int length = from.slotLength(fromSlot);
+
+            System.arraycopy(from.ids, from.offsets[fromSlot], ids, idsEnd, length);
+            offsets[slot] = idsEnd;
+            idsEnd += length;
+
+            hashes[slot] = hash;
+            publish(slot, servant);
+        }
+
+        /**
+         * adds the servant to the servant lookup. Entries for
+         * slots that are removed later are skipped by findServant.
+         */
+        void link(int slot, Servant servant)
+        {
+            if (reverse == null)
+            {
+                return;
+            }
+
+            int i = spread(servant.hashCode()) & mask;
+            while (reverse.get(i) != 0)
+            {
+                i = (i + 1) & mask;
+            }
+            reverse.set(i, slot + 1);
+        }
+
+        private int freeSlot(int hash)
+        {
+            int i = spread(hash) & mask;
+            while (servants.get(i) != null)
+            {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void publish(int slot, Servant servant)
+        {
+            // the id written before is visible to whoever reads the servant
+            servants.set(slot, servant);
+            used++;
+            link(slot, servant);
+        }
+
+        private static int spread(int hash)
+        {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
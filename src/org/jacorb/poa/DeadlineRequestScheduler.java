@@ -0,0 +1,169 @@
+package org.jacorb.poa;
+
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import org.jacorb.orb.dsi.ServerRequest;
+import org.jacorb.util.Time;
+import org.omg.TimeBase.UtcT;
+
+/**
+ * Dispatches requests earliest deadline first. The deadline of a
+ * request is the earlier of its RequestEndTime and ReplyEndTime, as
+ * set by the client's messaging policies. Requests without a deadline
+ * are dispatched after all others, requests with equal deadlines in
+ * the order they have been received. This scheduler is selected by
+ * <code>jacorb.poa.queue_scheduler=deadline</code>.
+ */
+public class DeadlineRequestScheduler
+    implements RequestScheduler
+{
+    private static final Comparator ORDER = new Comparator()
+    {
+        public int compare(Object o1, Object o2)
+        {
+            Entry e1 = (Entry) o1;
+            Entry e2 = (Entry) o2;
+
+            if (e1.deadline != e2.deadline)
+            {
+                return e1.deadline < e2.deadline ? -1 : 1;
+            }
+            return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+        }
+    };
+
+    private final PriorityQueue queue = new PriorityQueue(11, ORDER);
+    private long sequence;
+
+    private static final class Entry
+    {
+        final ServerRequest request;
+        final long deadline;
+        final long sequence;
+
+        Entry(ServerRequest request, long deadline, long sequence)
+        {
+            this.request = request;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * @return the deadline of the request in CORBA time units, or
+     * Long.MAX_VALUE if it has none
+     */
+    protected long getDeadline(ServerRequest request)
+    {
+        UtcT deadline = Time.earliest(request.getRequestEndTime(), request.getReplyEndTime());
+
+        return deadline == null ? Long.MAX_VALUE : deadline.time;
+    }
+
+    public void add(ServerRequest request)
+    {
+        queue.add(new Entry(request, getDeadline(request), sequence++));
+    }
+
+    public ServerRequest peek()
+    {
+        Entry entry = (Entry) queue.peek();
+        return entry == null ? null : entry.request;
+    }
+
+    public ServerRequest poll()
+    {
+        Entry entry = (Entry) queue.poll();
+        return entry == null ? null : entry.request;
+    }
+
+    public ServerRequest pollLast()
+    {
+        Entry last = null;
+        for (Iterator i = queue.iterator(); i.hasNext();)
+        {
+            Entry entry = (Entry) i.next();
+            if (last == null || ORDER.compare(entry, last) > 0)
+            {
+                last = entry;
+            }
+        }
+
+        if (last == null)
+        {
+            return null;
+        }
+        queue.remove(last);
+        return last.request;
+    }
+
+    public boolean remove(ServerRequest request)
+    {
+        Entry first = (Entry) queue.peek();
+        if (first != null && first.request == request)
+        {
+            queue.poll();
+            return true;
+        }
+
+        for (Iterator i = queue.iterator(); i.hasNext();)
+        {
+            if (((Entry) i.next()).request == request)
+            {
+                i.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return queue.size();
+    }
+
+    public Iterator iterator()
+    {
+        final Iterator entries = queue.iterator();
+
+        return new Iterator()
+        {
+            public boolean hasNext()
+            {
+                return entries.hasNext();
+            }
+
+            public Object next()
+            {
+                return ((Entry) entries.next()).request;
+            }
+
+            public void remove()
+            {
+                entries.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package org.jacorb.poa;
+
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import org.jacorb.orb.dsi.ServerRequest;
+
+/**
+ * Dispatches requests in the order they have been received.
+ * This is the default scheduler, <code>jacorb.poa.queue_scheduler=fifo</code>.
+ */
+public class FIFORequestScheduler
+    implements RequestScheduler
+{
+    private final LinkedList queue = new LinkedList();
+
+    public void add(ServerRequest request)
+    {
+        queue.add(request);
+    }
+
+    public ServerRequest peek()
+    {
+        return queue.isEmpty() ? null : (ServerRequest) queue.getFirst();
+    }
+
+    public ServerRequest poll()
+    {
+        return queue.isEmpty() ? null : (ServerRequest) queue.removeFirst();
+    }
+
+    public ServerRequest pollLast()
+    {
+        return queue.isEmpty() ? null : (ServerRequest) queue.removeLast();
+    }
+
+    public boolean remove(ServerRequest request)
+    {
+        if (!queue.isEmpty() && queue.getFirst() == request)
+        {
+            queue.removeFirst();
+            return true;
+        }
+        return queue.remove(request);
+    }
+
+    public int size()
+    {
+        return queue.size();
+    }
+
+    public Iterator iterator()
+    {
+        return queue.iterator();
+    }
+}
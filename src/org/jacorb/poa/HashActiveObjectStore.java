@@ -0,0 +1,101 @@
+package org.jacorb.poa;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jacorb.poa.util.ByteArrayKey;
+import org.omg.PortableServer.Servant;
+
+/**
+ * Keeps the active objects in hash maps from oid to servant and, for
+ * the UNIQUE_ID policy, from servant to oid. This is the default,
+ * <code>jacorb.poa.aom_storage=map</code>.
+ */
+class HashActiveObjectStore
+    implements ActiveObjectStore
+{
+    private final Map objectMap = new ConcurrentHashMap(); // oid -> servant
+
+    // only meaningful if UNIQUE_ID is set
+    private final Map servantMap;                          // servant -> oid
+
+    HashActiveObjectStore(boolean unique)
+    {
+        servantMap = unique ? new ConcurrentHashMap() : null;
+    }
+
+    public Servant get(ByteArrayKey oid)
+    {
+        return (Servant) objectMap.get(oid);
+    }
+
+    public void put(ByteArrayKey oid, Servant servant)
+    {
+        // a key that wraps the oid within an object key must not keep
+        // the whole object key
+        final ByteArrayKey key = new ByteArrayKey(oid.getBytes());
+
+        objectMap.put(key, servant);
+
+        if (servantMap != null)
+        {
+            servantMap.put(servant, key);
+        }
+    }
+
+    public Servant remove(ByteArrayKey oid)
+    {
+        Servant servant = (Servant) objectMap.remove(oid);
+
+        if (servant != null && servantMap != null)
+        {
+            servantMap.remove(servant);
+        }
+        return servant;
+    }
+
+    public ByteArrayKey getObjectId(Servant servant)
+    {
+        return servantMap == null ? null : (ByteArrayKey) servantMap.get(servant);
+    }
+
+    public boolean contains(Servant servant)
+    {
+        if (servantMap != null)
+        {
+            return servantMap.containsKey(servant);
+        }
+        return objectMap.containsValue(servant);
+    }
+
+    public int size()
+    {
+        return objectMap.size();
+    }
+
+    public List keys()
+    {
+        return new ArrayList(objectMap.keySet());
+    }
+}
@@ -117,6 +117,9 @@ public class POA
     // name -> child POA's
     private final Hashtable       childs = new Hashtable();
 
+    // routes requests to this POA and its descendants
+    private final POANameTrie     routingNode;
+
     Servant                       defaultServant;
     ServantManager                servantManager;
     private AdapterActivator      adapterActivator;
@@ -168,7 +171,7 @@ public class POA
     private boolean               etherealize;
 
     // synchronisation stuff
-    private int                   shutdownState = POAConstants.NOT_CALLED;
+    private volatile int          shutdownState = POAConstants.NOT_CALLED;
     private final java.lang.Object      poaCreationLog = new java.lang.Object();
     private final java.lang.Object      poaDestructionLog = new java.lang.Object();
     private final java.lang.Object      unknownAdapterLog = new java.lang.Object();
@@ -189,6 +192,7 @@ public class POA
         parent = _parent;
         poaManager = _poaManager;
         logPrefix = "POA " + name;
+        routingNode = new POANameTrie(this, name.getBytes());
 
         all_policies = new HashMap();
         createdReferences = new Hashtable();
@@ -271,9 +275,35 @@ public class POA
         }
 
         watermark = generateWatermark();
-        aom = isRetain() ? new AOM( isUniqueId(), logger) : null;
+        if (isRetain())
+        {
+            String storage = configuration.getAttribute("jacorb.poa.aom_storage", "map");
+            if (!"map".equals(storage) && !"compact".equals(storage))
+            {
+                throw new ConfigurationException("unknown jacorb.poa.aom_storage " + storage);
+            }
+            aom = new AOM(isUniqueId(), "compact".equals(storage), logger);
+
+            if (configuration.getAttributeAsInteger("jacorb.poa.incarnation_batch_size", 100) < 1)
+            {
+                throw new ConfigurationException("jacorb.poa.incarnation_batch_size must be at least 1");
+            }
+        }
+        else
+        {
+            aom = null;
+        }
+
+        RPPoolManager poolManager = orb.newRPPoolManager(isSingleThreadModel());
+        if (aom != null)
+        {
+            // the requests of a batch hold their request processors until
+            // the batch is incarnated, so a batch can't be larger than the pool
+            int batchSize = configuration.getAttributeAsInteger("jacorb.poa.incarnation_batch_size", 100);
+            aom.setIncarnationBatchSize(Math.min(batchSize, poolManager.getMaxPoolSize()));
+        }
 
-        requestController = new RequestController(this, orb, aom, orb.newRPPoolManager(isSingleThreadModel()));
+        requestController = new RequestController(this, orb, aom, poolManager);
         requestController.configure(configuration);
 
         poaManager.registerPOA(this);
@@ -435,6 +465,41 @@ public class POA
         return child;
     }
 
+    /**
+     * returns the servant that is active for oid if a colocated call may
+     * be dispatched to it directly, i.e. if this poa dispatches from its
+     * active object map and the object is not being deactivated.
+     * Otherwise returns null, and the call has to go through
+     * reference_to_servant. Does not lock the poa.
+     */
+
+    public Servant _getColocatedServant(ByteArrayKey oid)
+    {
+        if (aom == null || isUseServantManager() || isDestructionApparent())
+        {
+            return null;
+        }
+
+        if (aom.isDeactivating(oid) || requestController.isDeactivating(oid))
+        {
+            return null;
+        }
+
+        return aom.getServant(oid);
+    }
+
+    /**
+     * returns the pool of request processors of this poa, which
+     * provides statistics about its saturation
+     */
+
+    public RPPoolManager _getRPPoolManager()
+    {
+        checkIsConfigured();
+
+        return requestController.getPoolManager();
+    }
+
     /**
      * returns the complete poa name
      */
@@ -460,6 +525,21 @@ public class POA
         return qualifiedName;
     }
 
+    /**
+     * called from orb to find the target POA of a request without
+     * allocating. Resolves the POA names in the bytes from..to-1 of
+     * object_key, relative to this POA.
+     *
+     * @return the POA, or null if not all POAs on the path exist. The
+     * caller then has to use _getChildPOA, which activates missing
+     * POAs.
+     */
+
+    public POA _getDescendantPOA(byte[] object_key, int from, int to)
+    {
+        return routingNode.resolve(object_key, from, to);
+    }
+
     /**
      * called from orb for handing over a request
      */
@@ -469,15 +549,29 @@ public class POA
     {
         checkIsConfigured();
 
+        final RequestProcessor processor;
+
+        // in pool mode the processor is taken before the POA is
+        // locked, as that may block until one becomes available
+        RequestProcessor pooled = requestController.reserveProcessor(request);
+
         synchronized(poaDestructionLog)
         {
-            checkDestructionApparent ();
+            try
+            {
+                checkDestructionApparent ();
+            }
+            catch (RuntimeException e)
+            {
+                requestController.releaseProcessor(pooled);
+                throw e;
+            }
 
             // if the request is for this poa check whether the object
             // key is generated from him
             if (request.remainingPOAName() == null)
             {
-                if (isSystemId() && !previouslyGeneratedObjectId(request.objectId()) )
+                if (isSystemId() && !request.objectIdAsByteArrayKey().endsWith(watermark) )
                 {
                     if (logger.isWarnEnabled())
                     {
@@ -492,6 +586,7 @@ public class POA
                                          " to POA watermark : " + org.jacorb.orb.util.CorbaLoc.parseKey(watermark) + " mismatch.");
                         }
                     }
+                    requestController.releaseProcessor(pooled);
                     throw new WrongAdapter();
                 }
             }
@@ -501,15 +596,16 @@ public class POA
             {
                 //  pass the  request  to the  request controller  the
                 // operation returns  immediately after the request is
-                // queued
+                // queued or dispatched, unless it is to be processed
+                // by this thread
                 if (logger.isDebugEnabled())
                 {
                     logger.debug(logPrefix +
                                  " rid: " + request.requestId() +
                                  " opname: " + request.operation() +
-                                 " _invoke: queuing request");
+                                 " _invoke: dispatching request");
                 }
-                requestController.queueRequest(request);
+                processor = requestController.dispatchRequest(request, pooled);
             }
             catch (ResourceLimitReachedException e)
             {
@@ -520,6 +616,13 @@ public class POA
                 throw new org.omg.CORBA.TRANSIENT("resource limit reached");
             }
         }
+
+        if (processor != null)
+        {
+            // the request has been admitted, so the POA is not
+            // destroyed before it has completed
+            requestController.processDirectly(processor);
+        }
     }
 
     /**
@@ -877,6 +980,7 @@ public class POA
             }
             // register the child poa
             childs.put(poa_name, child);
+            routingNode.addChild(child.routingNode);
         }
         return child;
     }
@@ -2159,7 +2263,11 @@ public class POA
     {
         synchronized (poaCreationLog)
         {
-            childs.remove(name);
+            POA child = (POA) childs.remove(name);
+            if (child != null)
+            {
+                routingNode.removeChild(child.routingNode);
+            }
             poaCreationLog.notifyAll();
         }
     }
@@ -0,0 +1,216 @@
+package org.jacorb.poa;
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import org.jacorb.poa.util.POAUtil;
+
+/**
+ * A node in the trie of POA names that routes incoming requests to
+ * their POA. Every POA has a node, the children of a node are the
+ * nodes of the child POAs, keyed by their names as they appear in
+ * object keys. A POA adds a child node when it creates a child POA and
+ * removes it when the destruction of the child is complete.
+ * <p>
+ * Resolving the POA names of an object key only compares bytes of the
+ * key, nothing is allocated. The children are held in an
+ * open-addressed array that is replaced on every change, so lookups
+ * need no lock.
+ */
+final class POANameTrie
+{
+    private static final POANameTrie[] EMPTY = new POANameTrie[0];
+
+    /** the masked name of the POA */
+    private final byte[] name;
+    private final int hash;
+
+    final POA poa;
+
+    private volatile POANameTrie[] children = EMPTY;
+
+    POANameTrie(POA poa, byte[] name)
+    {
+        this.poa = poa;
+        this.name = name;
+        hash = hash(name, 0, name.length);
+    }
+
+    /**
+     * resolves the POA names separated by object key separators in the
+     * bytes from..to-1 of object_key, starting at this node.
+     *
+     * @return the POA, or null if one of the POAs is not in the trie or
+     * its destruction is apparent.
+     */
+    POA resolve(byte[] object_key, int from, int to)
+    {
+        POANameTrie node = this;
+
+        while (from < to)
+        {
+            if (node.poa.isDestructionApparent())
+            {
+                return null;
+            }
+
+            int end = POAUtil.indexOfSeparator(object_key, from, to);
+            if (end < 0)
+            {
+                end = to;
+            }
+
+            node = (end == from) ? null : node.getChild(object_key, from, end);
+
+            if (node == null)
+            {
+                return null;
+            }
+            from = end + 1;
+        }
+        return node.poa.isDestructionApparent() ? null : node.poa;
+    }
+
+    /**
+     * adds a child, replacing a child with the same name
+     */
+    synchronized void addChild(POANameTrie child)
+    {
+        final POANameTrie[] old = children;
+        int capacity = 4;
+        while (capacity < (old.length + 1) * 2)
+        {
+            capacity <<= 1;
+        }
+
+        final POANameTrie[] result = new POANameTrie[capacity];
+        for (int i = 0; i < old.length; i++)
+        {
+            if (old[i] != null && !old[i].matches(child.name, 0, child.name.length))
+            {
+                insert(result, old[i]);
+            }
+        }
+        insert(result, child);
+        children = result;
+    }
+
+    synchronized void removeChild(POANameTrie child)
+    {
+        final POANameTrie[] old = children;
+        int count = 0;
+        boolean found = false;
+
+        for (int i = 0; i < old.length; i++)
+        {
+            if (old[i] == child)
+            {
+                found = true;
+            }
+            else if (old[i] != null)
+            {
+                count++;
+            }
+        }
+
+        if (!found)
+        {
+            return;
+        }
+
+        if (count == 0)
+        {
+            children = EMPTY;
+            return;
+        }
+
+        final POANameTrie[] result = new POANameTrie[old.length];
+        for (int i = 0; i < old.length; i++)
+        {
+            if (old[i] != null && old[i] != child)
+            {
+                insert(result, old[i]);
+            }
+        }
+        children = result;
+    }
+
+    private POANameTrie getChild(byte[] object_key, int from, int to)
+    {
+        final POANameTrie[] table = children;
+
+        if (table.length == 0)
+        {
+            return null;
+        }
+
+        final int mask = table.length - 1;
+        for (int i = hash(object_key, from, to) & mask; ; i = (i + 1) & mask)
+        {
+            final POANameTrie child = table[i];
+
+            if (child == null)
+            {
+                return null;
+            }
+            if (child.matches(object_key, from, to))
+            {
+                return child;
+            }
+        }
+    }
+
+    private boolean matches(byte[] data, int from, int to)
+    {
+        if (to - from != name.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++)
+        {
+            if (data[from + i] != name[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void insert(POANameTrie[] table, POANameTrie node)
+    {
+        final int mask = table.length - 1;
+        int i = node.hash & mask;
+        while (table[i] != null)
+        {
+            i = (i + 1) & mask;
+        }
+        table[i] = node;
+    }
+
+    private static int hash(byte[] data, int from, int to)
+    {
+        int h = 1;
+        for (int i = from; i < to; i++)
+        {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,211 @@
+package org.jacorb.poa;
+
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import org.jacorb.config.Configurable;
+import org.jacorb.config.Configuration;
+import org.jacorb.config.ConfigurationException;
+import org.jacorb.orb.CDRInputStream;
+import org.jacorb.orb.dsi.ServerRequest;
+import org.omg.IOP.RTCorbaPriority;
+import org.omg.IOP.ServiceContext;
+
+/**
+ * Dispatches requests by the RT-CORBA priority the client has sent
+ * along with them. The priority range 0 to 32767 is divided into
+ * <code>jacorb.poa.queue_scheduler.priority_bands</code> bands of
+ * equal width. Requests of a higher band are dispatched before those
+ * of a lower band, requests of the same band in the order they have
+ * been received. Requests without a priority are assigned
+ * <code>jacorb.poa.queue_scheduler.default_priority</code>.
+ * This scheduler is selected by
+ * <code>jacorb.poa.queue_scheduler=priority</code>.
+ */
+public class PriorityBandRequestScheduler
+    implements RequestScheduler, Configurable
+{
+    private static final int PRIORITIES = 32768;
+
+    private LinkedList[] bands;
+    private short defaultPriority;
+    private int size;
+
+    public void configure(Configuration configuration)
+        throws ConfigurationException
+    {
+        int count = configuration.getAttributeAsInteger("jacorb.poa.queue_scheduler.priority_bands", 4);
+
+        if (count < 1 || count > PRIORITIES)
+        {
+            throw new ConfigurationException("jacorb.poa.queue_scheduler.priority_bands must be between 1 and " + PRIORITIES);
+        }
+
+        int priority = configuration.getAttributeAsInteger("jacorb.poa.queue_scheduler.default_priority", 0);
+
+        if (priority < 0 || priority >= PRIORITIES)
+        {
+            throw new ConfigurationException("jacorb.poa.queue_scheduler.default_priority must be between 0 and " + (PRIORITIES - 1));
+        }
+
+        defaultPriority = (short) priority;
+        bands = new LinkedList[count];
+        for (int i = 0; i < count; i++)
+        {
+            bands[i] = new LinkedList();
+        }
+    }
+
+    /**
+     * @return the RT-CORBA priority of the request, or the default
+     * priority if the client has not sent one
+     */
+    protected short getPriority(ServerRequest request)
+    {
+        ServiceContext context = request.get_in().getServiceContext(RTCorbaPriority.value);
+
+        if (context == null)
+        {
+            return defaultPriority;
+        }
+
+        final CDRInputStream input = new CDRInputStream(context.context_data);
+        try
+        {
+            input.openEncapsulatedArray();
+            short priority = input.read_short();
+            return priority < 0 ? defaultPriority : priority;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    public void add(ServerRequest request)
+    {
+        bands[getPriority(request) * bands.length / PRIORITIES].add(request);
+        size++;
+    }
+
+    public ServerRequest peek()
+    {
+        for (int i = bands.length - 1; i >= 0; i--)
+        {
+            if (!bands[i].isEmpty())
+            {
+                return (ServerRequest) bands[i].getFirst();
+            }
+        }
+        return null;
+    }
+
+    public ServerRequest poll()
+    {
+        for (int i = bands.length - 1; i >= 0; i--)
+        {
+            if (!bands[i].isEmpty())
+            {
+                size--;
+                return (ServerRequest) bands[i].removeFirst();
+            }
+        }
+        return null;
+    }
+
+    public ServerRequest pollLast()
+    {
+        for (int i = 0; i < bands.length; i++)
+        {
+            if (!bands[i].isEmpty())
+            {
+                size--;
+                return (ServerRequest) bands[i].removeLast();
+            }
+        }
+        return null;
+    }
+
+    public boolean remove(ServerRequest request)
+    {
+        // usually the request is the first one of its band
+        for (int i = bands.length - 1; i >= 0; i--)
+        {
+            if (!bands[i].isEmpty() && bands[i].getFirst() == request)
+            {
+                bands[i].removeFirst();
+                size--;
+                return true;
+            }
+        }
+
+        for (int i = bands.length - 1; i >= 0; i--)
+        {
+            if (bands[i].remove(request))
+            {
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public Iterator iterator()
+    {
+        return new Iterator()
+        {
+            private int band = bands.length - 1;
+            private Iterator current = bands[band].iterator();
+
+            public boolean hasNext()
+            {
+                while (!current.hasNext() && band > 0)
+                {
+                    current = bands[--band].iterator();
+                }
+                return current.hasNext();
+            }
+
+            public Object next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            public void remove()
+            {
+                current.remove();
+                size--;
+            }
+        };
+    }
+}
@@ -20,8 +20,14 @@ package org.jacorb.poa;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
 
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
 import org.jacorb.poa.except.POAInternalError;
@@ -30,6 +36,16 @@ import org.slf4j.Logger;
 /**
  * This class provides and manages a pool of ready started threads for
  * request processing.
+ * <p>
+ * Getting and releasing a processor does not lock the pool. The
+ * available processors are kept on a lock-free stack, so that the most
+ * recently used processors are reused first and the others stay idle.
+ * A processor is taken from the stack by atomically clearing its
+ * pooled flag. If jacorb.poa.thread_pool_keepalive is set, processors
+ * beyond thread_pool_min end themselves after having been idle for that
+ * long, the stale stack entries they leave are skipped when popped.
+ * Otherwise a released processor ends as soon as thread_pool_min
+ * processors are available, as before.
  *
  * @author Gerald Brose
  * @author Reimo Tiedemann
@@ -38,23 +54,28 @@ import org.slf4j.Logger;
 
 public abstract class RPPoolManager
 {
-    private RPPoolManagerListener pmListener;
+    private volatile RPPoolManagerListener pmListener;
 
     // the current for (un)registering the invocation contexts
     private final Current current;
     /**
-     * <code>pool</code> is the set of currently available (inactive) request processors
+     * <code>pool</code> is the top of the stack of currently available (inactive)
+     * request processors
      */
-    private final LinkedList<RequestProcessor> pool;
+    private final AtomicReference<Node> pool = new AtomicReference<Node>();
     /**
-     * <code>activeProcessors</code> is the set of currently active processors
+     * <code>poolCount</code> is the number of available processors in the pool
      */
-    private final HashSet<RequestProcessor> activeProcessors;
+    private final AtomicInteger poolCount = new AtomicInteger();
+    /**
+     * <code>activeCount</code> is the number of currently active processors
+     */
+    private final AtomicInteger activeCount = new AtomicInteger();
     /**
      * <code>numberOfProcessors</code> represents the current number of used <b>AND</b> unused request
      * processors in the pools (active/inactive)
      */
-    private int numberOfProcessors;
+    private final AtomicInteger numberOfProcessors = new AtomicInteger();
     /**
      * <code>max_pool_size</code> is the maximum size of the pool. This is effectively its
      * burst size
@@ -66,7 +87,7 @@ public abstract class RPPoolManager
      */
     private final int min_pool_size;
     // a flag for delay the pool initialization
-    private boolean inUse = false;
+    private final AtomicBoolean inUse = new AtomicBoolean();
 
     private final Configuration configuration;
     private final Logger logger;
@@ -76,36 +97,58 @@ public abstract class RPPoolManager
      */
     private final int poolThreadTimeout;
 
+    /**
+     * the time in ms after which an idle processor beyond min_pool_size
+     * ends, 0 if processors end when they are released
+     */
+    private final long keepAliveTime;
+
+    /**
+     * the threads that wait for a processor
+     */
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+    // saturation statistics
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLongArray activeCountHistogram;
+
     protected RPPoolManager(Current _current, int min, int max, int pt,
                             Logger _logger, Configuration _configuration)
+    {
+        this(_current, min, max, pt, 0, _logger, _configuration);
+    }
+
+    protected RPPoolManager(Current _current, int min, int max, int pt, long keepAlive,
+                            Logger _logger, Configuration _configuration)
     {
         current = _current;
         max_pool_size = max;
         min_pool_size = min;
         poolThreadTimeout = pt;
+        keepAliveTime = keepAlive;
         logger = _logger;
         configuration = _configuration;
 
-        pool = new LinkedList<RequestProcessor>();
-        activeProcessors = new HashSet<RequestProcessor>();
+        activeCountHistogram = new AtomicLongArray(max + 1);
     }
 
     private void init()
     {
-        if (inUse)
+        if (inUse.get() || !inUse.compareAndSet(false, true))
         {
             return;
         }
 
         for (int i = 0; i < min_pool_size; i++)
         {
-            addProcessor();
+            numberOfProcessors.incrementAndGet();
+            push(newProcessor());
         }
-
-        inUse = true;
     }
 
-    private void addProcessor()
+    private RequestProcessor newProcessor()
     {
         final RequestProcessor rp = new RequestProcessor(this);
 
@@ -119,9 +162,77 @@ public abstract class RPPoolManager
         }
         current._addContext(rp, rp);
         rp.setDaemon(true);
-        pool.addFirst(rp);
-        ++numberOfProcessors;
         rp.start();
+        return rp;
+    }
+
+    /**
+     * starts a new processor for the caller unless there are
+     * max_pool_size processors already
+     *
+     * @return the new processor or null
+     */
+    private RequestProcessor addProcessor()
+    {
+        while (true)
+        {
+            int count = numberOfProcessors.get();
+            if (count >= max_pool_size)
+            {
+                return null;
+            }
+            if (numberOfProcessors.compareAndSet(count, count + 1))
+            {
+                break;
+            }
+        }
+
+        try
+        {
+            return newProcessor();
+        }
+        catch (RuntimeException e)
+        {
+            numberOfProcessors.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void push(RequestProcessor rp)
+    {
+        Node node = new Node(rp);
+
+        rp.pooled.set(true);
+        poolCount.incrementAndGet();
+
+        do
+        {
+            node.next = pool.get();
+        }
+        while (!pool.compareAndSet(node.next, node));
+    }
+
+    /**
+     * takes the most recently released processor from the pool
+     *
+     * @return the processor or null if the pool is empty
+     */
+    private RequestProcessor pop()
+    {
+        while (true)
+        {
+            Node top = pool.get();
+            if (top == null)
+            {
+                return null;
+            }
+            if (pool.compareAndSet(top, top.next) && top.processor.pooled.compareAndSet(true, false))
+            {
+                // otherwise the processor has ended meanwhile
+                poolCount.decrementAndGet();
+                return top.processor;
+            }
+        }
     }
 
     protected synchronized void addRPPoolManagerListener(RPPoolManagerListener listener)
@@ -139,40 +250,40 @@ public abstract class RPPoolManager
      */
     protected synchronized void destroy(boolean really)
     {
-        if (!inUse)
+        if (!inUse.get())
         {
             return;
         }
 
         // wait until all active processors complete
-        while (!activeProcessors.isEmpty())
+        final Thread thread = Thread.currentThread();
+        waiters.add(thread);
+        try
         {
-            try
+            while (activeCount.get() > 0)
             {
-                wait();
-            }
-            catch (InterruptedException ex)
-            {
-                // ignore
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
             }
         }
+        finally
+        {
+            waiters.remove(thread);
+        }
 
-        RequestProcessor[] rps = pool.toArray(new RequestProcessor[pool.size()]);
-
-        for (int i=0; i<rps.length; i++)
+        RequestProcessor rp;
+        while ((rp = pop()) != null)
         {
-            if (rps[i].isActive())
+            if (rp.isActive())
             {
                 throw new POAInternalError("error: request processor is active (RequestProcessorPM.destroy)");
             }
 
-            pool.remove(rps[i]);
-            --numberOfProcessors;
-            current._removeContext(rps[i]);
-            rps[i].end();
+            numberOfProcessors.decrementAndGet();
+            current._removeContext(rp);
+            rp.end();
         }
 
-        inUse = false;
+        inUse.set(false);
     }
 
     /**
@@ -181,16 +292,83 @@ public abstract class RPPoolManager
 
     protected int getPoolCount()
     {
-        return pool.size();
+        return poolCount.get();
     }
 
     /**
      * returns the size of the processor pool (used and unused processors)
      */
 
-    protected synchronized int getPoolSize()
+    protected int getPoolSize()
+    {
+        return numberOfProcessors.get();
+    }
+
+    /**
+     * returns the maximum size of the processor pool
+     */
+
+    public int getMaxPoolSize()
+    {
+        return max_pool_size;
+    }
+
+    /**
+     * returns the number of processors that are processing a request
+     */
+
+    public int getActiveCount()
+    {
+        return activeCount.get();
+    }
+
+    /**
+     * returns how often getProcessor had to wait for a processor
+     */
+
+    public long getWaitCount()
     {
-        return numberOfProcessors;
+        return waitCount.get();
+    }
+
+    /**
+     * returns the total time in ms spent waiting for a processor
+     */
+
+    public long getWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    /**
+     * returns how often no processor became available within
+     * jacorb.poa.threadtimeout
+     */
+
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    /**
+     * returns for every number of active processors, from 0 to
+     * max_pool_size, how often a processor was handed out while
+     * that many processors were active (including the one handed out)
+     */
+
+    public long[] getActiveCountHistogram()
+    {
+        long[] result = new long[activeCountHistogram.length()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = activeCountHistogram.get(i);
+        }
+        return result;
+    }
+
+    long getKeepAliveTime()
+    {
+        return keepAliveTime;
     }
 
     /**
@@ -202,80 +380,107 @@ public abstract class RPPoolManager
      * max_pool_size is reached until a processor will released
      */
 
-    protected synchronized RequestProcessor getProcessor()
+    protected RequestProcessor getProcessor()
     {
         init();
 
-        if (pool.isEmpty() && numberOfProcessors < max_pool_size)
+        RequestProcessor requestProcessor = pop();
+
+        if (requestProcessor == null)
+        {
+            requestProcessor = addProcessor();
+        }
+
+        if (requestProcessor == null)
         {
-            addProcessor();
+            requestProcessor = waitForProcessor();
         }
 
-        int timeout = poolThreadTimeout;
-        while (pool.isEmpty())
+        int active = activeCount.incrementAndGet();
+        activeCountHistogram.incrementAndGet(Math.min(active, max_pool_size));
+
+        // notify a pool manager listener
+        RPPoolManagerListener listener = pmListener;
+        if (listener != null)
         {
-            warnPoolIsEmpty();
+            listener.processorRemovedFromPool(requestProcessor, poolCount.get(), numberOfProcessors.get());
+        }
 
-            long start = System.currentTimeMillis();
-            try
-            {
-                wait(timeout);
-            }
-            catch (InterruptedException e)
-            {
-            }
-            if (timeout > 0)
+        return requestProcessor;
+    }
+
+    /**
+     * blocks until a processor is released or can be added, or until
+     * poolThreadTimeout has expired
+     */
+
+    private RequestProcessor waitForProcessor()
+    {
+        warnPoolIsEmpty();
+
+        final Thread thread = Thread.currentThread();
+        final long start = System.nanoTime();
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(poolThreadTimeout);
+
+        waitCount.incrementAndGet();
+        waiters.add(thread);
+        try
+        {
+            while (true)
             {
-                // Timeout configured, woken up and the timeout has expired but nothing to run
-                // it with.
-                if (((System.currentTimeMillis() - start) >= timeout) && pool.isEmpty ())
+                // checked after registering as waiter, so that no release is missed
+                RequestProcessor requestProcessor = pop();
+
+                // BZ946: a released processor beyond min_pool_size ends rather
+                // than being put back into the pool, so try to add one as well
+                if (requestProcessor == null)
                 {
-                    // A timeout has been configured, we have finished waiting still no processors.
-                    // Throw an exception
-                    throw new org.omg.CORBA.TIMEOUT ("No request processor available to handle request");
+                    requestProcessor = addProcessor();
                 }
-                // If we have woken up before the timeout and the pool is still empty - have another
-                // go and go back to sleep.
-                else if ((System.currentTimeMillis() - start) < timeout && pool.isEmpty())
+
+                if (requestProcessor != null)
                 {
-                    // Need to reset timeout so we finish waiting.
-                    timeout -= (System.currentTimeMillis() - start);
+                    return requestProcessor;
                 }
 
-                // BZ946: There are some corner cases with request processor sizing.
-                //
-                // If min==max then the corner cases do not occur.
-                //
-                // In the default situation of e.g. min=5, max=20 then its
-                // possible that when we reach the maximum number of processors,
-                // use 1, and then go to release it, it will not get placed back
-                // in the pool (as 19 > 5). In fact all 15 of the 'burst'
-                // processors will be ended.
-                //
-                // If we are oscillating between min and max size then its possible that this thread
-                // may be looping on isEmpty. A RequestProcessor finishes and frees itself by calling
-                // releaseProcessor. As per above this this processor may just be released and not added
-                // to the pool. Therefore the pool is still isEmpty. However if another thread now tries
-                // to get a processor it will find the pool isEmpty and there is room to create a processor
-                // Therefore the pool size increases and this thread keeps looping. While it might eventually
-                // break out of the loop adding the below test breaks this pathological condition.
-                if (numberOfProcessors < max_pool_size)
+                if (timeout > 0)
                 {
-                    addProcessor();
+                    long remaining = timeout - (System.nanoTime() - start);
+                    if (remaining <= 0)
+                    {
+                        // A timeout has been configured, we have finished waiting still no processors.
+                        // Throw an exception
+                        rejectedCount.incrementAndGet();
+                        throw new org.omg.CORBA.TIMEOUT ("No request processor available to handle request");
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                else
+                {
+                    LockSupport.park(this);
                 }
             }
         }
+        finally
+        {
+            waiters.remove(thread);
+            waitTime.addAndGet(System.nanoTime() - start);
 
-        RequestProcessor requestProcessor = pool.removeFirst();
-        activeProcessors.add (requestProcessor);
+            // pass on a wake up that was meant for another waiter
+            if (poolCount.get() > 0)
+            {
+                wakeUpWaiter();
+            }
+        }
+    }
 
-        // notify a pool manager listener
-        if (pmListener != null)
+    private void wakeUpWaiter()
+    {
+        Thread waiter = waiters.peek();
+        if (waiter != null)
         {
-            pmListener.processorRemovedFromPool(requestProcessor, pool.size(), numberOfProcessors);
+            LockSupport.unpark(waiter);
         }
-
-        return requestProcessor;
     }
 
     protected void warnPoolIsEmpty()
@@ -290,37 +495,91 @@ public abstract class RPPoolManager
 
 
     /**
-     * gives a processor back into the pool if the number of
-     * available processors is smaller than min_pool_size,
-     * otherwise the processor will terminate
+     * gives a processor back into the pool if a keep alive time
+     * is configured or if the number of available processors is
+     * smaller than min_pool_size, otherwise the processor will terminate
      */
 
-    protected synchronized void releaseProcessor(RequestProcessor rp)
+    protected void releaseProcessor(RequestProcessor rp)
     {
-        activeProcessors.remove (rp);
+        activeCount.decrementAndGet();
 
-        if (pool.size() < min_pool_size)
+        if (keepAliveTime > 0 || poolCount.get() < min_pool_size)
         {
-            pool.addFirst(rp);
+            push(rp);
         }
         else
         {
-            numberOfProcessors--;
+            numberOfProcessors.decrementAndGet();
             current._removeContext(rp);
             rp.end();
         }
+
         // notify a pool manager listener
-        if (pmListener != null)
+        RPPoolManagerListener listener = pmListener;
+        if (listener != null)
         {
-            pmListener.processorAddedToPool(rp, pool.size(), numberOfProcessors);
+            listener.processorAddedToPool(rp, poolCount.get(), numberOfProcessors.get());
         }
 
-        // notify whoever is waiting for the release of active processors
-        notifyAll();
+        // notify whoever is waiting for a processor or for the release
+        // of active processors
+        wakeUpWaiter();
+    }
+
+    /**
+     * called by a processor that has been idle for the keep alive time.
+     * Ends the processor unless the pool would shrink below min_pool_size
+     * or the processor has just been taken from the pool.
+     *
+     * @return true if the processor has to end
+     */
+
+    boolean retireProcessor(RequestProcessor rp)
+    {
+        while (true)
+        {
+            int count = numberOfProcessors.get();
+            if (count <= min_pool_size)
+            {
+                return false;
+            }
+            if (numberOfProcessors.compareAndSet(count, count - 1))
+            {
+                break;
+            }
+        }
+
+        if (!rp.pooled.compareAndSet(true, false))
+        {
+            numberOfProcessors.incrementAndGet();
+            return false;
+        }
+
+        // the processor's entry stays on the stack until it is popped
+        poolCount.decrementAndGet();
+        current._removeContext(rp);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("idle request processor ends, pool size: " + numberOfProcessors.get());
+        }
+        return true;
     }
 
     protected synchronized void removeRPPoolManagerListener(RPPoolManagerListener listener)
     {
         pmListener = EventMulticaster.remove(pmListener, listener);
     }
+
+    private static class Node
+    {
+        final RequestProcessor processor;
+        Node next;
+
+        Node(RequestProcessor processor)
+        {
+            this.processor = processor;
+        }
+    }
 }
@@ -21,6 +21,7 @@ public class RPPoolManagerFactory
     private final int threadPoolMin;
     private final int threadPoolMax;
     private final int poolThreadTimeout;
+    private final long keepAliveTime;
     private final FactoryDelegate delegate;
 
     public RPPoolManagerFactory(ORB orb) throws ConfigurationException
@@ -49,9 +50,16 @@ public class RPPoolManagerFactory
 
         poolThreadTimeout = configuration.getAttributeAsInteger ("jacorb.poa.threadtimeout", 0);
 
+        keepAliveTime = configuration.getAttributeAsLong("jacorb.poa.thread_pool_keepalive", 0);
+
+        if (keepAliveTime < 0)
+        {
+            throw new ConfigurationException("jacorb.poa.thread_pool_keepalive must be >= 0");
+        }
+
         if (logger.isDebugEnabled())
         {
-            logger.debug("RequestProcessorPoolFactory settings: thread_pool_min=" + threadPoolMin + " thread_pool_max=" + threadPoolMax + " thread_pool_shared=" + poolsShouldBeShared);
+            logger.debug("RequestProcessorPoolFactory settings: thread_pool_min=" + threadPoolMin + " thread_pool_max=" + threadPoolMax + " thread_pool_shared=" + poolsShouldBeShared + " thread_pool_keepalive=" + keepAliveTime);
         }
 
         if (poolsShouldBeShared)
@@ -108,7 +116,7 @@ public class RPPoolManagerFactory
 
     private class SharedPoolFactory implements FactoryDelegate
     {
-        private final RPPoolManager sharedInstance = new RPPoolManager(orb.getPOACurrent(), threadPoolMin, threadPoolMax, poolThreadTimeout, logger, configuration)
+        private final RPPoolManager sharedInstance = new RPPoolManager(orb.getPOACurrent(), threadPoolMin, threadPoolMax, poolThreadTimeout, keepAliveTime, logger, configuration)
         {
             void destroy()
             {
@@ -132,7 +140,7 @@ public class RPPoolManagerFactory
     {
         public RPPoolManager newRPPoolManager()
         {
-            return new RPPoolManager(orb.getPOACurrent(), threadPoolMin, threadPoolMax, poolThreadTimeout, logger, configuration)
+            return new RPPoolManager(orb.getPOACurrent(), threadPoolMin, threadPoolMax, poolThreadTimeout, keepAliveTime, logger, configuration)
             {
                 void destroy()
                 {
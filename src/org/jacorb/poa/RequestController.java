@@ -20,7 +20,13 @@ package org.jacorb.poa;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jacorb.config.Configurable;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
@@ -31,6 +37,7 @@ import org.jacorb.poa.except.ResourceLimitReachedException;
 import org.jacorb.poa.except.ShutdownInProgressException;
 import org.jacorb.poa.util.ByteArrayKey;
 import org.jacorb.poa.util.POAUtil;
+import org.jacorb.util.VirtualThreads;
 import org.omg.PortableServer.Servant;
 import org.omg.PortableServer.ServantManager;
 import org.slf4j.Logger;
@@ -51,7 +58,7 @@ public final class RequestController
     private final RequestQueue       requestQueue;
     private final AOM                aom;
     private final RPPoolManager	     poolManager;
-    private int                      localRequests = 0;
+    private final AtomicInteger      localRequests = new AtomicInteger();
 
     private static int count = 0;
 
@@ -64,17 +71,58 @@ public final class RequestController
     // stores all active requests
     private HashSet             activeRequestTable;
     // RequestProcessor -> oid
-    // for synchronisation with the object deactiviation process
-    private final HashSet             deactivationList = new HashSet();
+    // for synchronisation with the object deactiviation process,
+    // modified under the monitor, but read by isDeactivating without it
+    private final Set                 deactivationList = Collections.newSetFromMap(new ConcurrentHashMap());
     // oid's
 
     // other synchronisation stuff
     private boolean		   terminate;
     private boolean 		   waitForCompletionCalled;
-    private boolean 		   waitForShutdownCalled;
+    private volatile boolean 	   waitForShutdownCalled;
     private final java.lang.Object queueLog       = new java.lang.Object();
     private int                    threadPriority = Thread.MAX_PRIORITY;
 
+    /**
+     * Requests are queued and dispatched by the controller thread.
+     */
+    private static final int DISPATCH_QUEUE = 0;
+
+    /**
+     * Requests are passed to a processor from the pool by the
+     * receiving thread.
+     */
+    private static final int DISPATCH_POOL = 1;
+
+    /**
+     * Requests are processed by the receiving thread itself. Not used
+     * for bidirectional GIOP, where the receiving thread also has to
+     * read the replies to callbacks, nor for non-blocking server
+     * connections, which are all read by the selector thread. Requests
+     * go to the pool in these cases.
+     */
+    private static final int DISPATCH_DIRECT = 2;
+
+    /**
+     * Requests are processed by a thread of their own, which is a
+     * virtual thread if the JDK supports it.
+     */
+    private static final int DISPATCH_THREAD = 3;
+
+    private int dispatchMode = DISPATCH_QUEUE;
+
+    // server connections are read by the selector thread
+    private boolean nonBlockingServer;
+
+    // the processors used by receiving threads in direct dispatch mode
+    private final ThreadLocal<RequestProcessor> directProcessors = new ThreadLocal<RequestProcessor>();
+
+    // the processors that are free for reuse in thread dispatch mode,
+    // at most jacorb.poa.thread_pool_max are kept
+    private ArrayBlockingQueue<RequestProcessor> threadProcessors;
+
+    private Current current;
+
     RequestController( POA _poa,
             org.jacorb.orb.ORB _orb,
             AOM _aom,
@@ -104,6 +152,55 @@ public final class RequestController
 
         requestQueue.configure(myConfiguration);
 
+        String dispatch = configuration.getAttribute("jacorb.poa.dispatch", "queue");
+        if ("queue".equals(dispatch))
+        {
+            dispatchMode = DISPATCH_QUEUE;
+        }
+        else if ("pool".equals(dispatch))
+        {
+            dispatchMode = DISPATCH_POOL;
+        }
+        else if ("direct".equals(dispatch))
+        {
+            dispatchMode = DISPATCH_DIRECT;
+
+            nonBlockingServer =
+                configuration.getAttributeAsBoolean("jacorb.connection.nonblocking", false) &&
+                configuration.getAttributeAsBoolean("jacorb.connection.nonblocking.server", false);
+
+            if (nonBlockingServer && logger.isWarnEnabled())
+            {
+                logger.warn("jacorb.poa.dispatch=direct is not used with non-blocking " +
+                            "server connections, requests are dispatched to the request processor pool");
+            }
+        }
+        else if ("thread".equals(dispatch))
+        {
+            if (VirtualThreads.isSupported())
+            {
+                dispatchMode = DISPATCH_THREAD;
+                threadProcessors = new ArrayBlockingQueue<RequestProcessor>(Math.max(1, threadPoolMax));
+            }
+            else
+            {
+                // a platform thread per request would be unbounded
+                dispatchMode = DISPATCH_POOL;
+
+                if (logger.isWarnEnabled())
+                {
+                    logger.warn("Virtual threads are not supported by this JDK, " +
+                                "requests are dispatched to the request processor pool");
+                }
+            }
+        }
+        else
+        {
+            throw new ConfigurationException("Unknown value for jacorb.poa.dispatch: " + dispatch);
+        }
+
+        current = orb.getPOACurrent();
+
         threadPriority =
             configuration.getAttributeAsInteger("jacorb.poa.thread_priority",
                                                 Thread.MAX_PRIORITY);
@@ -142,6 +239,22 @@ public final class RequestController
         }
     }
 
+    /**
+     * rejects all queued requests that can no longer be delivered in
+     * time, so that stale requests do not take up the queue
+     */
+
+    private void rejectExpiredRequests()
+    {
+        List expired = requestQueue.removeExpired();
+        for (int i = 0; i < expired.size(); i++)
+        {
+            rejectRequest((ServerRequest) expired.get(i), new org.omg.CORBA.TIMEOUT
+                ("Request has expired in the POA queue", 0,
+                 org.omg.CORBA.CompletionStatus.COMPLETED_NO));
+        }
+    }
+
     /**
      * indicates that the assumptions for blocking the
      * request controller thread have changed,
@@ -207,7 +320,7 @@ public final class RequestController
     }
 
 
-    synchronized boolean isDeactivating (ByteArrayKey oid)
+    boolean isDeactivating (ByteArrayKey oid)
     {
         return deactivationList.contains( oid );
     }
@@ -219,7 +332,7 @@ public final class RequestController
      * if the getProcessor() method from RequestProcessorPool can satisfied
      */
 
-    private void processRequest(ServerRequest request)
+    private RequestProcessor processRequest(ServerRequest request, boolean direct, RequestProcessor pooled)
         throws ShutdownInProgressException, CompletionRequestedException
     {
         Servant servant = null;
@@ -330,6 +443,13 @@ public final class RequestController
             activeRequestTable.add(oid);
         }
 
+        if (direct)
+        {
+            RequestProcessor processor = getDirectProcessor();
+            processor.init(this, request, servant, servantManager);
+            return processor;
+        }
+
         // get and initialize a processor for request processing
         if (logger.isDebugEnabled())
         {
@@ -338,15 +458,223 @@ public final class RequestController
                          " trying to get a RequestProcessor");
         }
 
-        RequestProcessor processor = poolManager.getProcessor();
+        RequestProcessor processor = pooled != null ? pooled : poolManager.getProcessor();
         processor.init(this, request, servant, servantManager);
         processor.begin();
+        return null;
+    }
+
+    /**
+     * returns the processor of the calling thread for direct dispatch,
+     * or a free processor for thread dispatch. Such a processor is never
+     * started but serves as invocation context.
+     */
+
+    private RequestProcessor getDirectProcessor()
+    {
+        RequestProcessor processor;
+
+        if (dispatchMode == DISPATCH_THREAD)
+        {
+            processor = threadProcessors.poll();
+
+            if (processor == null)
+            {
+                processor = newDirectProcessor();
+            }
+            return processor;
+        }
+
+        processor = directProcessors.get();
+
+        // a servant might cause the dispatch of another request
+        if (processor == null || processor.isActive())
+        {
+            processor = newDirectProcessor();
+            directProcessors.set(processor);
+        }
+        return processor;
+    }
+
+    private RequestProcessor newDirectProcessor()
+    {
+        RequestProcessor processor = new RequestProcessor(poolManager);
+        try
+        {
+            processor.configure(configuration);
+        }
+        catch (ConfigurationException e)
+        {
+            throw new org.omg.CORBA.INTERNAL(e.toString());
+        }
+        return processor;
+    }
+
+    /**
+     * returns the dispatch mode to use for the request, which is pool
+     * instead of direct where the receiving thread must not run servants
+     */
+
+    private int getDispatchMode()
+    {
+        if (dispatchMode == DISPATCH_DIRECT && (nonBlockingServer || orb.useBiDirGIOP()))
+        {
+            return DISPATCH_POOL;
+        }
+        return dispatchMode;
+    }
+
+    private boolean canDispatch(ServerRequest request)
+    {
+        return request.remainingPOAName() == null &&
+               requestQueue.isEmpty() &&
+               POAUtil.isActive(poa.getState());
+    }
+
+    /**
+     * In pool mode, takes a processor from the pool for a request that
+     * is likely to be dispatched right away. As this may block until a
+     * processor becomes available, the POA calls it before it takes its
+     * locks and passes the processor on to
+     * {@link #dispatchRequest(ServerRequest, RequestProcessor)}.
+     *
+     * @return a processor from the pool, or null
+     */
+
+    RequestProcessor reserveProcessor(ServerRequest request)
+    {
+        if (getDispatchMode() == DISPATCH_POOL && canDispatch(request))
+        {
+            return poolManager.getProcessor();
+        }
+        return null;
+    }
+
+    /**
+     * returns a processor that has been reserved but not used to the pool
+     */
+
+    void releaseProcessor(RequestProcessor processor)
+    {
+        if (processor != null)
+        {
+            poolManager.releaseProcessor(processor);
+        }
+    }
+
+    /**
+     * Hands over a request from the POA. Unless jacorb.poa.dispatch is
+     * set to queue, a request to an active POA is dispatched right away
+     * by the calling thread if no other requests are queued, either to
+     * the processor reserved from the pool or, in direct and thread mode,
+     * to the processor that is returned. The caller has to run that
+     * processor by calling {@link #processDirectly(RequestProcessor)} once
+     * it has released its locks. In all other cases the request is queued
+     * for the controller thread, which keeps the semantics of the holding,
+     * discarding and inactive states as well as the request order.
+     *
+     * @param pooled the processor from {@link #reserveProcessor(ServerRequest)},
+     * which is released if it is not used
+     * @return the processor to run in the calling thread, or null
+     */
+
+    RequestProcessor dispatchRequest(ServerRequest request, RequestProcessor pooled)
+        throws ResourceLimitReachedException
+    {
+        final boolean direct = getDispatchMode() >= DISPATCH_DIRECT;
+        RequestProcessor unused = pooled;
+
+        try
+        {
+            if ((direct || pooled != null) && canDispatch(request))
+            {
+                try
+                {
+                    RequestProcessor processor = processRequest(request, direct, direct ? null : pooled);
+                    if (!direct)
+                    {
+                        // processRequest has started it
+                        unused = null;
+                    }
+                    return processor;
+                }
+                catch (CompletionRequestedException e)
+                {
+                    // the state is changing, leave the request to the
+                    // controller thread
+                }
+                catch (ShutdownInProgressException e)
+                {
+                    // queued requests are rejected once the POA is destroyed
+                }
+                catch (org.omg.CORBA.OBJ_ADAPTER e)
+                {
+                    rejectRequest(request, e);
+                    return null;
+                }
+                catch (org.omg.CORBA.OBJECT_NOT_EXIST e)
+                {
+                    rejectRequest(request, e);
+                    return null;
+                }
+                catch (org.omg.CORBA.TIMEOUT e)
+                {
+                    rejectRequest(request, e);
+                    return null;
+                }
+            }
+
+            queueRequest(request);
+            return null;
+        }
+        finally
+        {
+            releaseProcessor(unused);
+        }
+    }
+
+    /**
+     * processes a request that has been dispatched to the calling thread
+     * by {@link #dispatchRequest(ServerRequest)}. In thread mode the
+     * request is handed over to a new (virtual) thread instead.
+     */
+
+    void processDirectly(final RequestProcessor processor)
+    {
+        if (dispatchMode != DISPATCH_THREAD)
+        {
+            processor.processDirectly(current);
+            return;
+        }
+
+        Thread thread = VirtualThreads.newThread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    processor.processDirectly(current);
+                }
+                finally
+                {
+                    // dropped if enough processors are kept already
+                    threadProcessors.offer(processor);
+                }
+            }
+        }, processor.getName());
+
+        thread.start();
     }
 
 
     void queueRequest(ServerRequest request)
         throws ResourceLimitReachedException
     {
+        if (requestQueue.isFull())
+        {
+            rejectExpiredRequests();
+        }
+
         requestQueue.add(request);
 
         if (requestQueue.size() == 1)
@@ -431,17 +759,25 @@ public final class RequestController
                 /* Request available */
                 if (request != null)
                 {
-                    if (request.remainingPOAName() != null)
+                    if (requestQueue.isExpired(request))
+                    {
+                        /* shed the request before it reaches a servant */
+                        requestQueue.remove(request);
+                        rejectRequest(request, new org.omg.CORBA.TIMEOUT
+                            ("Request has expired in the POA queue", 0,
+                             org.omg.CORBA.CompletionStatus.COMPLETED_NO));
+                    }
+                    else if (request.remainingPOAName() != null)
                     {
                         orb.getBasicAdapter().deliverRequest(request, poa);
-                        requestQueue.removeFirst();
+                        requestQueue.remove(request);
                     }
                     else
                     {
                         try
                         {
-                            processRequest(request);
-                            requestQueue.removeFirst();
+                            processRequest(request, false, null);
+                            requestQueue.remove(request);
                         }
                         catch (CompletionRequestedException e)
                         {
@@ -460,17 +796,17 @@ public final class RequestController
                         }
                         catch (org.omg.CORBA.OBJ_ADAPTER e)
                         {
-                            requestQueue.removeFirst();
+                            requestQueue.remove(request);
                             rejectRequest(request, e);
                         }
                         catch (org.omg.CORBA.OBJECT_NOT_EXIST e)
                         {
-                            requestQueue.removeFirst();
+                            requestQueue.remove(request);
                             rejectRequest(request, e);
                         }
                         catch (org.omg.CORBA.TIMEOUT e)
                         {
-                            requestQueue.removeFirst();
+                            requestQueue.remove(request);
                             rejectRequest(request, e);
                         }
                     }
@@ -610,7 +946,7 @@ public final class RequestController
         waitForShutdownCalled = true;
 
         while ((waitForShutdownCalled && ! activeRequestTable.isEmpty())
-               || (localRequests > 0)
+               || (localRequests.get() > 0)
         )
         {
             try
@@ -627,14 +963,24 @@ public final class RequestController
         }
     }
 
-    synchronized void addLocalRequest()
+    /**
+     * counts a colocated call, which is not dispatched by this
+     * controller, so that waitForShutdown waits for it as well
+     */
+    void addLocalRequest()
     {
-        localRequests++;
+        localRequests.incrementAndGet();
     }
 
-    synchronized void removeLocalRequest()
+    void removeLocalRequest()
     {
-        localRequests--;
-        notifyAll();
+        // waitForShutdownCalled is set before localRequests is checked
+        if (localRequests.decrementAndGet() == 0 && waitForShutdownCalled)
+        {
+            synchronized (this)
+            {
+                notifyAll();
+            }
+        }
     }
 }
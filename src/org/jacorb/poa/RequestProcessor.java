@@ -23,6 +23,7 @@ package org.jacorb.poa;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.jacorb.config.Configurable;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.ConfigurationException;
@@ -68,6 +69,12 @@ public class RequestProcessor
     private boolean terminate;
     private final RPPoolManager poolManager;
 
+    /**
+     * set while this processor is available in the pool of its
+     * RPPoolManager, cleared by whoever takes it from there
+     */
+    final AtomicBoolean pooled = new AtomicBoolean();
+
     private RequestController controller;
     private ServerRequest request;
     private Servant servant;
@@ -797,14 +804,21 @@ public class RequestProcessor
             {
                 while (!terminate && !start)
                 {
+                    final long keepAlive = poolManager.getKeepAliveTime();
                     try
                     {
-                        wait(); /* waits for the next task */
+                        wait(keepAlive); /* waits for the next task */
                     }
                     catch (InterruptedException e)
                     {
                         // ignored
                     }
+
+                    if (keepAlive > 0 && !terminate && !start &&
+                        poolManager.retireProcessor(this))
+                    {
+                        return;
+                    }
                 }
 
                 if (terminate)
@@ -813,39 +827,79 @@ public class RequestProcessor
                 }
             }
 
-            if (logger.isDebugEnabled())
-            {
-                logger.debug("rid: " + request.requestId() +
-                             " opname: " + request.operation() +
-                             " starts with request processing");
-            }
+            handleRequest();
+
+            start = false;
+            clear();
+
+            // give back the processor into the pool
+            poolManager.releaseProcessor(this);
+        }
+    }
 
-            if (request.syncScope() == org.omg.Messaging.SYNC_WITH_SERVER.value)
+    /**
+     * Processes the request in the calling thread rather than in the
+     * thread of this processor, which is never started. The calling
+     * thread is registered as being in the invocation context of the
+     * request meanwhile.
+     */
+
+    void processDirectly(Current current)
+    {
+        final Thread thread = Thread.currentThread();
+
+        start = true;
+        current._addContext(thread, this);
+        try
+        {
+            handleRequest();
+        }
+        finally
+        {
+            current._removeContext(thread);
+            start = false;
+            clear();
+        }
+    }
+
+    private void handleRequest()
+    {
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("rid: " + request.requestId() +
+                         " opname: " + request.operation() +
+                         " starts with request processing");
+        }
+
+        if (request.syncScope() == org.omg.Messaging.SYNC_WITH_SERVER.value)
+        {
+            // the reply is sent before the servant is invoked, but the
+            // request is admitted until it has been processed
+            request.holdAdmission();
+            try
             {
                 controller.returnResult (request);
                 process();
             }
-            else
+            finally
             {
-                process();
-                controller.returnResult (request);
+                request.releaseAdmission();
             }
+        }
+        else
+        {
+            process();
+            controller.returnResult (request);
+        }
 
-            // return the request to the request controller
-            if (logger.isDebugEnabled())
-            {
-                logger.debug("rid: " + request.requestId() +
-                             " opname: " + request.operation() +
-                             " ends with request processing");
-            }
-
-            controller.finish  (request);
-
-            start = false;
-            clear();
-
-            // give back the processor into the pool
-            poolManager.releaseProcessor(this);
+        // return the request to the request controller
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("rid: " + request.requestId() +
+                         " opname: " + request.operation() +
+                         " ends with request processing");
         }
+
+        controller.finish  (request);
     }
 }
@@ -20,8 +20,8 @@ package org.jacorb.poa;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import org.jacorb.config.Configurable;
 import org.jacorb.config.Configuration;
@@ -29,11 +29,14 @@ import org.jacorb.config.ConfigurationException;
 import org.jacorb.orb.dsi.ServerRequest;
 import org.jacorb.poa.except.ResourceLimitReachedException;
 import org.jacorb.poa.util.StringPair;
+import org.jacorb.util.Time;
 import org.omg.CORBA.BAD_INV_ORDER;
 import org.slf4j.Logger;
 
 /**
- * This class manages a queue of ServerRequest objects.
+ * This class manages a queue of ServerRequest objects. The order in
+ * which queued requests are dispatched is decided by a
+ * {@link RequestScheduler}.
  *
  * @author Reimo Tiedemann, FU Berlin
  */
@@ -48,10 +51,11 @@ public class RequestQueue
     private int queueMin;
     private int queueMax;
     private boolean queueWait;
+    private boolean checkReplyEndTime;
 
     private boolean configured = false;
 
-    private final LinkedList queue = new LinkedList();
+    private RequestScheduler queue;
 
     public synchronized void configure(Configuration myConfiguration)
         throws ConfigurationException
@@ -66,6 +70,40 @@ public class RequestQueue
         queueMax = configuration.getAttributeAsInteger("jacorb.poa.queue_max", 100);
         queueMin = configuration.getAttributeAsInteger("jacorb.poa.queue_min", 10);
         queueWait = configuration.getAttributeAsBoolean("jacorb.poa.queue_wait",false);
+        checkReplyEndTime = configuration.getAttributeAsBoolean("jacorb.poa.check_reply_end_time", false);
+
+        String scheduler = configuration.getAttribute("jacorb.poa.queue_scheduler", "fifo");
+        if ("fifo".equals(scheduler))
+        {
+            queue = new FIFORequestScheduler();
+        }
+        else if ("priority".equals(scheduler))
+        {
+            queue = new PriorityBandRequestScheduler();
+        }
+        else if ("deadline".equals(scheduler))
+        {
+            queue = new DeadlineRequestScheduler();
+        }
+        else
+        {
+            try
+            {
+                queue = (RequestScheduler)
+                    org.jacorb.util.ObjectUtil.classForName(scheduler).newInstance();
+            }
+            catch (Exception ex)
+            {
+                throw new ConfigurationException ("could not instantiate request scheduler " + scheduler,
+                                                  ex);
+            }
+        }
+
+        if (queue instanceof Configurable)
+        {
+            ((Configurable) queue).configure(configuration);
+        }
+
         List queueListeners = configuration.getAttributeList("jacorb.poa.queue_listeners");
 
         for (Iterator i = queueListeners.iterator(); i.hasNext();)
@@ -195,7 +233,7 @@ public class RequestQueue
     {
         checkIsConfigured();
 
-        if (!queue.isEmpty())
+        if (queue.size() > 0)
         {
             Iterator en = queue.iterator();
             ServerRequest result;
@@ -227,9 +265,9 @@ public class RequestQueue
     {
         checkIsConfigured();
 
-        if (!queue.isEmpty())
+        if (queue.size() > 0)
         {
-            return (ServerRequest) queue.getFirst();
+            return queue.peek();
         }
         return null;
     }
@@ -243,7 +281,7 @@ public class RequestQueue
     {
         checkIsConfigured();
 
-        return queue.isEmpty();
+        return queue.size() == 0;
     }
 
     /**
@@ -255,9 +293,9 @@ public class RequestQueue
     {
         checkIsConfigured();
 
-        if (!queue.isEmpty())
+        if (queue.size() > 0)
         {
-            ServerRequest result = (ServerRequest) queue.removeFirst();
+            ServerRequest result = queue.poll();
             this.notifyAll();
             // notify a queue listener
 
@@ -279,9 +317,9 @@ public class RequestQueue
     {
         checkIsConfigured();
 
-        if (!queue.isEmpty())
+        if (queue.size() > 0)
         {
-            ServerRequest result = (ServerRequest) queue.removeLast();
+            ServerRequest result = queue.pollLast();
             this.notifyAll();
             // notify a queue listener
             if (queueListener != null)
@@ -293,6 +331,82 @@ public class RequestQueue
         return null;
     }
 
+    /**
+     * Used by the RequestController - removes a request that has been
+     * obtained by getFirst() before.
+     *
+     * @param request the request
+     */
+    protected synchronized void remove(ServerRequest request)
+    {
+        checkIsConfigured();
+
+        if (queue.remove(request))
+        {
+            this.notifyAll();
+            // notify a queue listener
+            if (queueListener != null)
+            {
+                queueListener.requestRemovedFromQueue(request, queue.size());
+            }
+        }
+    }
+
+    /**
+     * Used by the RequestController - removes all requests that can no
+     * longer be delivered in time, i.e. whose RequestEndTime or, if
+     * jacorb.poa.check_reply_end_time is on, ReplyEndTime has passed.
+     *
+     * @return the requests removed
+     */
+    protected synchronized List removeExpired()
+    {
+        checkIsConfigured();
+
+        List result = new ArrayList();
+        for (Iterator i = queue.iterator(); i.hasNext();)
+        {
+            ServerRequest request = (ServerRequest) i.next();
+            if (isExpired(request))
+            {
+                i.remove();
+                result.add(request);
+            }
+        }
+
+        if (!result.isEmpty())
+        {
+            this.notifyAll();
+            if (queueListener != null)
+            {
+                for (int i = 0; i < result.size(); i++)
+                {
+                    queueListener.requestRemovedFromQueue((ServerRequest) result.get(i), queue.size());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the request can no longer be delivered in time
+     */
+    boolean isExpired(ServerRequest request)
+    {
+        return Time.hasPassed(request.getRequestEndTime()) ||
+            (checkReplyEndTime && Time.hasPassed(request.getReplyEndTime()));
+    }
+
+    /**
+     * @return true if adding a request would exceed jacorb.poa.queue_max
+     */
+    protected boolean isFull()
+    {
+        checkIsConfigured();
+
+        return queue.size() >= queueMax;
+    }
+
     /**
      * Removes the request queue listener.
      *
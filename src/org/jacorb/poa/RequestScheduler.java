@@ -0,0 +1,82 @@
+package org.jacorb.poa;
+
+
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.Iterator;
+import org.jacorb.orb.dsi.ServerRequest;
+
+/**
+ * Decides the order in which the requests queued for a POA are
+ * dispatched. The scheduler is selected by the property
+ * <code>jacorb.poa.queue_scheduler</code>, if the implementation is
+ * Configurable it is configured with the POA's configuration.
+ * Implementations need not be thread safe, they are only accessed
+ * while the RequestQueue is locked.
+ *
+ * @see RequestQueue
+ */
+public interface RequestScheduler
+{
+    /**
+     * Adds a request.
+     */
+    void add(ServerRequest request);
+
+    /**
+     * @return the request to be dispatched next, or null if there are
+     * no requests.
+     */
+    ServerRequest peek();
+
+    /**
+     * Removes the request to be dispatched next.
+     *
+     * @return the request, or null if there are no requests.
+     */
+    ServerRequest poll();
+
+    /**
+     * Removes the request that would be dispatched last, i.e. the one
+     * that is least urgent.
+     *
+     * @return the request, or null if there are no requests.
+     */
+    ServerRequest pollLast();
+
+    /**
+     * Removes the given request.
+     *
+     * @return true if the request has been found
+     */
+    boolean remove(ServerRequest request);
+
+    /**
+     * @return the number of requests
+     */
+    int size();
+
+    /**
+     * @return an iterator over all requests, in no particular order.
+     * Requests may be removed by means of the iterator.
+     */
+    Iterator iterator();
+}
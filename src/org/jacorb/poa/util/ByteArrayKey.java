@@ -20,10 +20,11 @@ package org.jacorb.poa.util;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
 
-
 /**
  * This class wraps byte arrays so that they can be used as keys
- * in hashtables.
+ * in hashtables. A key may also wrap a part of a larger array,
+ * e.g. the object id within an object key, so that no copy is
+ * needed to look it up.
  *
  * @author Steve Osselton
  */
@@ -32,11 +33,28 @@ public class ByteArrayKey
 {
     private int cacheH = 0;
     private byte[] bytes = null;
+    private int offset = 0;
+    private int length = 0;
     private String cacheS = null;
 
+    // the wrapped part of bytes, copied by getBytes
+    private volatile byte[] copy = null;
+
     public ByteArrayKey (byte[] array)
     {
         bytes = array;
+        length = (array == null) ? 0 : array.length;
+    }
+
+    /**
+     * creates a key for the bytes offset..offset+length-1 of
+     * array. The array must not be modified while the key is in use.
+     */
+    public ByteArrayKey (byte[] array, int offset, int length)
+    {
+        bytes = array;
+        this.offset = offset;
+        this.length = length;
     }
 
     public ByteArrayKey (ByteArrayKey bak)
@@ -44,30 +62,104 @@ public class ByteArrayKey
        cacheH = bak.cacheH;
        cacheS = bak.cacheS;
        bytes = bak.bytes;
+       offset = bak.offset;
+       length = bak.length;
     }
 
+    /**
+     * @return the wrapped bytes. If the key wraps a part of an array,
+     * that part is copied into a new array the first time.
+     */
     public byte[] getBytes ()
     {
-        return bytes;
+        if (offset == 0 && (bytes == null || length == bytes.length))
+        {
+            return bytes;
+        }
+
+        byte[] result = copy;
+        if (result == null)
+        {
+            result = new byte[length];
+            System.arraycopy(bytes, offset, result, 0, length);
+            copy = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of wrapped bytes
+     */
+    public int length ()
+    {
+        return length;
     }
 
     /**
-     * Overrides hashCode () in Object
+     * copies the wrapped bytes into dest, starting at destOffset
      */
-    public int hashCode ()
+    public void copyTo (byte[] dest, int destOffset)
+    {
+        System.arraycopy(bytes, offset, dest, destOffset, length);
+    }
+
+    /**
+     * @return true if the wrapped bytes equal the bytes
+     * otherOffset..otherOffset+otherLength-1 of other
+     */
+    public boolean equals (byte[] other, int otherOffset, int otherLength)
+    {
+        if (length != otherLength)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            if (bytes[offset + i] != other[otherOffset + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the wrapped bytes end with suffix
+     */
+    public boolean endsWith (byte[] suffix)
     {
-        if( cacheH == 0 )
+        if (length < suffix.length)
+        {
+            return false;
+        }
+
+        final int start = offset + length - suffix.length;
+        for (int i = 0; i < suffix.length; i++)
         {
-            long h = 1234;
+            if (bytes[start + i] != suffix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            if ((bytes != null) && (bytes.length > 0))
+    /**
+     * Overrides hashCode () in Object. All bytes contribute to the
+     * hash so that the large numbers of similar object ids a POA
+     * generates are spread over the table.
+     */
+    public int hashCode ()
+    {
+        if( cacheH == 0 && bytes != null )
+        {
+            int h = 1;
+            for (int i = offset, end = offset + length; i < end; i++)
             {
-                for (int i = bytes.length; --i >= 0; )
-                {
-                    h ^= bytes[i] * (i + 1);
-                }
-                cacheH = (int)((h >> 32) ^ h);
+                h = 31 * h + bytes[i];
             }
+            cacheH = h;
         }
         return cacheH;
     }
@@ -77,34 +169,29 @@ public class ByteArrayKey
      */
     public boolean equals (Object obj)
     {
-        boolean result = false;
+        if (this == obj)
+        {
+            return true;
+        }
 
         if (obj instanceof ByteArrayKey)
         {
             ByteArrayKey key = (ByteArrayKey) obj;
 
-            if ((bytes == key.bytes) || ((bytes == null) && (key.bytes == null)))
+            if (cacheH != 0 && key.cacheH != 0 && cacheH != key.cacheH)
             {
-                result = true;
+                return false;
             }
-            else if ((bytes != null) && (key.bytes != null))
+
+            if (bytes == null || key.bytes == null)
             {
-                if (bytes.length == key.bytes.length)
-                {
-                    result = true;
-                    for (int i = 0; i < bytes.length; i++)
-                    {
-                        if (bytes[i] != key.bytes[i])
-                        {
-                            result = false;
-                            break;
-                        }
-                    }
-                }
+                return bytes == key.bytes;
             }
+
+            return equals(key.bytes, key.offset, key.length);
         }
 
-        return result;
+        return false;
     }
 
     public String toString()
@@ -117,7 +204,7 @@ public class ByteArrayKey
             }
             else
             {
-                cacheS = new String(bytes);
+                cacheS = new String(bytes, offset, length);
             }
         }
         return cacheS;
@@ -173,38 +173,96 @@ public final class POAUtil
 
     public static String extractImplName(byte[] object_key)
     {
-        for (int i = 0; i < object_key.length; i++)
+        final int i = indexOfSeparator(object_key, 0, object_key.length);
+
+        if (i >= 0)
+        {
+            return unmaskStr( object_key, 0, i );
+        }
+        throw new POAInternalError("error extracting impl name from object_key: "+
+                                   convert(object_key));
+    }
+
+    /**
+     * @return the index of the first object key separator in the
+     * bytes from..to-1 of object_key, or -1.
+     */
+
+    public static int indexOfSeparator(byte[] object_key, int from, int to)
+    {
+        for (int i = from; i < to; i++)
         {
             if (object_key[i] == POAConstants.OBJECT_KEY_SEP_BYTE
                 && (i==0 || object_key[i-1] != POAConstants.MASK_BYTE))
             {
-                return unmaskStr( object_key, 0, i );
+                return i;
             }
         }
-        throw new POAInternalError("error extracting impl name from object_key: "+
-                                   convert(object_key));
+        return -1;
     }
 
-
     /**
-     * extracts the oid from a specified object key
+     * @return the index of the last object key separator in
+     * object_key, i.e. the one before the oid, or -1.
      */
 
-    public static byte[] extractOID(byte[] object_key)
+    public static int lastIndexOfSeparator(byte[] object_key)
     {
         for (int i=object_key.length-1; i>=0; i--)
         {
             if (object_key[i] == POAConstants.OBJECT_KEY_SEP_BYTE
                 && (i==0 || object_key[i-1] != POAConstants.MASK_BYTE))
             {
-                ++i;
-                return unmaskId(object_key, i, object_key.length - i);
+                return i;
             }
         }
+        return -1;
+    }
+
+
+    /**
+     * extracts the oid from a specified object key
+     */
+
+    public static byte[] extractOID(byte[] object_key)
+    {
+        final int i = lastIndexOfSeparator(object_key) + 1;
+
+        if (i > 0)
+        {
+            return unmaskId(object_key, i, object_key.length - i);
+        }
         throw new POAInternalError("error extracting oid from object_key: "+
                                    convert(object_key));
     }
 
+    /**
+     * extracts the oid from a specified object key without copying
+     * it, if possible.
+     *
+     * @return a key for the oid that wraps the part of object_key
+     * after the last separator, unless the oid is masked.
+     */
+
+    public static ByteArrayKey extractOIDKey(byte[] object_key)
+    {
+        final int i = lastIndexOfSeparator(object_key) + 1;
+
+        if (i == 0)
+        {
+            throw new POAInternalError("error extracting oid from object_key: "+
+                                       convert(object_key));
+        }
+
+        final int length = object_key.length - i;
+
+        if (getAltered(object_key, i, length) == length)
+        {
+            return new ByteArrayKey(object_key, i, length);
+        }
+        return new ByteArrayKey(unmaskId(object_key, i, length));
+    }
+
     /**
      * extracts the oid from a specified object reference
      */
@@ -219,25 +277,12 @@ public final class POAUtil
      */
     public static String extractPOAName(byte[] object_key)
     {
-        int begin = object_key.length;
-        int end = 0;
-        for (int i=0; i<object_key.length; i++)
+        int begin = indexOfSeparator(object_key, 0, object_key.length);
+        int end = lastIndexOfSeparator(object_key);
+        if (begin < 0)
         {
-            if (object_key[i] == POAConstants.OBJECT_KEY_SEP_BYTE
-                && (i==0 || object_key[i-1] != POAConstants.MASK_BYTE))
-            {
-                begin = i;
-                break;
-            }
-        }
-        for (int i=object_key.length-1; i>=0; i--)
-        {
-            if (object_key[i] == POAConstants.OBJECT_KEY_SEP_BYTE
-                && (i==0 || object_key[i-1] != POAConstants.MASK_BYTE))
-            {
-                end = i;
-                break;
-            }
+            begin = object_key.length;
+            end = 0;
         }
         if (begin > end)
         {
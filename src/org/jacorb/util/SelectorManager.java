@@ -25,6 +25,7 @@ import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -63,6 +64,7 @@ public class SelectorManager extends Thread
     final private ConcurrentLinkedQueue<SelectorRequest> canceledRequests;
     final private ConcurrentLinkedQueue<SelectorRequest> newRequests;
     final private ConcurrentLinkedQueue<SelectorRequest> reActivateBuffer;
+    final private ConcurrentLinkedQueue<SelectionKey> closedKeys;
 
     final private Selector selector;
     private boolean running;
@@ -107,6 +109,7 @@ public class SelectorManager extends Thread
             canceledRequests = new ConcurrentLinkedQueue<SelectorRequest> ();
             newRequests = new ConcurrentLinkedQueue<SelectorRequest> ();
             reActivateBuffer = new ConcurrentLinkedQueue<SelectorRequest> ();
+            closedKeys = new ConcurrentLinkedQueue<SelectionKey> ();
 
             selector = SelectorProvider.provider().openSelector ();
             executor = new ThreadPoolExecutor (threadPoolMin,
@@ -152,6 +155,7 @@ public class SelectorManager extends Thread
             while (running)
             {
                 removeCanceled ();
+                removeClosed ();
                 insertNew ();
                 reactivate ();
 
@@ -453,6 +457,26 @@ public class SelectorManager extends Thread
     }
 
 
+    /**
+     * Closes a channel on behalf of its owner. Requests still pending
+     * on the channel will not see any further I/O events, so they are
+     * finished with status CLOSED rather than left waiting.
+     * @param channel is the channel to be closed
+     */
+    public void closeChannel (SocketChannel channel)
+        throws IOException
+    {
+        SelectionKey key = channel.keyFor (selector);
+
+        channel.close ();
+
+        if (key != null)
+        {
+            closedKeys.offer (key);
+            selector.wakeup ();
+        }
+    }
+
     private boolean sendFailure (SelectorRequest request,
                                  SelectorRequest.Status reason)
     {
@@ -540,6 +564,16 @@ public class SelectorManager extends Thread
             if (request.type != SelectorRequest.Type.TIMER && !request.channel.isConnected ())
             {
                 removeClosedRequests (request.key);
+
+                // a request handed back by a worker has already been
+                // taken off its pool, so finish it explicitly
+                if (!request.isFinalized ())
+                {
+                    request.setStatus (SelectorRequest.Status.CLOSED);
+                    SendJob sendJob = new SendJob (request);
+                    FutureTask<Object> task = new FutureTask<Object> (sendJob);
+                    executor.execute (task);
+                }
                 continue;
             }
 
@@ -651,6 +685,18 @@ public class SelectorManager extends Thread
         }
     }
 
+    /**
+     * Called in Selector thread
+     */
+    private void removeClosed ()
+    {
+        SelectionKey key = null;
+        while ((key = closedKeys.poll()) != null)
+        {
+            removeClosedRequests (key);
+        }
+    }
+
     private void removeFromActivePool (SelectorRequest request)
     {
         RequestorPool pool = pools.get(request.type);
@@ -698,8 +744,15 @@ public class SelectorManager extends Thread
     	        request.type != SelectorRequest.Type.TIMER &&
     	        !request.channel.isConnected ())
             {
-    	        removeClosedRequests (request.key);
-    	        return;
+                // the request has not been pooled yet, so it has to
+                // be finished here alongside any pooled ones
+                removeClosedRequests (request.channel.keyFor (selector));
+
+                request.setStatus (SelectorRequest.Status.CLOSED);
+                SendJob sendJob = new SendJob (request);
+                FutureTask<Object> task = new FutureTask<Object> (sendJob);
+                executor.execute (task);
+                continue;
             }
 
     	    if (request.type == SelectorRequest.Type.TIMER)
@@ -24,50 +24,53 @@ package org.jacorb.util;
 
 /**
  * Defines a single thread with a queue enabling notification of timer
- * expiration. The priniciple is to have a time ordered list of notification
- * objects. The thread waits until the next closest expiration time in the
- * queue. The thread is interrupted whenever a new entry is queued. Whenever
- * awaken, either by interruption or expiration, the thread notifies all expired
- * waiters, removing them from the queue. The timer queue entries consist of an
- * absolute expiry time, and an action object typically the action will be to
- * wake another thread, but it could do something more specialized. The
- * specialized action should not be blocking or it may adversely affect the
+ * expiration. The timer queue entries consist of an absolute expiry time,
+ * and an action object typically the action will be to wake another
+ * thread, but it could do something more specialized. The specialized
+ * action should not be blocking or it may adversely affect the
  * performance of the timer queue.
  *
- * This is a passthru to the SelectorManager instance and should probably
- * go away
+ * Entries are kept on the ORB's TimingWheel, so adding and removing an
+ * action are constant time operations and no SelectorManager is
+ * required.
  *
  * @author Phil Mesnier <mesnier_p@ociweb.com>
  */
 public class TimerQueue
 {
-    SelectorManager impl;
+    private final TimingWheel wheel;
 
-    public TimerQueue (SelectorManager sm)
+    public TimerQueue (TimingWheel wheel)
     {
-        impl = sm;
+        this.wheel = wheel;
     }
 
     public void halt ()
     {
-        impl.halt();
+        wheel.halt();
     }
 
 
     public void add (TimerQueueAction a)
     {
-        impl.add (a);
+        if (a != null)
+        {
+            a.schedule (wheel);
+        }
     }
 
 
     public void remove (TimerQueueAction a)
     {
-        impl.remove (a);
+        if (a != null)
+        {
+            a.cancel ();
+        }
     }
 
     public int depth ()
     {
-        return impl.poolSize(SelectorRequest.Type.TIMER);
+        return wheel.size();
     }
 
 }
@@ -41,6 +41,8 @@ public class TimerQueueAction extends SelectorRequest
 {
     private Object notifyTarget = null;
 
+    private TimingWheel.Timeout timeout = null;
+
     private class Callback extends SelectorRequestCallback
     {
         public boolean call (SelectorRequest action)
@@ -79,7 +81,8 @@ public class TimerQueueAction extends SelectorRequest
 
     private static long toAbsoluteNano (Calendar absolute)
     {
-        return absolute.getTimeInMillis() * 1000000;
+        long relative = absolute.getTimeInMillis() - System.currentTimeMillis();
+        return System.nanoTime() + relative * 1000000;
     }
 
     private static long toAbsoluteNano (long relative)
@@ -88,6 +91,45 @@ public class TimerQueueAction extends SelectorRequest
         return now + relative * 1000000;
     }
 
+    /**
+     * Called by the TimerQueue to put this action on the timing wheel.
+     */
+    synchronized void schedule (TimingWheel wheel)
+    {
+        if (timeout != null)
+        {
+            timeout.cancel ();
+        }
+
+        timeout = wheel.schedule (new TimingWheel.HaltedTask ()
+        {
+            public void run ()
+            {
+                setStatus (Status.EXPIRED);
+                callback.call (TimerQueueAction.this);
+            }
+
+            public void halted ()
+            {
+                // like the SelectorManager did on shutdown
+                setStatus (Status.SHUTDOWN);
+                callback.call (TimerQueueAction.this);
+            }
+        }, nanoDeadline);
+    }
+
+    /**
+     * Called by the TimerQueue to remove this action from the timing wheel.
+     */
+    synchronized void cancel ()
+    {
+        if (timeout != null)
+        {
+            timeout.cancel ();
+            timeout = null;
+        }
+    }
+
     public void expire ()
     {
         // subclass this to do something besides notify a waiter
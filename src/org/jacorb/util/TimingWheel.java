@@ -0,0 +1,471 @@
+package org.jacorb.util;
+
+/*
+ * JacORB - a free Java ORB
+ *
+ * Copyright (C) 2012 Gerald Brose / The JacORB Team.
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+
+/**
+ * A hashed timing wheel shared by all timed waits of an ORB. Timeouts
+ * are hashed by their expiry tick into a fixed number of buckets, each
+ * holding a doubly linked list, so scheduling and cancelling are
+ * constant time operations regardless of the number of pending
+ * timeouts. A single daemon thread advances the wheel once per tick
+ * and runs the tasks of expired timeouts, so expiry is accurate to
+ * one tick. The thread is only started once the first timeout is
+ * scheduled and sleeps while the wheel is empty.
+ *
+ * Expiry tasks are run in the wheel thread and must not block. Work
+ * that may block, e.g. calls into user code, is handed to execute(),
+ * which runs it on a small pool of callback threads.
+ * <p>
+ * When the wheel is halted, the tasks of all pending timeouts are run
+ * in the halting thread, so that nobody keeps waiting for them. Tasks
+ * that implement HaltedTask are told about it instead.
+ */
+public class TimingWheel
+{
+    private final Logger logger;
+    private final String name;
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+
+    private final Object lock = new Object();
+
+    /** time origin of tick 0 */
+    private final long startTime;
+
+    /** the next tick that has not been processed yet */
+    private long tick = 0;
+    private int size = 0;
+    private boolean halted = false;
+    private Thread worker = null;
+
+    /** runs blocking work on behalf of expiry tasks, see execute() */
+    private final ThreadPoolExecutor callbackExecutor;
+
+    /**
+     * A task that needs to know whether it is run because its timeout
+     * expired or because the wheel was halted first.
+     */
+    public interface HaltedTask extends Runnable
+    {
+        /**
+         * Called instead of run() if the wheel is halted while the
+         * timeout is pending, or if it is scheduled on a halted wheel.
+         */
+        void halted ();
+    }
+
+    /**
+     * @param name the name of the wheel thread
+     * @param tickMillis the resolution of the wheel in milliseconds
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     * @param logger used to report failing expiry tasks
+     */
+    public TimingWheel (String name, long tickMillis, int wheelSize, Logger logger)
+    {
+        this (name, tickMillis, wheelSize, 2, logger);
+    }
+
+    /**
+     * @param name the name of the wheel thread
+     * @param tickMillis the resolution of the wheel in milliseconds
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     * @param callbackThreads the maximum number of threads used by execute()
+     * @param logger used to report failing expiry tasks
+     */
+    public TimingWheel (final String name, long tickMillis, int wheelSize,
+                        int callbackThreads, Logger logger)
+    {
+        if (tickMillis <= 0)
+        {
+            throw new IllegalArgumentException ("tick must be positive: " + tickMillis);
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30))
+        {
+            throw new IllegalArgumentException ("invalid wheel size: " + wheelSize);
+        }
+        if (callbackThreads <= 0)
+        {
+            throw new IllegalArgumentException ("invalid number of callback threads: "
+                                                + callbackThreads);
+        }
+
+        int length = 1;
+        while (length < wheelSize)
+        {
+            length <<= 1;
+        }
+
+        this.name = name;
+        this.logger = logger;
+        this.tickNanos = tickMillis * 1000000;
+        this.mask = length - 1;
+        this.buckets = new Timeout[length];
+
+        for (int i = 0; i < length; i++)
+        {
+            // each bucket is a circular list with a sentinel head
+            buckets[i] = new Timeout (null, 0);
+            buckets[i].next = buckets[i];
+            buckets[i].prev = buckets[i];
+        }
+
+        startTime = System.nanoTime ();
+
+        // the callback threads are started on demand and time out when idle
+        callbackExecutor = new ThreadPoolExecutor
+        (
+            callbackThreads,
+            callbackThreads,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable> (),
+            new ThreadFactory ()
+            {
+                private int count = 0;
+
+                public synchronized Thread newThread (Runnable runnable)
+                {
+                    Thread thread = new Thread (runnable, name + " Callback-" + (count++));
+                    thread.setDaemon (true);
+                    return thread;
+                }
+            }
+        );
+        callbackExecutor.allowCoreThreadTimeOut (true);
+    }
+
+    /**
+     * Schedules a task to run once the given deadline has passed.
+     * Deadlines that have already passed expire on the next tick.
+     * If the wheel has been halted the task is run (or told that the
+     * wheel is halted) right away in the calling thread.
+     *
+     * @param task the action to run on expiry
+     * @param nanoDeadline the absolute deadline as per System.nanoTime()
+     * @return a handle that can be used to cancel the timeout
+     */
+    public Timeout schedule (Runnable task, long nanoDeadline)
+    {
+        final Timeout timeout = new Timeout (task, nanoDeadline);
+        final boolean wasHalted;
+
+        synchronized (lock)
+        {
+            wasHalted = halted;
+
+            if (wasHalted)
+            {
+                timeout.expired = true;
+            }
+            else
+            {
+                long offset = nanoDeadline - startTime;
+                long deadlineTick = offset <= 0 ? 0 : (offset + tickNanos - 1) / tickNanos;
+                if (deadlineTick < tick)
+                {
+                    deadlineTick = tick;
+                }
+                timeout.deadlineTick = deadlineTick;
+
+                Timeout head = buckets[(int) (deadlineTick & mask)];
+                timeout.prev = head.prev;
+                timeout.next = head;
+                head.prev.next = timeout;
+                head.prev = timeout;
+
+                if (size++ == 0)
+                {
+                    if (worker == null)
+                    {
+                        worker = new Thread (new Worker (), name);
+                        worker.setDaemon (true);
+                        worker.start ();
+                    }
+                    else
+                    {
+                        lock.notifyAll ();
+                    }
+                }
+            }
+        }
+
+        if (wasHalted)
+        {
+            runHalted (timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Runs work on behalf of an expiry task that may block, such as
+     * calls into user code, on one of the wheel's callback threads,
+     * so that it does not delay other timeouts. After the wheel has been
+     * halted, the work is run in the calling thread.
+     */
+    public void execute (Runnable work)
+    {
+        try
+        {
+            callbackExecutor.execute (work);
+        }
+        catch (RejectedExecutionException e)
+        {
+            work.run ();
+        }
+    }
+
+    /**
+     * @return the number of pending timeouts
+     */
+    public int size ()
+    {
+        synchronized (lock)
+        {
+            return size;
+        }
+    }
+
+    /**
+     * Stops the wheel thread. The tasks of pending timeouts are run, or
+     * told that the wheel is halted if they are HaltedTasks, in the
+     * calling thread, so that threads waiting for them are released.
+     */
+    public void halt ()
+    {
+        final List<Timeout> pending = new ArrayList<Timeout> ();
+
+        synchronized (lock)
+        {
+            if (halted)
+            {
+                return;
+            }
+            halted = true;
+
+            for (int i = 0; i < buckets.length; i++)
+            {
+                Timeout head = buckets[i];
+                while (head.next != head)
+                {
+                    Timeout timeout = head.next;
+                    timeout.unlink ();
+                    timeout.expired = true;
+                    pending.add (timeout);
+                }
+            }
+            size = 0;
+
+            lock.notifyAll ();
+        }
+
+        for (int i = 0; i < pending.size (); i++)
+        {
+            runHalted (pending.get (i));
+        }
+
+        callbackExecutor.shutdown ();
+    }
+
+    private void runHalted (Timeout timeout)
+    {
+        try
+        {
+            if (timeout.task instanceof HaltedTask)
+            {
+                ((HaltedTask) timeout.task).halted ();
+            }
+            else
+            {
+                timeout.task.run ();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.error ("Timer task failed while halting " + name, e);
+        }
+    }
+
+    /**
+     * Unlinks all timeouts in the bucket for the given tick that are
+     * due at or before the current tick. Called with the lock held.
+     */
+    private void expireBucket (long t, long current, List<Timeout> expired)
+    {
+        Timeout head = buckets[(int) (t & mask)];
+        Timeout timeout = head.next;
+        while (timeout != head)
+        {
+            Timeout next = timeout.next;
+            if (timeout.deadlineTick <= current)
+            {
+                timeout.unlink ();
+                timeout.expired = true;
+                --size;
+                expired.add (timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A pending timeout. Instances are created by schedule().
+     */
+    public final class Timeout
+    {
+        private final Runnable task;
+        private final long nanoDeadline;
+        private long deadlineTick;
+        private boolean expired = false;
+
+        private Timeout prev = null;
+        private Timeout next = null;
+
+        Timeout (Runnable task, long nanoDeadline)
+        {
+            this.task = task;
+            this.nanoDeadline = nanoDeadline;
+        }
+
+        /**
+         * Removes this timeout from the wheel.
+         * @return true if the timeout was pending and will now never
+         * expire, false if it has expired or was cancelled before.
+         */
+        public boolean cancel ()
+        {
+            synchronized (lock)
+            {
+                if (prev == null)
+                {
+                    return false;
+                }
+                unlink ();
+                --size;
+                return true;
+            }
+        }
+
+        /**
+         * @return true if the task of this timeout has been or is being run
+         */
+        public boolean isExpired ()
+        {
+            synchronized (lock)
+            {
+                return expired;
+            }
+        }
+
+        public long getDeadline ()
+        {
+            return nanoDeadline;
+        }
+
+        private void unlink ()
+        {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        public void run ()
+        {
+            final List<Timeout> expired = new ArrayList<Timeout> ();
+
+            while (true)
+            {
+                synchronized (lock)
+                {
+                    while (!halted && size == 0)
+                    {
+                        try
+                        {
+                            lock.wait ();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // ignored
+                        }
+                    }
+
+                    if (halted)
+                    {
+                        return;
+                    }
+
+                    long now = System.nanoTime ();
+                    long current = (now - startTime) / tickNanos;
+
+                    if (current >= tick)
+                    {
+                        // after a long pause every bucket is visited only once
+                        long last = Math.min (current, tick + mask);
+                        for (long t = tick; t <= last; t++)
+                        {
+                            expireBucket (t, current, expired);
+                        }
+                        tick = current + 1;
+                    }
+
+                    if (expired.isEmpty ())
+                    {
+                        long remaining = startTime + tick * tickNanos - now;
+                        try
+                        {
+                            lock.wait (remaining / 1000000, (int) (remaining % 1000000));
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // ignored
+                        }
+                        continue;
+                    }
+                }
+
+                for (int i = 0; i < expired.size (); i++)
+                {
+                    try
+                    {
+                        expired.get (i).task.run ();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logger.error ("Timer task failed in " + name, e);
+                    }
+                }
+                expired.clear ();
+            }
+        }
+    }
+}
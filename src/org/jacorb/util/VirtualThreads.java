@@ -0,0 +1,102 @@
+package org.jacorb.util;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads on JDKs that provide them (Java 21 and
+ * later). As JacORB is built for older JDKs the builder API is
+ * looked up reflectively. On a JDK without virtual threads, daemon
+ * platform threads are created instead.
+ */
+
+public final class VirtualThreads
+{
+    // Thread.ofVirtual() and Thread.Builder.unstarted(Runnable)
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static
+    {
+        Method ofVirtual = null;
+        Method unstarted = null;
+
+        try
+        {
+            ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", new Class[] { Runnable.class });
+        }
+        catch (Exception e)
+        {
+            ofVirtual = null;
+            unstarted = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    private VirtualThreads()
+    {
+        // utility class
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads
+     */
+    public static boolean isSupported()
+    {
+        return UNSTARTED != null;
+    }
+
+    /**
+     * returns a new, unstarted thread that runs the given task. The
+     * thread is virtual if the JDK supports it, otherwise it is a
+     * daemon platform thread.
+     */
+    public static Thread newThread(Runnable task, String name)
+    {
+        Thread thread = null;
+
+        if (UNSTARTED != null)
+        {
+            try
+            {
+                thread = (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null, new Object[0]), new Object[] { task });
+            }
+            catch (Exception e)
+            {
+                // e.g. virtual threads are disabled, use a platform thread
+                thread = null;
+            }
+        }
+
+        if (thread == null)
+        {
+            thread = new Thread(task);
+            thread.setDaemon(true);
+        }
+        thread.setName(name);
+
+        return thread;
+    }
+}
@@ -24,6 +24,7 @@ package org.jacorb.util.threadpool;
 import java.util.LinkedList;
 import org.slf4j.Logger;
 import org.jacorb.config.Configuration;
+import org.jacorb.util.VirtualThreads;
 import org.omg.CORBA.NO_RESOURCES;
 
 /**
@@ -43,6 +44,12 @@ public class ThreadPool
     private final String namePrefix;
     private int threadCount = 0;
 
+    /**
+     * <code>virtualThreads</code> denotes whether the pool threads
+     * should be virtual threads if the JDK supports them.
+     */
+    private final boolean virtualThreads;
+
     /**
      * <code>logger</code> is the logger for threadpool.
      */
@@ -58,8 +65,19 @@ public class ThreadPool
                        ConsumerFactory factory,
                        int max_threads,
                        int max_idle_threads)
+    {
+        this(configuration, threadNamePrefix, factory, max_threads, max_idle_threads, false);
+    }
+
+    public ThreadPool( Configuration configuration,
+                       String threadNamePrefix,
+                       ConsumerFactory factory,
+                       int max_threads,
+                       int max_idle_threads,
+                       boolean virtualThreads)
     {
         namePrefix = threadNamePrefix;
+        this.virtualThreads = virtualThreads;
         this.job_queue = new LinkedList ();
         this.factory = factory;
         this.max_threads = max_threads;
@@ -193,9 +211,19 @@ public class ThreadPool
                          "] creating new thread" );
         }
 
-        Thread thread = new Thread( new ConsumerTie( this, factory.create() ));
-        thread.setName(namePrefix + (threadCount++));
-        thread.setDaemon( true );
+        final ConsumerTie tie = new ConsumerTie( this, factory.create() );
+        final Thread thread;
+
+        if (virtualThreads)
+        {
+            thread = VirtualThreads.newThread(tie, namePrefix + (threadCount++));
+        }
+        else
+        {
+            thread = new Thread( tie );
+            thread.setName(namePrefix + (threadCount++));
+            thread.setDaemon( true );
+        }
         thread.start();
 
         total_threads++;
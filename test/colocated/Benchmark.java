@@ -0,0 +1,99 @@
+package test.colocated;
+
+import java.util.Properties;
+import org.omg.CORBA.ORB;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.POAHelper;
+
+/**
+ * Measures the throughput of colocated calls, i.e. calls through a stub
+ * to a servant in the same ORB. Run it once with the default settings
+ * and once with -Djacorb.colocated_fast_path=off, or against an older
+ * JacORB, to compare the fast path with the full local call path.
+ *
+ * Usage: Benchmark [threads] [seconds per round]
+ */
+public class Benchmark
+{
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception
+    {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        final long millis = 1000L * (args.length > 1 ? Integer.parseInt(args[1]) : 2);
+
+        Properties props = new Properties();
+        props.setProperty("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB");
+        props.setProperty("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton");
+
+        ORB orb = ORB.init(new String[0], props);
+        try
+        {
+            POA rootPOA = POAHelper.narrow(orb.resolve_initial_references("RootPOA"));
+            rootPOA.the_POAManager().activate();
+
+            final Echo echo = EchoHelper.narrow(rootPOA.servant_to_reference(new EchoPOA()
+            {
+                public int bounce(int x)
+                {
+                    return x;
+                }
+            }));
+
+            System.out.println("colocated calls per second, " + threads + " threads, fast path "
+                               + System.getProperty("jacorb.colocated_fast_path", "on"));
+
+            // the first round warms up and is not reported
+            for (int round = 0; round <= ROUNDS; round++)
+            {
+                long calls = run(echo, threads, millis);
+                if (round > 0)
+                {
+                    System.out.println("round " + round + ": " + (calls * 1000 / millis));
+                }
+            }
+        }
+        finally
+        {
+            orb.shutdown(true);
+        }
+    }
+
+    private static long run(final Echo echo, int threads, final long millis)
+        throws InterruptedException
+    {
+        final long[] calls = new long[threads];
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] workers = new Thread[threads];
+
+        for (int i = 0; i < threads; i++)
+        {
+            final int index = i;
+            workers[i] = new Thread("Benchmark-" + i)
+            {
+                public void run()
+                {
+                    long count = 0;
+                    while (System.currentTimeMillis() < end)
+                    {
+                        for (int j = 0; j < 1000; j++)
+                        {
+                            echo.bounce(j);
+                        }
+                        count += 1000;
+                    }
+                    calls[index] = count;
+                }
+            };
+            workers[i].start();
+        }
+
+        long total = 0;
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i].join();
+            total += calls[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,107 @@
+package test.marshalling;
+
+import java.util.Properties;
+import org.jacorb.orb.CDRInputStream;
+import org.jacorb.orb.CDROutputStream;
+import org.omg.CORBA.DoubleSeqHelper;
+import org.omg.CORBA.ORB;
+
+/**
+ * Measures how fast a sequence&lt;double&gt; is marshalled into and
+ * demarshalled from a CDR stream, for sequences of 1K to 10M elements.
+ * Arrays are written straight into the stream's buffer rather than
+ * deferred, so the numbers cover the bulk array copy.
+ *
+ * Usage: Benchmark [max elements] [seconds per size]
+ */
+public class Benchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        final int maxLength = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        final long millis = 1000L * (args.length > 1 ? Integer.parseInt(args[1]) : 2);
+
+        Properties props = new Properties();
+        props.setProperty("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB");
+        props.setProperty("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton");
+
+        ORB orb = ORB.init(new String[0], props);
+        try
+        {
+            System.out.println("elements     write ns/element   read ns/element");
+
+            for (int length = 1000; length <= maxLength; length *= 10)
+            {
+                double[] value = new double[length];
+                for (int i = 0; i < length; i++)
+                {
+                    value[i] = i * 1.5;
+                }
+
+                // the first run warms up and is not reported
+                run(orb, value, millis / 2);
+                long[] nanos = run(orb, value, millis);
+
+                System.out.println(pad(String.valueOf(length), 13)
+                                   + pad(format(nanos[0], nanos[2] * length), 19)
+                                   + format(nanos[1], nanos[2] * length));
+            }
+        }
+        finally
+        {
+            orb.shutdown(true);
+        }
+    }
+
+    /**
+     * @return the nanoseconds spent writing and reading, and the number of runs
+     */
+    private static long[] run(ORB orb, double[] value, long millis)
+    {
+        final long end = System.currentTimeMillis() + millis;
+        long write = 0;
+        long read = 0;
+        long runs = 0;
+
+        do
+        {
+            CDROutputStream out = new CDROutputStream(orb, 8 * value.length + 16, true);
+
+            long start = System.nanoTime();
+            DoubleSeqHelper.write(out, value);
+            write += System.nanoTime() - start;
+
+            CDRInputStream in = new CDRInputStream(orb, out.getBufferCopy());
+
+            start = System.nanoTime();
+            double[] result = DoubleSeqHelper.read(in);
+            read += System.nanoTime() - start;
+
+            if (result.length != value.length)
+            {
+                throw new IllegalStateException("read " + result.length + " elements");
+            }
+            in.close();
+            out.close();
+            runs++;
+        }
+        while (System.currentTimeMillis() < end);
+
+        return new long[] { write, read, runs };
+    }
+
+    private static String format(long nanos, long elements)
+    {
+        return String.valueOf(Math.round(100.0 * nanos / elements) / 100.0);
+    }
+
+    private static String pad(String value, int width)
+    {
+        StringBuffer sb = new StringBuffer(value);
+        while (sb.length() < width)
+        {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+}
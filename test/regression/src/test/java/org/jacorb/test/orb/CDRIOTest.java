@@ -20,13 +20,17 @@ package org.jacorb.test.orb;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import java.io.IOException;
+import org.jacorb.orb.CDRInputStream;
 import org.jacorb.test.common.ORBTestCase;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.omg.CORBA.MARSHAL;
 import org.omg.CORBA.portable.InputStream;
 import org.omg.CORBA.portable.OutputStream;
 
@@ -181,4 +185,85 @@ public class CDRIOTest extends ORBTestCase
         assertEquals(is.read_wstring(), "bye");
     }
 
+    @Test
+    public void testPrimitiveArrays() throws IOException
+    {
+        double[] doubles = { 1.5, -2.25, Double.MAX_VALUE, Double.NaN, 0 };
+        float[] floats = { 1.5f, -2.25f, Float.MIN_VALUE };
+        int[] longs = { 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        long[] longlongs = { 1, -1, Long.MAX_VALUE, Long.MIN_VALUE };
+        short[] shorts = { 1, -1, Short.MAX_VALUE, Short.MIN_VALUE };
+
+        // the octets force the arrays to be aligned
+        os.write_octet((byte) 1);
+        os.write_double_array(doubles, 1, 3);
+        os.write_octet((byte) 2);
+        os.write_float_array(floats, 0, 3);
+        os.write_octet((byte) 3);
+        os.write_long_array(longs, 0, 4);
+        os.write_octet((byte) 4);
+        os.write_ulonglong_array(longlongs, 2, 2);
+        os.write_octet((byte) 5);
+        os.write_short_array(shorts, 0, 4);
+
+        InputStream is = os.create_input_stream();
+        double[] doublesRead = new double[4];
+        float[] floatsRead = new float[3];
+        int[] longsRead = new int[4];
+        long[] longlongsRead = new long[2];
+        short[] shortsRead = new short[4];
+
+        assertEquals(1, is.read_octet());
+        is.read_double_array(doublesRead, 1, 3);
+        assertEquals(2, is.read_octet());
+        is.read_float_array(floatsRead, 0, 3);
+        assertEquals(3, is.read_octet());
+        is.read_ulong_array(longsRead, 0, 4);
+        assertEquals(4, is.read_octet());
+        is.read_longlong_array(longlongsRead, 0, 2);
+        assertEquals(5, is.read_octet());
+        is.read_ushort_array(shortsRead, 0, 4);
+
+        assertArrayEquals(new double[] { 0, -2.25, Double.MAX_VALUE, Double.NaN }, doublesRead, 0);
+        assertArrayEquals(floats, floatsRead, 0);
+        assertArrayEquals(longs, longsRead);
+        assertArrayEquals(new long[] { Long.MAX_VALUE, Long.MIN_VALUE }, longlongsRead);
+        assertArrayEquals(shorts, shortsRead);
+    }
+
+    @Test
+    public void testLittleEndianArrays() throws IOException
+    {
+        byte[] encoded = { 1, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xF8, 0x3F, 3, 1 };
+        CDRInputStream is = new CDRInputStream(orb, encoded, true);
+
+        int[] longs = new int[2];
+        double[] doubles = new double[1];
+        short[] shorts = new short[1];
+
+        is.read_long_array(longs, 0, 2);
+        is.read_double_array(doubles, 0, 1);
+        is.read_short_array(shorts, 0, 1);
+
+        assertArrayEquals(new int[] { 1, 2 }, longs);
+        assertArrayEquals(new double[] { 1.5 }, doubles, 0);
+        assertArrayEquals(new short[] { 0x103 }, shorts);
+        is.close();
+    }
+
+    @Test
+    public void testArrayLongerThanBuffer() throws IOException
+    {
+        os.write_long(1);
+        InputStream is = os.create_input_stream();
+        try
+        {
+            is.read_long_array(new int[2], 0, 2);
+            fail("should have failed to read beyond the buffer");
+        }
+        catch (MARSHAL e)
+        {
+            // expected
+        }
+    }
 }
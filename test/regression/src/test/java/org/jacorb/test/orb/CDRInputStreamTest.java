@@ -206,4 +206,29 @@ public class CDRInputStreamTest extends ORBTestCase
             stream.close();
         }
     }
+
+    /**
+     * A negative length indicator must not wrap around when it is
+     * doubled for GIOP 1.1 UTF16 wstrings.
+     */
+    @Test
+    public void testFailOnNegativeWStringSizeGiop1_1() throws Exception
+    {
+        byte[] codedText = {(byte) 0x80, 0, 0, 1, 0, 0x41, 0, 0};
+        CDRInputStream stream = new CDRInputStream( orb, codedText );
+        stream.setGIOPMinor( 1 );
+        try
+        {
+            stream.read_wstring();
+            fail("Negative wstring size should have failed with an exception");
+        }
+        catch (MARSHAL e)
+        {
+            assertTrue("Not a MARSHAL exception: " + e.getMessage(), e.getMessage().matches("^.*invalid wstring size.*$"));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
 }
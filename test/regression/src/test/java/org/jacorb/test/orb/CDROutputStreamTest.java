@@ -259,6 +259,78 @@ public class CDROutputStreamTest extends ORBTestCase
     }
 
 
+    /**
+     * Verifies that large long and double arrays, which are kept as
+     * deferred write frames, are encoded exactly as they would be
+     * when copied into the buffer.
+     */
+    @Test
+    public void testDeferredPrimitiveArrays() throws Exception
+    {
+        int[] longs = new int[3000];
+        double[] doubles = new double[1500];
+        for (int i = 0; i < longs.length; i++)
+        {
+            longs[i] = i * 31 - 17;
+        }
+        for (int i = 0; i < doubles.length; i++)
+        {
+            doubles[i] = i / 7.0;
+        }
+
+        CDROutputStream expected = new CDROutputStream (orb, -1, true);
+        try
+        {
+            writeArrays (expected, longs, doubles);
+            writeArrays (objectUnderTest, longs, doubles);
+
+            assertTrue (objectUnderTest.size() == expected.size());
+            assertEquals ("generated bytes", expected.getBufferCopy(), objectUnderTest.getBufferCopy());
+        }
+        finally
+        {
+            expected.close();
+        }
+    }
+
+    /**
+     * Verifies that arrays within an encapsulation are not deferred,
+     * as the encapsulation length is computed from the buffer.
+     */
+    @Test
+    public void testPrimitiveArraysInEncapsulation() throws Exception
+    {
+        int[] longs = new int[3000];
+        Arrays.fill (longs, 42);
+
+        CDROutputStream expected = new CDROutputStream (orb, -1, true);
+        try
+        {
+            expected.beginEncapsulation();
+            expected.write_long_array (longs, 0, longs.length);
+            expected.endEncapsulation();
+
+            objectUnderTest.beginEncapsulation();
+            objectUnderTest.write_long_array (longs, 0, longs.length);
+            objectUnderTest.endEncapsulation();
+
+            assertEquals ("generated bytes", expected.getBufferCopy(), objectUnderTest.getBufferCopy());
+        }
+        finally
+        {
+            expected.close();
+        }
+    }
+
+    private static void writeArrays (CDROutputStream out, int[] longs, double[] doubles)
+    {
+        out.write_octet ((byte) 1);
+        out.write_long_array (longs, 0, longs.length);
+        out.write_octet ((byte) 2);
+        out.write_double_array (doubles, 0, doubles.length);
+        out.write_long (7);
+    }
+
     private void selectCodeSets( String charCodeSet, String wideCharCodeSet )
     {
         objectUnderTest.setCodeSets( CodeSet.getCodeSet( charCodeSet ), CodeSet.getCodeSet( wideCharCodeSet ) );
@@ -0,0 +1,155 @@
+package org.jacorb.test.orb;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.jacorb.test.BasicServer;
+import org.jacorb.test.BasicServerHelper;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.omg.CORBA.OBJECT_NOT_EXIST;
+import org.omg.CORBA.Policy;
+import org.omg.PortableServer.Current;
+import org.omg.PortableServer.CurrentHelper;
+import org.omg.PortableServer.IdAssignmentPolicyValue;
+import org.omg.PortableServer.POA;
+
+/**
+ * Checks that repeated colocated calls reach the servant that is
+ * currently active for the object and see the right POA current.
+ */
+public class ColocatedCallTest extends ORBTestCase
+{
+    private static final byte[] ID = "colocated".getBytes();
+
+    private POA poa;
+    private Current current;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Policy[] policies = new Policy[]
+        {
+            rootPOA.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID)
+        };
+        poa = rootPOA.create_POA("colocated", rootPOA.the_POAManager(), policies);
+        current = CurrentHelper.narrow(orb.resolve_initial_references("POACurrent"));
+    }
+
+    @Test
+    public void testRepeatedCalls() throws Exception
+    {
+        Servant servant = new Servant(1);
+        poa.activate_object_with_id(ID, servant);
+        BasicServer server = BasicServerHelper.narrow(poa.id_to_reference(ID));
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(1, server.bounce_long(0));
+            assertArrayEquals(ID, servant.objectId);
+            assertSame(poa, servant.poa);
+        }
+    }
+
+    @Test
+    public void testReactivatedObject() throws Exception
+    {
+        poa.activate_object_with_id(ID, new Servant(1));
+        BasicServer server = BasicServerHelper.narrow(poa.id_to_reference(ID));
+        assertEquals(1, server.bounce_long(0));
+
+        poa.deactivate_object(ID);
+        waitUntilInactive(server);
+
+        poa.activate_object_with_id(ID, new Servant(2));
+        assertEquals(2, server.bounce_long(0));
+    }
+
+    @Test
+    public void testDestroyedPOA() throws Exception
+    {
+        poa.activate_object_with_id(ID, new Servant(1));
+        BasicServer server = BasicServerHelper.narrow(poa.id_to_reference(ID));
+        assertEquals(1, server.bounce_long(0));
+
+        poa.destroy(true, true);
+
+        try
+        {
+            server.bounce_long(0);
+            fail("POA has been destroyed");
+        }
+        catch (OBJECT_NOT_EXIST e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * deactivation completes asynchronously
+     */
+    private void waitUntilInactive(BasicServer server) throws Exception
+    {
+        for (int retry = 0; retry < 100; retry++)
+        {
+            try
+            {
+                server.bounce_long(0);
+            }
+            catch (OBJECT_NOT_EXIST e)
+            {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("object was not deactivated");
+    }
+
+    private class Servant extends BasicServerImpl
+    {
+        private final int number;
+        byte[] objectId;
+        POA poa;
+
+        Servant(int number)
+        {
+            this.number = number;
+        }
+
+        public int bounce_long(int x)
+        {
+            try
+            {
+                objectId = current.get_object_id();
+                poa = current.get_POA();
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+            return number;
+        }
+    }
+}
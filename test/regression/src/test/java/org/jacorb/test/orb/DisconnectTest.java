@@ -24,10 +24,9 @@ package org.jacorb.test.orb;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import java.lang.reflect.Field;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import org.jacorb.orb.Delegate;
-import org.jacorb.orb.giop.ClientConnection;
 import org.jacorb.orb.giop.ClientConnectionManager;
 import org.jacorb.test.BasicServer;
 import org.jacorb.test.BasicServerHelper;
@@ -37,7 +36,6 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.omg.CORBA.TIMEOUT;
-import org.omg.ETF.Profile;
 
 /**
  * @author Nick Cross
@@ -100,8 +98,7 @@ public class DisconnectTest extends ClientServerTestCase
                 ClientConnectionManager ccm = (ClientConnectionManager) fconnmgr.get(d);
                 connections = ClientConnectionManager.class.getDeclaredField("connections");
                 connections.setAccessible(true);
-                @SuppressWarnings("unchecked")
-                HashMap<Profile, ClientConnection> c = (HashMap<Profile, ClientConnection>) connections.get(ccm);
+                Map<?, ?> c = (Map<?, ?>) connections.get(ccm);
 
                 assertTrue (c.size() == 0);
             }
@@ -0,0 +1,174 @@
+package org.jacorb.test.orb;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jacorb.orb.giop.StatisticsProvider;
+import org.jacorb.test.ArrayServer;
+import org.jacorb.test.ArrayServerHelper;
+import org.jacorb.test.any_sequenceHolder;
+import org.jacorb.test.long_sequenceHolder;
+import org.jacorb.test.common.ClientServerSetup;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.omg.CORBA.Any;
+
+/**
+ * ArrayTest with requests that are sent in GIOP 1.2 fragments while
+ * they are marshalled, plus sequences that span many fragments.
+ */
+public class FragmentedArrayTest extends ArrayTest
+{
+    /**
+     * Counts the messages and fragments written by the client.
+     */
+    public static class MessageCounter implements StatisticsProvider
+    {
+        public static final AtomicInteger messages = new AtomicInteger();
+
+        public void messageChunkSent (int size)
+        {
+        }
+
+        public void flushed()
+        {
+            messages.incrementAndGet();
+        }
+
+        public void messageReceived (int size)
+        {
+        }
+    }
+
+    @BeforeClass
+    public static void beforeClassSetUp() throws Exception
+    {
+        Properties client_props = new Properties();
+        client_props.setProperty ("jacorb.giop.fragment_size", "256");
+        client_props.setProperty ("jacorb.connection.statistics_providers", MessageCounter.class.getName());
+
+        setup = new ClientServerSetup("org.jacorb.test.orb.ArrayServerImpl", client_props, null);
+    }
+
+    @Before
+    public void resetMessageCounter()
+    {
+        MessageCounter.messages.set (0);
+    }
+
+    /**
+     * asserts that the last request went out in at least the given
+     * number of messages, i.e. fragments
+     */
+    public static void assertFragments (int min)
+    {
+        int messages = MessageCounter.messages.get();
+        assertTrue ("expected at least " + min + " fragments, got " + messages, messages >= min);
+    }
+
+    private ArrayServer server()
+    {
+        return ArrayServerHelper.narrow (setup.getServerObject());
+    }
+
+    @Test
+    public void test_sum_large_octet_sequence()
+    {
+        byte[] a = new byte[100000];
+        int sum = 0;
+        for (int i = 0; i < a.length; i++)
+        {
+            a[i] = (byte) (i % 7);
+            sum += a[i];
+        }
+        assertEquals (sum, server().sum_octet_sequence (a));
+        assertFragments (100);
+    }
+
+    @Test
+    public void test_sum_large_double_sequence()
+    {
+        double[] a = new double[10000];
+        double sum = 0;
+        for (int i = 0; i < a.length; i++)
+        {
+            a[i] = i * 0.5;
+            sum += a[i];
+        }
+        assertEquals (sum, server().sum_double_sequence (a), 0.0);
+        assertFragments (100);
+    }
+
+    @Test
+    public void test_bounce_large_long_sequence()
+    {
+        int[] a = new int[50000];
+        for (int i = 0; i < a.length; i++)
+        {
+            a[i] = i * 31;
+        }
+        long_sequenceHolder b = new long_sequenceHolder();
+        server().bounce_long_sequence (a, b);
+        assertTrue (Arrays.equals (a, b.value));
+        assertFragments (100);
+    }
+
+    @Test
+    public void test_reduce_large_wchar_sequence()
+    {
+        char[] a = new char[5000];
+        Arrays.fill (a, CharTest.EURO_SIGN);
+        assertEquals (a.length, server().reduce_wchar_sequence (a));
+        assertFragments (10);
+    }
+
+    @Test
+    public void test_bounce_large_any_sequence()
+    {
+        Any[] a = new Any[500];
+        for (int i = 0; i < a.length; i++)
+        {
+            a[i] = setup.getClientOrb().create_any();
+            if (i % 2 == 0)
+            {
+                a[i].insert_string ("value " + i);
+            }
+            else
+            {
+                a[i].insert_Object (setup.getServerObject());
+            }
+        }
+        any_sequenceHolder b = new any_sequenceHolder();
+        server().bounce_any_sequence (a, b);
+
+        assertEquals (a.length, b.value.length);
+        assertFragments (10);
+        for (int i = 0; i < a.length; i += 2)
+        {
+            assertEquals ("value " + i, b.value[i].extract_string());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.jacorb.test.orb;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import java.util.Properties;
+import org.jacorb.test.common.ClientServerSetup;
+import org.jacorb.test.common.TestUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+public class NIOServerBasicTest extends BasicTest
+{
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+    }
+
+    @BeforeClass
+    public static void beforeClassSetUp() throws Exception
+    {
+        Assume.assumeFalse(TestUtils.isSSLEnabled);
+
+        Properties server_props = new Properties();
+        server_props.setProperty ("jacorb.connection.nonblocking", "true");
+        server_props.setProperty ("jacorb.connection.nonblocking.server", "true");
+
+        setup = new ClientServerSetup("org.jacorb.test.orb.BasicServerImpl", null, server_props );
+    }
+}
@@ -0,0 +1,265 @@
+package org.jacorb.test.orb;
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2000-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.jacorb.orb.CDRInputStream;
+import org.jacorb.orb.CDROutputStream;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.omg.CORBA.ORB;
+
+/**
+ * Checks that RMI values marshaled by the JacORB marshallers are
+ * encoded exactly like the ValueHandler encodes them.
+ */
+public class RMIValueMarshallerTest extends ORBTestCase
+{
+    public static class Base
+    {
+        public int baseField;
+
+        public Base()
+        {
+            baseField = 42;
+        }
+    }
+
+    public static class Point extends Base implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public static int count;
+
+        private int x;
+        private final double y;
+        public boolean b;
+        public char c;
+        public byte by;
+        public short s;
+        public long l;
+        public float f;
+        public String name;
+        public Integer boxed;
+        public int[] array;
+        public Object any;
+        public Point next;
+        public List<Object> list;
+        public transient int cached = 5;
+
+        public Point()
+        {
+            this(0, 0);
+        }
+
+        public Point(int x, double y)
+        {
+            this.x = x;
+            this.y = y;
+            count++;
+        }
+
+        public int getX()
+        {
+            return x;
+        }
+
+        public double getY()
+        {
+            return y;
+        }
+    }
+
+    public static class Point3D extends Point
+    {
+        private static final long serialVersionUID = 1L;
+
+        public int z;
+        public String name;
+
+        public Point3D(int x, double y, int z)
+        {
+            super(x, y);
+            this.z = z;
+        }
+    }
+
+    public static class Custom implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public int value;
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            out.defaultWriteObject();
+        }
+    }
+
+    private ORB valueHandlerORB;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Properties props = new Properties();
+        props.putAll(orbProps);
+        props.setProperty("jacorb.rmi_value_fast_path", "off");
+        valueHandlerORB = ORB.init(new String[] { "-ORBID", "valueHandlerORB" }, props);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        valueHandlerORB.shutdown(true);
+    }
+
+    private Point3D newPoint()
+    {
+        Point3D p = new Point3D(3, 4.5, -1);
+        p.b = true;
+        p.c = '\u20ac';
+        p.by = (byte) 0xfe;
+        p.s = (short) -7;
+        p.l = Long.MAX_VALUE;
+        p.f = 1.25f;
+        ((Point) p).name = "point";
+        p.name = "3d";
+        p.boxed = Integer.valueOf(17);
+        p.array = new int[] { 1, 2, 3 };
+        p.any = "any";
+        p.next = p;
+        p.list = new ArrayList<Object>();
+        p.list.add("element");
+        p.list.add(p);
+        return p;
+    }
+
+    private static byte[] write(ORB orb, Serializable value)
+    {
+        CDROutputStream out = new CDROutputStream(orb);
+        out.write_value(value);
+        out.write_long(0x12345678);
+        byte[] result = out.getBufferCopy();
+        out.close();
+        return result;
+    }
+
+    private static Serializable read(ORB orb, byte[] buffer)
+    {
+        CDRInputStream in = new CDRInputStream(orb, buffer);
+        Serializable result = in.read_value();
+        assertEquals(0x12345678, in.read_long());
+        in.close();
+        return result;
+    }
+
+    private static void checkPoint(Serializable value)
+    {
+        Point3D p = (Point3D) value;
+        assertEquals(3, p.getX());
+        assertEquals(4.5, p.getY(), 0.0);
+        assertEquals(-1, p.z);
+        assertEquals(true, p.b);
+        assertEquals('\u20ac', p.c);
+        assertEquals((byte) 0xfe, p.by);
+        assertEquals((short) -7, p.s);
+        assertEquals(Long.MAX_VALUE, p.l);
+        assertEquals(1.25f, p.f, 0.0f);
+        assertEquals("point", ((Point) p).name);
+        assertEquals("3d", p.name);
+        assertEquals(Integer.valueOf(17), p.boxed);
+        assertArrayEquals(new int[] { 1, 2, 3 }, p.array);
+        assertEquals("any", p.any);
+        assertSame(p, p.next);
+        assertEquals(2, p.list.size());
+        assertEquals("element", p.list.get(0));
+        assertSame(p, p.list.get(1));
+
+        // only the constructor of the non-serializable superclass is run
+        assertEquals(42, p.baseField);
+        assertEquals(0, p.cached);
+    }
+
+    @Test
+    public void testSameEncoding()
+    {
+        Point3D p = newPoint();
+        assertArrayEquals(write(valueHandlerORB, p), write(orb, p));
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        int count = Point.count;
+        checkPoint(read(orb, write(orb, newPoint())));
+        assertEquals(count + 1, Point.count);
+    }
+
+    @Test
+    public void testValueHandlerInterop()
+    {
+        checkPoint(read(valueHandlerORB, write(orb, newPoint())));
+        checkPoint(read(orb, write(valueHandlerORB, newPoint())));
+    }
+
+    @Test
+    public void testNestedInValueHandlerValue()
+    {
+        ArrayList<Object> list = new ArrayList<Object>();
+        Point p = new Point(1, 2);
+        p.any = Integer.valueOf(5);
+        p.list = list;
+        list.add(p);
+        list.add(p);
+
+        byte[] buffer = write(orb, list);
+        assertArrayEquals(write(valueHandlerORB, list), buffer);
+
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) read(orb, buffer);
+        Point q = (Point) result.get(0);
+        assertSame(q, result.get(1));
+        assertSame(result, q.list);
+        assertEquals(Integer.valueOf(5), q.any);
+        assertNull(q.next);
+    }
+
+    @Test
+    public void testCustomMarshaledValue()
+    {
+        Custom custom = new Custom();
+        custom.value = 11;
+
+        byte[] buffer = write(orb, custom);
+        assertArrayEquals(write(valueHandlerORB, custom), buffer);
+        assertEquals(11, ((Custom) read(orb, buffer)).value);
+    }
+}
@@ -0,0 +1,104 @@
+package org.jacorb.test.orb;
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2000-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.jacorb.orb.CDRInputStream;
+import org.jacorb.orb.CDROutputStream;
+import org.jacorb.orb.StringCache;
+import org.jacorb.orb.giop.CodeSet;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.Test;
+
+public class StringCacheTest extends ORBTestCase
+{
+    @Override
+    protected void patchORBProperties(java.util.Properties properties) throws Exception
+    {
+        properties.put("jacorb.string_cache_size", "64");
+        properties.put("jacorb.string_cache_max_length", "16");
+    }
+
+    @Test
+    public void testRepeatedStringsAreShared() throws Exception
+    {
+        CDROutputStream cdr = new CDROutputStream (orb);
+        cdr.write_string("EURUSD");
+        cdr.write_long(7);
+        cdr.write_string("EURUSD");
+        cdr.write_string("GBPUSD");
+        cdr.write_string("EURUSD");
+
+        CDRInputStream read = (CDRInputStream)cdr.create_input_stream();
+
+        String first = read.read_string();
+        read.read_long();
+        String second = read.read_string();
+        String third = read.read_string();
+        String fourth = read.read_string();
+
+        assertEquals ("EURUSD", first);
+        // cached on its second miss
+        assertNotSame (first, second);
+        assertEquals ("GBPUSD", third);
+        assertSame (second, fourth);
+
+        cdr.close();
+        read.close();
+    }
+
+    @Test
+    public void testLongStringsAreNotCached() throws Exception
+    {
+        CDROutputStream cdr = new CDROutputStream (orb);
+        cdr.write_string("a string longer than sixteen bytes");
+        cdr.write_string("a string longer than sixteen bytes");
+
+        CDRInputStream read = (CDRInputStream)cdr.create_input_stream();
+
+        String first = read.read_string();
+        String second = read.read_string();
+
+        assertEquals (first, second);
+        assertNotSame (first, second);
+
+        cdr.close();
+        read.close();
+    }
+
+    @Test
+    public void testCodeSetIsPartOfTheKey() throws Exception
+    {
+        StringCache cache = new StringCache(4, 16);
+        byte[] bytes = { 'x', (byte) 0xC3, (byte) 0xA4 };
+        int hash = StringCache.hash(bytes, 1, 2);
+
+        cache.put(bytes, 1, 2, hash, CodeSet.getCodeSet("ISO8859_1"), "\u00c3\u00a4");
+        assertNull (cache.get(bytes, 1, 2, hash, CodeSet.getCodeSet("ISO8859_1")));
+        cache.put(bytes, 1, 2, hash, CodeSet.getCodeSet("ISO8859_1"), "\u00c3\u00a4");
+
+        assertEquals ("\u00c3\u00a4", cache.get(bytes, 1, 2, hash, CodeSet.getCodeSet("ISO8859_1")));
+        assertNull (cache.get(bytes, 1, 2, hash, CodeSet.getCodeSet("UTF8")));
+        assertNull (cache.get(bytes, 1, 2, hash, null));
+    }
+}
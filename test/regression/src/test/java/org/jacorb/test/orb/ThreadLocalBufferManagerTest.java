@@ -0,0 +1,224 @@
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 1999-2013 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package org.jacorb.test.orb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.jacorb.orb.ORB;
+import org.jacorb.orb.ThreadLocalBufferManager;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThreadLocalBufferManagerTest extends ORBTestCase
+{
+    private ThreadLocalBufferManager objectUnderTest;
+
+    protected void patchORBProperties(Properties props) throws Exception
+    {
+        props.setProperty ("jacorb.buffermanager.magazine.size", "2");
+        props.setProperty ("jacorb.bufferManagerThreshold", "4");
+        props.setProperty ("jacorb.maxManagedBufSize", "16");
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        objectUnderTest = new ThreadLocalBufferManager (((ORB) orb).getConfiguration());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        objectUnderTest.release();
+    }
+
+    @Test
+    public void testBufferSizes()
+    {
+        assertEquals (1023, objectUnderTest.getBuffer (1).length);
+        assertEquals (1023, objectUnderTest.getBuffer (1023).length);
+        assertEquals (2047, objectUnderTest.getBuffer (1024).length);
+        assertEquals (4095, objectUnderTest.getBuffer (2048).length);
+        assertEquals (4, objectUnderTest.getMisses());
+    }
+
+    @Test
+    public void testBufferIsReusedByThread()
+    {
+        byte[] buffer = objectUnderTest.getBuffer (1500);
+        objectUnderTest.returnBuffer (buffer);
+
+        assertSame (buffer, objectUnderTest.getBuffer (1200));
+        assertEquals (1, objectUnderTest.getThreadCacheHits());
+        assertEquals (1, objectUnderTest.getMisses());
+    }
+
+    @Test
+    public void testFullMagazineIsSharedThroughDepot() throws Exception
+    {
+        final Set<byte[]> returned = new HashSet<byte[]>();
+
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                // two magazines of two buffers are kept by the thread,
+                // the fifth buffer pushes a full magazine to the depot
+                for (int i = 0; i < 5; i++)
+                {
+                    byte[] buffer = new byte[2047];
+                    returned.add (buffer);
+                    objectUnderTest.returnBuffer (buffer);
+                }
+            }
+        };
+        producer.start();
+        producer.join();
+
+        assertEquals (2, objectUnderTest.getDepotSize());
+
+        assertTrue (returned.contains (objectUnderTest.getBuffer (2000)));
+        assertTrue (returned.contains (objectUnderTest.getBuffer (2000)));
+        assertEquals (1, objectUnderTest.getDepotHits());
+        assertEquals (1, objectUnderTest.getThreadCacheHits());
+        assertEquals (0, objectUnderTest.getDepotSize());
+
+        assertFalse (returned.contains (objectUnderTest.getBuffer (2000)));
+        assertEquals (1, objectUnderTest.getMisses());
+    }
+
+    @Test
+    public void testTerminatedThreadRefillsDepot() throws Exception
+    {
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                // a full and a partly filled magazine stay with the thread
+                for (int i = 0; i < 3; i++)
+                {
+                    objectUnderTest.returnBuffer (new byte[1023]);
+                }
+            }
+        };
+        producer.start();
+        producer.join();
+        producer = null;
+
+        assertEquals (0, objectUnderTest.getDepotSize());
+
+        // the magazines are taken over once the thread has been collected
+        for (int retry = 0; objectUnderTest.getDepotSize() == 0; retry++)
+        {
+            assertTrue ("magazines were not handed over", retry < 100);
+            System.gc();
+            Thread.sleep (50);
+            objectUnderTest.getThreadCacheHits();
+        }
+        assertEquals (3, objectUnderTest.getDepotSize());
+    }
+
+    @Test
+    public void testReleaseDropsThreadMagazines()
+    {
+        byte[] buffer = objectUnderTest.getBuffer (1500);
+        objectUnderTest.returnBuffer (buffer);
+        objectUnderTest.release();
+
+        assertNotSame (buffer, objectUnderTest.getBuffer (1500));
+    }
+
+    @Test
+    public void testDepotIsBounded()
+    {
+        for (int i = 0; i < 20; i++)
+        {
+            objectUnderTest.returnBuffer (new byte[1023]);
+        }
+
+        assertEquals (4, objectUnderTest.getDepotSize());
+
+        objectUnderTest.trim();
+        assertEquals (0, objectUnderTest.getDepotSize());
+    }
+
+    @Test
+    public void testForeignBufferIsDropped()
+    {
+        byte[] buffer = new byte[1100];
+        objectUnderTest.returnBuffer (buffer);
+
+        assertNotSame (buffer, objectUnderTest.getBuffer (1100));
+    }
+
+    @Test
+    public void testBufferAboveMagazineSizeIsDropped()
+    {
+        // log2 16 is above jacorb.buffermanager.magazine.maxsize (15)
+        byte[] buffer = new byte[(1 << 17) - 1];
+        objectUnderTest.returnBuffer (buffer);
+
+        assertEquals (0, objectUnderTest.getDepotSize());
+        assertNotSame (buffer, objectUnderTest.getBuffer (100000));
+        assertEquals (1, objectUnderTest.getMisses());
+    }
+
+    @Test
+    public void testOversizeBuffer()
+    {
+        byte[] buffer = objectUnderTest.getBuffer (1 << 18);
+        assertEquals (1 << 18, buffer.length);
+        assertEquals (1, objectUnderTest.getOversizeAllocations());
+
+        objectUnderTest.returnBuffer (buffer, true);
+        assertSame (buffer, objectUnderTest.getBuffer (1 << 17));
+        assertEquals (2, objectUnderTest.getOversizeAllocations());
+    }
+
+    @Test
+    public void testCountersArePublished() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName query = new ObjectName ("org.jacorb:type=BufferManager,*");
+        Set<ObjectName> names = server.queryNames (query, null);
+
+        assertEquals (1, names.size());
+
+        ObjectName name = names.iterator().next();
+        objectUnderTest.getBuffer (1);
+        assertEquals (Long.valueOf (1), server.getAttribute (name, "Misses"));
+
+        objectUnderTest.release();
+        assertFalse (server.isRegistered (name));
+    }
+}
@@ -0,0 +1,82 @@
+package org.jacorb.test.orb;
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2000-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import java.lang.reflect.Method;
+import org.jacorb.orb.ValueMetadataCache;
+import org.jacorb.util.ValueHandler;
+import org.junit.Test;
+import org.omg.CORBA.MARSHAL;
+import org.omg.CosNaming.NameComponent;
+
+public class ValueMetadataCacheTest
+{
+    private final ValueMetadataCache cache = new ValueMetadataCache();
+
+    @Test
+    public void testRepositoryIdIsCached()
+    {
+        String first = cache.getRMIRepositoryID(String.class);
+
+        assertEquals (ValueHandler.getRMIRepositoryID(String.class), first);
+        assertSame (first, cache.getRMIRepositoryID(String.class));
+        assertFalse (cache.isCustomMarshaled(String.class));
+    }
+
+    @Test
+    public void testHelperMethodsAreCached()
+    {
+        Method read = cache.getHelperReadMethod(NameComponent.class);
+        Method write = cache.getHelperWriteMethod(NameComponent.class);
+
+        assertEquals ("read", read.getName());
+        assertEquals ("write", write.getName());
+        assertSame (read, cache.getHelperReadMethod(NameComponent.class));
+        assertSame (write, cache.getHelperWriteMethod(NameComponent.class));
+    }
+
+    @Test
+    public void testEntryIsShared()
+    {
+        ValueMetadataCache.Entry entry = cache.getEntry(NameComponent.class);
+
+        assertSame (entry, cache.getEntry(NameComponent.class));
+        assertSame (entry.getRMIRepositoryID(), cache.getRMIRepositoryID(NameComponent.class));
+        assertSame (entry.getHelperWriteMethod(), cache.getHelperWriteMethod(NameComponent.class));
+    }
+
+    @Test
+    public void testMissingHelper()
+    {
+        try
+        {
+            cache.getHelperReadMethod(ValueMetadataCacheTest.class);
+            fail ("expected MARSHAL");
+        }
+        catch (MARSHAL e)
+        {
+            // expected
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package org.jacorb.test.orb.connection;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
 import java.util.Vector;
 import org.jacorb.config.Configuration;
 import org.jacorb.config.JacORBConfiguration;
@@ -332,6 +334,150 @@ public class GIOPConnectionTest extends ORBTestCase
         m_out.close();
     }
 
+    @Test
+    public void testGIOP_1_2_RequestInSeveralFragments() throws Exception
+    {
+        List<byte[]> messages = newFragmentedRequest (new String[] { "bar", "baz", "qux" });
+
+        DummyRequestListener request_listener = new DummyRequestListener();
+        receive (messages, config, request_listener);
+
+        assertTrue( request_listener.getRequest() != null );
+
+        byte[] request = request_listener.getRequest();
+        assertFalse( Messages.moreFragmentsFollow( request ));
+
+        RequestInputStream r_in = new RequestInputStream
+            ( getORB(), null, request );
+
+        //the header describes the reassembled message
+        assertEquals( "barbazqux", r_in.read_string() );
+        assertEquals( r_in.get_pos(), Messages.MSG_HEADER_SIZE + r_in.msg_size );
+
+        r_in.close();
+    }
+
+    @Test
+    public void testGIOP_1_2_FragmentMemoryLimit() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty ("jacorb.connection.fragments.max_memory", "1500");
+        Configuration limited = JacORBConfiguration.getConfiguration(props, orb, false);
+
+        List<byte[]> messages = newFragmentedRequest (new String[] { "bar", "baz", "qux" });
+
+        DummyRequestListener request_listener = new DummyRequestListener();
+        receive (messages, limited, request_listener);
+
+        //the incomplete request exceeded the limit and has been
+        //dropped along with the connection
+        assertTrue( request_listener.getRequest() == null );
+    }
+
+    @Test
+    public void testGIOP_1_2_FragmentTooShortForHeader() throws Exception
+    {
+        List<byte[]> messages = newFragmentedRequest (new String[] { "bar", "baz", "qux" });
+
+        //a Fragment whose size doesn't cover the request id
+        byte[] truncated = new byte[Messages.MSG_HEADER_SIZE];
+        System.arraycopy (messages.get (1), 0, truncated, 0, truncated.length);
+        truncated[8] = truncated[9] = truncated[10] = truncated[11] = 0;
+        messages.set (1, truncated);
+
+        messages.addAll (newFragmentedRequest (new String[] { "ok" }));
+
+        DummyRequestListener request_listener = new DummyRequestListener();
+        receive (messages, config, request_listener);
+
+        //the broken request has been dropped, the next one is received
+        RequestInputStream r_in = new RequestInputStream
+            ( getORB(), null, request_listener.getRequest() );
+        assertEquals( "ok", r_in.read_string() );
+        r_in.close();
+    }
+
+    /**
+     * Creates a GIOP 1.2 request for operation "foo" with a single
+     * string argument, whose characters are split over a Request and
+     * further Fragment messages.
+     */
+    private List<byte[]> newFragmentedRequest (String[] parts)
+    {
+        List<byte[]> messages = new Vector<byte[]>();
+        int length = 1;
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            length += parts[i].length();
+        }
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            final MessageOutputStream out;
+
+            if (i == 0)
+            {
+                out = new RequestOutputStream( getORB(), (ClientConnection) null, 0, "foo",
+                                               true, (short)-1, null, null, null, new byte[1], 2 );
+                out.write_ulong( length ); //string length
+            }
+            else
+            {
+                out = new MessageOutputStream(orb);
+                out.writeGIOPMsgHeader( MsgType_1_1._Fragment, 2 );
+                out.write_ulong( 0 ); // Fragment Header (request id)
+            }
+
+            for (int j = 0; j < parts[i].length(); j++)
+            {
+                out.write_octet( (byte) parts[i].charAt(j) );
+            }
+            if (i == parts.length - 1)
+            {
+                out.write_octet( (byte) 0 );
+            }
+            out.insertMsgSize();
+
+            byte[] b = out.getBufferCopy();
+            if (i < parts.length - 1)
+            {
+                b[6] |= 0x02; //set "more fragments follow"
+            }
+            messages.add( b );
+
+            out.close();
+        }
+        return messages;
+    }
+
+    private void receive (List<byte[]> messages,
+                          Configuration configuration,
+                          DummyRequestListener request_listener)
+        throws Exception
+    {
+        DummyTransport transport = new DummyTransport( messages );
+
+        GIOPConnectionManager giopconn_mg = new GIOPConnectionManager();
+        giopconn_mg.configure (configuration);
+
+        ServerGIOPConnection conn =
+            giopconn_mg.createServerGIOPConnection( null,
+                                                    transport,
+                                                    request_listener,
+                                                    new DummyReplyListener() );
+
+        try
+        {
+            //will not return until the DummyTransport runs out of data
+            conn.receiveMessages();
+        }
+        catch( IOException e )
+        {
+            //o.k., thrown by DummyTransport
+        }
+    }
+
     @Test
     public void testGIOP_1_0_CorrectRefusing()
     {
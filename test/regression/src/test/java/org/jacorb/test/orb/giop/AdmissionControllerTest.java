@@ -0,0 +1,296 @@
+package org.jacorb.test.orb.giop;
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2000-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.jacorb.config.JacORBConfiguration;
+import org.jacorb.orb.giop.AdmissionController;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.Test;
+import org.omg.CORBA.Any;
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.Policy;
+import org.omg.CORBA.ServerRequest;
+import org.omg.CORBA.SetOverrideType;
+import org.omg.CORBA.TRANSIENT;
+import org.omg.CORBA.portable.ObjectImpl;
+import org.omg.Messaging.SYNC_SCOPE_POLICY_TYPE;
+import org.omg.Messaging.SYNC_WITH_SERVER;
+import org.omg.PortableServer.DynamicImplementation;
+
+public class AdmissionControllerTest extends ORBTestCase
+{
+    private static final long MILLIS = 1000000L;
+
+    private final Object lock = new Object();
+    private boolean entered;
+
+    protected void patchORBProperties (Properties props) throws Exception
+    {
+        props.setProperty ("jacorb.connection.server.admission_control", "on");
+        props.setProperty ("jacorb.connection.server.admission.initial_limit", "1");
+        props.setProperty ("jacorb.connection.server.admission.min_limit", "1");
+        props.setProperty ("jacorb.connection.server.admission.max_limit", "1");
+    }
+
+    private AdmissionController newController (int initial, int min, int max) throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty ("jacorb.connection.server.admission.initial_limit", Integer.toString (initial));
+        props.setProperty ("jacorb.connection.server.admission.min_limit", Integer.toString (min));
+        props.setProperty ("jacorb.connection.server.admission.max_limit", Integer.toString (max));
+
+        AdmissionController controller = new AdmissionController();
+        controller.configure (JacORBConfiguration.getConfiguration (props, orb, false));
+        return controller;
+    }
+
+    /**
+     * completes a request as if it took the given time, and admits
+     * another one in its place
+     */
+    private static void cycle (AdmissionController controller, long latency)
+    {
+        controller.release (System.nanoTime() - latency);
+        controller.acquire();
+    }
+
+    @Test
+    public void testRejectsBeyondLimit() throws Exception
+    {
+        AdmissionController controller = newController (4, 4, 4);
+
+        long[] admitted = new long[4];
+        for (int i = 0; i < admitted.length; i++)
+        {
+            admitted[i] = controller.acquire();
+            assertTrue (admitted[i] != 0);
+        }
+        assertEquals (0, controller.acquire());
+        assertEquals (4, controller.getInflight());
+
+        controller.release (admitted[0]);
+        assertTrue (controller.acquire() != 0);
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyIsStable() throws Exception
+    {
+        AdmissionController controller = newController (10, 4, 100);
+
+        while (controller.acquire() != 0)
+        {
+            // use up the limit
+        }
+
+        for (int i = 0; i < 200; i++)
+        {
+            cycle (controller, MILLIS);
+        }
+
+        assertTrue (controller.getLimit() > 10);
+        assertTrue (controller.getLimit() <= 100);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() throws Exception
+    {
+        AdmissionController controller = newController (50, 4, 50);
+
+        while (controller.acquire() != 0)
+        {
+            // use up the limit
+        }
+
+        for (int i = 0; i < 200; i++)
+        {
+            cycle (controller, MILLIS);
+        }
+        assertEquals (50, controller.getLimit());
+
+        for (int i = 0; i < 200; i++)
+        {
+            cycle (controller, 20 * MILLIS);
+        }
+        assertEquals (4, controller.getLimit());
+    }
+
+    @Test
+    public void testLimitIsNotGrownWhenUnused() throws Exception
+    {
+        AdmissionController controller = newController (10, 4, 100);
+
+        for (int i = 0; i < 200; i++)
+        {
+            controller.release (controller.acquire() - MILLIS);
+        }
+
+        assertEquals (10, controller.getLimit());
+    }
+
+    @Test
+    public void testExcessRequestIsRejected() throws Exception
+    {
+        ORB clientOrb = newClientOrb();
+
+        try
+        {
+            final ObjectImpl target = (ObjectImpl) clientOrb.string_to_object (slowObject());
+            final List<Exception> errors = new ArrayList<Exception>();
+
+            Thread first = new Thread ("Caller")
+            {
+                public void run()
+                {
+                    try
+                    {
+                        target._releaseReply (target._invoke (target._request ("slow", true)));
+                    }
+                    catch (Exception e)
+                    {
+                        errors.add (e);
+                    }
+                }
+            };
+            first.start();
+
+            awaitEntered();
+            assertRejected (target);
+
+            first.join (10000);
+            assertEquals ("[]", errors.toString());
+        }
+        finally
+        {
+            clientOrb.shutdown (true);
+        }
+    }
+
+    @Test
+    public void testSyncWithServerCountsUntilProcessed() throws Exception
+    {
+        ORB clientOrb = newClientOrb();
+
+        try
+        {
+            Any scope = clientOrb.create_any();
+            scope.insert_short (SYNC_WITH_SERVER.value);
+            Policy policy = clientOrb.create_policy (SYNC_SCOPE_POLICY_TYPE.value, scope);
+
+            ObjectImpl target = (ObjectImpl) clientOrb.string_to_object (slowObject())
+                ._set_policy_override (new Policy[] { policy }, SetOverrideType.ADD_OVERRIDE);
+
+            // returns once the server has received the oneway, which is
+            // still being processed afterwards
+            target._releaseReply (target._invoke (target._request ("slow", false)));
+
+            awaitEntered();
+            assertRejected (target);
+        }
+        finally
+        {
+            clientOrb.shutdown (true);
+        }
+    }
+
+    /**
+     * @return the IOR of an object whose operations block until lock
+     * is notified
+     */
+    private String slowObject() throws Exception
+    {
+        byte[] oid = rootPOA.activate_object (new DynamicImplementation()
+        {
+            public void invoke (ServerRequest request)
+            {
+                request.arguments (orb.create_list (0));
+
+                synchronized (lock)
+                {
+                    entered = true;
+                    lock.notifyAll();
+                    try
+                    {
+                        lock.wait (10000);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // ignore
+                    }
+                }
+            }
+
+            public String[] _all_interfaces (org.omg.PortableServer.POA poa, byte[] id)
+            {
+                return new String[] { "IDL:Slow:1.0" };
+            }
+        });
+        return orb.object_to_string (rootPOA.id_to_reference (oid));
+    }
+
+    private ORB newClientOrb()
+    {
+        Properties props = new Properties();
+        props.setProperty ("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB");
+        props.setProperty ("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton");
+        // keep the connection of the first request open
+        props.setProperty ("jacorb.connection.client.disconnect_after_systemexception", "off");
+        return ORB.init (new String[0], props);
+    }
+
+    private void awaitEntered() throws InterruptedException
+    {
+        synchronized (lock)
+        {
+            while (!entered)
+            {
+                lock.wait (10000);
+            }
+        }
+    }
+
+    /**
+     * checks that a request is rejected while the slow object is busy,
+     * and lets the slow object return
+     */
+    private void assertRejected (ObjectImpl target) throws Exception
+    {
+        try
+        {
+            target._releaseReply (target._invoke (target._request ("slow", true)));
+            assertTrue ("second request should be rejected", false);
+        }
+        catch (TRANSIENT e)
+        {
+            // expected
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.jacorb.test.orb.giop;
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2000-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jacorb.orb.ORB;
+import org.jacorb.orb.giop.ClientConnection;
+import org.jacorb.orb.giop.ClientConnectionManager;
+import org.jacorb.orb.giop.GIOPConnection;
+import org.jacorb.orb.iiop.IIOPAddress;
+import org.jacorb.orb.iiop.IIOPProfile;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientConnectionManagerTest extends ORBTestCase
+{
+    private ClientConnectionManager objectUnderTest;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        objectUnderTest = ((ORB) orb).getClientConnectionManager();
+    }
+
+    @Test
+    public void testConnectionIsShared() throws Exception
+    {
+        IIOPProfile profile = createProfile (12345);
+
+        ClientConnection first = objectUnderTest.getConnection (profile);
+        ClientConnection second = objectUnderTest.getConnection (createProfile (12345));
+
+        assertSame (first, second);
+        assertEquals (2, first.numClients());
+
+        ClientConnection other = objectUnderTest.getConnection (createProfile (12346));
+        assertNotSame (first, other);
+
+        objectUnderTest.releaseConnection (first);
+        objectUnderTest.releaseConnection (second);
+        objectUnderTest.releaseConnection (other);
+    }
+
+    @Test
+    public void testReleasedConnectionIsNotReused() throws Exception
+    {
+        IIOPProfile profile = createProfile (12345);
+
+        ClientConnection first = objectUnderTest.getConnection (profile);
+        objectUnderTest.releaseConnection (first);
+
+        assertEquals (0, first.numClients());
+        assertFalse (first.incClients());
+
+        ClientConnection second = objectUnderTest.getConnection (profile);
+        assertNotSame (first, second);
+        assertEquals (1, second.numClients());
+
+        objectUnderTest.releaseConnection (second);
+    }
+
+    @Test
+    public void testConcurrentGetConnection() throws Exception
+    {
+        final int threads = 16;
+        final IIOPProfile profile = createProfile (12345);
+        final CountDownLatch start = new CountDownLatch (1);
+        ExecutorService executor = Executors.newFixedThreadPool (threads);
+
+        try
+        {
+            Future<?>[] results = new Future<?>[threads];
+
+            for (int i = 0; i < threads; i++)
+            {
+                results[i] = executor.submit (new Callable<ClientConnection>()
+                {
+                    public ClientConnection call() throws Exception
+                    {
+                        start.await();
+                        return objectUnderTest.getConnection (profile);
+                    }
+                });
+            }
+            start.countDown();
+
+            ClientConnection connection = (ClientConnection) results[0].get();
+            for (int i = 1; i < threads; i++)
+            {
+                assertSame (connection, results[i].get());
+            }
+            assertEquals (threads, connection.numClients());
+
+            for (int i = 0; i < threads; i++)
+            {
+                objectUnderTest.releaseConnection (connection);
+            }
+            assertFalse (connection.incClients());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentAddConnection() throws Exception
+    {
+        final int threads = 16;
+        ClientConnection client = objectUnderTest.getConnection (createProfile (12345));
+        final GIOPConnection connection = client.getGIOPConnection();
+        Field listener = GIOPConnection.class.getDeclaredField ("reply_listener");
+        listener.setAccessible (true);
+        ExecutorService executor = Executors.newFixedThreadPool (threads);
+
+        try
+        {
+            // the window for the race is small, so try it repeatedly
+            for (int round = 0; round < 50; round++)
+            {
+                final IIOPProfile profile = createProfile (20000 + round);
+                final CountDownLatch start = new CountDownLatch (1);
+                Future<?>[] results = new Future<?>[threads];
+
+                for (int i = 0; i < threads; i++)
+                {
+                    results[i] = executor.submit (new Callable<Object>()
+                    {
+                        public Object call() throws Exception
+                        {
+                            start.await();
+                            objectUnderTest.addConnection (connection, profile);
+                            return null;
+                        }
+                    });
+                }
+                start.countDown();
+
+                for (int i = 0; i < threads; i++)
+                {
+                    results[i].get();
+                }
+
+                // only one ClientConnection has been created, and it
+                // is the one that listens to the GIOPConnection
+                ClientConnection added = objectUnderTest.getConnection (profile);
+                assertEquals (2, added.numClients());
+                assertSame (added, listener.get (connection));
+
+                objectUnderTest.releaseConnection (added);
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        objectUnderTest.releaseConnection (client);
+    }
+
+    @Test
+    public void testDecClientsRetiresConnection() throws Exception
+    {
+        ClientConnection connection = objectUnderTest.getConnection (createProfile (12345));
+
+        assertTrue (connection.incClients());
+        assertFalse (connection.decClients());
+        assertTrue (connection.decClients());
+        assertFalse (connection.incClients());
+        assertEquals (0, connection.numClients());
+
+        connection.close();
+    }
+
+    @Test
+    public void testPoolingIsDisabledByDefault() throws Exception
+    {
+        ClientConnection connection = objectUnderTest.getConnection (createProfile (12345));
+
+        for (int i = 0; i < 4; i++)
+        {
+            assertSame (connection, objectUnderTest.selectConnection (connection));
+        }
+
+        objectUnderTest.releaseConnection (connection);
+    }
+
+    private IIOPProfile createProfile (int port) throws Exception
+    {
+        IIOPAddress address = new IIOPAddress ("127.0.0.1", port);
+        address.configure (((ORB) orb).getConfiguration());
+
+        IIOPProfile profile = new IIOPProfile (address, null, ((ORB) orb).getGIOPMinorVersion());
+        profile.configure (((ORB) orb).getConfiguration());
+        return profile;
+    }
+}
@@ -0,0 +1,165 @@
+package org.jacorb.test.orb.giop;
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2000-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import org.jacorb.orb.ORB;
+import org.jacorb.orb.giop.ClientConnection;
+import org.jacorb.orb.giop.ClientConnectionManager;
+import org.jacorb.orb.iiop.IIOPAddress;
+import org.jacorb.orb.iiop.IIOPProfile;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientConnectionPoolTest extends ORBTestCase
+{
+    private ClientConnectionManager objectUnderTest;
+
+    /** accepts the connections of the pool members, which are opened eagerly */
+    private ServerSocket firstServer;
+    private ServerSocket secondServer;
+
+    protected void patchORBProperties(Properties props) throws Exception
+    {
+        props.setProperty ("jacorb.connection.client.pool.min", "2");
+        props.setProperty ("jacorb.connection.client.pool.max", "3");
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        objectUnderTest = ((ORB) orb).getClientConnectionManager();
+        firstServer = new ServerSocket (0);
+        secondServer = new ServerSocket (0);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        firstServer.close();
+        secondServer.close();
+    }
+
+    @Test
+    public void testMinimumConnectionsAreUsed() throws Exception
+    {
+        ClientConnection primary = objectUnderTest.getConnection (createProfile (firstServer.getLocalPort()));
+        awaitMember (primary);
+
+        Set<ClientConnection> selected = new HashSet<ClientConnection>();
+        for (int i = 0; i < 10; i++)
+        {
+            ClientConnection connection = objectUnderTest.selectConnection (primary);
+            assertTrue (objectUnderTest.isPooledWith (connection, primary));
+            selected.add (connection);
+        }
+
+        // idle members are used in turn, no further connections are opened
+        assertEquals (2, selected.size());
+        assertTrue (selected.contains (primary));
+
+        objectUnderTest.releaseConnection (primary);
+    }
+
+    @Test
+    public void testPoolsAreSeparatePerEndpoint() throws Exception
+    {
+        ClientConnection first = objectUnderTest.getConnection (createProfile (firstServer.getLocalPort()));
+        ClientConnection second = objectUnderTest.getConnection (createProfile (secondServer.getLocalPort()));
+
+        ClientConnection member = awaitMember (first);
+
+        assertNotSame (first, member);
+        assertEquals (first.getRegisteredProfile(), member.getRegisteredProfile());
+        assertTrue (objectUnderTest.isPooledWith (member, first));
+        assertFalse (objectUnderTest.isPooledWith (member, second));
+        assertFalse (objectUnderTest.isPooledWith (second, first));
+
+        objectUnderTest.releaseConnection (first);
+        objectUnderTest.releaseConnection (second);
+    }
+
+    @Test
+    public void testReleaseClosesPool() throws Exception
+    {
+        ClientConnection primary = objectUnderTest.getConnection (createProfile (firstServer.getLocalPort()));
+
+        ClientConnection member = awaitMember (primary);
+        assertFalse (member.isClosed());
+
+        objectUnderTest.releaseConnection (primary);
+
+        assertTrue (member.isClosed());
+        assertFalse (objectUnderTest.isPooledWith (member, primary));
+    }
+
+    @Test
+    public void testUnreachableEndpointUsesRegisteredConnection() throws Exception
+    {
+        int port = secondServer.getLocalPort();
+        secondServer.close();
+        ClientConnection primary = objectUnderTest.getConnection (createProfile (port));
+
+        // members that can't be connected are not added
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals (primary, objectUnderTest.selectConnection (primary));
+            Thread.sleep (50);
+        }
+
+        objectUnderTest.releaseConnection (primary);
+    }
+
+    /**
+     * @return a pool member other than the registered connection, once
+     * the background thread has opened one
+     */
+    private ClientConnection awaitMember (ClientConnection primary) throws Exception
+    {
+        long end = System.currentTimeMillis() + 10000;
+        ClientConnection member = objectUnderTest.selectConnection (primary);
+        while (member == primary)
+        {
+            assertTrue ("no pool member opened", System.currentTimeMillis() < end);
+            Thread.sleep (10);
+            member = objectUnderTest.selectConnection (primary);
+        }
+        return member;
+    }
+
+    private IIOPProfile createProfile (int port) throws Exception
+    {
+        IIOPAddress address = new IIOPAddress ("127.0.0.1", port);
+        address.configure (((ORB) orb).getConfiguration());
+
+        IIOPProfile profile = new IIOPProfile (address, null, ((ORB) orb).getGIOPMinorVersion());
+        profile.configure (((ORB) orb).getConfiguration());
+        return profile;
+    }
+}
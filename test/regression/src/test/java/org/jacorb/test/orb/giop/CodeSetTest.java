@@ -19,9 +19,12 @@ package org.jacorb.test.orb.giop;
  *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  *
  */
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import org.jacorb.orb.giop.CodeSet;
 import org.jacorb.test.common.ORBTestCase;
 import org.junit.Test;
@@ -182,4 +185,138 @@ public class CodeSetTest extends ORBTestCase
         assertNotNull( "ucs-2 not supported for wchar", CodeSet.getCodeSetIfMatched( UCS2, info.ForWcharData ) );
     }
 
+
+    private static final String[] STRINGS =
+    {
+        "", "plain ascii", "caf\u00e9 \u00a4", "\u20ac \u0160\u0161 \u017d\u017e \u0152\u0153 \u0178",
+        "\u30DF\u30C4\u30FA\u30B7 \u05D0\u05D1", "smile \ud83d\ude00"
+    };
+
+
+    /**
+     * Verifies that strings are encoded in bulk exactly as they are one char at a time.
+     */
+    @Test
+    public void testBulkStringEncoding() throws Exception
+    {
+        String[] codeSets = { "ISO8859_1", "ISO8859_15", "UTF8" };
+        for (int i = 0; i < codeSets.length; i++)
+        {
+            CodeSet codeSet = CodeSet.getCodeSet( codeSets[i] );
+            for (int j = 0; j < STRINGS.length; j++)
+            {
+                byte[] expected = writeChars( codeSet, STRINGS[j], 1 );
+                byte[] buffer = new byte[3 * STRINGS[j].length() + 1];
+                int end = codeSet.write_string( buffer, 1, STRINGS[j] );
+                assertArrayEquals( codeSets[i] + " " + STRINGS[j], expected, Arrays.copyOfRange( buffer, 1, end ) );
+            }
+        }
+    }
+
+
+    /**
+     * Verifies that strings are decoded in bulk as the JDK decodes them.
+     */
+    @Test
+    public void testBulkStringDecoding() throws Exception
+    {
+        String[] codeSets = { "ISO8859_1", "ISO8859_15", "UTF8" };
+        for (int i = 0; i < codeSets.length; i++)
+        {
+            CodeSet codeSet = CodeSet.getCodeSet( codeSets[i] );
+            for (int j = 0; j < STRINGS.length; j++)
+            {
+                byte[] buffer = ( " " + STRINGS[j] + " " ).getBytes( codeSet.getName() );
+                assertEquals( codeSets[i] + " " + STRINGS[j],
+                              new String( buffer, 1, buffer.length - 2, codeSet.getName() ),
+                              codeSet.read_string( buffer, 1, buffer.length - 2 ) );
+            }
+        }
+
+        byte[][] utf8 =
+        {
+            { 'a', (byte) 0xC0, (byte) 0x80 },                          // overlong
+            { 'b', (byte) 0xED, (byte) 0xA0, (byte) 0x80 },             // surrogate
+            { 'c', (byte) 0xE2, (byte) 0x82 },                          // truncated
+            { 'd', (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80 } // 4 bytes
+        };
+        CodeSet codeSet = CodeSet.getCodeSet( "UTF8" );
+        for (int i = 0; i < utf8.length; i++)
+        {
+            assertEquals( new String( utf8[i], "UTF8" ), codeSet.read_string( utf8[i], 0, utf8[i].length ) );
+        }
+    }
+
+
+    /**
+     * Verifies that wide strings are encoded in bulk exactly as they are one char at a time,
+     * and decoded back.
+     */
+    @Test
+    public void testBulkWStringEncoding() throws Exception
+    {
+        String[] codeSets = { "UTF16", "UCS2", "UTF8" };
+        for (int minor = 1; minor <= 2; minor++)
+        {
+            for (int i = 0; i < codeSets.length; i++)
+            {
+                CodeSet codeSet = CodeSet.getCodeSet( codeSets[i] );
+                if (minor < 2 && !codeSet.supportsCharacterData( /* wide */ true ))
+                {
+                    continue;
+                }
+                for (int j = 0; j < STRINGS.length; j++)
+                {
+                    String message = codeSets[i] + " 1." + minor + " " + STRINGS[j];
+                    byte[] expected = writeChars( codeSet, STRINGS[j], minor );
+                    byte[] buffer = new byte[3 * STRINGS[j].length() + 2];
+                    int end = codeSet.write_wstring( buffer, 0, STRINGS[j], minor );
+                    assertArrayEquals( message, expected, Arrays.copyOf( buffer, end ) );
+
+                    if (minor < 2 && codeSet.getId() == UTF8_ID)
+                    {
+                        continue;
+                    }
+                    // GIOP 1.1 wstrings are NUL terminated and sized in chars
+                    int lengthIndicator = minor < 2 ? STRINGS[j].length() + 1 : end;
+                    assertEquals( message, STRINGS[j], codeSet.read_wstring( buffer, 0, lengthIndicator, minor, false ) );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Verifies that a GIOP 1.2 wide string with a little endian byte-order-marker is decoded.
+     */
+    @Test
+    public void testBulkWStringLittleEndianBOM() throws Exception
+    {
+        byte[] buffer = { (byte) 0xFF, (byte) 0xFE, (byte) 0xDF, 0x30, (byte) 0xC4, 0x30 };
+        assertEquals( "\u30DF\u30C4", CodeSet.getCodeSet( "UTF16" ).read_wstring( buffer, 0, buffer.length, 2, false ) );
+    }
+
+
+    private static byte[] writeChars( CodeSet codeSet, String value, int giop_minor )
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CodeSet.OutputBuffer buffer = new CodeSet.OutputBuffer()
+        {
+            public void write_byte( byte b )
+            {
+                out.write( b );
+            }
+
+            public void write_short( short value )
+            {
+                out.write( value >> 8 );
+                out.write( value );
+            }
+        };
+        for (int i = 0; i < value.length(); i++)
+        {
+            codeSet.write_char( buffer, value.charAt( i ), false, false, giop_minor );
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,206 @@
+package org.jacorb.test.orb.policies;
+/*
+ *        JacORB - a free Java ORB
+ *
+ *   Copyright (C) 2000-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jacorb.orb.giop.StatisticsProvider;
+import org.jacorb.test.SyncScopeServer;
+import org.jacorb.test.SyncScopeServerHelper;
+import org.jacorb.test.common.ClientServerSetup;
+import org.jacorb.test.common.ClientServerTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.omg.CORBA.Policy;
+import org.omg.CORBA.SetOverrideType;
+import org.omg.Messaging.SYNC_SCOPE_POLICY_TYPE;
+import org.omg.Messaging.SYNC_WITH_TRANSPORT;
+
+/**
+ * Oneway requests held back by a client connection with write
+ * coalescing enabled must be written together, and still be
+ * delivered once the coalescing delay has passed. The number of
+ * writes is counted through a StatisticsProvider on the client.
+ */
+public class WriteCoalescingTest extends ClientServerTestCase
+{
+    /**
+     * Counts the completed writes on all client connections.
+     */
+    public static class WriteCounter implements StatisticsProvider
+    {
+        static final AtomicInteger flushes = new AtomicInteger();
+
+        public void messageChunkSent (int size)
+        {
+        }
+
+        public void flushed()
+        {
+            flushes.incrementAndGet();
+        }
+
+        public void messageReceived (int size)
+        {
+        }
+    }
+
+    private SyncScopeServer server;
+
+    /**
+     * A separate ORB used to observe the server, so that checking
+     * does not flush the client connection.
+     */
+    private org.omg.CORBA.ORB observerOrb;
+    private SyncScopeServer observer;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        Properties client_props = new Properties();
+        client_props.setProperty ("jacorb.connection.client.coalesce_delay", "500000");
+        client_props.setProperty ("jacorb.connection.client.coalesce_limit", "1024");
+        client_props.setProperty ("jacorb.default_sync_scope", "NONE");
+        client_props.setProperty ("jacorb.connection.statistics_providers", WriteCounter.class.getName());
+
+        Properties server_props = new Properties();
+        server_props.setProperty ("jacorb.poa.queue_wait", "on");
+
+        setup = new ClientServerSetup (SyncScopeServerImpl.class.getName(), client_props, server_props);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = SyncScopeServerHelper.narrow (setup.getClientOrb().string_to_object(setup.getServerIOR()));
+
+        observerOrb = org.omg.CORBA.ORB.init (new String[0], null);
+        observer = SyncScopeServerHelper.narrow (observerOrb.string_to_object(setup.getServerIOR()));
+
+        // open the client connection and let earlier writes settle
+        server.operation (0);
+        Thread.sleep (100);
+        WriteCounter.flushes.set (0);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        server._release();
+        server = null;
+
+        observer._release();
+        observerOrb.shutdown (true);
+    }
+
+    @Test
+    public void testOnewaysAreFlushedAfterDelay() throws Exception
+    {
+        int beforeCount = observer.get_oneway_count();
+
+        for (int i = 0; i < 5; i++)
+        {
+            server.oneway_op (0);
+        }
+
+        verifyOnewaysWereReceived (beforeCount + 5);
+
+        // one write per oneway without coalescing
+        int flushes = WriteCounter.flushes.get();
+        assertTrue ("expected fewer than 5 writes, got " + flushes, flushes > 0 && flushes < 5);
+    }
+
+    @Test
+    public void testLimitTriggersWrite() throws Exception
+    {
+        int beforeCount = observer.get_oneway_count();
+
+        // well beyond the 1K limit
+        for (int i = 0; i < 50; i++)
+        {
+            server.oneway_op (0);
+        }
+
+        verifyOnewaysWereReceived (beforeCount + 50);
+
+        int flushes = WriteCounter.flushes.get();
+        assertTrue ("expected fewer than 50 writes, got " + flushes, flushes > 0 && flushes < 50);
+    }
+
+    @Test
+    public void testTwowayIsNotDeferred() throws Exception
+    {
+        int beforeCount = observer.get_oneway_count();
+
+        server.oneway_op (0);
+
+        // SYNC_NONE hands the request to another thread, give it time
+        // to reach the connection but stay well within the delay
+        Thread.sleep (100);
+        assertEquals (0, WriteCounter.flushes.get());
+
+        server.operation (0);
+
+        // the pending oneway went out in the same write as the request
+        assertEquals (1, WriteCounter.flushes.get());
+        verifyOnewaysWereReceived (beforeCount + 1);
+    }
+
+    @Test
+    public void testSyncWithTransportIsNotDeferred() throws Exception
+    {
+        int beforeCount = observer.get_oneway_count();
+
+        SyncScopeServer transportServer = setSyncScope (server, SYNC_WITH_TRANSPORT.value);
+        transportServer.oneway_op (0);
+
+        assertEquals (1, WriteCounter.flushes.get());
+        verifyOnewaysWereReceived (beforeCount + 1);
+    }
+
+    private SyncScopeServer setSyncScope (SyncScopeServer server, short syncScope)
+        throws Exception
+    {
+        org.omg.CORBA.Any a = setup.getClientOrb().create_any();
+        a.insert_short (syncScope);
+
+        Policy policy = setup.getClientOrb().create_policy (SYNC_SCOPE_POLICY_TYPE.value, a);
+        org.omg.CORBA.Object r = server._set_policy_override (new Policy[]{ policy },
+                                                              SetOverrideType.ADD_OVERRIDE);
+        return SyncScopeServerHelper.narrow (r);
+    }
+
+    private void verifyOnewaysWereReceived (int expected) throws Exception
+    {
+        final long waitUntil = System.currentTimeMillis() + 10000;
+
+        while (observer.get_oneway_count() != expected && System.currentTimeMillis() < waitUntil)
+        {
+            Thread.sleep (50);
+        }
+
+        assertEquals (expected, observer.get_oneway_count());
+    }
+}
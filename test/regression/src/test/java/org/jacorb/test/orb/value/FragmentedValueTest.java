@@ -0,0 +1,93 @@
+package org.jacorb.test.orb.value;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import java.util.Properties;
+import org.jacorb.test.common.ClientServerSetup;
+import org.jacorb.test.orb.FragmentedArrayTest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * ValueTest with requests that are sent in GIOP 1.2 fragments while
+ * they are marshalled, plus shared values whose indirections point
+ * back into fragments that have been sent already.
+ */
+public class FragmentedValueTest extends ValueTest
+{
+    private ValueServer server;
+
+    @BeforeClass
+    public static void beforeClassSetUp() throws Exception
+    {
+        Properties client_props = new Properties();
+        client_props.setProperty ("jacorb.giop.fragment_size", "256");
+        client_props.setProperty ("jacorb.connection.statistics_providers",
+                                  FragmentedArrayTest.MessageCounter.class.getName());
+
+        setup = new ClientServerSetup ("org.jacorb.test.orb.value.ValueServerImpl", client_props, null);
+    }
+
+    @Before
+    public void resetMessageCounter()
+    {
+        server = ValueServerHelper.narrow (setup.getServerObject());
+        FragmentedArrayTest.MessageCounter.messages.set (0);
+    }
+
+    @Test
+    public void test_pass_large_shared_value_sequence()
+    {
+        Record[] seq = new Record[400];
+        for (int i = 0; i < seq.length / 2; i++)
+        {
+            seq[i] = new RecordImpl (i, "node: " + i);
+            seq[seq.length - i - 1] = seq[i];
+        }
+
+        String result = server.receive_record_sequence (seq);
+        assertEquals ("list of length 400, null values: , palindrome", result);
+        FragmentedArrayTest.assertFragments (10);
+    }
+
+    @Test
+    public void test_pass_large_shared_list()
+    {
+        Node first = new NodeImpl (0);
+        Node last = first;
+        StringBuffer expected = new StringBuffer ("list of length: 300 -- 0");
+
+        for (int i = 1; i < 300; i++)
+        {
+            last.next = new NodeImpl (i);
+            last = last.next;
+            expected.append (" " + i);
+        }
+        last.next = first;
+        expected.append (" -- shared");
+
+        String result = server.receive_list (first);
+        assertEquals (expected.toString(), result);
+        FragmentedArrayTest.assertFragments (10);
+    }
+}
@@ -0,0 +1,189 @@
+package org.jacorb.test.poa;
+
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.jacorb.test.common.ORBTestCase;
+import org.jacorb.util.Time;
+import org.junit.After;
+import org.junit.Before;
+import org.omg.CORBA.Any;
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.Policy;
+import org.omg.CORBA.ServerRequest;
+import org.omg.CORBA.SetOverrideType;
+import org.omg.Messaging.REQUEST_END_TIME_POLICY_TYPE;
+import org.omg.CORBA.portable.ObjectImpl;
+import org.omg.PortableServer.DynamicImplementation;
+import org.omg.TimeBase.UtcTHelper;
+
+/**
+ * Base class for tests of the request schedulers. Requests are sent
+ * while the POA is holding, and the order in which they reach the
+ * servant is recorded once the POA is activated.
+ */
+public abstract class AbstractSchedulerTestCase extends ORBTestCase
+{
+    private ORB clientOrb;
+    private org.omg.CORBA.Object target;
+
+    // the operations in the order they have been invoked
+    protected final List<String> invoked = new ArrayList<String>();
+
+    private class RecordingServant extends DynamicImplementation
+    {
+        public void invoke (ServerRequest request)
+        {
+            request.arguments (orb.create_list (0));
+
+            synchronized (invoked)
+            {
+                invoked.add (request.operation());
+            }
+        }
+
+        public String[] _all_interfaces (org.omg.PortableServer.POA poa, byte[] oid)
+        {
+            return new String[] { "IDL:Recorder:1.0" };
+        }
+    }
+
+    protected void patchORBProperties (Properties props) throws Exception
+    {
+        props.setProperty ("jacorb.poa.queue_scheduler", getScheduler());
+
+        // a single processor, so requests reach the servant in order
+        props.setProperty ("jacorb.poa.thread_pool_min", "1");
+        props.setProperty ("jacorb.poa.thread_pool_max", "1");
+    }
+
+    protected abstract String getScheduler();
+
+    protected void patchClientProperties (Properties props)
+    {
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        byte[] oid = rootPOA.activate_object (new RecordingServant());
+        String ior = orb.object_to_string (rootPOA.id_to_reference (oid));
+
+        Properties props = new Properties();
+        props.setProperty ("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB");
+        props.setProperty ("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton");
+        patchClientProperties (props);
+        clientOrb = ORB.init (new String[0], props);
+        target = clientOrb.string_to_object (ior);
+
+        // establish the connection, then hold back further requests
+        assertNull (send ("connect", 0).await());
+        rootPOA.the_POAManager().hold_requests (false);
+        invoked.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        clientOrb.shutdown (true);
+    }
+
+    /**
+     * sends a request with the given RequestEndTime from a thread of
+     * its own and waits until it has been queued
+     *
+     * @param deadline the deadline in msecs from now, 0 for none
+     */
+    protected Caller send (String operation, long deadline) throws Exception
+    {
+        org.omg.CORBA.Object object = target;
+
+        if (deadline > 0)
+        {
+            Any any = clientOrb.create_any();
+            UtcTHelper.insert (any, Time.corbaTime (System.currentTimeMillis() + deadline));
+            Policy policy = clientOrb.create_policy (REQUEST_END_TIME_POLICY_TYPE.value, any);
+            object = object._set_policy_override (new Policy[] { policy }, SetOverrideType.ADD_OVERRIDE);
+        }
+
+        Caller caller = new Caller ((ObjectImpl) object, operation);
+        caller.start();
+        Thread.sleep (200);
+        return caller;
+    }
+
+    protected static class Caller extends Thread
+    {
+        private final ObjectImpl object;
+        private final String operation;
+        private Exception exception;
+
+        Caller (ObjectImpl object, String operation)
+        {
+            super ("Caller-" + operation);
+            this.object = object;
+            this.operation = operation;
+        }
+
+        public void run()
+        {
+            try
+            {
+                object._releaseReply (object._invoke (object._request (operation, true)));
+            }
+            catch (Exception e)
+            {
+                exception = e;
+            }
+        }
+
+        /**
+         * waits for the reply
+         *
+         * @return the exception the request has completed with, or null
+         */
+        public Exception await() throws InterruptedException
+        {
+            join (10000);
+            return exception;
+        }
+    }
+
+    /**
+     * activates the POA once all requests have been queued
+     */
+    protected void release() throws Exception
+    {
+        rootPOA.the_POAManager().activate();
+    }
+
+    protected static void await (Caller[] callers) throws Exception
+    {
+        for (int i = 0; i < callers.length; i++)
+        {
+            assertNull (callers[i].getName(), callers[i].await());
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.jacorb.test.poa;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.jacorb.poa.BatchServantActivator;
+import org.jacorb.test.BasicServer;
+import org.jacorb.test.BasicServerHelper;
+import org.jacorb.test.common.ORBTestCase;
+import org.jacorb.test.orb.BasicServerImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.omg.CORBA.LocalObject;
+import org.omg.CORBA.OBJ_ADAPTER;
+import org.omg.CORBA.Policy;
+import org.omg.CORBA.SystemException;
+import org.omg.PortableServer.ForwardRequest;
+import org.omg.PortableServer.IdAssignmentPolicyValue;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.RequestProcessingPolicyValue;
+import org.omg.PortableServer.Servant;
+import org.omg.PortableServer.ServantRetentionPolicyValue;
+
+/**
+ * Checks that requests which arrive while an object is incarnated by
+ * a BatchServantActivator are incarnated together.
+ */
+public class BatchIncarnationTest extends ORBTestCase
+{
+    private POA poa;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        rootPOA.the_POAManager().activate();
+
+        Policy policies[] = new Policy[3];
+        policies[0] = rootPOA.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID);
+        policies[1] = rootPOA.create_servant_retention_policy(ServantRetentionPolicyValue.RETAIN);
+        policies[2] = rootPOA.create_request_processing_policy(RequestProcessingPolicyValue.USE_SERVANT_MANAGER);
+
+        poa = rootPOA.create_POA("batch_incarnation", rootPOA.the_POAManager(), policies);
+    }
+
+    @Test
+    public void testWaitingRequestsAreBatched() throws Exception
+    {
+        Activator activator = new Activator();
+        poa.set_servant_manager(activator);
+
+        // the first request is incarnated alone and blocks the others
+        List<Thread> threads = ping(new String[] { "first" }, null);
+        assertTrue(activator.incarnating.await(10, TimeUnit.SECONDS));
+
+        String[] ids = new String[] { "a", "b", "c", "d", "e", "a", "b" };
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        threads.addAll(ping(ids, failures));
+
+        // give the requests time to arrive
+        Thread.sleep(1000);
+        activator.release.countDown();
+        join(threads);
+
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(1, activator.singles.size());
+        assertEquals(1, activator.batches.size());
+        assertEquals(5, activator.batches.get(0).size());
+
+        // all objects are active now
+        for (int i = 0; i < ids.length; i++)
+        {
+            reference(ids[i]).ping();
+        }
+        assertEquals(1, activator.batches.size());
+    }
+
+    @Test
+    public void testFailedIncarnationInBatch() throws Exception
+    {
+        Activator activator = new Activator();
+        poa.set_servant_manager(activator);
+
+        List<Thread> threads = ping(new String[] { "first" }, null);
+        assertTrue(activator.incarnating.await(10, TimeUnit.SECONDS));
+
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        threads.addAll(ping(new String[] { "x", "null", "y" }, failures));
+
+        Thread.sleep(1000);
+        activator.release.countDown();
+        join(threads);
+
+        assertEquals(1, failures.size());
+        // the same exception as for a null returned by incarnate
+        assertTrue(failures.get(0).toString(), failures.get(0) instanceof SystemException);
+        assertEquals(1, activator.batches.size());
+
+        reference("x").ping();
+        reference("y").ping();
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception
+    {
+        Activator activator = new Activator()
+        {
+            public Servant[] incarnateBatch(byte[][] oids, POA adapter)
+            {
+                super.incarnateBatch(oids, adapter);
+                throw new OBJ_ADAPTER("database down");
+            }
+        };
+        poa.set_servant_manager(activator);
+
+        List<Thread> threads = ping(new String[] { "first" }, null);
+        assertTrue(activator.incarnating.await(10, TimeUnit.SECONDS));
+
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        threads.addAll(ping(new String[] { "x", "y" }, failures));
+
+        Thread.sleep(1000);
+        activator.release.countDown();
+        join(threads);
+
+        assertEquals(2, failures.size());
+        assertEquals(1, activator.batches.size());
+
+        // the ids can be incarnated again
+        reference("x").ping();
+    }
+
+    @Test
+    public void testNestedIncarnationIsNotBatched() throws Exception
+    {
+        Activator activator = new Activator()
+        {
+            public Servant[] incarnateBatch(byte[][] oids, POA adapter)
+            {
+                try
+                {
+                    // colocated, so this is incarnated by this thread
+                    reference("nested").ping();
+                }
+                catch (Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+                return super.incarnateBatch(oids, adapter);
+            }
+        };
+        poa.set_servant_manager(activator);
+
+        List<Thread> threads = ping(new String[] { "first" }, null);
+        assertTrue(activator.incarnating.await(10, TimeUnit.SECONDS));
+
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        threads.addAll(ping(new String[] { "x", "y" }, failures));
+
+        Thread.sleep(1000);
+        activator.release.countDown();
+        join(threads);
+
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(1, activator.batches.size());
+        assertEquals(2, activator.singles.size());
+        assertEquals("nested", activator.singles.get(1));
+    }
+
+    private BasicServer reference(String id) throws Exception
+    {
+        return BasicServerHelper.narrow
+            (poa.create_reference_with_id(id.getBytes(), BasicServerHelper.id()));
+    }
+
+    private List<Thread> ping(String[] ids, final List<Exception> failures) throws Exception
+    {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < ids.length; i++)
+        {
+            final BasicServer server = reference(ids[i]);
+
+            Thread thread = new Thread("Ping-" + ids[i] + "-" + i)
+            {
+                public void run()
+                {
+                    try
+                    {
+                        server.ping();
+                    }
+                    catch (Exception e)
+                    {
+                        if (failures == null)
+                        {
+                            throw new RuntimeException(e);
+                        }
+                        failures.add(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private void join(List<Thread> threads) throws InterruptedException
+    {
+        for (Thread thread : threads)
+        {
+            thread.join(20000);
+            assertTrue(thread.getName() + " did not finish", !thread.isAlive());
+        }
+    }
+
+    /**
+     * blocks the first incarnation until release is counted down and
+     * does not incarnate the id "null"
+     */
+    private static class Activator extends LocalObject implements BatchServantActivator
+    {
+        final CountDownLatch incarnating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> singles = Collections.synchronizedList(new ArrayList<String>());
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        public Servant incarnate(byte[] oid, POA adapter) throws ForwardRequest
+        {
+            singles.add(new String(oid));
+            incarnating.countDown();
+            try
+            {
+                if (!release.await(20, TimeUnit.SECONDS))
+                {
+                    fail("not released");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return new BasicServerImpl();
+        }
+
+        public Servant[] incarnateBatch(byte[][] oids, POA adapter)
+        {
+            List<String> batch = new ArrayList<String>();
+            Servant[] servants = new Servant[oids.length];
+            for (int i = 0; i < oids.length; i++)
+            {
+                String id = new String(oids[i]);
+                batch.add(id);
+                servants[i] = "null".equals(id) ? null : new BasicServerImpl();
+            }
+            batches.add(batch);
+            return servants;
+        }
+
+        public void etherealize(byte[] oid, POA adapter, Servant serv,
+                boolean cleanup_in_progress,
+                boolean remaining_activations)
+        {
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.jacorb.test.poa;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.jacorb.test.BasicServer;
+import org.jacorb.test.BasicServerHelper;
+import org.jacorb.test.common.ORBTestCase;
+import org.jacorb.test.orb.BasicServerImpl;
+import org.junit.Test;
+import org.omg.CORBA.Policy;
+import org.omg.PortableServer.IdAssignmentPolicyValue;
+import org.omg.PortableServer.IdUniquenessPolicyValue;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.Servant;
+import org.omg.PortableServer.POAPackage.ObjectAlreadyActive;
+import org.omg.PortableServer.POAPackage.ObjectNotActive;
+import org.omg.PortableServer.POAPackage.ServantAlreadyActive;
+
+/**
+ * Activates and deactivates objects in POAs that use the compact
+ * active object map storage.
+ */
+public class CompactAOMTest extends ORBTestCase
+{
+    private static final int COUNT = 5000;
+
+    protected void patchORBProperties(Properties props) throws Exception
+    {
+        props.setProperty("jacorb.poa.aom_storage", "compact");
+    }
+
+    @Test
+    public void testSystemIdUniqueId() throws Exception
+    {
+        POA poa = rootPOA.create_POA("compact_system", rootPOA.the_POAManager(), new Policy[0]);
+
+        Servant[] servants = new Servant[COUNT];
+        byte[][] ids = new byte[COUNT][];
+        for (int i = 0; i < COUNT; i++)
+        {
+            servants[i] = new BasicServerImpl();
+            ids[i] = poa.activate_object(servants[i]);
+        }
+
+        for (int i = 0; i < COUNT; i++)
+        {
+            assertSame(servants[i], poa.id_to_servant(ids[i]));
+            assertArrayEquals(ids[i], poa.servant_to_id(servants[i]));
+        }
+
+        try
+        {
+            poa.activate_object(servants[0]);
+            fail("servant activated twice");
+        }
+        catch (ServantAlreadyActive e)
+        {
+            // expected
+        }
+
+        deactivateEverySecond(poa, ids);
+
+        // a deactivated servant can be activated again
+        byte[] id = poa.activate_object(servants[0]);
+        assertArrayEquals(id, poa.servant_to_id(servants[0]));
+    }
+
+    @Test
+    public void testUserIdMultipleId() throws Exception
+    {
+        Policy[] policies = new Policy[2];
+        policies[0] = rootPOA.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID);
+        policies[1] = rootPOA.create_id_uniqueness_policy(IdUniquenessPolicyValue.MULTIPLE_ID);
+        POA poa = rootPOA.create_POA("compact_user", rootPOA.the_POAManager(), policies);
+        poa.the_POAManager().activate();
+
+        BasicServerImpl servant = new BasicServerImpl();
+        byte[][] ids = new byte[COUNT][];
+        for (int i = 0; i < COUNT; i++)
+        {
+            // short ids are packed, long ones are not
+            ids[i] = ((i % 3 == 0 ? "a long session object id " : "object ") + i).getBytes();
+            poa.activate_object_with_id(ids[i], servant);
+        }
+
+        try
+        {
+            poa.activate_object_with_id(ids[1], servant);
+            fail("id activated twice");
+        }
+        catch (ObjectAlreadyActive e)
+        {
+            // expected
+        }
+
+        for (int i = 0; i < COUNT; i++)
+        {
+            assertSame(servant, poa.id_to_servant(ids[i]));
+        }
+
+        BasicServer server = BasicServerHelper.narrow(poa.id_to_reference(ids[COUNT - 1]));
+        assertEquals(42, server.bounce_long(42));
+
+        deactivateEverySecond(poa, ids);
+    }
+
+    @Test
+    public void testLookupRacesDeactivation() throws Exception
+    {
+        Policy[] policies = new Policy[1];
+        policies[0] = rootPOA.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID);
+        final POA poa = rootPOA.create_POA("compact_race", rootPOA.the_POAManager(), policies);
+
+        final byte[][] ids = new byte[8][];
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = ("race " + i).getBytes();
+        }
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final long end = System.currentTimeMillis() + 3000;
+        Thread[] readers = new Thread[3];
+
+        for (int r = 0; r < readers.length; r++)
+        {
+            readers[r] = new Thread("Reader-" + r)
+            {
+                public void run()
+                {
+                    while (System.currentTimeMillis() < end && failures.isEmpty())
+                    {
+                        for (int i = 0; i < ids.length; i++)
+                        {
+                            try
+                            {
+                                poa.id_to_servant(ids[i]);
+                            }
+                            catch (ObjectNotActive e)
+                            {
+                                // deactivated meanwhile
+                            }
+                            catch (Throwable e)
+                            {
+                                failures.add(e);
+                                return;
+                            }
+                        }
+                    }
+                }
+            };
+            readers[r].start();
+        }
+
+        // the lookups must see either the servant or no object while
+        // the slots are activated and deactivated again
+        while (System.currentTimeMillis() < end && failures.isEmpty())
+        {
+            for (int i = 0; i < ids.length; i++)
+            {
+                poa.activate_object_with_id(ids[i], new BasicServerImpl());
+            }
+            for (int i = 0; i < ids.length; i++)
+            {
+                poa.deactivate_object(ids[i]);
+            }
+            awaitDeactivation(poa, ids, 0, 1);
+        }
+
+        for (int r = 0; r < readers.length; r++)
+        {
+            readers[r].join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    private void deactivateEverySecond(POA poa, byte[][] ids) throws Exception
+    {
+        for (int i = 0; i < ids.length; i += 2)
+        {
+            poa.deactivate_object(ids[i]);
+        }
+
+        awaitDeactivation(poa, ids, 0, 2);
+
+        for (int i = 1; i < ids.length; i += 2)
+        {
+            poa.id_to_servant(ids[i]);
+        }
+    }
+
+    /**
+     * waits until the objects with every step-th id are no longer
+     * active, as deactivation completes asynchronously
+     */
+    private void awaitDeactivation(POA poa, byte[][] ids, int first, int step) throws Exception
+    {
+        for (int i = first; i < ids.length; i += step)
+        {
+            for (int retry = 0; ; retry++)
+            {
+                try
+                {
+                    poa.id_to_servant(ids[i]);
+                }
+                catch (ObjectNotActive e)
+                {
+                    break;
+                }
+                if (retry == 1000)
+                {
+                    fail("object was not deactivated");
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.jacorb.test.poa;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jacorb.test.BasicServer;
+import org.jacorb.test.BasicServerHelper;
+import org.jacorb.test.common.ORBTestCase;
+import org.jacorb.test.orb.BasicServerImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.omg.CORBA.LocalObject;
+import org.omg.CORBA.Policy;
+import org.omg.PortableServer.ForwardRequest;
+import org.omg.PortableServer.IdAssignmentPolicyValue;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.RequestProcessingPolicyValue;
+import org.omg.PortableServer.Servant;
+import org.omg.PortableServer.ServantActivator;
+import org.omg.PortableServer.ServantRetentionPolicyValue;
+
+/**
+ * Checks that the active object map only serializes servant
+ * activator calls for the same object id.
+ */
+public class ConcurrentIncarnationTest extends ORBTestCase
+{
+    private POA poa;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        rootPOA.the_POAManager().activate();
+
+        Policy policies[] = new Policy[3];
+        policies[0] = rootPOA.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID);
+        policies[1] = rootPOA.create_servant_retention_policy(ServantRetentionPolicyValue.RETAIN);
+        policies[2] = rootPOA.create_request_processing_policy(RequestProcessingPolicyValue.USE_SERVANT_MANAGER);
+
+        poa = rootPOA.create_POA("concurrent_incarnation", rootPOA.the_POAManager(), policies);
+    }
+
+    /**
+     * the incarnation of "a" blocks until "b" is being incarnated,
+     * which requires the two calls to overlap.
+     */
+    @Test
+    public void testDifferentIdsIncarnateConcurrently() throws Exception
+    {
+        final CountDownLatch incarnatingB = new CountDownLatch(1);
+        final boolean[] overlapped = new boolean[1];
+
+        poa.set_servant_manager(new Activator()
+        {
+            protected void incarnating(String id) throws InterruptedException
+            {
+                if ("a".equals(id))
+                {
+                    overlapped[0] = incarnatingB.await(10, TimeUnit.SECONDS);
+                }
+                else
+                {
+                    incarnatingB.countDown();
+                }
+            }
+        });
+
+        List<Thread> threads = ping(new String[] { "a", "b" });
+        join(threads);
+
+        assertTrue("incarnate for different ids was serialized", overlapped[0]);
+    }
+
+    @Test
+    public void testSameIdIncarnatedOnce() throws Exception
+    {
+        final AtomicInteger inIncarnate = new AtomicInteger();
+        final AtomicInteger maxInIncarnate = new AtomicInteger();
+        Activator activator = new Activator()
+        {
+            protected void incarnating(String id) throws InterruptedException
+            {
+                int current = inIncarnate.incrementAndGet();
+                if (current > maxInIncarnate.get())
+                {
+                    maxInIncarnate.set(current);
+                }
+                Thread.sleep(100);
+                inIncarnate.decrementAndGet();
+            }
+        };
+        poa.set_servant_manager(activator);
+
+        List<Thread> threads = ping(new String[] { "c", "c", "c", "c" });
+        join(threads);
+
+        assertEquals(1, activator.incarnations.get());
+        assertEquals(1, maxInIncarnate.get());
+    }
+
+    private List<Thread> ping(String[] ids) throws Exception
+    {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < ids.length; i++)
+        {
+            final BasicServer server = BasicServerHelper.narrow
+                (poa.create_reference_with_id(ids[i].getBytes(), BasicServerHelper.id()));
+
+            Thread thread = new Thread("Ping-" + ids[i] + "-" + i)
+            {
+                public void run()
+                {
+                    server.ping();
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private void join(List<Thread> threads) throws InterruptedException
+    {
+        for (Thread thread : threads)
+        {
+            thread.join(20000);
+            assertTrue(thread.getName() + " did not finish", !thread.isAlive());
+        }
+    }
+
+    private static class Activator extends LocalObject implements ServantActivator
+    {
+        final AtomicInteger incarnations = new AtomicInteger();
+
+        public Servant incarnate(byte[] oid, POA adapter) throws ForwardRequest
+        {
+            incarnations.incrementAndGet();
+            try
+            {
+                incarnating(new String(oid));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return new BasicServerImpl();
+        }
+
+        protected void incarnating(String id) throws InterruptedException
+        {
+        }
+
+        public void etherealize(byte[] oid, POA adapter, Servant serv,
+                boolean cleanup_in_progress,
+                boolean remaining_activations)
+        {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.jacorb.test.poa;
+
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import org.junit.Test;
+import org.omg.CORBA.TIMEOUT;
+
+/**
+ * Verifies that queued requests are dispatched earliest deadline first
+ * with jacorb.poa.queue_scheduler=deadline, and that requests whose
+ * deadline has passed in the queue do not reach the servant.
+ */
+public class DeadlineSchedulerTest extends AbstractSchedulerTestCase
+{
+    protected String getScheduler()
+    {
+        return "deadline";
+    }
+
+    @Test
+    public void testEarliestDeadlineFirst() throws Exception
+    {
+        Caller[] callers = new Caller[]
+        {
+            send ("none", 0),
+            send ("late", 40000),
+            send ("early", 20000),
+            send ("middle", 30000),
+        };
+
+        release();
+        await (callers);
+
+        assertEquals (Arrays.asList (new String[] { "early", "middle", "late", "none" }), invoked);
+    }
+
+    @Test
+    public void testExpiredRequestIsDropped() throws Exception
+    {
+        Caller expired = send ("expired", 300);
+        Caller valid = send ("valid", 0);
+
+        Thread.sleep (500);
+        release();
+
+        assertNull (valid.await());
+        assertTrue (expired.await() instanceof TIMEOUT);
+
+        assertEquals (Arrays.asList (new String[] { "valid" }), invoked);
+    }
+}
@@ -0,0 +1,189 @@
+package org.jacorb.test.poa;
+
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.util.Properties;
+import org.jacorb.poa.RequestProcessor;
+import org.jacorb.test.common.ORBTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.omg.CORBA.Any;
+import org.omg.CORBA.NVList;
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.Request;
+import org.omg.CORBA.ServerRequest;
+import org.omg.CORBA.TCKind;
+import org.omg.PortableServer.Current;
+import org.omg.PortableServer.CurrentHelper;
+import org.omg.PortableServer.DynamicImplementation;
+
+/**
+ * Verifies that requests are run by the receiving thread with
+ * jacorb.poa.dispatch=direct, and that requests are still held back
+ * while the POA is in the holding state.
+ */
+public class DirectDispatchTest extends ORBTestCase
+{
+    private ORB clientOrb;
+    private org.omg.CORBA.Object target;
+
+    // the thread that ran the last request
+    protected volatile Thread lastThread;
+
+    /**
+     * Answers with the kind of thread the request has been run by and
+     * the object id from the POA Current.
+     */
+    private class WhereServant extends DynamicImplementation
+    {
+        public void invoke (ServerRequest request)
+        {
+            NVList args = orb.create_list (0);
+            request.arguments (args);
+
+            String id;
+            try
+            {
+                Current current = CurrentHelper.narrow (orb.resolve_initial_references ("POACurrent"));
+                id = new String (current.get_object_id());
+            }
+            catch (Exception e)
+            {
+                id = e.toString();
+            }
+
+            Thread thread = Thread.currentThread();
+            lastThread = thread;
+
+            String kind;
+            if (thread instanceof RequestProcessor)
+            {
+                kind = "processor ";
+            }
+            else if (thread.getName().startsWith ("RequestProcessor-"))
+            {
+                kind = "thread ";
+            }
+            else
+            {
+                kind = "receiver ";
+            }
+
+            Any result = orb.create_any();
+            result.insert_string (kind + id);
+            request.set_result (result);
+        }
+
+        public String[] _all_interfaces (org.omg.PortableServer.POA poa, byte[] oid)
+        {
+            return new String[] { "IDL:Where:1.0" };
+        }
+    }
+
+    protected void patchORBProperties (Properties props) throws Exception
+    {
+        props.setProperty ("jacorb.poa.dispatch", getDispatchMode());
+    }
+
+    protected String getDispatchMode()
+    {
+        return "direct";
+    }
+
+    protected String getExpectedThread()
+    {
+        return "receiver";
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        byte[] oid = rootPOA.activate_object (new WhereServant());
+        String ior = orb.object_to_string (rootPOA.id_to_reference (oid));
+
+        Properties props = new Properties();
+        props.setProperty ("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB");
+        props.setProperty ("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton");
+        clientOrb = ORB.init (new String[0], props);
+        target = clientOrb.string_to_object (ior);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        clientOrb.shutdown (true);
+    }
+
+    protected String where()
+    {
+        Request request = target._request ("where");
+        request.set_return_type (clientOrb.get_primitive_tc (TCKind.tk_string));
+        request.invoke();
+        return request.return_value().extract_string();
+    }
+
+    protected String expected() throws Exception
+    {
+        byte[] oid = rootPOA.reference_to_id (orb.string_to_object (clientOrb.object_to_string (target)));
+        return getExpectedThread() + " " + new String (oid);
+    }
+
+    @Test
+    public void testDispatch() throws Exception
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals (expected(), where());
+        }
+    }
+
+    @Test
+    public void testHoldingStateIsKept() throws Exception
+    {
+        // establish the connection
+        where();
+
+        rootPOA.the_POAManager().hold_requests (false);
+
+        final String[] result = new String[1];
+        Thread caller = new Thread ("Caller")
+        {
+            public void run()
+            {
+                result[0] = where();
+            }
+        };
+        caller.start();
+
+        caller.join (1000);
+        assertFalse ("request should be held", result[0] != null);
+
+        rootPOA.the_POAManager().activate();
+        caller.join (10000);
+
+        // requests held back are run by the POA's own threads
+        assertEquals (expected().replaceFirst ("^\\w+", "processor"), result[0]);
+    }
+}
@@ -0,0 +1,184 @@
+package org.jacorb.test.poa;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.util.Properties;
+import org.jacorb.test.BasicServer;
+import org.jacorb.test.BasicServerHelper;
+import org.jacorb.test.common.ORBTestCase;
+import org.jacorb.test.orb.BasicServerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.omg.CORBA.LocalObject;
+import org.omg.CORBA.OBJECT_NOT_EXIST;
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.Policy;
+import org.omg.PortableServer.AdapterActivator;
+import org.omg.PortableServer.IdAssignmentPolicyValue;
+import org.omg.PortableServer.POA;
+
+/**
+ * Calls objects in nested POAs from a second ORB, so that the requests
+ * are routed from their object keys to the POAs.
+ */
+public class POARoutingTest extends ORBTestCase
+{
+    private ORB clientORB;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Properties props = new Properties();
+        props.putAll(orbProps);
+        clientORB = ORB.init(new String[0], props);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        clientORB.shutdown(true);
+    }
+
+    @Test
+    public void testNestedPOAs() throws Exception
+    {
+        // names and ids with the bytes that are masked in object keys
+        POA outer = rootPOA.create_POA("outer", rootPOA.the_POAManager(), userIdPolicy());
+        POA inner = outer.create_POA("in/n&er", rootPOA.the_POAManager(), userIdPolicy());
+        POA sibling = outer.create_POA("in", rootPOA.the_POAManager(), userIdPolicy());
+
+        BasicServer root = call(rootPOA.servant_to_reference(new Server(1)));
+        BasicServer a = call(outer.create_reference_with_id("a".getBytes(), BasicServerHelper.id()));
+        BasicServer b = call(inner.create_reference_with_id("b/&%".getBytes(), BasicServerHelper.id()));
+        BasicServer c = call(sibling.create_reference_with_id("b/&%".getBytes(), BasicServerHelper.id()));
+
+        outer.activate_object_with_id("a".getBytes(), new Server(2));
+        inner.activate_object_with_id("b/&%".getBytes(), new Server(3));
+        sibling.activate_object_with_id("b/&%".getBytes(), new Server(4));
+
+        assertEquals(1, root.bounce_long(0));
+        assertEquals(2, a.bounce_long(0));
+        assertEquals(3, b.bounce_long(0));
+        assertEquals(4, c.bounce_long(0));
+
+        assertArrayEquals("b/&%".getBytes(), inner.reference_to_id(b));
+    }
+
+    @Test
+    public void testRecreatedPOA() throws Exception
+    {
+        POA poa = rootPOA.create_POA("recreated", rootPOA.the_POAManager(), userIdPolicy());
+        BasicServer server = call(poa.create_reference_with_id("id".getBytes(), BasicServerHelper.id()));
+        poa.activate_object_with_id("id".getBytes(), new Server(1));
+
+        assertEquals(1, server.bounce_long(0));
+
+        poa.destroy(false, true);
+
+        try
+        {
+            server.bounce_long(0);
+            fail("POA has been destroyed");
+        }
+        catch (OBJECT_NOT_EXIST e)
+        {
+            // expected
+        }
+
+        poa = rootPOA.create_POA("recreated", rootPOA.the_POAManager(), userIdPolicy());
+        poa.activate_object_with_id("id".getBytes(), new Server(2));
+
+        assertEquals(2, server.bounce_long(0));
+    }
+
+    @Test
+    public void testActivatedPOA() throws Exception
+    {
+        POA parent = rootPOA.create_POA("parent", rootPOA.the_POAManager(), userIdPolicy());
+        final int[] activations = new int[1];
+
+        parent.the_activator(new Activator()
+        {
+            public boolean unknown_adapter(POA parent, String name)
+            {
+                try
+                {
+                    POA child = parent.create_POA(name, rootPOA.the_POAManager(), userIdPolicy());
+                    child.activate_object_with_id("id".getBytes(), new Server(5));
+                    activations[0]++;
+                    return true;
+                }
+                catch (Exception e)
+                {
+                    return false;
+                }
+            }
+        });
+
+        // a reference to the not yet existing POA
+        POA child = parent.create_POA("child", rootPOA.the_POAManager(), userIdPolicy());
+        BasicServer server = call(child.create_reference_with_id("id".getBytes(), BasicServerHelper.id()));
+        child.destroy(false, true);
+
+        assertEquals(5, server.bounce_long(0));
+        assertEquals(5, server.bounce_long(0));
+        assertEquals(1, activations[0]);
+    }
+
+    private Policy[] userIdPolicy()
+    {
+        return new Policy[]
+        {
+            rootPOA.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID)
+        };
+    }
+
+    /**
+     * @return a reference to obj in the client ORB
+     */
+    private BasicServer call(org.omg.CORBA.Object obj)
+    {
+        return BasicServerHelper.narrow(clientORB.string_to_object(orb.object_to_string(obj)));
+    }
+
+    private static class Server extends BasicServerImpl
+    {
+        private final int number;
+
+        Server(int number)
+        {
+            this.number = number;
+        }
+
+        public int bounce_long(int x)
+        {
+            return number;
+        }
+    }
+
+    private abstract static class Activator extends LocalObject implements AdapterActivator
+    {
+    }
+}
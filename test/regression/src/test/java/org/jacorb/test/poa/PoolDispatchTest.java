@@ -0,0 +1,99 @@
+package org.jacorb.test.poa;
+
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jacorb.orb.dsi.ServerRequest;
+import org.jacorb.poa.POA;
+import org.jacorb.poa.RPPoolManagerListener;
+import org.jacorb.poa.RequestProcessor;
+import org.jacorb.poa.RequestQueueListener;
+import org.junit.Test;
+
+/**
+ * DirectDispatchTest with requests passed to the processor pool by
+ * the receiving thread, jacorb.poa.dispatch=pool. Unlike with queue
+ * dispatch, requests do not pass the request queue and the processors
+ * are not taken from the pool by the RequestController thread.
+ */
+public class PoolDispatchTest extends DirectDispatchTest
+{
+    protected String getDispatchMode()
+    {
+        return "pool";
+    }
+
+    protected String getExpectedThread()
+    {
+        return "processor";
+    }
+
+    @Test
+    public void testReceiverTakesProcessor() throws Exception
+    {
+        // establish the connection
+        where();
+
+        final AtomicInteger queued = new AtomicInteger();
+        final List<String> takers = new CopyOnWriteArrayList<String>();
+
+        class Listener implements RequestQueueListener, RPPoolManagerListener
+        {
+            public void requestAddedToQueue (ServerRequest request, int queue_size)
+            {
+                queued.incrementAndGet();
+            }
+
+            public void requestRemovedFromQueue (ServerRequest request, int queue_size)
+            {
+            }
+
+            public void processorAddedToPool (RequestProcessor processor, int pool_count, int pool_size)
+            {
+            }
+
+            public void processorRemovedFromPool (RequestProcessor processor, int pool_count, int pool_size)
+            {
+                takers.add (Thread.currentThread().getName());
+            }
+        }
+
+        ((POA) rootPOA)._addPOAEventListener (new Listener());
+
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals (expected(), where());
+        }
+
+        assertEquals (0, queued.get());
+        assertEquals (5, takers.size());
+
+        for (String taker : takers)
+        {
+            assertFalse (taker, taker.startsWith ("RequestController-"));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.jacorb.test.poa;
+
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
+import java.util.Properties;
+import org.jacorb.orb.CDROutputStream;
+import org.junit.Test;
+import org.omg.CORBA.LocalObject;
+import org.omg.IOP.RTCorbaPriority;
+import org.omg.IOP.ServiceContext;
+import org.omg.PortableInterceptor.ClientRequestInfo;
+import org.omg.PortableInterceptor.ClientRequestInterceptor;
+import org.omg.PortableInterceptor.ORBInitInfo;
+import org.omg.PortableInterceptor.ORBInitializer;
+
+/**
+ * Verifies that queued requests are dispatched by their RT-CORBA
+ * priority with jacorb.poa.queue_scheduler=priority.
+ */
+public class PrioritySchedulerTest extends AbstractSchedulerTestCase
+{
+    /**
+     * Sends the priority given by the operation name, e.g. p100.
+     */
+    public static class PriorityInterceptor
+        extends LocalObject
+        implements ClientRequestInterceptor
+    {
+        public String name()
+        {
+            return "PriorityInterceptor";
+        }
+
+        public void destroy()
+        {
+        }
+
+        public void send_request (ClientRequestInfo ri)
+        {
+            String operation = ri.operation();
+
+            if (operation.startsWith ("p"))
+            {
+                CDROutputStream out = new CDROutputStream();
+                try
+                {
+                    out.beginEncapsulatedArray();
+                    out.write_short (Short.parseShort (operation.substring (1)));
+                    ri.add_request_service_context (new ServiceContext (RTCorbaPriority.value, out.getBufferCopy()), true);
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+        }
+
+        public void send_poll (ClientRequestInfo ri)
+        {
+        }
+
+        public void receive_reply (ClientRequestInfo ri)
+        {
+        }
+
+        public void receive_exception (ClientRequestInfo ri)
+        {
+        }
+
+        public void receive_other (ClientRequestInfo ri)
+        {
+        }
+    }
+
+    public static class Initializer
+        extends LocalObject
+        implements ORBInitializer
+    {
+        public void pre_init (ORBInitInfo info)
+        {
+            try
+            {
+                info.add_client_request_interceptor (new PriorityInterceptor());
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException (e);
+            }
+        }
+
+        public void post_init (ORBInitInfo info)
+        {
+        }
+    }
+
+    protected String getScheduler()
+    {
+        return "priority";
+    }
+
+    protected void patchClientProperties (Properties props)
+    {
+        props.setProperty ("org.omg.PortableInterceptor.ORBInitializerClass." + Initializer.class.getName(), "");
+    }
+
+    @Test
+    public void testPriorityBands() throws Exception
+    {
+        Caller[] callers = new Caller[]
+        {
+            send ("p0", 0),
+            send ("none", 0),
+            send ("p10000", 0),
+            send ("p30000", 0),
+            send ("p20000", 0),
+            send ("p100", 0),
+        };
+
+        release();
+        await (callers);
+
+        // p0, none and p100 share the lowest band, so they are in order
+        assertEquals (Arrays.asList (new String[] { "p30000", "p20000", "p10000", "p0", "none", "p100" }), invoked);
+    }
+}
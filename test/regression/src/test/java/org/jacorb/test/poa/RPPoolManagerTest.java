@@ -0,0 +1,184 @@
+package org.jacorb.test.poa;
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.jacorb.poa.RPPoolManager;
+import org.jacorb.test.BasicServer;
+import org.jacorb.test.BasicServerHelper;
+import org.jacorb.test.common.ORBTestCase;
+import org.jacorb.test.orb.BasicServerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.omg.CORBA.ORB;
+
+/**
+ * Checks the sizing and the statistics of the request processor pool.
+ */
+public class RPPoolManagerTest extends ORBTestCase
+{
+    private static final int MAX = 4;
+
+    private final Semaphore inCall = new Semaphore(0);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private BasicServer server;
+    private RPPoolManager poolManager;
+    private ORB clientORB;
+
+    protected void patchORBProperties(Properties props) throws Exception
+    {
+        props.setProperty("jacorb.poa.thread_pool_min", "1");
+        props.setProperty("jacorb.poa.thread_pool_max", String.valueOf(MAX));
+        props.setProperty("jacorb.poa.thread_pool_keepalive", "500");
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        rootPOA.the_POAManager().activate();
+
+        BasicServerImpl servant = new BasicServerImpl()
+        {
+            public void ping()
+            {
+                inCall.release();
+                try
+                {
+                    release.await(20, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        // a second ORB, so that the calls are not colocated
+        Properties props = new Properties();
+        props.putAll(orbProps);
+        clientORB = ORB.init(new String[0], props);
+        server = BasicServerHelper.narrow(clientORB.string_to_object
+            (orb.object_to_string(rootPOA.servant_to_reference(servant))));
+
+        poolManager = ((org.jacorb.poa.POA) rootPOA)._getRPPoolManager();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        clientORB.shutdown(true);
+    }
+
+    @Test
+    public void testPoolGrowsAndShrinks() throws Exception
+    {
+        List<Thread> threads = ping(MAX);
+        assertTrue(inCall.tryAcquire(MAX, 10, TimeUnit.SECONDS));
+
+        assertEquals(MAX, poolManager.getActiveCount());
+        assertEquals(1, poolManager.getActiveCountHistogram()[MAX]);
+
+        release.countDown();
+        join(threads);
+
+        // the idle processors end after the keep alive time
+        for (int retry = 0; retry < 100 && poolManager.getActiveCount() + idleProcessors() > 1; retry++)
+        {
+            Thread.sleep(100);
+        }
+        assertEquals(0, poolManager.getActiveCount());
+        assertEquals(1, idleProcessors());
+
+        server.bounce_long(1);
+    }
+
+    @Test
+    public void testWaitingIsCounted() throws Exception
+    {
+        List<Thread> threads = ping(MAX + 2);
+        assertTrue(inCall.tryAcquire(MAX, 10, TimeUnit.SECONDS));
+
+        // the controller waits for a processor for the next call,
+        // the other one stays queued meanwhile
+        Thread.sleep(500);
+        assertEquals(MAX, poolManager.getActiveCount());
+
+        release.countDown();
+        join(threads);
+
+        assertTrue(poolManager.getWaitCount() >= 1);
+        assertTrue(poolManager.getWaitTime() >= 400);
+        assertEquals(0, poolManager.getRejectedCount());
+    }
+
+    /**
+     * returns the number of processors that are still running
+     */
+    private int idleProcessors()
+    {
+        int count = 0;
+        Thread[] threads = new Thread[Thread.activeCount() * 2];
+        int length = Thread.enumerate(threads);
+        for (int i = 0; i < length; i++)
+        {
+            if (threads[i].getName().startsWith("RequestProcessor-"))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<Thread> ping(int count)
+    {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++)
+        {
+            Thread thread = new Thread("Ping-" + i)
+            {
+                public void run()
+                {
+                    server.ping();
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private void join(List<Thread> threads) throws InterruptedException
+    {
+        for (Thread thread : threads)
+        {
+            thread.join(20000);
+            assertTrue(thread.getName() + " did not finish", !thread.isAlive());
+        }
+    }
+}
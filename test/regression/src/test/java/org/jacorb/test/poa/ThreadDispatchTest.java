@@ -0,0 +1,81 @@
+package org.jacorb.test.poa;
+
+
+/*
+ *        JacORB  - a free Java ORB
+ *
+ *   Copyright (C) 1997-2012 Gerald Brose / The JacORB Team.
+ *
+ *   This library is free software; you can redistribute it and/or
+ *   modify it under the terms of the GNU Library General Public
+ *   License as published by the Free Software Foundation; either
+ *   version 2 of the License, or (at your option) any later version.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *   Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this library; if not, write to the Free
+ *   Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import java.util.Properties;
+import org.jacorb.util.VirtualThreads;
+import org.junit.Test;
+
+/**
+ * DirectDispatchTest with every request run by a thread of its own,
+ * jacorb.poa.dispatch=thread. The threads are virtual, as are the
+ * receptor threads. On JDKs without virtual threads requests go to
+ * the request processor pool instead.
+ */
+public class ThreadDispatchTest extends DirectDispatchTest
+{
+    protected void patchORBProperties (Properties props) throws Exception
+    {
+        super.patchORBProperties (props);
+        props.setProperty ("jacorb.connection.server.virtual_receptor_threads", "on");
+    }
+
+    protected String getDispatchMode()
+    {
+        return "thread";
+    }
+
+    protected String getExpectedThread()
+    {
+        return VirtualThreads.isSupported() ? "thread" : "processor";
+    }
+
+    @Test
+    public void testThreadPerRequest() throws Exception
+    {
+        assertEquals (expected(), where());
+        Thread first = lastThread;
+
+        assertEquals (expected(), where());
+
+        if (VirtualThreads.isSupported())
+        {
+            assertNotSame (first, lastThread);
+            assertTrue (isVirtual (lastThread).booleanValue());
+        }
+    }
+
+    private static Boolean isVirtual (Thread thread) throws Exception
+    {
+        try
+        {
+            return (Boolean) Thread.class.getMethod ("isVirtual").invoke (thread);
+        }
+        catch (NoSuchMethodException e)
+        {
+            return Boolean.FALSE;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.jacorb.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jacorb.util.TimingWheel;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class TimingWheelTest
+{
+    private final TimingWheel objectUnderTest =
+        new TimingWheel ("TimingWheelTest", 5, 8, LoggerFactory.getLogger (TimingWheelTest.class));
+
+    @After
+    public void tearDown()
+    {
+        objectUnderTest.halt();
+    }
+
+    @Test
+    public void testExpiry() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch (1);
+        long start = System.nanoTime();
+
+        TimingWheel.Timeout timeout = objectUnderTest.schedule (new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, start + TimeUnit.MILLISECONDS.toNanos (50));
+
+        assertEquals (1, objectUnderTest.size());
+        assertTrue (latch.await (5, TimeUnit.SECONDS));
+        assertTrue (System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos (50));
+        assertTrue (timeout.isExpired());
+        assertFalse (timeout.cancel());
+        assertEquals (0, objectUnderTest.size());
+    }
+
+    @Test
+    public void testCancel() throws Exception
+    {
+        final AtomicInteger fired = new AtomicInteger();
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                fired.incrementAndGet();
+            }
+        };
+
+        TimingWheel.Timeout timeout =
+            objectUnderTest.schedule (task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos (20));
+
+        assertTrue (timeout.cancel());
+        assertFalse (timeout.cancel());
+        assertEquals (0, objectUnderTest.size());
+
+        Thread.sleep (100);
+
+        assertEquals (0, fired.get());
+        assertFalse (timeout.isExpired());
+    }
+
+    @Test
+    public void testDeadlinesBeyondOneRevolution() throws Exception
+    {
+        // with 8 buckets of 5ms the wheel wraps every 40ms
+        final CountDownLatch latch = new CountDownLatch (3);
+        final AtomicInteger order = new AtomicInteger();
+        final int[] sequence = new int[3];
+        long now = System.nanoTime();
+
+        for (int i = 2; i >= 0; i--)
+        {
+            final int index = i;
+            objectUnderTest.schedule (new Runnable()
+            {
+                public void run()
+                {
+                    sequence[order.getAndIncrement()] = index;
+                    latch.countDown();
+                }
+            }, now + TimeUnit.MILLISECONDS.toNanos (10 + index * 45));
+        }
+
+        assertTrue (latch.await (5, TimeUnit.SECONDS));
+        assertEquals (0, sequence[0]);
+        assertEquals (1, sequence[1]);
+        assertEquals (2, sequence[2]);
+    }
+
+    @Test
+    public void testPastDeadline() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch (1);
+
+        objectUnderTest.schedule (new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, System.nanoTime() - TimeUnit.SECONDS.toNanos (1));
+
+        assertTrue (latch.await (5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHaltFiresPendingTimeouts() throws Exception
+    {
+        final AtomicInteger fired = new AtomicInteger();
+        final AtomicInteger halted = new AtomicInteger();
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                fired.incrementAndGet();
+            }
+        };
+        TimingWheel.HaltedTask haltedTask = new TimingWheel.HaltedTask()
+        {
+            public void run()
+            {
+                fired.incrementAndGet();
+            }
+
+            public void halted()
+            {
+                halted.incrementAndGet();
+            }
+        };
+
+        TimingWheel.Timeout timeout =
+            objectUnderTest.schedule (task, System.nanoTime() + TimeUnit.SECONDS.toNanos (10));
+        objectUnderTest.schedule (haltedTask, System.nanoTime() + TimeUnit.SECONDS.toNanos (10));
+        objectUnderTest.halt();
+
+        assertEquals (0, objectUnderTest.size());
+        assertEquals (1, fired.get());
+        assertEquals (1, halted.get());
+        assertTrue (timeout.isExpired());
+        assertFalse (timeout.cancel());
+
+        // scheduling on a halted wheel completes the task straight away
+        objectUnderTest.schedule (haltedTask, System.nanoTime() + TimeUnit.SECONDS.toNanos (10));
+
+        assertEquals (2, halted.get());
+        assertEquals (1, fired.get());
+    }
+
+    @Test
+    public void testExecuteRunsOffTheWheel() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch (1);
+        final CountDownLatch blocked = new CountDownLatch (1);
+        final CountDownLatch expired = new CountDownLatch (1);
+        final Thread[] wheelThread = new Thread[1];
+        final Thread[] workThread = new Thread[1];
+
+        objectUnderTest.schedule (new Runnable()
+        {
+            public void run()
+            {
+                wheelThread[0] = Thread.currentThread();
+                objectUnderTest.execute (new Runnable()
+                {
+                    public void run()
+                    {
+                        workThread[0] = Thread.currentThread();
+                        started.countDown();
+                        try
+                        {
+                            blocked.await (5, TimeUnit.SECONDS);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+        }, System.nanoTime());
+
+        objectUnderTest.schedule (new Runnable()
+        {
+            public void run()
+            {
+                expired.countDown();
+            }
+        }, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos (20));
+
+        // a blocked callback must not hold up later expiries
+        assertTrue (expired.await (2, TimeUnit.SECONDS));
+        assertTrue (started.await (2, TimeUnit.SECONDS));
+        blocked.countDown();
+
+        assertNotSame (wheelThread[0], workThread[0]);
+    }
+}
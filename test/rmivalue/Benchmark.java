@@ -0,0 +1,149 @@
+package test.rmivalue;
+
+import java.io.Serializable;
+import java.util.Properties;
+import org.jacorb.orb.CDRInputStream;
+import org.jacorb.orb.CDROutputStream;
+import org.omg.CORBA.ORB;
+
+/**
+ * Measures how fast a Serializable value is marshalled into and
+ * demarshalled from a CDR stream as an RMI valuetype, with and without
+ * the RMI value fast path.
+ *
+ * Usage: Benchmark [seconds per round]
+ */
+public class Benchmark
+{
+    public static class Trade implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private long id;
+        private String symbol;
+        private double price;
+        private int quantity;
+        private boolean buy;
+        private Party party;
+
+        public Trade()
+        {
+        }
+
+        public Trade(long id, String symbol, double price, int quantity, boolean buy, Party party)
+        {
+            this.id = id;
+            this.symbol = symbol;
+            this.price = price;
+            this.quantity = quantity;
+            this.buy = buy;
+            this.party = party;
+        }
+    }
+
+    public static class Party implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int code;
+        private String name;
+
+        public Party(int code, String name)
+        {
+            this.code = code;
+            this.name = name;
+        }
+    }
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception
+    {
+        final long millis = 1000L * (args.length > 0 ? Integer.parseInt(args[0]) : 2);
+
+        final Trade trade = new Trade(4711L, "EURUSD", 1.0825, 1000000, true,
+                                      new Party(17, "Some Bank"));
+
+        ORB fastPath = init("on");
+        ORB valueHandler = init("off");
+        try
+        {
+            System.out.println("round   write ns/value (fast path, ValueHandler)"
+                               + "   read ns/value (fast path, ValueHandler)");
+
+            // the first round warms up and is not reported
+            for (int round = 0; round <= ROUNDS; round++)
+            {
+                long[] fast = run(fastPath, trade, millis);
+                long[] slow = run(valueHandler, trade, millis);
+                if (round > 0)
+                {
+                    System.out.println(pad(String.valueOf(round), 8)
+                                       + pad(fast[0] / fast[2] + ", " + slow[0] / slow[2], 45)
+                                       + fast[1] / fast[2] + ", " + slow[1] / slow[2]);
+                }
+            }
+        }
+        finally
+        {
+            fastPath.shutdown(true);
+            valueHandler.shutdown(true);
+        }
+    }
+
+    private static ORB init(String fastPath)
+    {
+        Properties props = new Properties();
+        props.setProperty("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB");
+        props.setProperty("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton");
+        props.setProperty("jacorb.rmi_value_fast_path", fastPath);
+        return ORB.init(new String[] { "-ORBID", "rmi_value_fast_path_" + fastPath }, props);
+    }
+
+    /**
+     * @return the nanoseconds spent writing and reading, and the number of runs
+     */
+    private static long[] run(ORB orb, Serializable value, long millis)
+    {
+        final long end = System.currentTimeMillis() + millis;
+        long write = 0;
+        long read = 0;
+        long runs = 0;
+
+        do
+        {
+            CDROutputStream out = new CDROutputStream(orb);
+
+            long start = System.nanoTime();
+            out.write_value(value);
+            write += System.nanoTime() - start;
+
+            CDRInputStream in = new CDRInputStream(orb, out.getBufferCopy());
+
+            start = System.nanoTime();
+            Serializable result = in.read_value();
+            read += System.nanoTime() - start;
+
+            if (result.getClass() != value.getClass())
+            {
+                throw new IllegalStateException("read " + result.getClass());
+            }
+            in.close();
+            out.close();
+            runs++;
+        }
+        while (System.currentTimeMillis() < end);
+
+        return new long[] { write, read, runs };
+    }
+
+    private static String pad(String value, int width)
+    {
+        StringBuffer sb = new StringBuffer(value);
+        while (sb.length() < width)
+        {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package test.servantscaling;
+
+import java.util.Properties;
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.Policy;
+import org.omg.PortableServer.*;
+
+/**
+ * Reports the heap used per activated object for both active object
+ * map storages (jacorb.poa.aom_storage=map and compact). Servants are
+ * created before the first measurement, so only the memory taken by
+ * the POA for the activation is counted.
+ *
+ * Usage: Footprint [object count], run with a large heap, e.g. -Xmx2g
+ */
+public class Footprint
+{
+    private static final String[] STORAGES = {"map", "compact"};
+
+    public static void main(String[] args) throws Exception
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        System.out.println("bytes per activated object, " + count + " objects");
+        System.out.println("storage    SYSTEM_ID/UNIQUE_ID  SYSTEM_ID/MULTIPLE_ID  USER_ID/MULTIPLE_ID");
+
+        for (int i = 0; i < STORAGES.length; i++)
+        {
+            System.out.print(pad(STORAGES[i], 11));
+            System.out.print(pad(String.valueOf(measure(STORAGES[i], count, false, true)), 21));
+            System.out.print(pad(String.valueOf(measure(STORAGES[i], count, false, false)), 23));
+            System.out.println(measure(STORAGES[i], count, true, false));
+        }
+    }
+
+    private static long measure(String storage, int count, boolean userId, boolean uniqueId)
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB");
+        props.setProperty("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton");
+        props.setProperty("jacorb.poa.aom_storage", storage);
+
+        ORB orb = ORB.init(new String[0], props);
+        try
+        {
+            POA rootPOA = POAHelper.narrow(orb.resolve_initial_references("RootPOA"));
+            Policy[] policies = new Policy[]
+            {
+                rootPOA.create_id_assignment_policy
+                    (userId ? IdAssignmentPolicyValue.USER_ID : IdAssignmentPolicyValue.SYSTEM_ID),
+                rootPOA.create_id_uniqueness_policy
+                    (uniqueId ? IdUniquenessPolicyValue.UNIQUE_ID : IdUniquenessPolicyValue.MULTIPLE_ID)
+            };
+            POA poa = rootPOA.create_POA("footprint", rootPOA.the_POAManager(), policies);
+
+            Servant[] servants = new Servant[uniqueId ? count : 1];
+            for (int i = 0; i < servants.length; i++)
+            {
+                servants[i] = new SessionServant();
+            }
+
+            // warm up, so that lazily created POA state is not counted
+            byte[] warmUp = "warm up".getBytes();
+            if (userId)
+            {
+                poa.activate_object_with_id(warmUp, new SessionServant());
+            }
+            else
+            {
+                warmUp = poa.activate_object(new SessionServant());
+            }
+            poa.deactivate_object(warmUp);
+
+            long before = usedMemory();
+
+            for (int i = 0; i < count; i++)
+            {
+                Servant servant = servants[uniqueId ? i : 0];
+                if (userId)
+                {
+                    poa.activate_object_with_id(("session " + i).getBytes(), servant);
+                }
+                else
+                {
+                    poa.activate_object(servant);
+                }
+            }
+
+            long after = usedMemory();
+
+            // keep the servants reachable until after the measurement
+            if (servants.length == 0)
+            {
+                System.out.println();
+            }
+
+            return (after - before) / count;
+        }
+        finally
+        {
+            orb.shutdown(true);
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        for (int i = 0; i < 5; i++)
+        {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static String pad(String s, int width)
+    {
+        StringBuffer result = new StringBuffer(s);
+        while (result.length() < width)
+        {
+            result.append(' ');
+        }
+        return result.toString();
+    }
+}